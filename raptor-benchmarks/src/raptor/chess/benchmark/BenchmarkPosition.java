@@ -0,0 +1,75 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2011 RaptorProject (http://code.google.com/p/raptor-chess-interface/)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.chess.benchmark;
+
+import raptor.chess.Game;
+import raptor.chess.GameFactory;
+import raptor.chess.Variant;
+
+/**
+ * The positions each benchmark is run against. There is one entry per variant
+ * with a rule set of its own. Each position is reached from a FEN and an
+ * optional list of SAN moves so drop counts and move lists are populated the
+ * same way they are during a real game.
+ */
+public enum BenchmarkPosition {
+	classic(Variant.classic,
+			"rnbqkbnr/p2ppp2/6pp/1pp5/1PP5/6PP/P2PPP2/RNBQKBNR w KQkq - 0 1"),
+
+	crazyhouse(Variant.crazyhouse, null, "e4", "d5", "exd5", "Qxd5", "Nc3",
+			"Qa5", "d4", "Nf6", "Nf3", "Bf5", "Bc4", "e6"),
+
+	atomic(Variant.atomic, null, "e3", "e6", "Nh3", "h6", "Nc3", "Bb4", "Nf4",
+			"d5"),
+
+	suicide(Variant.suicide, null, "e3", "b5", "Bxb5", "c6", "Bxc6", "Nxc6"),
+
+	losers(Variant.losers, null, "e4", "d5", "exd5", "Qxd5", "Nc3", "Qxg2",
+			"Bxg2"),
+
+	fischerRandom(Variant.fischerRandom,
+			"rk2bqr1/p1p1bppp/p2np1n1/8/3P4/5B2/PPP2PPP/RKN1BQR1 w KQkq - 0 8");
+
+	private final Variant variant;
+	private final String fen;
+	private final String[] sanMoves;
+
+	private BenchmarkPosition(Variant variant, String fen, String... sanMoves) {
+		this.variant = variant;
+		this.fen = fen;
+		this.sanMoves = sanMoves;
+	}
+
+	/**
+	 * Returns a new game in this position. UPDATING_SAN_STATE is set only if
+	 * updatingSan is true, so benchmarks can measure with and without SAN
+	 * generation.
+	 */
+	public Game createGame(boolean updatingSan) {
+		Game game = fen == null ? GameFactory.createStartingPosition(variant)
+				: GameFactory.createFromFen(fen, variant);
+		game.addState(Game.UPDATING_SAN_STATE);
+		for (String san : sanMoves) {
+			game.makeSanMove(san);
+		}
+		if (!updatingSan) {
+			game.clearState(Game.UPDATING_SAN_STATE);
+		}
+		return game;
+	}
+
+	public Variant getVariant() {
+		return variant;
+	}
+}
@@ -0,0 +1,148 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2011 RaptorProject (http://code.google.com/p/raptor-chess-interface/)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.chess.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import raptor.chess.Game;
+import raptor.chess.Move;
+import raptor.chess.PriorityMoveList;
+import raptor.chess.util.ZobristUtils;
+
+/**
+ * Measures the per position cost of the operations the rest of raptor calls on
+ * every move: move generation, make/rollback, SAN parsing, FEN output and
+ * Zobrist hashing. Every benchmark runs once per {@link BenchmarkPosition}.
+ * Benchmarks that loop over moves report the time per position, not per move.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(2)
+public class MoveGenerationBenchmark {
+
+	@Param( { "classic", "crazyhouse", "atomic", "suicide", "losers",
+			"fischerRandom" })
+	public BenchmarkPosition position;
+
+	private Game game;
+	private Game sanGame;
+	private Move[] legalMoves;
+	private String[] legalSans;
+
+	@Setup
+	public void setup() {
+		game = position.createGame(false);
+		sanGame = position.createGame(true);
+
+		legalMoves = game.getLegalMoves().asArray();
+
+		Move[] sanMoves = sanGame.getLegalMoves().asArray();
+		legalSans = new String[sanMoves.length];
+		for (int i = 0; i < sanMoves.length; i++) {
+			sanGame.move(sanMoves[i]);
+			// toString falls back to LAN, which is also valid SAN for drops.
+			legalSans[i] = sanGame.getLastMove().toString();
+			sanGame.rollback();
+		}
+
+		if (legalMoves.length == 0) {
+			throw new IllegalStateException("Position " + position
+					+ " has no legal moves.");
+		}
+	}
+
+	@Benchmark
+	public PriorityMoveList pseudoLegalMoves() {
+		return game.getPseudoLegalMoves();
+	}
+
+	@Benchmark
+	public PriorityMoveList legalMoves() {
+		return game.getLegalMoves();
+	}
+
+	/**
+	 * Plays and rolls back every legal move in the position through the
+	 * checked Game.move path.
+	 */
+	@Benchmark
+	public void moveRollback(Blackhole blackhole) {
+		for (Move move : legalMoves) {
+			blackhole.consume(game.move(move));
+			game.rollback();
+		}
+	}
+
+	/**
+	 * Plays and rolls back every legal move by SAN with UPDATING_SAN_STATE
+	 * set, which is what the PGN parsers and the ics parsers do.
+	 */
+	@Benchmark
+	public void makeSanMove(Blackhole blackhole) {
+		for (String san : legalSans) {
+			blackhole.consume(sanGame.makeSanMove(san));
+			sanGame.rollback();
+		}
+	}
+
+	@Benchmark
+	public String toFen() {
+		return game.toFen();
+	}
+
+	/**
+	 * Plays and rolls back every legal move without the legality test. The cost
+	 * is dominated by the incremental Zobrist updates in forceMove/rollback.
+	 */
+	@Benchmark
+	public long zobristIncremental() {
+		long result = 0L;
+		for (Move move : legalMoves) {
+			game.forceMove(move);
+			result ^= game.getZobristGameHash();
+			game.rollback();
+		}
+		return result;
+	}
+
+	/**
+	 * Recomputes the full game hash from the bitboards, the path used when a
+	 * game is created from a FEN or a board update.
+	 */
+	@Benchmark
+	public long zobristFullHash() {
+		return ZobristUtils.zobristHash(game);
+	}
+
+	@Benchmark
+	public long zobristPositionHashOnly() {
+		return ZobristUtils.zobristHashPositionOnly(game);
+	}
+}
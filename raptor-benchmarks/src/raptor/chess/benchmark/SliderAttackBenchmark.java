@@ -0,0 +1,84 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2011 RaptorProject (http://code.google.com/p/raptor-chess-interface/)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.chess.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import raptor.chess.util.GameUtils;
+import raptor.chess.util.MagicBitboards;
+
+/**
+ * Compares the Kogge-Stone fill slider attacks with the magic bitboard tables
+ * on the same squares and occupancies. Both benchmarks compute bishop and rook
+ * attacks for every sample, the score is the time per sample set.
+ * 
+ * To compare whole move walks run MoveWalkBenchmark twice, once as is and once
+ * with -jvmArgsAppend -Draptor.chess.slider.fills=true in bench.args, which
+ * switches GameUtils back to the fills.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(2)
+public class SliderAttackBenchmark {
+	private static final int SAMPLES = 1024;
+
+	private long[] occupied = new long[SAMPLES];
+	private int[] squares = new int[SAMPLES];
+
+	@Setup
+	public void setup() {
+		Random random = new Random(0);
+		for (int i = 0; i < SAMPLES; i++) {
+			// Roughly the density of a middle game position.
+			occupied[i] = random.nextLong() & random.nextLong();
+			squares[i] = random.nextInt(64);
+		}
+	}
+
+	@Benchmark
+	public long fills() {
+		long result = 0L;
+		for (int i = 0; i < SAMPLES; i++) {
+			long empty = ~occupied[i];
+			result ^= GameUtils.diagonalMoveFill(squares[i], empty)
+					^ GameUtils.orthogonalMoveFill(squares[i], empty);
+		}
+		return result;
+	}
+
+	@Benchmark
+	public long magic() {
+		long result = 0L;
+		for (int i = 0; i < SAMPLES; i++) {
+			result ^= MagicBitboards.bishopAttacks(squares[i], occupied[i])
+					^ MagicBitboards.rookAttacks(squares[i], occupied[i]);
+		}
+		return result;
+	}
+}
@@ -1,2 +1,2 @@
 #Usage setCreator svgSourceDir setName
-java -classpath raptorSetCreator.jar raptor.SetCreator %1 %2
\ No newline at end of file
+java -classpath "raptorSetCreator.jar;batik-1.7/lib/*" raptor.SetCreator %1 %2
\ No newline at end of file
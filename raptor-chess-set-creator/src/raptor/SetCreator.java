@@ -1,47 +1,154 @@
 package raptor;
 
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.PrintStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.apache.batik.dom.svg.SAXSVGDocumentFactory;
+import org.apache.batik.dom.util.DOMUtilities;
+import org.apache.batik.transcoder.TranscoderInput;
+import org.apache.batik.transcoder.TranscoderOutput;
+import org.apache.batik.transcoder.image.PNGTranscoder;
+import org.apache.batik.util.XMLResourceDescriptor;
+import org.w3c.dom.Document;
+
+/**
+ * Converts a set of svg pieces into the png files Raptor uses, one directory
+ * per size.
+ *
+ * The pngs are rasterized in process with Batik's PNGTranscoder, the same
+ * transcoder batik-rasterizer uses. Each svg is parsed once. Every (piece,
+ * size) pair is rasterized as its own task on a thread pool. A parsed
+ * document can only be transcoded by one thread at a time, so each piece
+ * keeps a pool of copies of its document and only copies it when tasks for
+ * the piece run concurrently.
+ *
+ * The SHA-1 of each svg is recorded in target/setName/svg-hashes.properties.
+ * A piece whose svg hash is unchanged and whose pngs all exist is skipped.
+ */
 public class SetCreator {
 	public static final String[] PIECE_TO_NAME = { "", "wp", "wb", "wn", "wr",
 			"wq", "wk", "bp", "bb", "bn", "br", "bq", "bk" };
 
-	public static class OutputStreamDumper implements Runnable {
-		InputStream inputStreamToDump;
-		PrintStream destinationStream;
+	public static final int MIN_SIZE = 8;
+	public static final int MAX_SIZE = 100;
+	public static final int SIZE_STEP = 2;
+
+	public static final String HASHES_FILE = "svg-hashes.properties";
+
+	/**
+	 * A parsed svg piece. Hands out documents to transcode so no document is
+	 * used by two threads at once.
+	 */
+	public static class PieceDocument {
+		protected File svgFile;
+		protected Document document;
+		protected ConcurrentLinkedQueue<Document> idleDocuments = new ConcurrentLinkedQueue<Document>();
 
-		public OutputStreamDumper(InputStream inputStreamToDump,
-				PrintStream destinationStream) {
-			this.inputStreamToDump = inputStreamToDump;
-			this.destinationStream = destinationStream;
+		public PieceDocument(File svgFile) {
+			this.svgFile = svgFile;
 		}
 
-		public void run() {
-			BufferedReader reader = null;
-			try {
-				reader = new BufferedReader(new InputStreamReader(
-						inputStreamToDump));
-				String line = null;
-				while ((line = reader.readLine()) != null) {
-					destinationStream.println(line);
+		/**
+		 * Returns a document only the calling thread is using. Release it
+		 * when done.
+		 */
+		public Document acquire() throws IOException {
+			Document result = idleDocuments.poll();
+			if (result == null) {
+				synchronized (this) {
+					if (document == null) {
+						SAXSVGDocumentFactory factory = new SAXSVGDocumentFactory(
+								XMLResourceDescriptor.getXMLParserClassName());
+						document = factory.createDocument(svgFile.toURI()
+								.toString());
+						result = document;
+					} else {
+						result = DOMUtilities.deepCloneDocument(document,
+								document.getImplementation());
+					}
 				}
-			} catch (IOException ioe) {
-				System.err.println(ioe);
+			}
+			return result;
+		}
+
+		public void release(Document document) {
+			idleDocuments.add(document);
+		}
+	}
+
+	/**
+	 * Rasterizes one piece at one size.
+	 */
+	public static class RasterizeTask implements Callable<String> {
+		protected PieceDocument piece;
+		protected File pngFile;
+		protected int size;
+
+		public RasterizeTask(PieceDocument piece, File pngFile, int size) {
+			this.piece = piece;
+			this.pngFile = pngFile;
+			this.size = size;
+		}
+
+		public String call() throws Exception {
+			Document document = piece.acquire();
+			OutputStream out = null;
+			try {
+				PNGTranscoder transcoder = new PNGTranscoder();
+				transcoder.addTranscodingHint(PNGTranscoder.KEY_WIDTH,
+						Float.valueOf(size));
+				transcoder.addTranscodingHint(PNGTranscoder.KEY_HEIGHT,
+						Float.valueOf(size));
+				pngFile.getParentFile().mkdirs();
+				out = new BufferedOutputStream(new FileOutputStream(pngFile));
+				transcoder.transcode(new TranscoderInput(document),
+						new TranscoderOutput(out));
+				out.flush();
+			} catch (Exception e) {
+				throw new Exception("Error converting " + piece.svgFile
+						+ " to " + pngFile, e);
 			} finally {
-				try {
-					reader.close();
-				} catch (Throwable t) {
+				piece.release(document);
+				if (out != null) {
+					try {
+						out.close();
+					} catch (Throwable t) {
+					}
 				}
 			}
+			return pngFile.getPath();
 		}
 	}
 
+	/**
+	 * The work submitted for one set.
+	 */
+	public static class SetJob {
+		protected String sourceDirectory;
+		protected String setName;
+		protected long startTime = System.currentTimeMillis();
+		protected Properties hashes = new Properties();
+		protected List<Future<String>> futures = new ArrayList<Future<String>>();
+		protected int skippedPieces;
+	}
+
 	/**
 	 * @param args
 	 *            directoryName authorName licenseFile
@@ -74,71 +181,166 @@ public class SetCreator {
 		File file = new File("set");
 		File[] sets = file.listFiles(new FileFilter() {
 
-			@Override
 			public boolean accept(File pathname) {
 				return pathname.isDirectory()
 						&& !pathname.getName().startsWith(".");
 			}
 		});
 
-		for (File setDir : sets) {
-			createSet(setDir.getAbsolutePath(), setDir.getName());
+		ExecutorService executor = createExecutor();
+		try {
+			List<SetJob> jobs = new ArrayList<SetJob>(sets.length);
+			for (File setDir : sets) {
+				jobs.add(submitSet(executor, setDir.getAbsolutePath(), setDir
+						.getName()));
+			}
+			for (SetJob job : jobs) {
+				finishSet(job);
+			}
+		} finally {
+			executor.shutdown();
 		}
 	}
 
 	public static void createSet(String sourceDirectory, String setName)
 			throws Exception {
-		long startTime = System.currentTimeMillis();
-		System.out.println("Creating pngs from set " + sourceDirectory + "..."
-				+ " set is named " + setName);
-		for (int i = 8; i <= 100; i += 2) {
-			ProcessBuilder builder = new ProcessBuilder(new String[] { "java",
-					"-jar", "batik-1.7/batik-rasterizer.jar", "-d",
-					"target/" + setName + "/" + i, "-w", "" + i, "-h", "" + i,
-					getSVGChessPieceName(sourceDirectory, 1),
-					getSVGChessPieceName(sourceDirectory, 2),
-					getSVGChessPieceName(sourceDirectory, 3),
-					getSVGChessPieceName(sourceDirectory, 4),
-					getSVGChessPieceName(sourceDirectory, 5),
-					getSVGChessPieceName(sourceDirectory, 6),
-					getSVGChessPieceName(sourceDirectory, 7),
-					getSVGChessPieceName(sourceDirectory, 8),
-					getSVGChessPieceName(sourceDirectory, 9),
-					getSVGChessPieceName(sourceDirectory, 10),
-					getSVGChessPieceName(sourceDirectory, 11),
-					getSVGChessPieceName(sourceDirectory, 12) });
-
-			Process process = builder.start();
-			Thread outputDumper = new Thread(new OutputStreamDumper(process
-					.getInputStream(), System.out));
-			Thread errorDumper = new Thread(new OutputStreamDumper(process
-					.getErrorStream(), System.err));
-			outputDumper.start();
-			errorDumper.start();
-			int error = process.waitFor();
-
-			if (error != 0) {
+		ExecutorService executor = createExecutor();
+		try {
+			finishSet(submitSet(executor, sourceDirectory, setName));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Returns the path to the specified svg chess piece.
+	 */
+	public static String getSVGChessPieceName(String sourceDirectory, int piece) {
+		return sourceDirectory + "/" + PIECE_TO_NAME[piece] + ".svg";
+	}
+
+	protected static ExecutorService createExecutor() {
+		return Executors.newFixedThreadPool(Runtime.getRuntime()
+				.availableProcessors());
+	}
+
+	/**
+	 * Waits for all of a sets pngs, then records the svg hashes and copies
+	 * the source files into the target directory.
+	 */
+	protected static void finishSet(SetJob job) throws Exception {
+		for (Future<String> future : job.futures) {
+			try {
+				future.get();
+			} catch (ExecutionException ee) {
+				ee.getCause().printStackTrace();
 				System.err.println("Stopped due to error.");
 				System.exit(1);
 			}
+		}
 
-			FileUtils.copyFiles(new File(sourceDirectory), new File("target/"
-					+ setName));
-
-			System.out.println("Created pngs of size " + i + "x" + i);
+		File targetDirectory = new File("target/" + job.setName);
+		FileUtils.copyFiles(new File(job.sourceDirectory), targetDirectory);
+		OutputStream out = new FileOutputStream(new File(targetDirectory,
+				HASHES_FILE));
+		try {
+			job.hashes.store(out, "SHA-1 of the svg each piece was created from");
+		} finally {
+			out.close();
 		}
+
+		System.out.println("Created " + job.futures.size() + " pngs for set "
+				+ job.setName + " (" + job.skippedPieces
+				+ " unchanged pieces skipped)");
 		System.out.println("Finished set conversion in "
-				+ (System.currentTimeMillis() - startTime) / 1000.0
+				+ (System.currentTimeMillis() - job.startTime) / 1000.0
 				+ " seconds");
 		System.out.println("The chess set directory is located at: "
-				+ "target/" + setName);
+				+ "target/" + job.setName);
 	}
 
 	/**
-	 * Returns the path to the specified svg chess piece.
+	 * Returns the hex SHA-1 of the file.
 	 */
-	public static String getSVGChessPieceName(String sourceDirectory, int piece) {
-		return sourceDirectory + "/" + PIECE_TO_NAME[piece] + ".svg";
+	protected static String hash(File file) throws IOException {
+		MessageDigest digest = null;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException nsae) {
+			throw new RuntimeException(nsae);
+		}
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[8192];
+			int bytesRead;
+			while ((bytesRead = in.read(buffer)) >= 0) {
+				digest.update(buffer, 0, bytesRead);
+			}
+		} finally {
+			in.close();
+		}
+		StringBuilder result = new StringBuilder(40);
+		for (byte current : digest.digest()) {
+			result.append(Integer.toHexString((current & 0xff) | 0x100)
+					.substring(1));
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Returns true if the png for every size of the piece exists.
+	 */
+	protected static boolean isComplete(File targetDirectory, int piece) {
+		for (int size = MIN_SIZE; size <= MAX_SIZE; size += SIZE_STEP) {
+			if (!new File(targetDirectory, size + "/" + PIECE_TO_NAME[piece]
+					+ ".png").exists()) {
+				return false;
+			}
+		}
+		return true;
 	}
 
+	/**
+	 * Submits a task for each (piece, size) pair of the set whose svg changed
+	 * since the pngs were last created.
+	 */
+	protected static SetJob submitSet(ExecutorService executor,
+			String sourceDirectory, String setName) throws IOException {
+		System.out.println("Creating pngs from set " + sourceDirectory + "..."
+				+ " set is named " + setName);
+		SetJob job = new SetJob();
+		job.sourceDirectory = sourceDirectory;
+		job.setName = setName;
+
+		File targetDirectory = new File("target/" + setName);
+		Properties previousHashes = new Properties();
+		File hashesFile = new File(targetDirectory, HASHES_FILE);
+		if (hashesFile.exists()) {
+			InputStream in = new FileInputStream(hashesFile);
+			try {
+				previousHashes.load(in);
+			} finally {
+				in.close();
+			}
+		}
+
+		for (int i = 1; i < PIECE_TO_NAME.length; i++) {
+			File svgFile = new File(getSVGChessPieceName(sourceDirectory, i));
+			String hash = hash(svgFile);
+			job.hashes.setProperty(PIECE_TO_NAME[i], hash);
+			if (hash.equals(previousHashes.getProperty(PIECE_TO_NAME[i]))
+					&& isComplete(targetDirectory, i)) {
+				job.skippedPieces++;
+				continue;
+			}
+
+			PieceDocument piece = new PieceDocument(svgFile);
+			for (int size = MIN_SIZE; size <= MAX_SIZE; size += SIZE_STEP) {
+				job.futures.add(executor.submit(new RasterizeTask(piece,
+						new File(targetDirectory, size + "/"
+								+ PIECE_TO_NAME[i] + ".png"), size)));
+			}
+		}
+		return job;
+	}
 }
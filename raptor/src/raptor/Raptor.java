@@ -32,8 +32,10 @@ import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Event;
 import org.eclipse.swt.widgets.Listener;
 
+import raptor.chat.ChatLogWriter;
 import raptor.connector.Connector;
 import raptor.connector.fics.FicsConnector;
+import raptor.connector.ics.timeseal.MessageSelector;
 import raptor.international.L10n;
 import raptor.pref.PreferenceKeys;
 import raptor.pref.RaptorPreferenceStore;
@@ -45,6 +47,7 @@ import raptor.service.ConnectorService;
 import raptor.service.DictionaryService;
 import raptor.service.EcoService;
 import raptor.service.MemoService;
+import raptor.service.OpeningExplorerService;
 import raptor.service.ScriptService;
 import raptor.service.SoundService;
 import raptor.service.ThemeService;
@@ -518,6 +521,14 @@ public class Raptor implements PreferenceKeys {
 			LOG.warn("Error shutting down ConnectorService", t);
 		}
 
+		if (MessageSelector.serviceCreated) {
+			try {
+				MessageSelector.getInstance().dispose();
+			} catch (Throwable t) {
+				LOG.warn("Error shutting down MessageSelector", t);
+			}
+		}
+
 		if (!isIgnoringPreferenceSaves) {
             preferences.save();
 		}
@@ -533,6 +544,14 @@ public class Raptor implements PreferenceKeys {
 			}
 		}
 		
+		if (OpeningExplorerService.serviceCreated) {
+			try {
+				OpeningExplorerService.getInstance().dispose();
+			} catch (Throwable t) {
+				LOG.warn("Error shutting down OpeningExplorerService", t);
+			}
+		}
+
 		if (SoundService.serviceCreated) {
 			try {
 				SoundService.getInstance().dispose();
@@ -627,6 +646,14 @@ public class Raptor implements PreferenceKeys {
 			}
 		}
 
+		if (ChatLogWriter.serviceCreated) {
+			try {
+				ChatLogWriter.getInstance().dispose();
+			} catch (Throwable t) {
+				LOG.warn("Error shutting down ChatLogWriter", t);
+			}
+		}
+
 		try {
 			if (raptorWindow != null && !raptorWindow.getShell().isDisposed()) {
 				raptorWindow.close();
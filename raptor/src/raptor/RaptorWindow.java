@@ -14,6 +14,7 @@
 package raptor;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -58,6 +59,7 @@ import org.eclipse.swt.widgets.Shell;
 import org.eclipse.swt.widgets.ToolBar;
 import org.eclipse.swt.widgets.ToolItem;
 
+import raptor.chess.pgn.GameArchive;
 import raptor.connector.Connector;
 import raptor.international.L10n;
 import raptor.layout.Layout;
@@ -68,9 +70,11 @@ import raptor.service.AliasService;
 import raptor.service.ConnectorService;
 import raptor.service.LayoutService;
 import raptor.service.MemoService;
+import raptor.service.OpeningExplorerService;
 import raptor.service.SoundService;
 import raptor.service.ThemeService;
 import raptor.service.ThemeService.Theme;
+import raptor.service.ThreadService;
 import raptor.swt.BrowserWindowItem;
 import raptor.swt.BugButtonsWindowItem;
 import raptor.swt.ChessSetInstallDialog;
@@ -1492,7 +1496,8 @@ public class RaptorWindow extends ApplicationWindow {
 					fd.setFilterPath("");
 				}
 				fd.setText(local.getString("rapWinL3"));
-				String[] filterExt = { "*.pgn", "*" };
+				String[] filterExt = { "*.pgn", "*" + GameArchive.FILE_EXTENSION,
+						"*" };
 				fd.setFilterExtensions(filterExt);
 				final String selected = fd.open();
 				if (!StringUtils.isBlank(selected)) {
@@ -1504,6 +1509,70 @@ public class RaptorWindow extends ApplicationWindow {
 				}
 			}
 		});
+		fileMenu.add(new Action(local.getString("rapWinL64")) {
+			@Override
+			public void run() {
+				String lastFile = getPreferences().getString(
+						PreferenceKeys.BOARD_LAST_OPEN_PGN);
+
+				FileDialog fd = new FileDialog(getShell(), SWT.OPEN);
+				if (StringUtils.isNotBlank(lastFile)) {
+					fd.setFilterPath(lastFile);
+				} else {
+					fd.setFilterPath("");
+				}
+				fd.setText(local.getString("rapWinL3"));
+				String[] filterExt = { "*.pgn", "*" };
+				fd.setFilterExtensions(filterExt);
+				final String selected = fd.open();
+				if (!StringUtils.isBlank(selected)) {
+					getPreferences().setValue(
+							PreferenceKeys.BOARD_LAST_OPEN_PGN, selected);
+					PgnProcessingDialog dialog = new PgnProcessingDialog(
+							getShell(), selected, true);
+					dialog.open();
+				}
+			}
+		});
+		fileMenu.add(new Action(local.getString("rapWinL65")) {
+			@Override
+			public void run() {
+				String lastFile = getPreferences().getString(
+						PreferenceKeys.BOARD_LAST_OPEN_PGN);
+
+				FileDialog fd = new FileDialog(getShell(), SWT.OPEN);
+				if (StringUtils.isNotBlank(lastFile)) {
+					fd.setFilterPath(lastFile);
+				} else {
+					fd.setFilterPath("");
+				}
+				fd.setText(local.getString("rapWinL65"));
+				String[] filterExt = { "*.pgn", "*" };
+				fd.setFilterExtensions(filterExt);
+				final String selected = fd.open();
+				if (!StringUtils.isBlank(selected)) {
+					getPreferences().setValue(
+							PreferenceKeys.BOARD_LAST_OPEN_PGN, selected);
+					ThreadService.getInstance().run(new Runnable() {
+						public void run() {
+							try {
+								int games = OpeningExplorerService
+										.getInstance().addPgnFile(
+												new File(selected));
+								Raptor.getInstance().alert(
+										local.getString("openExp2") + games
+												+ local.getString("openExp3")
+												+ selected);
+							} catch (IOException ioe) {
+								Raptor.getInstance().onError(
+										local.getString("openExp4") + selected,
+										ioe);
+							}
+						}
+					});
+				}
+			}
+		});
 		fileMenu.add(new Action(local.getString("rapWinL4")) {
 			@Override
 			public void run() {
@@ -15,12 +15,14 @@ package raptor.alias;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
 
 import raptor.Raptor;
 import raptor.chat.ChatEvent;
+import raptor.chat.ChatLogQuery;
 import raptor.chat.ChatType;
 import raptor.chat.ChatLogger.ChatEventParseListener;
 import raptor.service.ThreadService;
@@ -32,6 +34,16 @@ public class ShowRegexAlias extends RaptorAlias {
 	private static final SimpleDateFormat FORMAT = new SimpleDateFormat(
 			"'['hh:mma']'");
 
+	/**
+	 * The types of chat events searched.
+	 */
+	private static final EnumSet<ChatType> SEARCHED_TYPES = EnumSet
+			.complementOf(EnumSet.of(ChatType.INTERNAL,
+					ChatType.BUGWHO_AVAILABLE_TEAMS, ChatType.BUGWHO_GAMES,
+					ChatType.BUGWHO_UNPARTNERED_BUGGERS, ChatType.SEEKS,
+					ChatType.CHALLENGE, ChatType.OUTBOUND, ChatType.MOVES,
+					ChatType.PLAYING_STATISTICS, ChatType.UNKNOWN));
+
 	public ShowRegexAlias() {
 		super(
 				"=regex",
@@ -59,24 +71,14 @@ public class ShowRegexAlias extends RaptorAlias {
 						final StringBuilder builder = new StringBuilder(5000);
 						controller.getConnector().getChatService()
 								.getChatLogger().parseFile(
+										new ChatLogQuery()
+												.setTypes(SEARCHED_TYPES),
 										new ChatEventParseListener() {
 											public boolean onNewEventParsed(
 													ChatEvent event) {
-												if (event.getType() != ChatType.INTERNAL
-														&& event.getType() != ChatType.BUGWHO_AVAILABLE_TEAMS
-														&& event.getType() != ChatType.BUGWHO_GAMES
-														&& event.getType() != ChatType.BUGWHO_UNPARTNERED_BUGGERS
-														&& event.getType() != ChatType.SEEKS
-														&& event.getType() != ChatType.CHALLENGE
-														&& event.getType() != ChatType.OUTBOUND
-														&& event.getType() != ChatType.MOVES
-														&& event.getType() != ChatType.PLAYING_STATISTICS
-														&& event.getType() != ChatType.UNKNOWN
-														&& RegExUtils
-																.matches(
-																		regExPattern,
-																		event
-																				.getMessage())) {
+												if (RegExUtils.matches(
+														regExPattern, event
+																.getMessage())) {
                                                     builder.append(FORMAT
                                                             .format(new Date(
                                                                     event
@@ -21,6 +21,7 @@ import org.apache.commons.lang.math.NumberUtils;
 
 import raptor.Raptor;
 import raptor.chat.ChatEvent;
+import raptor.chat.ChatLogQuery;
 import raptor.chat.ChatType;
 import raptor.chat.ChatLogger.ChatEventParseListener;
 import raptor.service.ThreadService;
@@ -58,6 +59,7 @@ public class ShowTellsAlias extends RaptorAlias {
 						final StringBuilder builder = new StringBuilder(5000);
 						controller.getConnector().getChatService()
 								.getChatLogger().parseFile(
+										new ChatLogQuery().setTypes(ChatType.TELL),
 										new ChatEventParseListener() {
 											public boolean onNewEventParsed(
 													ChatEvent event) {
@@ -104,6 +106,9 @@ public class ShowTellsAlias extends RaptorAlias {
 						final StringBuilder builder = new StringBuilder(5000);
 						controller.getConnector().getChatService()
 								.getChatLogger().parseFile(
+										new ChatLogQuery().setTypes(
+												ChatType.CHANNEL_TELL).setChannel(
+												whatsLeft),
 										new ChatEventParseListener() {
 											public boolean onNewEventParsed(
 													ChatEvent event) {
@@ -153,6 +158,7 @@ public class ShowTellsAlias extends RaptorAlias {
 						final StringBuilder builder = new StringBuilder(5000);
 						controller.getConnector().getChatService()
 								.getChatLogger().parseFile(
+										new ChatLogQuery().setTypes(ChatType.TELL),
 										new ChatEventParseListener() {
 											public boolean onNewEventParsed(
 													ChatEvent event) {
@@ -13,6 +13,8 @@
  */
 package raptor.chat;
 
+import raptor.util.UserKeyRegistry;
+
 /**
  * A class defining an inbound message received from a server.
  */
@@ -21,6 +23,7 @@ public class ChatEvent {
 	protected String gameId;
 	protected String message;
 	protected String source;
+	protected String sourceKey;
 	protected long time;
 	protected ChatType type;
 	protected boolean hasSoundBeenHandled;
@@ -81,6 +84,17 @@ public class ChatEvent {
 		return source;
 	}
 
+	/**
+	 * Returns the UserKeyRegistry key of the source, or null if there is no
+	 * source. The key is computed once per event.
+	 */
+	public String getSourceKey() {
+		if (sourceKey == null && source != null) {
+			sourceKey = UserKeyRegistry.getKey(source);
+		}
+		return sourceKey;
+	}
+
 	/**
 	 * The time in EPOC the chat event was created.
 	 * 
@@ -126,6 +140,7 @@ public class ChatEvent {
 
 	public void setSource(String source) {
 		this.source = source;
+		sourceKey = null;
 	}
 
 	/**
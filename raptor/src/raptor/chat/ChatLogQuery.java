@@ -0,0 +1,154 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2011 RaptorProject (http://code.google.com/p/raptor-chess-interface/)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.chat;
+
+import java.util.EnumSet;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Describes which chat events a ChatLogger parse should return. An empty
+ * query matches every event.
+ *
+ * <pre>
+ * new ChatLogQuery().setTypes(ChatType.TELL).setSource(&quot;raptor&quot;)
+ * 		.setMaxResults(500);
+ * new ChatLogQuery().setTypes(ChatType.CHANNEL_TELL).setChannel(&quot;50&quot;)
+ * 		.setSince(time);
+ * </pre>
+ *
+ * The ChatLogStore uses the types, source, channel and time range to skip
+ * whole blocks of the log without decoding them.
+ */
+public class ChatLogQuery {
+	protected EnumSet<ChatType> types;
+	protected String source;
+	protected String channel;
+	protected long since = Long.MIN_VALUE;
+	protected long until = Long.MAX_VALUE;
+	protected int maxResults;
+
+	public ChatLogQuery() {
+	}
+
+	public String getChannel() {
+		return channel;
+	}
+
+	/**
+	 * Returns the maximum number of events to return. When greater than 0
+	 * only the most recent maxResults matching events are returned. They are
+	 * still returned oldest first.
+	 */
+	public int getMaxResults() {
+		return maxResults;
+	}
+
+	public long getSince() {
+		return since;
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * Returns the types to match, or null if all types match.
+	 */
+	public EnumSet<ChatType> getTypes() {
+		return types;
+	}
+
+	public long getUntil() {
+		return until;
+	}
+
+	/**
+	 * Returns true if the event satisfies this query. Sources are compared
+	 * ignoring case, channels exactly.
+	 */
+	public boolean matches(ChatEvent event) {
+		return event.getTime() >= since
+				&& event.getTime() <= until
+				&& (types == null || types.contains(event.getType()))
+				&& (source == null || StringUtils.equalsIgnoreCase(source,
+						event.getSource()))
+				&& (channel == null || StringUtils.equals(channel, event
+						.getChannel()));
+	}
+
+	/**
+	 * Sets the channel events must have been sent to.
+	 */
+	public ChatLogQuery setChannel(String channel) {
+		this.channel = channel;
+		return this;
+	}
+
+	public ChatLogQuery setMaxResults(int maxResults) {
+		this.maxResults = maxResults;
+		return this;
+	}
+
+	/**
+	 * Sets the earliest event time (inclusive) in milliseconds.
+	 */
+	public ChatLogQuery setSince(long since) {
+		this.since = since;
+		return this;
+	}
+
+	/**
+	 * Sets the source events must have. Compared ignoring case.
+	 */
+	public ChatLogQuery setSource(String source) {
+		this.source = source;
+		return this;
+	}
+
+	/**
+	 * Sets the types to match. Passing no types matches all types.
+	 */
+	public ChatLogQuery setTypes(ChatType... types) {
+		if (types == null || types.length == 0) {
+			this.types = null;
+		} else {
+			this.types = EnumSet.noneOf(ChatType.class);
+			for (ChatType type : types) {
+				this.types.add(type);
+			}
+		}
+		return this;
+	}
+
+	public ChatLogQuery setTypes(EnumSet<ChatType> types) {
+		this.types = types == null ? null : EnumSet.copyOf(types);
+		return this;
+	}
+
+	/**
+	 * Sets the latest event time (inclusive) in milliseconds.
+	 */
+	public ChatLogQuery setUntil(long until) {
+		this.until = until;
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		return "ChatLogQuery[types=" + types + " source=" + source
+				+ " channel=" + channel + " since=" + since + " until="
+				+ until + " maxResults=" + maxResults + "]";
+	}
+}
@@ -0,0 +1,685 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2011 RaptorProject (http://code.google.com/p/raptor-chess-interface/)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.chat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.LinkedList;
+import java.util.List;
+
+import raptor.chat.ChatLogger.ChatEventParseListener;
+import raptor.util.RaptorLogger;
+
+/**
+ * A segmented, append only store of chat events.
+ *
+ * <p>
+ * Events are appended to the newest segment file in the store directory. Each
+ * record is
+ *
+ * <pre>
+ * int payloadLength | long time | byte type ordinal | payload
+ * </pre>
+ *
+ * where the payload is the UTF-8 encoding of
+ * ChatEventUtils.serializeChatEvent. When a segment would grow past
+ * maxSegmentBytes it is sealed and a new one is started. Sealing a segment,
+ * and appending once RETENTION_INTERVAL_MILLIS have passed since the policy
+ * last ran, applies the retention policy: the oldest segments are removed
+ * while the store is larger than maxTotalBytes or their newest event is older
+ * than maxAgeMillis.
+ * </p>
+ *
+ * <p>
+ * Each segment keeps a sparse in memory index with one entry per
+ * BLOCK_RECORDS records: the blocks offset, time range, a mask of the
+ * ChatTypes it contains and small bloom filters of its sources and channels.
+ * Queries only decode blocks the index says may match, reading them through
+ * memory mapped segments, so "the last 500 tells from X" does not replay the
+ * whole log.
+ * </p>
+ *
+ * <p>
+ * This class is thread safe. Queries run against a snapshot of the store and
+ * do not hold its lock while notifying listeners.
+ * </p>
+ */
+public class ChatLogStore {
+	/**
+	 * A run of consecutive records in a segment.
+	 */
+	protected static class Block {
+		protected int offset;
+		protected int length;
+		protected int records;
+		protected long minTime = Long.MAX_VALUE;
+		protected long maxTime = Long.MIN_VALUE;
+		protected long typeMask;
+		protected long sourceBloom;
+		protected long channelBloom;
+
+		protected Block(int offset) {
+			this.offset = offset;
+		}
+
+		protected void add(int recordLength, long time, ChatType type,
+				String source, String channel) {
+			length += recordLength;
+			records++;
+			minTime = Math.min(minTime, time);
+			maxTime = Math.max(maxTime, time);
+			typeMask |= typeBit(type);
+			sourceBloom |= bloomBits(source);
+			channelBloom |= bloomBits(channel);
+		}
+
+		protected Block copy() {
+			Block result = new Block(offset);
+			result.length = length;
+			result.records = records;
+			result.minTime = minTime;
+			result.maxTime = maxTime;
+			result.typeMask = typeMask;
+			result.sourceBloom = sourceBloom;
+			result.channelBloom = channelBloom;
+			return result;
+		}
+
+		protected boolean mayMatch(ChatLogQuery query, long queryTypeMask,
+				long querySourceBits, long queryChannelBits) {
+			return maxTime >= query.getSince() && minTime <= query.getUntil()
+					&& (typeMask & queryTypeMask) != 0
+					&& (sourceBloom & querySourceBits) == querySourceBits
+					&& (channelBloom & queryChannelBits) == queryChannelBits;
+		}
+	}
+
+	/**
+	 * A segment file and its sparse index.
+	 */
+	protected static class Segment {
+		protected int id;
+		protected File file;
+		protected int size;
+		protected List<Block> blocks = new ArrayList<Block>();
+		protected long minTime = Long.MAX_VALUE;
+		protected long maxTime = Long.MIN_VALUE;
+
+		/**
+		 * Lazily mapped contents of a sealed segment.
+		 */
+		protected ByteBuffer mapped;
+
+		protected Segment(int id, File file) {
+			this.id = id;
+			this.file = file;
+		}
+
+		protected void index(int recordLength, long time, ChatType type,
+				String source, String channel) {
+			Block block = blocks.isEmpty() ? null : blocks
+					.get(blocks.size() - 1);
+			if (block == null || block.records == BLOCK_RECORDS) {
+				block = new Block(size);
+				blocks.add(block);
+			}
+			block.add(recordLength, time, type, source, channel);
+			minTime = Math.min(minTime, time);
+			maxTime = Math.max(maxTime, time);
+			size += recordLength;
+		}
+	}
+
+	/**
+	 * A read only view of a segment taken under the stores lock.
+	 */
+	protected static class SegmentView {
+		protected ByteBuffer buffer;
+		protected List<Block> blocks;
+
+		protected SegmentView(ByteBuffer buffer, List<Block> blocks) {
+			this.buffer = buffer;
+			this.blocks = blocks;
+		}
+	}
+
+	public static final int DEFAULT_MAX_SEGMENT_BYTES = 4 * 1024 * 1024;
+	public static final long DEFAULT_MAX_TOTAL_BYTES = 64L * 1024 * 1024;
+	public static final long DEFAULT_MAX_AGE_MILLIS = 24L * 60 * 60 * 1000;
+	public static final long RETENTION_INTERVAL_MILLIS = 60L * 1000;
+
+	protected static final int BLOCK_RECORDS = 16;
+	protected static final int RECORD_HEADER_BYTES = 4 + 8 + 1;
+	protected static final int WRITE_BUFFER_BYTES = 64 * 1024;
+	protected static final String SEGMENT_PREFIX = "segment-";
+	protected static final String SEGMENT_SUFFIX = ".log";
+
+	private static final RaptorLogger LOG = RaptorLogger
+			.getLog(ChatLogStore.class);
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final ChatType[] TYPES = ChatType.values();
+
+	protected File directory;
+	protected int maxSegmentBytes;
+	protected long maxTotalBytes;
+	protected long maxAgeMillis;
+
+	protected List<Segment> segments = new ArrayList<Segment>();
+	protected List<File> pendingDeletes = new ArrayList<File>();
+	protected Segment active;
+	protected FileChannel activeChannel;
+	protected ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_BYTES);
+	protected long totalBytes;
+	protected int nextSegmentId;
+	protected long lastRetentionTime;
+
+	/**
+	 * Creates a store in the specified directory using the default rotation
+	 * and retention settings.
+	 *
+	 * @param directory
+	 *            The directory containing the segment files.
+	 * @param isDeleting
+	 *            True if existing segments should be deleted, false if they
+	 *            should be indexed and kept.
+	 */
+	public ChatLogStore(File directory, boolean isDeleting) {
+		this(directory, isDeleting, DEFAULT_MAX_SEGMENT_BYTES,
+				DEFAULT_MAX_TOTAL_BYTES, DEFAULT_MAX_AGE_MILLIS);
+	}
+
+	/**
+	 * Creates a store in the specified directory.
+	 *
+	 * @param directory
+	 *            The directory containing the segment files.
+	 * @param isDeleting
+	 *            True if existing segments should be deleted, false if they
+	 *            should be indexed and kept.
+	 * @param maxSegmentBytes
+	 *            The size a segment is sealed at.
+	 * @param maxTotalBytes
+	 *            The size sealed segments are removed above.
+	 * @param maxAgeMillis
+	 *            The age sealed segments are removed after, 0 to keep them
+	 *            regardless of age.
+	 */
+	public ChatLogStore(File directory, boolean isDeleting,
+			int maxSegmentBytes, long maxTotalBytes, long maxAgeMillis) {
+		this.directory = directory;
+		this.maxSegmentBytes = maxSegmentBytes;
+		this.maxTotalBytes = maxTotalBytes;
+		this.maxAgeMillis = maxAgeMillis;
+		if (isDeleting) {
+			delete();
+		} else {
+			load();
+		}
+	}
+
+	protected static long bloomBits(String value) {
+		if (value == null || value.length() == 0) {
+			return 0L;
+		}
+		int hash = value.toLowerCase().hashCode();
+		hash ^= hash >>> 16;
+		return 1L << (hash & 63) | 1L << (hash >>> 6 & 63);
+	}
+
+	protected static long typeBit(ChatType type) {
+		return 1L << ((type == null ? ChatType.UNKNOWN : type).ordinal() & 63);
+	}
+
+	protected static long typeMask(EnumSet<ChatType> types) {
+		if (types == null) {
+			return -1L;
+		}
+		long result = 0L;
+		for (ChatType type : types) {
+			result |= typeBit(type);
+		}
+		return result;
+	}
+
+	/**
+	 * Appends an event to the newest segment, sealing it first if the event
+	 * would push it past maxSegmentBytes.
+	 */
+	public synchronized void append(ChatEvent event) {
+		byte[] payload = ChatEventUtils.serializeChatEvent(event).getBytes(
+				UTF8);
+		int recordLength = RECORD_HEADER_BYTES + payload.length;
+		ChatType type = event.getType() == null ? ChatType.UNKNOWN : event
+				.getType();
+		try {
+			if (active != null && active.size > 0
+					&& active.size + recordLength > maxSegmentBytes) {
+				seal();
+			}
+			if (active == null) {
+				openSegment();
+			}
+			if (writeBuffer.remaining() < recordLength) {
+				flushWriteBuffer();
+			}
+			ByteBuffer buffer = recordLength > writeBuffer.capacity() ? ByteBuffer
+					.allocate(recordLength)
+					: writeBuffer;
+			buffer.putInt(payload.length);
+			buffer.putLong(event.getTime());
+			buffer.put((byte) type.ordinal());
+			buffer.put(payload);
+			if (buffer != writeBuffer) {
+				buffer.flip();
+				writeFully(buffer);
+			}
+			active.index(recordLength, event.getTime(), type, event
+					.getSource(), event.getChannel());
+			totalBytes += recordLength;
+
+			// A long session may never fill a segment, so old segments are
+			// also aged out periodically while appending.
+			if (currentTimeMillis() - lastRetentionTime >= RETENTION_INTERVAL_MILLIS) {
+				enforceRetention();
+			}
+		} catch (IOException ioe) {
+			LOG.error("Error appending to chat log " + directory, ioe);
+		}
+	}
+
+	/**
+	 * Closes the store and deletes all of its segments. The store can still
+	 * be appended to afterwards.
+	 */
+	public synchronized void delete() {
+		closeActive();
+		segments.clear();
+		pendingDeletes.clear();
+		totalBytes = 0;
+		nextSegmentId = 0;
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (isSegmentFile(file)) {
+					deleteSegmentFile(file);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the total size in bytes of all segments in the store.
+	 */
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * Returns the number of segments in the store.
+	 */
+	public synchronized int getSegmentCount() {
+		return segments.size();
+	}
+
+	/**
+	 * Invokes the listener on each event matching the query, oldest first.
+	 * If the query has maxResults set only the most recent maxResults
+	 * matching events are passed to the listener. onParseCompleted is always
+	 * invoked once the parse ends.
+	 */
+	public void parse(ChatLogQuery query, ChatEventParseListener listener) {
+		List<SegmentView> views = null;
+		try {
+			views = snapshot();
+		} catch (IOException ioe) {
+			throw new RuntimeException(ioe);
+		}
+
+		long queryTypeMask = typeMask(query.getTypes());
+		long querySourceBits = bloomBits(query.getSource());
+		long queryChannelBits = bloomBits(query.getChannel());
+
+		if (query.getMaxResults() <= 0) {
+			List<ChatEvent> blockEvents = new ArrayList<ChatEvent>(
+					BLOCK_RECORDS);
+			outer: for (SegmentView view : views) {
+				for (Block block : view.blocks) {
+					if (block.mayMatch(query, queryTypeMask, querySourceBits,
+							queryChannelBits)) {
+						blockEvents.clear();
+						readBlock(view, block, query, blockEvents);
+						for (ChatEvent event : blockEvents) {
+							if (!listener.onNewEventParsed(event)) {
+								break outer;
+							}
+						}
+					}
+				}
+			}
+		} else {
+			LinkedList<ChatEvent> result = new LinkedList<ChatEvent>();
+			List<ChatEvent> blockEvents = new ArrayList<ChatEvent>(
+					BLOCK_RECORDS);
+			outer: for (int i = views.size() - 1; i >= 0; i--) {
+				SegmentView view = views.get(i);
+				for (int j = view.blocks.size() - 1; j >= 0; j--) {
+					Block block = view.blocks.get(j);
+					if (block.mayMatch(query, queryTypeMask, querySourceBits,
+							queryChannelBits)) {
+						blockEvents.clear();
+						readBlock(view, block, query, blockEvents);
+						for (int k = blockEvents.size() - 1; k >= 0; k--) {
+							result.addFirst(blockEvents.get(k));
+							if (result.size() == query.getMaxResults()) {
+								break outer;
+							}
+						}
+					}
+				}
+			}
+			for (ChatEvent event : result) {
+				if (!listener.onNewEventParsed(event)) {
+					break;
+				}
+			}
+		}
+		listener.onParseCompleted();
+	}
+
+	protected void closeActive() {
+		if (activeChannel != null) {
+			try {
+				flushWriteBuffer();
+			} catch (IOException ioe) {
+				LOG.warn("Error flushing chat log segment " + active.file,
+						ioe);
+			}
+			try {
+				activeChannel.close();
+			} catch (IOException ioe) {
+			}
+		}
+		writeBuffer.clear();
+		activeChannel = null;
+		active = null;
+	}
+
+	/**
+	 * Returns the time retention is measured against. Provided so tests can
+	 * override it.
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	protected void deleteSegmentFile(File file) {
+		if (file.exists() && !file.delete()) {
+			// Mapped files can not be deleted on some platforms until the
+			// mapping is garbage collected. Try again when retention next
+			// runs.
+			pendingDeletes.add(file);
+		}
+	}
+
+	/**
+	 * Removes the oldest sealed segments while the store is too large or they
+	 * are older than maxAgeMillis.
+	 */
+	protected void enforceRetention() {
+		for (int i = pendingDeletes.size() - 1; i >= 0; i--) {
+			File file = pendingDeletes.get(i);
+			if (!file.exists() || file.delete()) {
+				pendingDeletes.remove(i);
+			}
+		}
+
+		lastRetentionTime = currentTimeMillis();
+		long oldestTime = maxAgeMillis > 0 ? lastRetentionTime - maxAgeMillis
+				: Long.MIN_VALUE;
+		while (!segments.isEmpty() && segments.get(0) != active) {
+			Segment oldest = segments.get(0);
+			if (totalBytes <= maxTotalBytes && oldest.maxTime >= oldestTime) {
+				break;
+			}
+			segments.remove(0);
+			totalBytes -= oldest.size;
+			oldest.mapped = null;
+			deleteSegmentFile(oldest.file);
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Removed chat log segment " + oldest.file);
+			}
+		}
+	}
+
+	protected void flushWriteBuffer() throws IOException {
+		if (activeChannel != null && writeBuffer.position() > 0) {
+			writeBuffer.flip();
+			writeFully(writeBuffer);
+		}
+		writeBuffer.clear();
+	}
+
+	protected boolean isSegmentFile(File file) {
+		return file.isFile() && file.getName().startsWith(SEGMENT_PREFIX)
+				&& file.getName().endsWith(SEGMENT_SUFFIX);
+	}
+
+	/**
+	 * Indexes the segments already in the directory. A partially written
+	 * trailing record is truncated.
+	 */
+	protected void load() {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		List<Segment> loaded = new ArrayList<Segment>(files.length);
+		for (File file : files) {
+			if (isSegmentFile(file)) {
+				try {
+					loaded.add(new Segment(segmentId(file), file));
+				} catch (NumberFormatException nfe) {
+					LOG.warn("Ignoring unexpected chat log file " + file);
+				}
+			}
+		}
+		Segment[] sorted = loaded.toArray(new Segment[loaded.size()]);
+		Arrays.sort(sorted, new Comparator<Segment>() {
+			public int compare(Segment segment1, Segment segment2) {
+				return segment1.id < segment2.id ? -1
+						: segment1.id == segment2.id ? 0 : 1;
+			}
+		});
+
+		for (Segment segment : sorted) {
+			RandomAccessFile file = null;
+			try {
+				file = new RandomAccessFile(segment.file, "rw");
+				int length = (int) Math.min(file.length(), Integer.MAX_VALUE);
+				ByteBuffer buffer = ByteBuffer.allocate(length);
+				FileChannel channel = file.getChannel();
+				while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+				}
+				buffer.flip();
+
+				while (segment.size + RECORD_HEADER_BYTES <= buffer.limit()) {
+					int payloadLength = buffer.getInt(segment.size);
+					int recordLength = RECORD_HEADER_BYTES + payloadLength;
+					if (payloadLength < 0
+							|| segment.size + recordLength > buffer.limit()) {
+						break;
+					}
+					long time = buffer.getLong(segment.size + 4);
+					ChatType type = toType(buffer.get(segment.size + 12));
+					String source = null;
+					String channelName = null;
+					try {
+						ChatEvent event = decode(buffer, segment.size,
+								payloadLength);
+						source = event.getSource();
+						channelName = event.getChannel();
+					} catch (Throwable t) {
+						LOG.warn("Error indexing chat log record in "
+								+ segment.file, t);
+					}
+					segment.index(recordLength, time, type, source,
+							channelName);
+				}
+				if (segment.size < length) {
+					LOG.warn("Truncating partial chat log record in "
+							+ segment.file);
+					channel.truncate(segment.size);
+				}
+				segments.add(segment);
+				totalBytes += segment.size;
+				nextSegmentId = segment.id + 1;
+			} catch (IOException ioe) {
+				LOG.error("Error loading chat log segment " + segment.file,
+						ioe);
+			} finally {
+				if (file != null) {
+					try {
+						file.close();
+					} catch (IOException ioe) {
+					}
+				}
+			}
+		}
+		enforceRetention();
+	}
+
+	protected ChatEvent decode(ByteBuffer buffer, int offset, int payloadLength) {
+		byte[] payload = new byte[payloadLength];
+		ByteBuffer view = buffer.duplicate();
+		view.position(offset + RECORD_HEADER_BYTES);
+		view.get(payload);
+		return ChatEventUtils.deserializeChatEvent(new String(payload, UTF8));
+	}
+
+	protected void openSegment() throws IOException {
+		if (!directory.exists()) {
+			directory.mkdirs();
+		}
+		int id = nextSegmentId++;
+		File file = new File(directory, SEGMENT_PREFIX
+				+ String.format("%08d", id) + SEGMENT_SUFFIX);
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		randomAccessFile.setLength(0);
+		activeChannel = randomAccessFile.getChannel();
+		active = new Segment(id, file);
+		segments.add(active);
+	}
+
+	/**
+	 * Decodes the events in the block matching the query into result.
+	 */
+	protected void readBlock(SegmentView view, Block block,
+			ChatLogQuery query, List<ChatEvent> result) {
+		EnumSet<ChatType> types = query.getTypes();
+		int position = block.offset;
+		int end = block.offset + block.length;
+		while (position < end) {
+			int payloadLength = view.buffer.getInt(position);
+			long time = view.buffer.getLong(position + 4);
+			if (time >= query.getSince()
+					&& time <= query.getUntil()
+					&& (types == null || types.contains(toType(view.buffer
+							.get(position + 12))))) {
+				try {
+					ChatEvent event = decode(view.buffer, position,
+							payloadLength);
+					if (query.matches(event)) {
+						result.add(event);
+					}
+				} catch (Throwable t) {
+					LOG.warn("Error reading chat log record at " + position
+							+ " skipping ChatEvent", t);
+				}
+			}
+			position += RECORD_HEADER_BYTES + payloadLength;
+		}
+	}
+
+	/**
+	 * Seals the active segment and applies the retention policy.
+	 */
+	protected void seal() {
+		closeActive();
+		enforceRetention();
+	}
+
+	protected int segmentId(File file) {
+		String name = file.getName();
+		return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name
+				.length()
+				- SEGMENT_SUFFIX.length()));
+	}
+
+	/**
+	 * Flushes pending writes and returns read only views of every segment.
+	 * Sealed segments never change and the active segment is only appended
+	 * to, so the views stay valid after the lock is released.
+	 */
+	protected synchronized List<SegmentView> snapshot() throws IOException {
+		flushWriteBuffer();
+		List<SegmentView> result = new ArrayList<SegmentView>(segments.size());
+		for (Segment segment : segments) {
+			if (segment.size == 0) {
+				continue;
+			}
+			if (segment == active) {
+				List<Block> blocks = new ArrayList<Block>(segment.blocks);
+				int last = blocks.size() - 1;
+				blocks.set(last, blocks.get(last).copy());
+				result.add(new SegmentView(activeChannel.map(
+						FileChannel.MapMode.READ_ONLY, 0, segment.size),
+						blocks));
+			} else {
+				if (segment.mapped == null) {
+					RandomAccessFile file = new RandomAccessFile(
+							segment.file, "r");
+					try {
+						segment.mapped = file.getChannel().map(
+								FileChannel.MapMode.READ_ONLY, 0,
+								segment.size);
+					} finally {
+						file.close();
+					}
+				}
+				result.add(new SegmentView(segment.mapped.duplicate(),
+						segment.blocks));
+			}
+		}
+		return result;
+	}
+
+	protected ChatType toType(byte ordinal) {
+		return ordinal >= 0 && ordinal < TYPES.length ? TYPES[ordinal]
+				: ChatType.UNKNOWN;
+	}
+
+	protected void writeFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			activeChannel.write(buffer);
+		}
+	}
+}
@@ -0,0 +1,327 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2011 RaptorProject (http://code.google.com/p/raptor-chess-interface/)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.chat;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import raptor.util.RaptorLogger;
+
+/**
+ * A single writer for all of the chat log files. Callers enqueue lines on a
+ * bounded queue and return immediately. One dedicated thread drains the queue
+ * in batches and appends to a buffered writer kept open per file, so lines are
+ * written in the order they were enqueued and a busy channel costs a buffered
+ * write instead of an open/append/close.
+ * 
+ * <p>
+ * Buffers are flushed every FLUSH_INTERVAL_MILLIS, whenever FLUSH_BYTES have
+ * been written since the last flush, on {@link #flush()} and on
+ * {@link #dispose()}. Readers of a log file must call flush() first.
+ * </p>
+ * 
+ * <p>
+ * This uses its own thread rather than the ThreadService because the pool
+ * does not guarantee ordering between tasks.
+ * </p>
+ */
+public class ChatLogWriter {
+	private static class Entry {
+		CountDownLatch latch;
+		String line;
+		String path;
+		int type;
+
+		Entry(int type, String path, String line, CountDownLatch latch) {
+			this.type = type;
+			this.path = path;
+			this.line = line;
+			this.latch = latch;
+		}
+	}
+
+	private static final int APPEND = 0;
+	private static final int CLOSE = 1;
+	private static final int FLUSH = 2;
+	private static final int SHUTDOWN = 3;
+
+	public static final int QUEUE_CAPACITY = 10000;
+	public static final int MAX_OPEN_FILES = 32;
+	public static final long FLUSH_INTERVAL_MILLIS = 1000;
+	public static final int FLUSH_BYTES = 64 * 1024;
+
+	private static final RaptorLogger LOG = RaptorLogger
+			.getLog(ChatLogWriter.class);
+
+	private static ChatLogWriter singletonInstance;
+
+	public static boolean serviceCreated = false;
+
+	public static synchronized ChatLogWriter getInstance() {
+		if (singletonInstance != null)
+			return singletonInstance;
+
+		singletonInstance = new ChatLogWriter();
+		return singletonInstance;
+	}
+
+	private int bytesSinceFlush;
+	private volatile boolean isDisposed;
+
+	/**
+	 * Held while checking isDisposed and queueing an entry, and by the writer
+	 * thread for its final drain, so nothing can be queued after that drain.
+	 */
+	private final Object enqueueLock = new Object();
+	private long lastFlushTime = System.currentTimeMillis();
+	private BlockingQueue<Entry> queue = new ArrayBlockingQueue<Entry>(
+			QUEUE_CAPACITY);
+	private Thread writerThread;
+
+	/**
+	 * Open writers in least recently used order. The eldest is closed when
+	 * more than MAX_OPEN_FILES are open. Only touched by the writer thread.
+	 */
+	private Map<String, Writer> writers = new LinkedHashMap<String, Writer>(
+			MAX_OPEN_FILES * 2, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Writer> eldest) {
+			if (size() > MAX_OPEN_FILES) {
+				close(eldest.getKey(), eldest.getValue());
+				return true;
+			}
+			return false;
+		}
+	};
+
+	private ChatLogWriter() {
+		writerThread = new Thread(new Runnable() {
+			public void run() {
+				writeLoop();
+			}
+		}, "ChatLogWriter");
+		writerThread.setDaemon(true);
+		writerThread.start();
+		serviceCreated = true;
+	}
+
+	/**
+	 * Appends line followed by a new line to the file at path. Blocks only if
+	 * QUEUE_CAPACITY lines are already waiting to be written.
+	 */
+	public void append(String path, String line) {
+		enqueue(new Entry(APPEND, path, line, null));
+	}
+
+	/**
+	 * Writes and closes the file at path. Blocks until it is closed, so the
+	 * caller can safely delete it afterwards.
+	 */
+	public void close(String path) {
+		await(new Entry(CLOSE, path, null, new CountDownLatch(1)));
+	}
+
+	/**
+	 * Flushes all pending writes and closes all files. Blocks until they are
+	 * written.
+	 */
+	public void dispose() {
+		await(new Entry(SHUTDOWN, null, null, new CountDownLatch(1)));
+		try {
+			writerThread.join(5000);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Writes everything enqueued before this call to disk. Blocks until it is
+	 * written.
+	 */
+	public void flush() {
+		await(new Entry(FLUSH, null, null, new CountDownLatch(1)));
+	}
+
+	private void await(Entry entry) {
+		if (!enqueue(entry)) {
+			return;
+		}
+		try {
+			entry.latch.await();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void close(String path, Writer writer) {
+		try {
+			writer.close();
+		} catch (IOException ioe) {
+			LOG.warn("Error closing chat log " + path, ioe);
+		}
+	}
+
+	private void closeAll() {
+		for (Iterator<Map.Entry<String, Writer>> i = writers.entrySet()
+				.iterator(); i.hasNext();) {
+			Map.Entry<String, Writer> entry = i.next();
+			close(entry.getKey(), entry.getValue());
+			i.remove();
+		}
+	}
+
+	/**
+	 * Returns false if the writer has been disposed and the entry was dropped.
+	 */
+	private boolean enqueue(Entry entry) {
+		try {
+			// Offer with a timeout instead of put, so a full queue never keeps
+			// the writer thread from taking the lock for its final drain.
+			while (true) {
+				synchronized (enqueueLock) {
+					if (isDisposed) {
+						LOG.warn("ChatLogWriter is disposed, dropping write to "
+								+ entry.path);
+						return false;
+					}
+					if (queue.offer(entry, 100, TimeUnit.MILLISECONDS)) {
+						return true;
+					}
+				}
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private void flushAll() {
+		for (Map.Entry<String, Writer> entry : writers.entrySet()) {
+			try {
+				entry.getValue().flush();
+			} catch (IOException ioe) {
+				LOG.warn("Error flushing chat log " + entry.getKey(), ioe);
+			}
+		}
+		bytesSinceFlush = 0;
+		lastFlushTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Handles one entry. Returns false on shutdown.
+	 */
+	private boolean process(Entry entry) {
+		switch (entry.type) {
+		case APPEND:
+			write(entry.path, entry.line);
+			break;
+		case CLOSE:
+			Writer writer = writers.remove(entry.path);
+			if (writer != null) {
+				close(entry.path, writer);
+			}
+			entry.latch.countDown();
+			break;
+		case FLUSH:
+			flushAll();
+			entry.latch.countDown();
+			break;
+		case SHUTDOWN:
+			isDisposed = true;
+			closeAll();
+			entry.latch.countDown();
+			return false;
+		}
+		return true;
+	}
+
+	private void write(String path, String line) {
+		Writer writer = writers.get(path);
+		try {
+			if (writer == null) {
+				writer = new BufferedWriter(new FileWriter(path, true),
+						8 * 1024);
+				writers.put(path, writer);
+			}
+			writer.write(line);
+			writer.write('\n');
+			bytesSinceFlush += line.length() + 1;
+		} catch (IOException ioe) {
+			LOG.warn("Error writing to chat log " + path, ioe);
+			if (writer != null) {
+				writers.remove(path);
+				close(path, writer);
+			}
+		}
+	}
+
+	private void writeLoop() {
+		List<Entry> batch = new ArrayList<Entry>(256);
+		boolean isRunning = true;
+		while (isRunning) {
+			try {
+				Entry first = queue.poll(FLUSH_INTERVAL_MILLIS,
+						TimeUnit.MILLISECONDS);
+				if (first != null) {
+					batch.add(first);
+					queue.drainTo(batch, 255);
+					for (Entry entry : batch) {
+						if (isRunning) {
+							isRunning = process(entry);
+						} else if (entry.latch != null) {
+							entry.latch.countDown();
+						}
+					}
+					batch.clear();
+				}
+
+				if (bytesSinceFlush >= FLUSH_BYTES
+						|| bytesSinceFlush > 0
+						&& System.currentTimeMillis() - lastFlushTime >= FLUSH_INTERVAL_MILLIS) {
+					flushAll();
+				}
+			} catch (InterruptedException ie) {
+				isRunning = false;
+			} catch (Throwable t) {
+				LOG.error("Unexpected error in ChatLogWriter", t);
+			}
+		}
+		closeAll();
+
+		// Release anyone still waiting on a flush or close. Nothing can be
+		// queued once isDisposed is set under the lock.
+		synchronized (enqueueLock) {
+			isDisposed = true;
+			Entry entry = null;
+			while ((entry = queue.poll()) != null) {
+				if (entry.latch != null) {
+					entry.latch.countDown();
+				}
+			}
+		}
+	}
+}
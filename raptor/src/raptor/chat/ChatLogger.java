@@ -16,19 +16,18 @@ package raptor.chat;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.LinkedList;
 
 import raptor.Raptor;
 import raptor.connector.Connector;
 import raptor.connector.bics.BicsConnector;
 import raptor.connector.fics.FicsConnector;
 import raptor.pref.PreferenceKeys;
-import raptor.service.ThreadService;
+import raptor.pref.PreferenceSnapshot;
 import raptor.util.RaptorLogger;
-import raptor.util.RaptorRunnable;
 import raptor.util.RaptorStringTokenizer;
 
 /**
@@ -37,6 +36,11 @@ import raptor.util.RaptorStringTokenizer;
  * 
  * This is being used to add old tells to a newly created Channel or Person tab.
  * 
+ * Chat loggers created for a connector keep their events in an indexed
+ * ChatLogStore, so parses with a ChatLogQuery only read the parts of the log
+ * that can match. Read only chat loggers, such as the one backing memos, use
+ * a plain text file with one serialized event per line. All text writes go
+ * through the ChatLogWriter so they are buffered and stay in order.
  */
 public class ChatLogger {
 	public static interface ChatEventParseListener {
@@ -49,13 +53,18 @@ public class ChatLogger {
 		public void onParseCompleted();
 	}
 
-	private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat(
-			"yyyy-MM-dd HH:mm");
-
 	private static final RaptorLogger LOG = RaptorLogger.getLog(ChatLogger.class);
 
 	protected String pathToFile;
 	protected Connector connector;
+	protected ChatLogStore store;
+
+	/**
+	 * SimpleDateFormat is not thread safe. It is only used inside
+	 * synchronized(this).
+	 */
+	protected SimpleDateFormat dateFormat = new SimpleDateFormat(
+			"yyyy-MM-dd HH:mm");
 
 	/**
 	 * Constructs a ChatLogger which writes to the specified file. Deletes the
@@ -82,6 +91,7 @@ public class ChatLogger {
 	 */
 	public ChatLogger(Connector connector, String pathToFile, boolean isDeleting) {
 		this.pathToFile = pathToFile;
+		store = new ChatLogStore(getStoreDirectory(pathToFile), isDeleting);
 		if (isDeleting) {
 			delete();
 		}
@@ -104,10 +114,28 @@ public class ChatLogger {
 		}
 	}
 
+	/**
+	 * Returns the directory the ChatLogStore for the specified path is kept
+	 * in: the path without its extension followed by "-log".
+	 */
+	protected static File getStoreDirectory(String pathToFile) {
+		File file = new File(pathToFile);
+		String name = file.getName();
+		int extensionIndex = name.lastIndexOf('.');
+		if (extensionIndex > 0) {
+			name = name.substring(0, extensionIndex);
+		}
+		return new File(file.getParentFile(), name + "-log");
+	}
+
 	/**
 	 * Deletes the backing file.
 	 */
 	public void delete() {
+		if (store != null) {
+			store.delete();
+		}
+		ChatLogWriter.getInstance().close(pathToFile);
 		File file = new File(pathToFile);
 		file.delete();
 	}
@@ -117,9 +145,23 @@ public class ChatLogger {
 	 * encountered.
 	 */
 	public void parseFile(ChatEventParseListener listener) {
+		parseFile(new ChatLogQuery(), listener);
+	}
+
+	/**
+	 * Parses the ChatLogger and invokes the listener on each chat event
+	 * matching the query, oldest first.
+	 */
+	public void parseFile(ChatLogQuery query, ChatEventParseListener listener) {
+		if (store != null) {
+			store.parse(query, listener);
+			return;
+		}
+
+		ChatLogWriter.getInstance().flush();
 		synchronized (this) {
-			@SuppressWarnings("unused")
-			long startTime = System.currentTimeMillis();
+			LinkedList<ChatEvent> lastEvents = query.getMaxResults() > 0 ? new LinkedList<ChatEvent>()
+					: null;
 			BufferedReader reader = null;
 			try {
 				reader = new BufferedReader(new FileReader(pathToFile));
@@ -128,8 +170,15 @@ public class ChatLogger {
 					try {
 						ChatEvent event = ChatEventUtils
 								.deserializeChatEvent(currentLine);
-						if (!listener.onNewEventParsed(event)) {
-							break;
+						if (query.matches(event)) {
+							if (lastEvents != null) {
+								lastEvents.add(event);
+								if (lastEvents.size() > query.getMaxResults()) {
+									lastEvents.removeFirst();
+								}
+							} else if (!listener.onNewEventParsed(event)) {
+								break;
+							}
 						}
 					} catch (Throwable t) {
 						LOG.warn("Error reading chat event line " + currentLine
@@ -137,6 +186,13 @@ public class ChatLogger {
 					}
 					currentLine = reader.readLine();
 				}
+				if (lastEvents != null) {
+					for (ChatEvent event : lastEvents) {
+						if (!listener.onNewEventParsed(event)) {
+							break;
+						}
+					}
+				}
 				listener.onParseCompleted();
 			} catch (IOException ioe) {
 				throw new RuntimeException(ioe);
@@ -171,22 +227,11 @@ public class ChatLogger {
 		synchronized (this) {
 			writeToLogFiles(event);
 			if (event.getMessage().length() < 1500) {
-				@SuppressWarnings("unused")
-				long startTime = System.currentTimeMillis();
-				FileWriter writer = null;
-				try {
-					writer = new FileWriter(pathToFile, true);
-					writer.write(ChatEventUtils.serializeChatEvent(event)
-							+ "\n");
-				} catch (Throwable t) {
-					LOG.warn("Error occured writihg chat event: ", t);
-				} finally {
-					if (writer != null) {
-						try {
-							writer.close();
-						} catch (Throwable t) {
-						}
-					}
+				if (store != null) {
+					store.append(event);
+				} else {
+					ChatLogWriter.getInstance().append(pathToFile,
+							ChatEventUtils.serializeChatEvent(event));
 				}
 			}
 		}
@@ -215,58 +260,51 @@ public class ChatLogger {
 	 * @param event
 	 *            The event to log.
 	 */
-	protected void writeToLogFiles(final ChatEvent event) {
-		ThreadService.getInstance().run(new RaptorRunnable() {
-			@Override
-			public void execute() {
-				if (Raptor.getInstance().getPreferences().getBoolean(
-						PreferenceKeys.APP_IS_LOGGING_CONSOLE)
-						&& !vetoLogging(event.getSource())) {
-					appendToFile(Raptor.USER_RAPTOR_HOME_PATH
-							+ "/logs/console/" + getConnectorType()
-							+ "-console.txt", event);
-				}
-				if (Raptor.getInstance().getPreferences().getBoolean(
-						PreferenceKeys.APP_IS_LOGGING_CHANNEL_TELLS)
-						&& event.getType() == ChatType.CHANNEL_TELL) {
-					appendToFile(Raptor.USER_RAPTOR_HOME_PATH
-							+ "/logs/console/" + getConnectorType() + "-"
-							+ event.getChannel() + ".txt", event);
-				}
-				if (Raptor.getInstance().getPreferences().getBoolean(
-						PreferenceKeys.APP_IS_LOGGING_PERSON_TELLS)
-						&& event.getType() == ChatType.TELL
-						&& !vetoLogging(event.getSource())) {
-					appendToFile(Raptor.USER_RAPTOR_HOME_PATH
-							+ "/logs/console/" + getConnectorType() + "-"
-							+ event.getSource().toLowerCase() + ".txt", event);
-				}
-				if (Raptor.getInstance().getPreferences().getBoolean(
-						PreferenceKeys.APP_IS_LOGGING_PERSON_TELLS)
-						&& event.getType() == ChatType.OUTBOUND) {
+	protected void writeToLogFiles(ChatEvent event) {
+		PreferenceSnapshot preferences = Raptor.getInstance()
+				.getPreferences().getSnapshot();
+		if (preferences.getBoolean(PreferenceKeys.APP_IS_LOGGING_CONSOLE)
+				&& !vetoLogging(event.getSource())) {
+			appendToFile(Raptor.USER_RAPTOR_HOME_PATH
+					+ "/logs/console/" + getConnectorType()
+					+ "-console.txt", event);
+		}
+		if (preferences.getBoolean(PreferenceKeys.APP_IS_LOGGING_CHANNEL_TELLS)
+				&& event.getType() == ChatType.CHANNEL_TELL) {
+			appendToFile(Raptor.USER_RAPTOR_HOME_PATH
+					+ "/logs/console/" + getConnectorType() + "-"
+					+ event.getChannel() + ".txt", event);
+		}
+		if (preferences.getBoolean(PreferenceKeys.APP_IS_LOGGING_PERSON_TELLS)
+				&& event.getType() == ChatType.TELL
+				&& !vetoLogging(event.getSource())) {
+			appendToFile(Raptor.USER_RAPTOR_HOME_PATH
+					+ "/logs/console/" + getConnectorType() + "-"
+					+ event.getSource().toLowerCase() + ".txt", event);
+		}
+		if (preferences.getBoolean(PreferenceKeys.APP_IS_LOGGING_PERSON_TELLS)
+				&& event.getType() == ChatType.OUTBOUND) {
 
-					RaptorStringTokenizer tok = new RaptorStringTokenizer(event
-							.getMessage(), " ", true);
+			RaptorStringTokenizer tok = new RaptorStringTokenizer(event
+					.getMessage(), " ", true);
 
-					String firstWord = tok.nextToken();
-					String secondWord = tok.nextToken();
+			String firstWord = tok.nextToken();
+			String secondWord = tok.nextToken();
 
-					if (firstWord != null && secondWord != null) {
-						if ("tell".startsWith(firstWord.toLowerCase())
-								&& !vetoLogging(secondWord)) {
-							try {
-								Integer.parseInt(secondWord);
-							} catch (NumberFormatException nfe) {
-								appendToFile(Raptor.USER_RAPTOR_HOME_PATH
-										+ "/logs/" + getConnectorType() + "-"
-										+ secondWord.toLowerCase() + ".txt",
-										event);
-							}
-						}
+			if (firstWord != null && secondWord != null) {
+				if ("tell".startsWith(firstWord.toLowerCase())
+						&& !vetoLogging(secondWord)) {
+					try {
+						Integer.parseInt(secondWord);
+					} catch (NumberFormatException nfe) {
+						appendToFile(Raptor.USER_RAPTOR_HOME_PATH
+								+ "/logs/" + getConnectorType() + "-"
+								+ secondWord.toLowerCase() + ".txt",
+								event);
 					}
 				}
 			}
-		});
+		}
 	}
 
 	/**
@@ -293,19 +331,9 @@ public class ChatLogger {
 	 *            The chat event.
 	 */
 	protected void appendToFile(String fileName, ChatEvent event) {
-		FileWriter fileWriter = null;
-		try {
-			fileWriter = new FileWriter(fileName, true);
-            fileWriter.append("[").append(DATE_FORMAT.format(new Date(event.time))).append("] ").append(event.getMessage()).append("\n");
-			fileWriter.flush();
-		} catch (IOException ioe) {
-			Raptor.getInstance().onError(
-					"Error occured writing to file: " + fileName, ioe);
-		} finally {
-			try {
-				fileWriter.close();
-			} catch (Throwable t) {
-			}
-		}
+		ChatLogWriter.getInstance().append(
+				fileName,
+				"[" + dateFormat.format(new Date(event.time)) + "] "
+						+ event.getMessage());
 	}
 }
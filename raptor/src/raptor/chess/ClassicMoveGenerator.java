@@ -0,0 +1,631 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2011 RaptorProject (http://code.google.com/p/raptor-chess-interface/)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.chess;
+
+import static raptor.chess.util.GameUtils.bitscanClear;
+import static raptor.chess.util.GameUtils.bitscanForward;
+import static raptor.chess.util.GameUtils.diagonalMove;
+import static raptor.chess.util.GameUtils.getBitboard;
+import static raptor.chess.util.GameUtils.kingMove;
+import static raptor.chess.util.GameUtils.knightMove;
+import static raptor.chess.util.GameUtils.orthogonalMove;
+import static raptor.chess.util.GameUtils.pawnCapture;
+
+/**
+ * An allocation free legal move generator for classic rules. It is intended
+ * for perft, bulk position validation and tree building where creating a Move
+ * object and doing a forceMove/rollback per candidate is too expensive.
+ * 
+ * <p>
+ * The generator keeps its own copy of the position, set from a Game with
+ * {@link #setPosition(Game)}. Moves are packed into ints (see
+ * {@link #encode(int, int, int, int, int, int)}) and written into
+ * preallocated per ply buffers. Legality is determined up front with check
+ * and pin masks, so no move is ever made and tested. The only exception is en
+ * passant, which is verified against the resulting occupancy because it can
+ * uncover a horizontal check.
+ * </p>
+ * 
+ * <p>
+ * Instances are not thread safe. Use one per thread.
+ * </p>
+ */
+public final class ClassicMoveGenerator implements GameConstants {
+
+	/**
+	 * The maximum number of plies that can be made on top of the position
+	 * passed into setPosition.
+	 */
+	public static final int MAX_PLY = 64;
+
+	/**
+	 * The size of each per ply move buffer. The most legal moves known in a
+	 * classic position is 218.
+	 */
+	public static final int MAX_MOVES_PER_PLY = 256;
+
+	private static final int TO_SHIFT = 6;
+	private static final int PIECE_SHIFT = 12;
+	private static final int CAPTURE_SHIFT = 15;
+	private static final int PROMOTION_SHIFT = 18;
+	private static final int CHARACTERISTIC_SHIFT = 21;
+
+	private static final long[][] BETWEEN = new long[64][64];
+	private static final long[][] LINE = new long[64][64];
+	private static final long[] DIAGONAL_RAYS = new long[64];
+	private static final long[] ORTHOGONAL_RAYS = new long[64];
+	private static final long[][] PAWN_ATTACKS = new long[2][64];
+	private static final int[][] CASTLE_KEEP = new int[2][64];
+
+	static {
+		initTables();
+	}
+
+	private long[][] pieceBB = new long[2][7];
+	private long[] colorBB = new long[2];
+	private long occupiedBB;
+	private int[] board = new int[64];
+	private int[] castling = new int[2];
+	private int colorToMove;
+	private int epSquare = EMPTY_SQUARE;
+
+	private int ply;
+	private int[] undoWhiteCastling = new int[MAX_PLY];
+	private int[] undoBlackCastling = new int[MAX_PLY];
+	private int[] undoEpSquare = new int[MAX_PLY];
+	private int[][] moveBuffers = new int[MAX_PLY][MAX_MOVES_PER_PLY];
+
+	/**
+	 * Creates a generator positioned on the specified game.
+	 */
+	public ClassicMoveGenerator(Game game) {
+		setPosition(game);
+	}
+
+	/**
+	 * Returns the capture in an encoded move, EMPTY if it is not a capture.
+	 */
+	public static int capture(int move) {
+		return move >>> CAPTURE_SHIFT & 7;
+	}
+
+	/**
+	 * Returns the Move characteristic in an encoded move, e.g.
+	 * Move.EN_PASSANT_CHARACTERISTIC.
+	 */
+	public static int characteristic(int move) {
+		return move >>> CHARACTERISTIC_SHIFT & 31;
+	}
+
+	/**
+	 * Packs a move into an int. Bits 0-5 hold the from square, 6-11 the to
+	 * square, 12-14 the piece, 15-17 the captured piece, 18-20 the promotion
+	 * piece and 21-25 the Move characteristic bits.
+	 */
+	public static int encode(int from, int to, int piece, int capture,
+			int promotion, int characteristic) {
+		return from | to << TO_SHIFT | piece << PIECE_SHIFT
+				| capture << CAPTURE_SHIFT | promotion << PROMOTION_SHIFT
+				| characteristic << CHARACTERISTIC_SHIFT;
+	}
+
+	public static int from(int move) {
+		return move & 63;
+	}
+
+	public static int piece(int move) {
+		return move >>> PIECE_SHIFT & 7;
+	}
+
+	/**
+	 * Returns the promotion piece in an encoded move, EMPTY if it is not a
+	 * promotion.
+	 */
+	public static int promotion(int move) {
+		return move >>> PROMOTION_SHIFT & 7;
+	}
+
+	public static int to(int move) {
+		return move >>> TO_SHIFT & 63;
+	}
+
+	private static void initTables() {
+		// Directions are ordered so direction 7 - d is the opposite of d.
+		int[] rankSteps = { 1, 1, 1, 0, 0, -1, -1, -1 };
+		int[] fileSteps = { 1, 0, -1, 1, -1, 1, 0, -1 };
+		long[][] rays = new long[64][8];
+
+		for (int square = 0; square < 64; square++) {
+			for (int direction = 0; direction < 8; direction++) {
+				long between = 0L;
+				int rank = square / 8 + rankSteps[direction];
+				int file = square % 8 + fileSteps[direction];
+				while (rank >= 0 && rank < 8 && file >= 0 && file < 8) {
+					int target = rank * 8 + file;
+					BETWEEN[square][target] = between;
+					between |= getBitboard(target);
+					rank += rankSteps[direction];
+					file += fileSteps[direction];
+				}
+				rays[square][direction] = between;
+
+				if (rankSteps[direction] != 0 && fileSteps[direction] != 0) {
+					DIAGONAL_RAYS[square] |= between;
+				} else {
+					ORTHOGONAL_RAYS[square] |= between;
+				}
+			}
+
+			for (int direction = 0; direction < 8; direction++) {
+				long lineBB = rays[square][direction]
+						| rays[square][7 - direction] | getBitboard(square);
+				long targetsBB = rays[square][direction];
+				while (targetsBB != 0) {
+					LINE[square][bitscanForward(targetsBB)] = lineBB;
+					targetsBB = bitscanClear(targetsBB);
+				}
+			}
+
+			PAWN_ATTACKS[WHITE][square] = pawnCapture(WHITE,
+					getBitboard(square), -1L);
+			PAWN_ATTACKS[BLACK][square] = pawnCapture(BLACK,
+					getBitboard(square), -1L);
+
+			CASTLE_KEEP[WHITE][square] = CASTLE_BOTH;
+			CASTLE_KEEP[BLACK][square] = CASTLE_BOTH;
+		}
+
+		CASTLE_KEEP[WHITE][SQUARE_E1] = CASTLE_NONE;
+		CASTLE_KEEP[WHITE][SQUARE_A1] = CASTLE_SHORT;
+		CASTLE_KEEP[WHITE][SQUARE_H1] = CASTLE_LONG;
+		CASTLE_KEEP[BLACK][SQUARE_E8] = CASTLE_NONE;
+		CASTLE_KEEP[BLACK][SQUARE_A8] = CASTLE_SHORT;
+		CASTLE_KEEP[BLACK][SQUARE_H8] = CASTLE_LONG;
+	}
+
+	/**
+	 * Writes all of the legal moves in the current position into moves and
+	 * returns the number written. moves must hold at least MAX_MOVES_PER_PLY
+	 * entries.
+	 */
+	public int generateLegalMoves(int[] moves) {
+		int us = colorToMove;
+		int them = us ^ 1;
+		long ownBB = colorBB[us];
+		long kingBB = pieceBB[us][KING];
+		int kingSquare = bitscanForward(kingBB);
+		int count = 0;
+
+		// King moves are tested with the king removed so it can not hide
+		// behind itself on a checking ray.
+		long kingOccupied = occupiedBB ^ kingBB;
+		long toBB = kingMove(kingSquare) & ~ownBB;
+		while (toBB != 0) {
+			int toSquare = bitscanForward(toBB);
+			if (!isAttacked(toSquare, them, kingOccupied)) {
+				moves[count++] = encode(kingSquare, toSquare, KING,
+						board[toSquare], EMPTY, 0);
+			}
+			toBB = bitscanClear(toBB);
+		}
+
+		long checkersBB = attackers(kingSquare, them, occupiedBB);
+		if (checkersBB != 0 && bitscanClear(checkersBB) != 0) {
+			// Double check, only the king can move.
+			return count;
+		}
+
+		long targetBB = ~ownBB;
+		if (checkersBB != 0) {
+			targetBB = checkersBB
+					| BETWEEN[kingSquare][bitscanForward(checkersBB)];
+		} else {
+			count = generateCastlingMoves(moves, count, kingSquare, us, them);
+		}
+
+		long pinnedBB = pinned(kingSquare, us, them);
+
+		long fromBB = pieceBB[us][KNIGHT] & ~pinnedBB;
+		while (fromBB != 0) {
+			int fromSquare = bitscanForward(fromBB);
+			count = addMoves(moves, count, fromSquare, KNIGHT,
+					knightMove(fromSquare) & ~ownBB & targetBB);
+			fromBB = bitscanClear(fromBB);
+		}
+
+		long emptyBB = ~occupiedBB;
+		fromBB = pieceBB[us][BISHOP] | pieceBB[us][QUEEN];
+		while (fromBB != 0) {
+			int fromSquare = bitscanForward(fromBB);
+			toBB = diagonalMove(fromSquare, emptyBB, occupiedBB) & ~ownBB
+					& targetBB;
+			if ((pinnedBB & getBitboard(fromSquare)) != 0) {
+				toBB &= LINE[kingSquare][fromSquare];
+			}
+			count = addMoves(moves, count, fromSquare, board[fromSquare], toBB);
+			fromBB = bitscanClear(fromBB);
+		}
+
+		fromBB = pieceBB[us][ROOK] | pieceBB[us][QUEEN];
+		while (fromBB != 0) {
+			int fromSquare = bitscanForward(fromBB);
+			toBB = orthogonalMove(fromSquare, emptyBB, occupiedBB) & ~ownBB
+					& targetBB;
+			if ((pinnedBB & getBitboard(fromSquare)) != 0) {
+				toBB &= LINE[kingSquare][fromSquare];
+			}
+			count = addMoves(moves, count, fromSquare, board[fromSquare], toBB);
+			fromBB = bitscanClear(fromBB);
+		}
+
+		return generatePawnMoves(moves, count, kingSquare, us, them,
+				targetBB, pinnedBB);
+	}
+
+	/**
+	 * Returns the side to move, WHITE or BLACK.
+	 */
+	public int getColorToMove() {
+		return colorToMove;
+	}
+
+	/**
+	 * Makes an encoded move returned from generateLegalMoves. Moves must be
+	 * unmade in reverse order with {@link #unmakeMove(int)}.
+	 */
+	public void makeMove(int move) {
+		int from = from(move);
+		int to = to(move);
+		int piece = piece(move);
+		int capture = capture(move);
+		int us = colorToMove;
+		int them = us ^ 1;
+
+		undoWhiteCastling[ply] = castling[WHITE];
+		undoBlackCastling[ply] = castling[BLACK];
+		undoEpSquare[ply] = epSquare;
+		ply++;
+
+		switch (characteristic(move)) {
+		case Move.SHORT_CASTLING_CHARACTERISTIC:
+			movePiece(us, ROOK, to + 1, to - 1);
+			break;
+		case Move.LONG_CASTLING_CHARACTERISTIC:
+			movePiece(us, ROOK, to - 2, to + 1);
+			break;
+		case Move.EN_PASSANT_CHARACTERISTIC:
+			removePiece(them, PAWN, us == WHITE ? to - 8 : to + 8);
+			break;
+		default:
+			if (capture != EMPTY) {
+				removePiece(them, capture, to);
+			}
+		}
+
+		movePiece(us, piece, from, to);
+
+		int promotion = promotion(move);
+		if (promotion != EMPTY) {
+			removePiece(us, PAWN, to);
+			addPiece(us, promotion, to);
+		}
+
+		castling[WHITE] &= CASTLE_KEEP[WHITE][from] & CASTLE_KEEP[WHITE][to];
+		castling[BLACK] &= CASTLE_KEEP[BLACK][from] & CASTLE_KEEP[BLACK][to];
+		epSquare = characteristic(move) == Move.DOUBLE_PAWN_PUSH_CHARACTERISTIC ? (from + to) / 2
+				: EMPTY_SQUARE;
+		colorToMove = them;
+	}
+
+	/**
+	 * Returns the number of leaf nodes depth plies from the current position.
+	 * The moves at the last ply are counted, not made.
+	 */
+	public long perft(int depth) {
+		if (depth > MAX_PLY - ply) {
+			throw new IllegalArgumentException("depth " + depth
+					+ " exceeds the available move buffers.");
+		}
+		return depth <= 0 ? 1L : perft(depth, ply);
+	}
+
+	/**
+	 * Copies the position from the specified game. Only classic rules are
+	 * supported, so the game must be a classic variant.
+	 */
+	public void setPosition(Game game) {
+		if (!Variant.isClassic(game.getVariant())) {
+			throw new IllegalArgumentException("Variant "
+					+ game.getVariant() + " is not supported.");
+		}
+
+		occupiedBB = 0L;
+		for (int color = WHITE; color <= BLACK; color++) {
+			colorBB[color] = game.getColorBB(color);
+			castling[color] = game.getCastling(color);
+			for (int piece = PAWN; piece <= KING; piece++) {
+				pieceBB[color][piece] = game.getPieceBB(color, piece);
+			}
+			occupiedBB |= colorBB[color];
+		}
+		for (int square = 0; square < 64; square++) {
+			board[square] = game.getPiece(square);
+		}
+		colorToMove = game.getColorToMove();
+		epSquare = game.getEpSquare();
+		ply = 0;
+	}
+
+	/**
+	 * Converts an encoded move into a Move for the side to move in the
+	 * current position. The result can be passed to Game.move on a game in
+	 * the same position.
+	 */
+	public Move toMove(int move) {
+		int characteristic = characteristic(move);
+		int epSquareAfterMove = characteristic == Move.DOUBLE_PAWN_PUSH_CHARACTERISTIC ? (from(move) + to(move)) / 2
+				: EMPTY_SQUARE;
+		return new Move(from(move), to(move), piece(move), colorToMove,
+				capture(move), promotion(move), epSquareAfterMove,
+				characteristic);
+	}
+
+	/**
+	 * Unmakes the last move made with makeMove.
+	 */
+	public void unmakeMove(int move) {
+		int from = from(move);
+		int to = to(move);
+		int capture = capture(move);
+		int them = colorToMove;
+		int us = them ^ 1;
+
+		int promotion = promotion(move);
+		if (promotion != EMPTY) {
+			removePiece(us, promotion, to);
+			addPiece(us, PAWN, to);
+		}
+
+		movePiece(us, piece(move), to, from);
+
+		switch (characteristic(move)) {
+		case Move.SHORT_CASTLING_CHARACTERISTIC:
+			movePiece(us, ROOK, to - 1, to + 1);
+			break;
+		case Move.LONG_CASTLING_CHARACTERISTIC:
+			movePiece(us, ROOK, to + 1, to - 2);
+			break;
+		case Move.EN_PASSANT_CHARACTERISTIC:
+			addPiece(them, PAWN, us == WHITE ? to - 8 : to + 8);
+			break;
+		default:
+			if (capture != EMPTY) {
+				addPiece(them, capture, to);
+			}
+		}
+
+		ply--;
+		castling[WHITE] = undoWhiteCastling[ply];
+		castling[BLACK] = undoBlackCastling[ply];
+		epSquare = undoEpSquare[ply];
+		colorToMove = us;
+	}
+
+	private int addMoves(int[] moves, int count, int fromSquare, int piece,
+			long toBB) {
+		while (toBB != 0) {
+			int toSquare = bitscanForward(toBB);
+			moves[count++] = encode(fromSquare, toSquare, piece,
+					board[toSquare], EMPTY, 0);
+			toBB = bitscanClear(toBB);
+		}
+		return count;
+	}
+
+	private void addPiece(int color, int piece, int square) {
+		long squareBB = getBitboard(square);
+		pieceBB[color][piece] |= squareBB;
+		colorBB[color] |= squareBB;
+		occupiedBB |= squareBB;
+		board[square] = piece;
+	}
+
+	private int addPawnMove(int[] moves, int count, int fromSquare,
+			int toSquare, int capture) {
+		if (toSquare >= SQUARE_A8 || toSquare <= SQUARE_H1) {
+			moves[count++] = encode(fromSquare, toSquare, PAWN, capture,
+					QUEEN, Move.PROMOTION_CHARACTERISTIC);
+			moves[count++] = encode(fromSquare, toSquare, PAWN, capture,
+					KNIGHT, Move.PROMOTION_CHARACTERISTIC);
+			moves[count++] = encode(fromSquare, toSquare, PAWN, capture,
+					ROOK, Move.PROMOTION_CHARACTERISTIC);
+			moves[count++] = encode(fromSquare, toSquare, PAWN, capture,
+					BISHOP, Move.PROMOTION_CHARACTERISTIC);
+		} else {
+			moves[count++] = encode(fromSquare, toSquare, PAWN, capture,
+					EMPTY, 0);
+		}
+		return count;
+	}
+
+	/**
+	 * Returns a bitboard of all pieces of color attacking square with the
+	 * specified occupancy.
+	 */
+	private long attackers(int square, int color, long occupied) {
+		long[] pieces = pieceBB[color];
+		return knightMove(square) & pieces[KNIGHT]
+				| PAWN_ATTACKS[color ^ 1][square] & pieces[PAWN]
+				| kingMove(square) & pieces[KING]
+				| diagonalMove(square, ~occupied, occupied)
+				& (pieces[BISHOP] | pieces[QUEEN])
+				| orthogonalMove(square, ~occupied, occupied)
+				& (pieces[ROOK] | pieces[QUEEN]);
+	}
+
+	private int generateCastlingMoves(int[] moves, int count, int kingSquare,
+			int us, int them) {
+		int kingStart = us == WHITE ? SQUARE_E1 : SQUARE_E8;
+		if (kingSquare != kingStart || castling[us] == CASTLE_NONE) {
+			return count;
+		}
+
+		long rooksBB = pieceBB[us][ROOK];
+		if ((castling[us] & CASTLE_SHORT) != 0
+				&& (rooksBB & getBitboard(kingStart + 3)) != 0
+				&& (occupiedBB & (getBitboard(kingStart + 1) | getBitboard(kingStart + 2))) == 0
+				&& !isAttacked(kingStart + 1, them, occupiedBB)
+				&& !isAttacked(kingStart + 2, them, occupiedBB)) {
+			moves[count++] = encode(kingStart, kingStart + 2, KING, EMPTY,
+					EMPTY, Move.SHORT_CASTLING_CHARACTERISTIC);
+		}
+
+		if ((castling[us] & CASTLE_LONG) != 0
+				&& (rooksBB & getBitboard(kingStart - 4)) != 0
+				&& (occupiedBB & (getBitboard(kingStart - 1)
+						| getBitboard(kingStart - 2) | getBitboard(kingStart - 3))) == 0
+				&& !isAttacked(kingStart - 1, them, occupiedBB)
+				&& !isAttacked(kingStart - 2, them, occupiedBB)) {
+			moves[count++] = encode(kingStart, kingStart - 2, KING, EMPTY,
+					EMPTY, Move.LONG_CASTLING_CHARACTERISTIC);
+		}
+		return count;
+	}
+
+	private int generatePawnMoves(int[] moves, int count, int kingSquare,
+			int us, int them, long targetBB, long pinnedBB) {
+		int forward = us == WHITE ? 8 : -8;
+		long doublePushRank = us == WHITE ? RANK2 : RANK7;
+		long enemyBB = colorBB[them];
+		long fromBB = pieceBB[us][PAWN];
+
+		while (fromBB != 0) {
+			int fromSquare = bitscanForward(fromBB);
+			long squareBB = getBitboard(fromSquare);
+			long allowedBB = (pinnedBB & squareBB) != 0 ? targetBB
+					& LINE[kingSquare][fromSquare] : targetBB;
+
+			int toSquare = fromSquare + forward;
+			if ((occupiedBB & getBitboard(toSquare)) == 0) {
+				if ((allowedBB & getBitboard(toSquare)) != 0) {
+					count = addPawnMove(moves, count, fromSquare, toSquare,
+							EMPTY);
+				}
+				int doubleSquare = toSquare + forward;
+				if ((squareBB & doublePushRank) != 0
+						&& (occupiedBB & getBitboard(doubleSquare)) == 0
+						&& (allowedBB & getBitboard(doubleSquare)) != 0) {
+					moves[count++] = encode(fromSquare, doubleSquare, PAWN,
+							EMPTY, EMPTY, Move.DOUBLE_PAWN_PUSH_CHARACTERISTIC);
+				}
+			}
+
+			long toBB = PAWN_ATTACKS[us][fromSquare] & enemyBB & allowedBB;
+			while (toBB != 0) {
+				toSquare = bitscanForward(toBB);
+				count = addPawnMove(moves, count, fromSquare, toSquare,
+						board[toSquare]);
+				toBB = bitscanClear(toBB);
+			}
+
+			if (epSquare != EMPTY_SQUARE
+					&& (PAWN_ATTACKS[us][fromSquare] & getBitboard(epSquare)) != 0
+					&& isLegalEp(fromSquare, kingSquare, us, them)) {
+				moves[count++] = encode(fromSquare, epSquare, PAWN, PAWN,
+						EMPTY, Move.EN_PASSANT_CHARACTERISTIC);
+			}
+
+			fromBB = bitscanClear(fromBB);
+		}
+		return count;
+	}
+
+	private boolean isAttacked(int square, int color, long occupied) {
+		return attackers(square, color, occupied) != 0;
+	}
+
+	/**
+	 * En passant removes two pieces from the capturing rank, so it is checked
+	 * against the resulting occupancy instead of the pin masks.
+	 */
+	private boolean isLegalEp(int fromSquare, int kingSquare, int us, int them) {
+		int capturedSquare = us == WHITE ? epSquare - 8 : epSquare + 8;
+		long capturedBB = getBitboard(capturedSquare);
+		if ((pieceBB[them][PAWN] & capturedBB) == 0) {
+			return false;
+		}
+
+		long occupied = occupiedBB ^ getBitboard(fromSquare) ^ capturedBB
+				| getBitboard(epSquare);
+		pieceBB[them][PAWN] ^= capturedBB;
+		boolean result = !isAttacked(kingSquare, them, occupied);
+		pieceBB[them][PAWN] ^= capturedBB;
+		return result;
+	}
+
+	private void movePiece(int color, int piece, int from, int to) {
+		long fromToBB = getBitboard(from) | getBitboard(to);
+		pieceBB[color][piece] ^= fromToBB;
+		colorBB[color] ^= fromToBB;
+		occupiedBB ^= fromToBB;
+		board[to] = piece;
+		board[from] = EMPTY;
+	}
+
+	private long perft(int depth, int currentPly) {
+		int[] moves = moveBuffers[currentPly];
+		int count = generateLegalMoves(moves);
+		if (depth == 1) {
+			return count;
+		}
+
+		long result = 0L;
+		for (int i = 0; i < count; i++) {
+			makeMove(moves[i]);
+			result += perft(depth - 1, currentPly + 1);
+			unmakeMove(moves[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the pieces of color us pinned to the king on kingSquare.
+	 */
+	private long pinned(int kingSquare, int us, int them) {
+		long[] enemies = pieceBB[them];
+		long snipersBB = DIAGONAL_RAYS[kingSquare]
+				& (enemies[BISHOP] | enemies[QUEEN])
+				| ORTHOGONAL_RAYS[kingSquare]
+				& (enemies[ROOK] | enemies[QUEEN]);
+		long result = 0L;
+
+		while (snipersBB != 0) {
+			long betweenBB = BETWEEN[kingSquare][bitscanForward(snipersBB)]
+					& occupiedBB;
+			if (betweenBB != 0 && bitscanClear(betweenBB) == 0) {
+				result |= betweenBB & colorBB[us];
+			}
+			snipersBB = bitscanClear(snipersBB);
+		}
+		return result;
+	}
+
+	private void removePiece(int color, int piece, int square) {
+		long squareBB = getBitboard(square);
+		pieceBB[color][piece] ^= squareBB;
+		colorBB[color] ^= squareBB;
+		occupiedBB ^= squareBB;
+		board[square] = EMPTY;
+	}
+}
@@ -21,6 +21,7 @@ public class EcoInfo {
 	private String ecoCode;
 	private String openingName;
 	private String positionOnlyFen;
+	private long zobristHash;
 
 	/**
 	 * 
@@ -39,6 +40,17 @@ public class EcoInfo {
 		openingName = opening;
 	}
 
+	/**
+	 * @param zobristHash
+	 *            The Zobrist game hash of the position, see
+	 *            Game.getZobristGameHash().
+	 */
+	public EcoInfo(String positionOnlyFen, String eco, String opening,
+			long zobristHash) {
+		this(positionOnlyFen, eco, opening);
+		this.zobristHash = zobristHash;
+	}
+
 	/**
 	 * @return The ECO code.
 	 */
@@ -60,6 +72,13 @@ public class EcoInfo {
 		return positionOnlyFen;
 	}
 
+	/**
+	 * @return The Zobrist game hash of the position.
+	 */
+	public long getZobristHash() {
+		return zobristHash;
+	}
+
 	/**
 	 * @return <code>getOpening() + " : " + getVariation()</code>
 	 */
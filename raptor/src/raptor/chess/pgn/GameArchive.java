@@ -0,0 +1,877 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2011 RaptorProject (http://code.google.com/p/raptor-chess-interface/)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.chess.pgn;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import raptor.chess.Game;
+import raptor.chess.GameConstants;
+import raptor.chess.GameFactory;
+import raptor.chess.Move;
+import raptor.chess.MoveList;
+import raptor.chess.Variant;
+import raptor.chess.util.GameUtils;
+import raptor.chess.util.SanUtils;
+import raptor.util.RaptorLogger;
+
+/**
+ * A compact binary file of games, an alternative to saving them as pgn.
+ * Loading a game from an archive replays 16 bit move codes against the
+ * pseudo legal moves of the position instead of parsing pgn and resolving
+ * san.
+ * 
+ * <pre>
+ * File:   int MAGIC, int VERSION, blocks..., index, long indexOffset, int MAGIC
+ * Index:  int blockCount, (long offset, int compressedLength,
+ *         int uncompressedLength, int gameCount) per block
+ * Block:  deflated: varint stringCount, strings..., varint gameCount,
+ *         (varint length, game) per game
+ * Game:   variant, varint headerCount, (name, value)...,
+ *         varint moveCount, short code per move, varint annotationCount,
+ *         (varint moveIndex, byte type, data) per annotation
+ * </pre>
+ * 
+ * Strings are varint indexes into the string table of their block, so
+ * repeated header values such as events, player names, and time controls
+ * are stored once per block. Games are grouped BLOCK_SIZE to a block, and
+ * the index allows a single game to be loaded by inflating only its block.
+ * 
+ * Appending never overwrites data already in the file. New blocks, including
+ * a rewritten copy of the last block if it was not full, are written after
+ * the current footer and followed by a new index and footer. If an append is
+ * cut short, opening the archive falls back to the last complete footer.
+ * Once more than half of the file is superseded blocks and indexes, the
+ * archive is compacted into a temporary file which then replaces it.
+ * 
+ * Move codes store the to square in bits 0-5, the from square in bits 6-11
+ * (the dropped piece for drops), and the move kind in bits 12-15: 0 for a
+ * normal move, the promoted piece for promotions, or one of the KIND
+ * constants. Sublines are not stored. As in pgn, a game without a FEN header
+ * starts from the starting position of its variant.
+ */
+public class GameArchive {
+	public static final int BLOCK_SIZE = 64;
+
+	public static final String FILE_EXTENSION = ".rga";
+
+	public static final int MAGIC = 0x52474152;
+
+	public static final int VERSION = 1;
+
+	protected static final int ANNOTATION_ARROW = 3;
+	protected static final int ANNOTATION_COMMENT = 0;
+	protected static final int ANNOTATION_HIGHLIGHT = 4;
+	protected static final int ANNOTATION_NAG = 1;
+	protected static final int ANNOTATION_TIME_TAKEN = 2;
+
+	protected static final int KIND_DROP = 7;
+	protected static final int KIND_LONG_CASTLE = 9;
+	protected static final int KIND_SHORT_CASTLE = 8;
+
+	private static final int FILE_HEADER_LENGTH = 8;
+	private static final int FOOTER_LENGTH = 12;
+	private static final int INDEX_ENTRY_LENGTH = 20;
+
+	/**
+	 * Archives with less unused space than this are never compacted.
+	 */
+	private static final int MIN_COMPACT_BYTES = 64 * 1024;
+
+	private static final RaptorLogger LOG = RaptorLogger
+			.getLog(GameArchive.class);
+
+	/**
+	 * The strings of one block, in the order they were first used.
+	 */
+	protected static class StringTable {
+		Map<String, Integer> indexes = new HashMap<String, Integer>();
+		List<String> strings = new ArrayList<String>();
+
+		int indexOf(String string) {
+			Integer result = indexes.get(string);
+			if (result == null) {
+				result = strings.size();
+				indexes.put(string, result);
+				strings.add(string);
+			}
+			return result;
+		}
+	}
+
+	protected File file;
+	protected RandomAccessFile raf;
+
+	protected long[] blockOffsets = new long[0];
+	protected int[] blockCompressedLengths = new int[0];
+	protected int[] blockLengths = new int[0];
+	/**
+	 * The index of the first game in each block, used to binary search the
+	 * block a game is in.
+	 */
+	protected int[] blockFirstGames = new int[0];
+	protected int gameCount;
+	protected long indexOffset = FILE_HEADER_LENGTH;
+
+	protected int cachedBlock = -1;
+	protected String[] cachedBlockStrings;
+	protected int[] cachedBlockGameOffsets;
+	protected byte[] cachedBlockData;
+
+	public GameArchive(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Writes the games in the pgn file to a new archive. Returns the number
+	 * of games written. Games the pgn parser could not read are skipped.
+	 */
+	public static int convertFromPgn(File pgnFile, File archiveFile)
+			throws IOException {
+		ListMaintainingPgnParserListener listener = new ListMaintainingPgnParserListener();
+		new ParallelPgnParser(pgnFile).parse(listener);
+
+		archiveFile.delete();
+		GameArchive archive = new GameArchive(archiveFile);
+		try {
+			archive.open();
+			archive.append(listener.getGames());
+			return listener.getGames().size();
+		} finally {
+			archive.close();
+		}
+	}
+
+	/**
+	 * Writes every game in the archive to a pgn file.
+	 */
+	public static void convertToPgn(File archiveFile, File pgnFile)
+			throws IOException {
+		GameArchive archive = new GameArchive(archiveFile);
+		Writer writer = null;
+		try {
+			archive.open();
+			writer = new FileWriter(pgnFile, false);
+			for (int i = 0; i < archive.getGameCount(); i++) {
+				writer.write(archive.getGame(i).toPgn());
+				writer.write("\n\n");
+			}
+		} finally {
+			archive.close();
+			if (writer != null) {
+				writer.close();
+			}
+		}
+	}
+
+	public static boolean isArchive(String fileName) {
+		return fileName.toLowerCase().endsWith(FILE_EXTENSION);
+	}
+
+	/**
+	 * Encodes the move as a 16 bit move code.
+	 */
+	public static int encodeMove(Move move) {
+		int kind;
+		int from = move.getFrom();
+		if (move.isDrop()) {
+			kind = KIND_DROP;
+			from = move.getPiece() & GameConstants.NOT_PROMOTED_MASK;
+		} else if (move.isCastleShort()) {
+			kind = KIND_SHORT_CASTLE;
+		} else if (move.isCastleLong()) {
+			kind = KIND_LONG_CASTLE;
+		} else if (move.isPromotion()) {
+			kind = move.getPiecePromotedTo() & GameConstants.NOT_PROMOTED_MASK;
+		} else {
+			kind = 0;
+		}
+		return kind << 12 | (from & 63) << 6 | move.getTo() & 63;
+	}
+
+	/**
+	 * Appends the games to the end of the archive.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If a game is a bughouse game. Bughouse drops depend on the
+	 *             partner board and can not be replayed.
+	 */
+	public synchronized void append(List<Game> games) throws IOException {
+		if (games.isEmpty()) {
+			return;
+		}
+		for (Game game : games) {
+			if (Variant.isBughouse(game.getVariant())) {
+				throw new IllegalArgumentException(
+						"Bughouse games can not be archived.");
+			}
+		}
+
+		List<Game> toWrite = new ArrayList<Game>(games);
+		int blockCount = blockOffsets.length;
+		int newGameCount = gameCount;
+
+		// Rewrite the last block if it has room, so games saved one at a time
+		// still compress together. The old copy is left in place until the
+		// archive is compacted.
+		if (blockCount > 0
+				&& gameCount - blockFirstGames[blockCount - 1] < BLOCK_SIZE) {
+			blockCount--;
+			List<Game> lastBlock = new ArrayList<Game>();
+			for (int i = blockFirstGames[blockCount]; i < gameCount; i++) {
+				lastBlock.add(getGame(i));
+			}
+			toWrite.addAll(0, lastBlock);
+			newGameCount = blockFirstGames[blockCount];
+		}
+
+		int newBlockCount = blockCount + (toWrite.size() + BLOCK_SIZE - 1)
+				/ BLOCK_SIZE;
+		long[] newOffsets = Arrays.copyOf(blockOffsets, newBlockCount);
+		int[] newCompressedLengths = Arrays.copyOf(blockCompressedLengths,
+				newBlockCount);
+		int[] newLengths = Arrays.copyOf(blockLengths, newBlockCount);
+		int[] newFirstGames = Arrays.copyOf(blockFirstGames, newBlockCount);
+
+		raf.seek(raf.length());
+		for (int i = 0; i < toWrite.size(); i += BLOCK_SIZE) {
+			byte[] block = encodeBlock(toWrite.subList(i, Math.min(i
+					+ BLOCK_SIZE, toWrite.size())));
+			byte[] compressed = deflate(block);
+
+			newOffsets[blockCount] = raf.getFilePointer();
+			newCompressedLengths[blockCount] = compressed.length;
+			newLengths[blockCount] = block.length;
+			newFirstGames[blockCount] = newGameCount;
+			raf.write(compressed);
+
+			newGameCount += Math.min(BLOCK_SIZE, toWrite.size() - i);
+			blockCount++;
+		}
+		// The blocks must be on disk before a footer which refers to them.
+		raf.getFD().sync();
+
+		blockOffsets = newOffsets;
+		blockCompressedLengths = newCompressedLengths;
+		blockLengths = newLengths;
+		blockFirstGames = newFirstGames;
+		gameCount = newGameCount;
+		cachedBlock = -1;
+		writeIndex();
+		raf.getFD().sync();
+
+		long unusedBytes = raf.length() - getUsedLength();
+		if (unusedBytes > MIN_COMPACT_BYTES
+				&& unusedBytes > raf.length() / 2) {
+			compact();
+		}
+	}
+
+	public synchronized void close() {
+		if (raf != null) {
+			try {
+				raf.close();
+			} catch (IOException ioe) {
+			}
+			raf = null;
+		}
+		cachedBlock = -1;
+		cachedBlockData = null;
+	}
+
+	/**
+	 * Copies the blocks in use to a temporary file with a new index, and
+	 * replaces the archive with it. Blocks are copied without being
+	 * decoded.
+	 */
+	public synchronized void compact() throws IOException {
+		File tempFile = getTempFile();
+		RandomAccessFile out = new RandomAccessFile(tempFile, "rw");
+		long[] newOffsets = new long[blockOffsets.length];
+		try {
+			out.setLength(0);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			for (int i = 0; i < blockOffsets.length; i++) {
+				byte[] compressed = new byte[blockCompressedLengths[i]];
+				raf.seek(blockOffsets[i]);
+				raf.readFully(compressed);
+				newOffsets[i] = out.getFilePointer();
+				out.write(compressed);
+			}
+			out.write(encodeIndex(newOffsets, out.getFilePointer()));
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+
+		long oldLength = raf.length();
+		raf.close();
+		raf = null;
+		cachedBlock = -1;
+		if (!file.delete()) {
+			tempFile.delete();
+			raf = new RandomAccessFile(file, "rw");
+			throw new IOException("Could not replace " + file);
+		}
+		if (!tempFile.renameTo(file)) {
+			throw new IOException("Could not rename " + tempFile + " to "
+					+ file);
+		}
+		raf = new RandomAccessFile(file, "rw");
+		blockOffsets = newOffsets;
+		indexOffset = raf.length() - FOOTER_LENGTH - INDEX_ENTRY_LENGTH
+				* blockOffsets.length - 4;
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Compacted " + file + " from " + oldLength + " to "
+					+ raf.length() + " bytes.");
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns the game at the specified index. Only the block containing the
+	 * game is read, and the last block read is kept in memory.
+	 */
+	public synchronized Game getGame(int index) throws IOException {
+		if (index < 0 || index >= gameCount) {
+			throw new IndexOutOfBoundsException("Game " + index + " of "
+					+ gameCount);
+		}
+		int block = Arrays.binarySearch(blockFirstGames, index);
+		if (block < 0) {
+			block = -block - 2;
+		}
+		loadBlock(block);
+
+		int gameInBlock = index - blockFirstGames[block];
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+				cachedBlockData, cachedBlockGameOffsets[gameInBlock],
+				cachedBlockData.length - cachedBlockGameOffsets[gameInBlock]));
+		return decodeGame(in, cachedBlockStrings);
+	}
+
+	public synchronized int getGameCount() {
+		return gameCount;
+	}
+
+	/**
+	 * Returns all of the games in the archive.
+	 */
+	public synchronized List<Game> getGames() throws IOException {
+		List<Game> result = new ArrayList<Game>(gameCount);
+		for (int i = 0; i < gameCount; i++) {
+			result.add(getGame(i));
+		}
+		return result;
+	}
+
+	/**
+	 * Opens the archive, creating it if it does not exist. If a compaction
+	 * was interrupted after the archive was removed, the compacted copy is
+	 * moved into place first.
+	 */
+	public synchronized void open() throws IOException {
+		File tempFile = getTempFile();
+		if (tempFile.exists()) {
+			if (file.exists()) {
+				tempFile.delete();
+			} else if (!tempFile.renameTo(file)) {
+				throw new IOException("Could not rename " + tempFile + " to "
+						+ file);
+			}
+		}
+
+		raf = new RandomAccessFile(file, "rw");
+		if (raf.length() == 0) {
+			raf.writeInt(MAGIC);
+			raf.writeInt(VERSION);
+			writeIndex();
+		} else {
+			readIndex();
+		}
+	}
+
+	protected Game decodeGame(DataInputStream in, String[] strings)
+			throws IOException {
+		Variant variant = Variant.valueOf(strings[readVarInt(in)]);
+
+		Map<PgnHeader, String> headers = new HashMap<PgnHeader, String>();
+		int headerCount = readVarInt(in);
+		for (int i = 0; i < headerCount; i++) {
+			PgnHeader header = PgnHeader.valueOf(strings[readVarInt(in)]);
+			headers.put(header, strings[readVarInt(in)]);
+		}
+
+		String fen = headers.get(PgnHeader.FEN);
+		Game game = fen == null ? GameFactory.createStartingPosition(variant)
+				: GameFactory.createFromFen(fen, variant);
+		for (Map.Entry<PgnHeader, String> header : headers.entrySet()) {
+			game.setHeader(header.getKey(), header.getValue());
+		}
+
+		game.addState(Game.UPDATING_SAN_STATE);
+		int moveCount = readVarInt(in);
+		for (int i = 0; i < moveCount; i++) {
+			int code = in.readShort() & 0xffff;
+			Move move = decodeMove(game, code);
+			if (move == null || !game.move(move)) {
+				throw new IOException("Invalid move code " + code + " in "
+						+ file + " at " + game.toFen());
+			}
+			completeSan(game, move, i == moveCount - 1);
+		}
+
+		MoveList moves = game.getMoveList();
+		int annotationCount = readVarInt(in);
+		for (int i = 0; i < annotationCount; i++) {
+			Move move = moves.get(readVarInt(in));
+			switch (in.readByte()) {
+			case ANNOTATION_COMMENT:
+				move.addAnnotation(new Comment(strings[readVarInt(in)]));
+				break;
+			case ANNOTATION_NAG:
+				move.addAnnotation(Nag.valueOf(strings[readVarInt(in)]));
+				break;
+			case ANNOTATION_TIME_TAKEN:
+				move.addAnnotation(new TimeTakenForMove(
+						strings[readVarInt(in)]));
+				break;
+			case ANNOTATION_ARROW:
+				move.addAnnotation(new Arrow(in.readByte(), in.readByte()));
+				break;
+			case ANNOTATION_HIGHLIGHT:
+				move.addAnnotation(new Highlight(in.readByte()));
+				break;
+			default:
+				throw new IOException("Invalid annotation in " + file);
+			}
+		}
+
+		game.addState(Game.INACTIVE_STATE);
+		game.addState(Game.UPDATING_ECO_HEADERS_STATE);
+		return game;
+	}
+
+	/**
+	 * Games parsed from pgn keep the san of the pgn, while the game
+	 * generates a shorter form for pawn captures and no check suffix. This
+	 * fills those in after the move is made so the moves read the same as
+	 * standard pgn. Drops are written with upper case pieces.
+	 */
+	protected void completeSan(Game game, Move move, boolean isLastMove) {
+		String san = move.getSan();
+		if (move.isDrop()) {
+			san = GameConstants.PIECE_TO_SAN.charAt(move.getPiece()
+					& GameConstants.NOT_PROMOTED_MASK)
+					+ "@" + SanUtils.squareToSan(move.getTo());
+		} else if (move.getPiece() == GameConstants.PAWN && move.isCapture()) {
+			san = SanUtils.squareToFileSan(move.getFrom())
+					+ "x"
+					+ SanUtils.squareToSan(move.getTo())
+					+ (move.isPromotion() ? "="
+							+ GameConstants.PIECE_TO_SAN.charAt(move
+									.getPiecePromotedTo()
+									& GameConstants.NOT_PROMOTED_MASK) : "");
+		}
+		if (game.getVariant() != Variant.suicide && game.isInCheck()) {
+			// Only the last move of a game can be mate.
+			san += isLastMove && game.isCheckmate() ? "#" : "+";
+		}
+		move.setSan(san);
+	}
+
+	/**
+	 * Returns the move the code was encoded from in the current position, or
+	 * null if there is none. Plain moves and captures are built the same way
+	 * in every variant except atomic, so they are created directly, which
+	 * avoids generating every pseudo legal move for most moves of a game.
+	 * Castling, drops, promotions, en passant, and atomic captures are
+	 * matched against the pseudo legal moves so variant specific information
+	 * such as atomic explosions is set.
+	 */
+	public static Move decodeMove(Game game, int code) {
+		int to = code & 63;
+		int from = code >> 6 & 63;
+		int colorToMove = game.getColorToMove();
+		int capture = game.getPieceWithPromoteMask(to);
+
+		if (code >> 12 == 0
+				&& (game.getColorBB(colorToMove) & GameUtils.getBitboard(from)) != 0
+				&& (game.getColorBB(colorToMove) & GameUtils.getBitboard(to)) == 0
+				&& (capture == GameConstants.EMPTY || game.getVariant() != Variant.atomic)) {
+			int piece = game.getPieceWithPromoteMask(from);
+			int distance = Math.abs(to - from);
+			if (piece != GameConstants.PAWN) {
+				return new Move(from, to, piece, colorToMove, capture);
+			} else if (capture == GameConstants.EMPTY ? distance == 8
+					: distance == 7 || distance == 9) {
+				return new Move(from, to, piece, colorToMove, capture);
+			} else if (capture == GameConstants.EMPTY && distance == 16) {
+				return new Move(from, to, piece, colorToMove,
+						GameConstants.EMPTY, GameConstants.EMPTY,
+						(from + to) / 2, Move.DOUBLE_PAWN_PUSH_CHARACTERISTIC);
+			}
+		}
+
+		Move[] candidates = game.getPseudoLegalMoves().asArray();
+		for (Move candidate : candidates) {
+			if (encodeMove(candidate) == code) {
+				return candidate;
+			}
+		}
+		return null;
+	}
+
+	protected byte[] encodeBlock(List<Game> games) throws IOException {
+		StringTable strings = new StringTable();
+		ByteArrayOutputStream gamesBytes = new ByteArrayOutputStream(
+				games.size() * 256);
+		DataOutputStream gamesOut = new DataOutputStream(gamesBytes);
+		ByteArrayOutputStream gameBytes = new ByteArrayOutputStream(512);
+
+		for (Game game : games) {
+			gameBytes.reset();
+			encodeGame(new DataOutputStream(gameBytes), game, strings);
+			writeVarInt(gamesOut, gameBytes.size());
+			gameBytes.writeTo(gamesOut);
+		}
+
+		ByteArrayOutputStream result = new ByteArrayOutputStream(gamesBytes
+				.size()
+				+ strings.strings.size() * 16 + 16);
+		DataOutputStream out = new DataOutputStream(result);
+		writeVarInt(out, strings.strings.size());
+		for (String string : strings.strings) {
+			byte[] utf8 = string.getBytes("UTF-8");
+			writeVarInt(out, utf8.length);
+			out.write(utf8);
+		}
+		writeVarInt(out, games.size());
+		gamesBytes.writeTo(out);
+		return result.toByteArray();
+	}
+
+	protected void encodeGame(DataOutputStream out, Game game,
+			StringTable strings) throws IOException {
+		MoveList moves = game.getMoveList();
+
+		writeVarInt(out, strings.indexOf(game.getVariant().name()));
+
+		PgnHeader[] headers = game.getAllHeaders();
+		writeVarInt(out, headers.length);
+		for (PgnHeader header : headers) {
+			writeVarInt(out, strings.indexOf(header.name()));
+			String value = game.getHeader(header);
+			writeVarInt(out, strings.indexOf(value == null ? "" : value));
+		}
+
+		writeVarInt(out, moves.getSize());
+		int annotationCount = 0;
+		for (int i = 0; i < moves.getSize(); i++) {
+			out.writeShort(encodeMove(moves.get(i)));
+			for (MoveAnnotation annotation : moves.get(i).getAnnotations()) {
+				if (!(annotation instanceof SublineNode)) {
+					annotationCount++;
+				}
+			}
+		}
+
+		writeVarInt(out, annotationCount);
+		for (int i = 0; i < moves.getSize(); i++) {
+			for (MoveAnnotation annotation : moves.get(i).getAnnotations()) {
+				if (annotation instanceof SublineNode) {
+					continue;
+				}
+				writeVarInt(out, i);
+				if (annotation instanceof Comment) {
+					out.writeByte(ANNOTATION_COMMENT);
+					writeVarInt(out, strings.indexOf(((Comment) annotation)
+							.getText()));
+				} else if (annotation instanceof Nag) {
+					out.writeByte(ANNOTATION_NAG);
+					writeVarInt(out, strings.indexOf(((Nag) annotation)
+							.name()));
+				} else if (annotation instanceof TimeTakenForMove) {
+					out.writeByte(ANNOTATION_TIME_TAKEN);
+					writeVarInt(out, strings
+							.indexOf(((TimeTakenForMove) annotation)
+									.getText()));
+				} else if (annotation instanceof Arrow) {
+					out.writeByte(ANNOTATION_ARROW);
+					out.writeByte(((Arrow) annotation).getStartSquare());
+					out.writeByte(((Arrow) annotation).getEndSquare());
+				} else if (annotation instanceof Highlight) {
+					out.writeByte(ANNOTATION_HIGHLIGHT);
+					out.writeByte(((Highlight) annotation).getSquare());
+				} else {
+					// Unknown annotations are kept as comments.
+					out.writeByte(ANNOTATION_COMMENT);
+					writeVarInt(out, strings.indexOf(annotation.toString()));
+				}
+			}
+		}
+	}
+
+	protected void loadBlock(int block) throws IOException {
+		if (cachedBlock == block) {
+			return;
+		}
+		byte[] compressed = new byte[blockCompressedLengths[block]];
+		raf.seek(blockOffsets[block]);
+		raf.readFully(compressed);
+		byte[] data = inflate(compressed, blockLengths[block]);
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+				data));
+		String[] strings = new String[readVarInt(in)];
+		for (int i = 0; i < strings.length; i++) {
+			byte[] utf8 = new byte[readVarInt(in)];
+			in.readFully(utf8);
+			strings[i] = new String(utf8, "UTF-8");
+		}
+
+		int[] gameOffsets = new int[readVarInt(in)];
+		for (int i = 0; i < gameOffsets.length; i++) {
+			int length = readVarInt(in);
+			gameOffsets[i] = data.length - in.available();
+			in.skipBytes(length);
+		}
+
+		cachedBlock = block;
+		cachedBlockData = data;
+		cachedBlockStrings = strings;
+		cachedBlockGameOffsets = gameOffsets;
+	}
+
+	/**
+	 * Returns the index and footer of the blocks in use.
+	 */
+	protected byte[] encodeIndex(long[] offsets, long offset)
+			throws IOException {
+		int blockCount = offsets.length;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(4 + blockCount
+				* INDEX_ENTRY_LENGTH + FOOTER_LENGTH);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(blockCount);
+		for (int i = 0; i < blockCount; i++) {
+			out.writeLong(offsets[i]);
+			out.writeInt(blockCompressedLengths[i]);
+			out.writeInt(blockLengths[i]);
+			out.writeInt((i == blockCount - 1 ? gameCount
+					: blockFirstGames[i + 1])
+					- blockFirstGames[i]);
+		}
+		out.writeLong(offset);
+		out.writeInt(MAGIC);
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Returns the file a compaction is written to before it replaces the
+	 * archive.
+	 */
+	protected File getTempFile() {
+		return new File(file.getPath() + ".tmp");
+	}
+
+	/**
+	 * Returns the number of bytes of the file the current blocks, index, and
+	 * footer take up.
+	 */
+	protected long getUsedLength() {
+		long result = FILE_HEADER_LENGTH + 4 + INDEX_ENTRY_LENGTH
+				* blockOffsets.length + FOOTER_LENGTH;
+		for (int compressedLength : blockCompressedLengths) {
+			result += compressedLength;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns true if footerOffset is the offset of a footer whose index
+	 * ends at the footer.
+	 */
+	protected boolean isFooter(long footerOffset) throws IOException {
+		raf.seek(footerOffset);
+		long offset = raf.readLong();
+		if (raf.readInt() != MAGIC || offset < FILE_HEADER_LENGTH
+				|| offset > footerOffset - 4) {
+			return false;
+		}
+		raf.seek(offset);
+		long blockCount = raf.readInt();
+		return offset + 4 + blockCount * INDEX_ENTRY_LENGTH == footerOffset;
+	}
+
+	protected void readIndex() throws IOException {
+		raf.seek(0);
+		if (raf.readInt() != MAGIC || raf.readInt() != VERSION
+				|| raf.length() < FILE_HEADER_LENGTH + FOOTER_LENGTH) {
+			throw new IOException(file + " is not a game archive.");
+		}
+
+		// An append which was cut short leaves a partial tail after the last
+		// complete footer. Search back for that footer and drop the tail.
+		long footerOffset = raf.length() - FOOTER_LENGTH;
+		while (!isFooter(footerOffset)) {
+			footerOffset = findPreviousMagic(footerOffset);
+			if (footerOffset < FILE_HEADER_LENGTH) {
+				throw new IOException(file + " has no index.");
+			}
+		}
+		if (footerOffset != raf.length() - FOOTER_LENGTH) {
+			LOG.warn("Discarding "
+					+ (raf.length() - footerOffset - FOOTER_LENGTH)
+					+ " bytes of an incomplete append to " + file);
+			raf.setLength(footerOffset + FOOTER_LENGTH);
+		}
+
+		raf.seek(footerOffset);
+		indexOffset = raf.readLong();
+		raf.seek(indexOffset);
+		int blockCount = raf.readInt();
+		blockOffsets = new long[blockCount];
+		blockCompressedLengths = new int[blockCount];
+		blockLengths = new int[blockCount];
+		blockFirstGames = new int[blockCount];
+		gameCount = 0;
+		for (int i = 0; i < blockCount; i++) {
+			blockOffsets[i] = raf.readLong();
+			blockCompressedLengths[i] = raf.readInt();
+			blockLengths[i] = raf.readInt();
+			blockFirstGames[i] = gameCount;
+			gameCount += raf.readInt();
+		}
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Opened " + file + " " + gameCount + " games in "
+					+ blockCount + " blocks.");
+		}
+	}
+
+	/**
+	 * Writes the index and footer at the end of the file.
+	 */
+	protected void writeIndex() throws IOException {
+		indexOffset = raf.length();
+		raf.seek(indexOffset);
+		raf.write(encodeIndex(blockOffsets, indexOffset));
+	}
+
+	/**
+	 * Returns the offset of the footer which would end with the last MAGIC
+	 * before footerOffset, or -1 if there is none.
+	 */
+	private long findPreviousMagic(long footerOffset) throws IOException {
+		byte[] magic = { (byte) (MAGIC >>> 24), (byte) (MAGIC >>> 16),
+				(byte) (MAGIC >>> 8), (byte) MAGIC };
+		byte[] buffer = new byte[64 * 1024];
+		// The end of the MAGIC of the footer to search before.
+		long end = footerOffset + FOOTER_LENGTH;
+		while (end - 1 > FILE_HEADER_LENGTH + FOOTER_LENGTH) {
+			long start = Math.max(FILE_HEADER_LENGTH, end - 1 - buffer.length);
+			int length = (int) (end - 1 - start);
+			raf.seek(start);
+			raf.readFully(buffer, 0, length);
+			for (int i = length - magic.length; i >= 0; i--) {
+				if (buffer[i] == magic[0] && buffer[i + 1] == magic[1]
+						&& buffer[i + 2] == magic[2]
+						&& buffer[i + 3] == magic[3]) {
+					return start + i + magic.length - FOOTER_LENGTH;
+				}
+			}
+			end = start + magic.length;
+		}
+		return -1;
+	}
+
+	private byte[] deflate(byte[] data) {
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+			ByteArrayOutputStream result = new ByteArrayOutputStream(
+					data.length / 3 + 64);
+			byte[] buffer = new byte[8192];
+			while (!deflater.finished()) {
+				result.write(buffer, 0, deflater.deflate(buffer));
+			}
+			return result.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private byte[] inflate(byte[] compressed, int length) throws IOException {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed);
+			byte[] result = new byte[length];
+			int inflated = 0;
+			while (inflated < length && !inflater.finished()) {
+				inflated += inflater.inflate(result, inflated, length
+						- inflated);
+			}
+			if (inflated != length) {
+				throw new IOException("Truncated block in " + file);
+			}
+			return result;
+		} catch (DataFormatException dfe) {
+			throw new IOException("Corrupt block in " + file + ": "
+					+ dfe.getMessage());
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private static int readVarInt(DataInputStream in) throws IOException {
+		int result = 0;
+		for (int shift = 0;; shift += 7) {
+			int b = in.readByte();
+			result |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return result;
+			}
+		}
+	}
+
+	private static void writeVarInt(DataOutputStream out, int value)
+			throws IOException {
+		while ((value & ~0x7f) != 0) {
+			out.writeByte(value & 0x7f | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+}
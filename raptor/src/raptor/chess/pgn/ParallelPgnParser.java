@@ -0,0 +1,437 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2011 RaptorProject (http://code.google.com/p/raptor-chess-interface/)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.chess.pgn;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import raptor.chess.Game;
+import raptor.chess.pgn.chesspresso.ChesspressoPgnListener;
+import raptor.chess.pgn.chesspresso.ChesspressoPgnParser;
+import raptor.util.RaptorLogger;
+import chesspresso.pgn.PGNSyntaxError;
+
+/**
+ * Parses a pgn file on several threads. The file is memory mapped and scanned
+ * for lines starting with [Event, and split at those game boundaries into
+ * chunks. Every chunk is parsed on a worker thread with its own parser and
+ * listener, and the results are handed back on the calling thread in the
+ * order the chunks appear in the file, so listeners see the games in the same
+ * order a single threaded parse would produce them.
+ */
+public class ParallelPgnParser {
+
+	/**
+	 * Parses one chunk of pgn. Called on a worker thread.
+	 */
+	public static interface ChunkParser<T> {
+		public T parseChunk(String pgn) throws Exception;
+	}
+
+	/**
+	 * Receives the result of each chunk on the thread that invoked parse, in
+	 * file order.
+	 */
+	public static interface ChunkListener<T> {
+		/**
+		 * @param firstLineNumber
+		 *            The number of lines in the file before the chunk.
+		 * @param bytesParsed
+		 *            The number of bytes of the file parsed up to and
+		 *            including this chunk.
+		 */
+		public void chunkParsed(T result, int firstLineNumber,
+				long bytesParsed, long totalBytes);
+	}
+
+	protected static class Chunk {
+		long end;
+		int firstLineNumber;
+		long start;
+
+		Chunk(long start, long end, int firstLineNumber) {
+			this.start = start;
+			this.end = end;
+			this.firstLineNumber = firstLineNumber;
+		}
+	}
+
+	/**
+	 * Collects the games, their line numbers, and the errors of one chunk in
+	 * the order they were encountered.
+	 */
+	protected static class ChunkResult extends LenientPgnParserListener {
+		ArrayList<Integer> gameLineNumbers = new ArrayList<Integer>();
+		/**
+		 * The Games and PgnParserErrors of the chunk.
+		 */
+		ArrayList<Object> parsed = new ArrayList<Object>();
+
+		@Override
+		public void errorEncountered(PgnParserError error) {
+			parsed.add(error);
+		}
+
+		@Override
+		public void gameParsed(Game game, int lineNumber) {
+			parsed.add(game);
+			gameLineNumbers.add(lineNumber);
+		}
+	}
+
+	/**
+	 * Collects the Chesspresso games, their line numbers, and the errors of
+	 * one chunk in the order they were encountered.
+	 */
+	protected static class ChesspressoChunkResult extends
+			ChesspressoPgnListener {
+		ArrayList<Integer> gameLineNumbers = new ArrayList<Integer>();
+		/**
+		 * The chesspresso Games and PGNSyntaxErrors of the chunk.
+		 */
+		ArrayList<Object> parsed = new ArrayList<Object>();
+
+		@Override
+		public void error(PGNSyntaxError error) {
+			parsed.add(error);
+		}
+
+		@Override
+		public void gameParsed(chesspresso.game.Game game, int lineNumber) {
+			if (game != null) {
+				parsed.add(game);
+				gameLineNumbers.add(lineNumber);
+			}
+		}
+	}
+
+	/**
+	 * Each thread gets several chunks so a chunk of long games does not leave
+	 * the other threads idle at the end of the parse.
+	 */
+	public static final int CHUNKS_PER_THREAD = 4;
+
+	/**
+	 * Chunks are closed at the first game boundary after this many bytes, so
+	 * huge files on few threads still map and decode in bounded pieces.
+	 */
+	public static final int MAX_CHUNK_BYTES = 32 * 1024 * 1024;
+
+	/**
+	 * Chunks smaller than this are not worth handing to another thread.
+	 */
+	public static final int MIN_CHUNK_BYTES = 256 * 1024;
+
+	private static final byte[] GAME_START = SimplePgnParser.GAME_START_WORD
+			.getBytes();
+
+	private static final RaptorLogger LOG = RaptorLogger
+			.getLog(ParallelPgnParser.class);
+
+	private static final int SCAN_WINDOW_BYTES = 64 * 1024 * 1024;
+
+	/**
+	 * The kinds of line split tells apart to find {} comments.
+	 */
+	private static final int LINE_IGNORED = 3;
+	private static final int LINE_MOVE_TEXT = 2;
+	private static final int LINE_START = 0;
+	private static final int LINE_TAG = 1;
+
+	protected Charset charset = Charset.defaultCharset();
+	protected File file;
+	protected int threadCount;
+
+	public ParallelPgnParser(File file) {
+		this(file, Runtime.getRuntime().availableProcessors());
+	}
+
+	public ParallelPgnParser(File file, int threadCount) {
+		this.file = file;
+		this.threadCount = Math.max(1, threadCount);
+	}
+
+	/**
+	 * Parses the file with a StreamingPgnParser per chunk. Games and errors
+	 * are passed to the listener on the calling thread in file order, with
+	 * line numbers relative to the start of the file. Exceptions thrown by
+	 * the listener abort the parse.
+	 */
+	public void parse(final LenientPgnParserListener listener)
+			throws IOException {
+		parse(new ChunkParser<ChunkResult>() {
+			public ChunkResult parseChunk(String pgn) throws Exception {
+				StreamingPgnParser parser = new StreamingPgnParser(
+						new StringReader(pgn), Integer.MAX_VALUE);
+				ChunkResult result = new ChunkResult();
+				parser.addPgnParserListener(result);
+				parser.parse();
+				return result;
+			}
+		}, new ChunkListener<ChunkResult>() {
+			public void chunkParsed(ChunkResult result, int firstLineNumber,
+					long bytesParsed, long totalBytes) {
+				int gameIndex = 0;
+				for (Object parsed : result.parsed) {
+					if (parsed instanceof Game) {
+						listener.gameParsed((Game) parsed,
+								result.gameLineNumbers.get(gameIndex++)
+										+ firstLineNumber);
+					} else {
+						PgnParserError error = (PgnParserError) parsed;
+						listener.errorEncountered(new PgnParserError(error
+								.getType(), error.getAction(), error
+								.getLineNumber()
+								+ firstLineNumber, error.getArgs()));
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Parses the file with a ChesspressoPgnParser per chunk. Games and errors
+	 * are passed to the listener on the calling thread in file order, with
+	 * line numbers relative to the start of the file.
+	 */
+	public void parse(final ChesspressoPgnListener listener)
+			throws IOException {
+		parse(new ChunkParser<ChesspressoChunkResult>() {
+			public ChesspressoChunkResult parseChunk(String pgn)
+					throws Exception {
+				ChesspressoPgnParser parser = new ChesspressoPgnParser(
+						new StringReader(pgn));
+				ChesspressoChunkResult result = new ChesspressoChunkResult();
+				parser.addPgnParserListener(result);
+				parser.parse();
+				return result;
+			}
+		}, new ChunkListener<ChesspressoChunkResult>() {
+			public void chunkParsed(ChesspressoChunkResult result,
+					int firstLineNumber, long bytesParsed, long totalBytes) {
+				int gameIndex = 0;
+				for (Object parsed : result.parsed) {
+					if (parsed instanceof chesspresso.game.Game) {
+						listener.gameParsed((chesspresso.game.Game) parsed,
+								result.gameLineNumbers.get(gameIndex++)
+										+ firstLineNumber);
+					} else {
+						PGNSyntaxError error = (PGNSyntaxError) parsed;
+						listener.error(new PGNSyntaxError(error.getSeverity(),
+								error.getMessage(), error.getFilename(), error
+										.getLineNumber()
+										+ firstLineNumber, error.getLastToken()));
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Splits the file into chunks, parses them on a pool of threadCount
+	 * threads, and passes each result to the listener in file order. A file
+	 * which yields only one chunk is parsed on the calling thread.
+	 */
+	public <T> void parse(final ChunkParser<T> parser,
+			ChunkListener<T> listener) throws IOException {
+		long startTime = System.currentTimeMillis();
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		ExecutorService executor = null;
+		try {
+			final FileChannel channel = raf.getChannel();
+			long length = channel.size();
+			List<Chunk> chunks = split(channel, length);
+
+			if (chunks.size() == 1) {
+				Chunk chunk = chunks.get(0);
+				listener.chunkParsed(call(parser, readChunk(channel, chunk)),
+						chunk.firstLineNumber, length, length);
+				return;
+			}
+
+			executor = Executors.newFixedThreadPool(Math.min(threadCount,
+					chunks.size()), new ThreadFactory() {
+				int count = 0;
+
+				public Thread newThread(Runnable runnable) {
+					Thread result = new Thread(runnable, "ParallelPgnParser-"
+							+ count++);
+					result.setDaemon(true);
+					return result;
+				}
+			});
+
+			List<Future<T>> futures = new ArrayList<Future<T>>(chunks.size());
+			for (final Chunk chunk : chunks) {
+				futures.add(executor.submit(new Callable<T>() {
+					public T call() throws Exception {
+						return parser.parseChunk(readChunk(channel, chunk));
+					}
+				}));
+			}
+
+			for (int i = 0; i < chunks.size(); i++) {
+				T result;
+				try {
+					result = futures.get(i).get();
+				} catch (InterruptedException ie) {
+					throw new RuntimeException(ie);
+				} catch (ExecutionException ee) {
+					throw unwrap(ee.getCause());
+				}
+				listener.chunkParsed(result, chunks.get(i).firstLineNumber,
+						chunks.get(i).end, length);
+			}
+
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Parsed " + file.getName() + " in "
+						+ chunks.size() + " chunks on "
+						+ Math.min(threadCount, chunks.size()) + " threads in "
+						+ (System.currentTimeMillis() - startTime) + "ms");
+			}
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+			try {
+				raf.close();
+			} catch (IOException ioe) {
+			}
+		}
+	}
+
+	/**
+	 * Splits the file into chunks of roughly length / (threadCount *
+	 * CHUNKS_PER_THREAD) bytes, but no smaller than MIN_CHUNK_BYTES and no
+	 * larger than MAX_CHUNK_BYTES plus the game which crosses it. Chunks
+	 * only ever start at the beginning of the file or of a line starting with
+	 * [Event outside of a {} comment, so no game is split across two chunks.
+	 * As in PgnFileIndex, braces are only counted in move text, and ; starts
+	 * a comment to the end of the line.
+	 */
+	protected List<Chunk> split(FileChannel channel, long length)
+			throws IOException {
+		long targetSize = Math.min(MAX_CHUNK_BYTES, Math.max(
+				MIN_CHUNK_BYTES, length / (threadCount * CHUNKS_PER_THREAD)));
+		List<Chunk> result = new ArrayList<Chunk>();
+
+		long chunkStart = 0;
+		int chunkFirstLine = 0;
+		int lines = 0;
+		// The number of bytes of GAME_START matched at the start of the
+		// current line, or -1 if the line can no longer match.
+		int matched = 0;
+		int braceDepth = 0;
+		int lineType = LINE_START;
+
+		for (long windowStart = 0; windowStart < length; windowStart += SCAN_WINDOW_BYTES) {
+			int windowSize = (int) Math.min(SCAN_WINDOW_BYTES, length
+					- windowStart);
+			MappedByteBuffer window = channel.map(
+					FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+
+			for (int i = 0; i < windowSize; i++) {
+				byte b = window.get(i);
+				if (matched != -1) {
+					if (b == GAME_START[matched]) {
+						if (++matched == GAME_START.length) {
+							long gameStart = windowStart + i - matched + 1;
+							if (gameStart - chunkStart >= targetSize) {
+								result.add(new Chunk(chunkStart, gameStart,
+										chunkFirstLine));
+								chunkStart = gameStart;
+								chunkFirstLine = lines;
+							}
+							matched = -1;
+						}
+					} else {
+						matched = -1;
+					}
+				}
+				if (b == '\n') {
+					lines++;
+					matched = braceDepth == 0 ? 0 : -1;
+					lineType = LINE_START;
+					continue;
+				}
+
+				if (lineType == LINE_START) {
+					if (braceDepth > 0) {
+						lineType = LINE_MOVE_TEXT;
+					} else if (b == ' ' || b == '\t' || b == '\r') {
+						continue;
+					} else if (b == '[') {
+						lineType = LINE_TAG;
+					} else if (b == '%') {
+						lineType = LINE_IGNORED;
+					} else {
+						lineType = LINE_MOVE_TEXT;
+					}
+				}
+				if (lineType == LINE_MOVE_TEXT) {
+					if (b == '{') {
+						braceDepth++;
+					} else if (b == '}' && braceDepth > 0) {
+						braceDepth--;
+					} else if (b == ';' && braceDepth == 0) {
+						// Rest of line comment.
+						lineType = LINE_IGNORED;
+					}
+				}
+			}
+		}
+		result.add(new Chunk(chunkStart, length, chunkFirstLine));
+		return result;
+	}
+
+	protected String readChunk(FileChannel channel, Chunk chunk)
+			throws IOException {
+		return charset.decode(
+				channel.map(FileChannel.MapMode.READ_ONLY, chunk.start,
+						chunk.end - chunk.start)).toString();
+	}
+
+	private <T> T call(ChunkParser<T> parser, String pgn) throws IOException {
+		try {
+			return parser.parseChunk(pgn);
+		} catch (IOException ioe) {
+			throw ioe;
+		} catch (Exception e) {
+			throw unwrap(e);
+		}
+	}
+
+	private RuntimeException unwrap(Throwable t) {
+		if (t instanceof RuntimeException) {
+			return (RuntimeException) t;
+		} else if (t instanceof Error) {
+			throw (Error) t;
+		} else {
+			return new RuntimeException(t);
+		}
+	}
+}
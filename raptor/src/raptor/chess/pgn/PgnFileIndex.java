@@ -0,0 +1,564 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2011 RaptorProject (http://code.google.com/p/raptor-chess-interface/)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.chess.pgn;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import raptor.chess.Game;
+import raptor.util.RaptorLogger;
+
+/**
+ * A persistent side index of the games in a PGN file, used to browse files
+ * which are far too large to parse into memory.
+ * 
+ * The PGN file is scanned once. For every game the byte offsets of the game
+ * and the values of the INDEXED_HEADERS are written to an index file, followed
+ * by a table of the offset of each game's record in the index. Opening the
+ * index again only reads that table, 8 bytes per game. Header rows are read
+ * from the index file on demand, and a Game is only parsed from the PGN file
+ * when getGame is called.
+ * 
+ * The index stores the length and modification time of the PGN file and is
+ * rebuilt if either changes.
+ */
+public class PgnFileIndex {
+	/**
+	 * Notified while a PGN file is scanned.
+	 */
+	public static interface ProgressListener {
+		/**
+		 * Invoked periodically while indexing. Return false to cancel the
+		 * scan.
+		 */
+		public boolean indexProgress(int gamesIndexed, long bytesRead,
+				long totalBytes);
+	}
+
+	/**
+	 * The headers stored in the index, in the order getHeaders returns them.
+	 */
+	public static final PgnHeader[] INDEXED_HEADERS = { PgnHeader.Variant,
+			PgnHeader.Date, PgnHeader.Event, PgnHeader.White,
+			PgnHeader.WhiteElo, PgnHeader.Black, PgnHeader.BlackElo,
+			PgnHeader.Result, PgnHeader.ECO, PgnHeader.Opening };
+
+	private static final RaptorLogger LOG = RaptorLogger
+			.getLog(PgnFileIndex.class);
+
+	private static final int HEADER_CACHE_SIZE = 2048;
+	private static final int INDEX_HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 4;
+	private static final int INDEX_MAGIC = 0x52504749;
+	private static final int INDEX_VERSION = 1;
+	private static final int PROGRESS_INTERVAL = 1000;
+
+	protected Charset charset = Charset.defaultCharset();
+	protected int gameCount;
+	protected Map<Integer, String[]> headerCache = new LinkedHashMap<Integer, String[]>(
+			HEADER_CACHE_SIZE * 4 / 3 + 1, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, String[]> eldest) {
+			return size() > HEADER_CACHE_SIZE;
+		}
+	};
+	protected File indexFile;
+	protected RandomAccessFile indexRandomAccessFile;
+	protected File pgnFile;
+	protected RandomAccessFile pgnRandomAccessFile;
+	protected long[] recordOffsets;
+	protected long tableOffset;
+
+	public PgnFileIndex(File pgnFile, File indexFile) {
+		this.pgnFile = pgnFile;
+		this.indexFile = indexFile;
+	}
+
+	/**
+	 * Closes the files backing this index.
+	 */
+	public synchronized void close() {
+		closeQuietly(indexRandomAccessFile);
+		closeQuietly(pgnRandomAccessFile);
+		indexRandomAccessFile = null;
+		pgnRandomAccessFile = null;
+		headerCache.clear();
+	}
+
+	/**
+	 * Returns the numbers of the games with an indexed header value containing
+	 * text, ignoring case. The index is read sequentially, no games are
+	 * parsed.
+	 */
+	public int[] filter(String text) throws IOException {
+		String lowerCaseText = text.toLowerCase();
+		int[] result = new int[16];
+		int matches = 0;
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(indexFile), 65536));
+		try {
+			skipFully(in, INDEX_HEADER_SIZE);
+			for (int i = 0; i < gameCount; i++) {
+				String[] headers = readRecord(in, null);
+				for (String header : headers) {
+					if (header.toLowerCase().contains(lowerCaseText)) {
+						if (matches == result.length) {
+							result = Arrays.copyOf(result, matches * 2);
+						}
+						result[matches++] = i;
+						break;
+					}
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return Arrays.copyOf(result, matches);
+	}
+
+	/**
+	 * Parses and returns the game with the specified number, or null if the
+	 * game could not be parsed.
+	 */
+	public Game getGame(int gameNumber) throws IOException {
+		String pgn = getGamePgn(gameNumber);
+		if (pgn.trim().length() == 0) {
+			return null;
+		}
+		SimplePgnParser parser = new SimplePgnParser(pgn);
+		ListMaintainingPgnParserListener listener = new ListMaintainingPgnParserListener();
+		parser.addPgnParserListener(listener);
+		parser.parse();
+		List<Game> games = listener.getGames();
+		return games.isEmpty() ? null : games.get(0);
+	}
+
+	public int getGameCount() {
+		return gameCount;
+	}
+
+	/**
+	 * Returns the PGN text of the game with the specified number, read from
+	 * the PGN file.
+	 */
+	public synchronized String getGamePgn(int gameNumber) throws IOException {
+		long[] range = new long[2];
+		seekRecord(gameNumber);
+		readRecord(indexRandomAccessFile, range);
+
+		long length = range[1] - range[0];
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("Game " + gameNumber + " is too large.");
+		}
+		byte[] bytes = new byte[(int) length];
+		pgnRandomAccessFile.seek(range[0]);
+		pgnRandomAccessFile.readFully(bytes);
+		return new String(bytes, charset);
+	}
+
+	/**
+	 * Returns the INDEXED_HEADERS values of the game with the specified
+	 * number. Missing headers are empty strings.
+	 */
+	public synchronized String[] getHeaders(int gameNumber) throws IOException {
+		String[] result = headerCache.get(gameNumber);
+		if (result == null) {
+			seekRecord(gameNumber);
+			result = readRecord(indexRandomAccessFile, null);
+			headerCache.put(gameNumber, result);
+		}
+		return result;
+	}
+
+	public File getIndexFile() {
+		return indexFile;
+	}
+
+	public File getPgnFile() {
+		return pgnFile;
+	}
+
+	/**
+	 * Opens the index, scanning the PGN file and writing the index file first
+	 * if the index is missing or out of date.
+	 * 
+	 * @param listener
+	 *            Notified of progress while scanning. May be null.
+	 * @return false if the listener cancelled the scan, true otherwise.
+	 */
+	public synchronized boolean open(ProgressListener listener)
+			throws IOException {
+		close();
+		if (!load()) {
+			if (!build(listener)) {
+				return false;
+			}
+			if (!load()) {
+				throw new IOException("Could not read the index just written "
+						+ indexFile.getAbsolutePath());
+			}
+		}
+		indexRandomAccessFile = new RandomAccessFile(indexFile, "r");
+		pgnRandomAccessFile = new RandomAccessFile(pgnFile, "r");
+		return true;
+	}
+
+	/**
+	 * Scans the PGN file and writes the index file.
+	 */
+	protected boolean build(ProgressListener listener) throws IOException {
+		long startTime = System.currentTimeMillis();
+		long pgnLength = pgnFile.length();
+		long pgnLastModified = pgnFile.lastModified();
+
+		File parent = indexFile.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.exists()) {
+			parent.mkdirs();
+		}
+		File tempFile = new File(indexFile.getAbsolutePath() + ".tmp");
+
+		long[] offsets = new long[1024];
+		int games = 0;
+		boolean isCancelled = false;
+
+		InputStream in = new FileInputStream(pgnFile);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tempFile), 65536));
+		try {
+			out.writeInt(INDEX_MAGIC);
+			out.writeInt(INDEX_VERSION);
+			out.writeLong(pgnLength);
+			out.writeLong(pgnLastModified);
+			// Table offset and game count are patched in when done.
+			out.writeLong(0L);
+			out.writeInt(0);
+			long position = INDEX_HEADER_SIZE;
+
+			ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256);
+			DataOutputStream record = new DataOutputStream(recordBytes);
+			String[] headers = new String[INDEXED_HEADERS.length];
+			byte[] line = new byte[256];
+			byte[] buffer = new byte[65536];
+			int bufferPosition = 0;
+			int bufferLimit = 0;
+
+			long gameStart = -1;
+			long lineStart = 0;
+			boolean isInMoveText = true;
+			int braceDepth = 0;
+
+			while (true) {
+				// Read the next line into line[0..lineLength).
+				int lineLength = 0;
+				int c = -1;
+				while (true) {
+					if (bufferPosition == bufferLimit) {
+						bufferLimit = in.read(buffer);
+						bufferPosition = 0;
+						if (bufferLimit <= 0) {
+							bufferLimit = 0;
+							c = -1;
+							break;
+						}
+					}
+					byte b = buffer[bufferPosition++];
+					if (b == '\n') {
+						c = '\n';
+						break;
+					}
+					if (lineLength == line.length) {
+						line = Arrays.copyOf(line, line.length * 2);
+					}
+					line[lineLength++] = b;
+				}
+				if (c == -1 && lineLength == 0) {
+					break;
+				}
+				long nextLineStart = lineStart + lineLength
+						+ (c == -1 ? 0 : 1);
+
+				int first = 0;
+				while (first < lineLength
+						&& (line[first] == ' ' || line[first] == '\t' || line[first] == '\r')) {
+					first++;
+				}
+
+				if (first < lineLength) {
+					if (braceDepth == 0 && line[first] == '['
+							&& first + 1 < lineLength
+							&& Character.isLetter(line[first + 1])) {
+						if (isInMoveText) {
+							if (gameStart != -1) {
+								if (games == offsets.length) {
+									offsets = Arrays.copyOf(offsets,
+											games * 2);
+								}
+								offsets[games++] = position;
+								position += writeRecord(out, record,
+										recordBytes, gameStart, lineStart,
+										headers);
+								if (listener != null
+										&& games % PROGRESS_INTERVAL == 0
+										&& !listener.indexProgress(games,
+												lineStart, pgnLength)) {
+									isCancelled = true;
+									break;
+								}
+							}
+							gameStart = lineStart;
+							Arrays.fill(headers, null);
+							isInMoveText = false;
+						}
+						parseTag(line, first, lineLength, headers);
+					} else if (line[first] != '%') {
+						isInMoveText = true;
+						for (int i = first; i < lineLength; i++) {
+							if (line[i] == '{') {
+								braceDepth++;
+							} else if (line[i] == '}' && braceDepth > 0) {
+								braceDepth--;
+							} else if (line[i] == ';' && braceDepth == 0) {
+								// Rest of line comment.
+								break;
+							}
+						}
+					}
+				}
+
+				lineStart = nextLineStart;
+				if (c == -1) {
+					break;
+				}
+			}
+
+			if (!isCancelled && gameStart != -1) {
+				if (games == offsets.length) {
+					offsets = Arrays.copyOf(offsets, games + 1);
+				}
+				offsets[games++] = position;
+				position += writeRecord(out, record, recordBytes, gameStart,
+						lineStart, headers);
+			}
+
+			if (!isCancelled) {
+				for (int i = 0; i < games; i++) {
+					out.writeLong(offsets[i]);
+				}
+			}
+			out.close();
+			out = null;
+
+			if (isCancelled) {
+				tempFile.delete();
+				return false;
+			}
+
+			RandomAccessFile patch = new RandomAccessFile(tempFile, "rw");
+			try {
+				patch.seek(INDEX_HEADER_SIZE - 12);
+				patch.writeLong(position);
+				patch.writeInt(games);
+			} finally {
+				patch.close();
+			}
+		} finally {
+			closeQuietly(in);
+			if (out != null) {
+				closeQuietly(out);
+				tempFile.delete();
+			}
+		}
+
+		if (indexFile.exists() && !indexFile.delete()) {
+			tempFile.delete();
+			throw new IOException("Could not replace index file "
+					+ indexFile.getAbsolutePath());
+		}
+		if (!tempFile.renameTo(indexFile)) {
+			throw new IOException("Could not write index file "
+					+ indexFile.getAbsolutePath());
+		}
+
+		if (LOG.isInfoEnabled()) {
+			LOG.info("Indexed " + games + " games in "
+					+ pgnFile.getAbsolutePath() + " in "
+					+ (System.currentTimeMillis() - startTime) + "ms");
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the record offset table from the index file. Returns false if the
+	 * index file does not exist or does not match the PGN file.
+	 */
+	protected boolean load() throws IOException {
+		if (!indexFile.exists()) {
+			return false;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(indexFile), 65536));
+		try {
+			if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION
+					|| in.readLong() != pgnFile.length()
+					|| in.readLong() != pgnFile.lastModified()) {
+				return false;
+			}
+			long table = in.readLong();
+			int count = in.readInt();
+			if (table < INDEX_HEADER_SIZE || count < 0) {
+				return false;
+			}
+			skipFully(in, table - INDEX_HEADER_SIZE);
+			long[] offsets = new long[count];
+			for (int i = 0; i < count; i++) {
+				offsets[i] = in.readLong();
+			}
+			recordOffsets = offsets;
+			gameCount = count;
+			tableOffset = table;
+			return true;
+		} catch (EOFException eofe) {
+			LOG.warn("Truncated pgn index " + indexFile.getAbsolutePath());
+			return false;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Stores the value of the tag in line[first..length) in headers if it is
+	 * one of the INDEXED_HEADERS.
+	 */
+	protected void parseTag(byte[] line, int first, int length,
+			String[] headers) {
+		int nameStart = first + 1;
+		int nameEnd = nameStart;
+		while (nameEnd < length && line[nameEnd] != ' '
+				&& line[nameEnd] != '\t' && line[nameEnd] != '"') {
+			nameEnd++;
+		}
+		int valueStart = nameEnd;
+		while (valueStart < length && line[valueStart] != '"') {
+			valueStart++;
+		}
+		int valueEnd = length - 1;
+		while (valueEnd > valueStart && line[valueEnd] != '"') {
+			valueEnd--;
+		}
+		if (valueStart >= valueEnd) {
+			return;
+		}
+
+		String name = new String(line, nameStart, nameEnd - nameStart,
+				charset);
+		for (int i = 0; i < INDEXED_HEADERS.length; i++) {
+			if (INDEXED_HEADERS[i].name().equals(name)) {
+				headers[i] = new String(line, valueStart + 1, valueEnd
+						- valueStart - 1, charset).replace("\\\"", "\"");
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Reads a record. If range is not null the game's start and end offsets
+	 * are stored in it.
+	 */
+	protected String[] readRecord(DataInput in, long[] range)
+			throws IOException {
+		long start = in.readLong();
+		long end = in.readLong();
+		if (range != null) {
+			range[0] = start;
+			range[1] = end;
+		}
+		String[] result = new String[INDEXED_HEADERS.length];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = in.readUTF();
+		}
+		return result;
+	}
+
+	protected void seekRecord(int gameNumber) throws IOException {
+		if (indexRandomAccessFile == null) {
+			throw new IOException("The index is not open.");
+		}
+		if (gameNumber < 0 || gameNumber >= gameCount) {
+			throw new IndexOutOfBoundsException("Game " + gameNumber
+					+ " is not in the index.");
+		}
+		indexRandomAccessFile.seek(recordOffsets[gameNumber]);
+	}
+
+	/**
+	 * Writes a record for the game in [start,end) and returns its length.
+	 */
+	protected int writeRecord(DataOutputStream out, DataOutputStream record,
+			ByteArrayOutputStream recordBytes, long start, long end,
+			String[] headers) throws IOException {
+		recordBytes.reset();
+		record.writeLong(start);
+		record.writeLong(end);
+		for (String header : headers) {
+			String value = header == null ? "" : header;
+			// writeUTF is limited to 65535 bytes.
+			if (value.length() > 1024) {
+				value = value.substring(0, 1024);
+			}
+			record.writeUTF(value);
+		}
+		record.flush();
+		recordBytes.writeTo(out);
+		return recordBytes.size();
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException ioe) {
+			}
+		}
+	}
+
+	private static void skipFully(InputStream in, long bytes)
+			throws IOException {
+		while (bytes > 0) {
+			long skipped = in.skip(bytes);
+			if (skipped <= 0) {
+				throw new EOFException();
+			}
+			bytes -= skipped;
+		}
+	}
+}
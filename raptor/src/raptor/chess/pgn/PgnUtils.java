@@ -22,6 +22,7 @@ import java.math.BigDecimal;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
 
 import org.apache.commons.lang.StringUtils;
@@ -53,7 +54,8 @@ public class PgnUtils {
 	private static final Object PGN_APPEND_SYNCH = new Object();
 
 	/**
-	 * Prepends the game to the users game pgn file.
+	 * Prepends the game to the users game pgn file. If the file has the
+	 * GameArchive extension the game is appended to it as a game archive.
 	 */
 	public static void appendGameToFile(Game game) {
 		if (Variant.isBughouse(game.getVariant())) {
@@ -89,8 +91,13 @@ public class PgnUtils {
 					game.removeHeader(PgnHeader.BlackElo);
 				}
 
-				String pgn = game.toPgn();
 				File file = new File(pgnFilePath);
+				if (GameArchive.isArchive(pgnFilePath)) {
+					appendGameToArchive(game, file);
+					return;
+				}
+
+				String pgn = game.toPgn();
 				FileWriter fileWriter = null;
 				try {
 					fileWriter = new FileWriter(file, true);
@@ -110,6 +117,18 @@ public class PgnUtils {
 		}
 	}
 
+	private static void appendGameToArchive(Game game, File file) {
+		GameArchive archive = new GameArchive(file);
+		try {
+			archive.open();
+			archive.append(Collections.singletonList(game));
+		} catch (IOException ioe) {
+			LOG.error("Error saving game", ioe);
+		} finally {
+			archive.close();
+		}
+	}
+
 	/**
 	 * Returns the approximate number of games in the specified file.
 	 */
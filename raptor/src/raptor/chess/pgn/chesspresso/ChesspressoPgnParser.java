@@ -1,7 +1,8 @@
 package raptor.chess.pgn.chesspresso;
 
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.LineNumberReader;
+import java.io.Reader;
 
 import raptor.chess.GameFactory;
 import raptor.chess.Variant;
@@ -22,14 +23,21 @@ public class ChesspressoPgnParser extends AbstractPgnParser {
 	
 	private PGNReader reader;
 	
-	public ChesspressoPgnParser(FileReader fileReader) {
-		reader = new PGNReader(fileReader, null);
+	/**
+	 * PGNReader reads from this reader directly when it is given a
+	 * LineNumberReader, so its line number is the line being parsed.
+	 */
+	private LineNumberReader lineReader;
+	
+	public ChesspressoPgnParser(Reader reader) {
+		lineReader = reader instanceof LineNumberReader ? (LineNumberReader) reader
+				: new LineNumberReader(reader);
+		this.reader = new PGNReader(lineReader, null);
 	}
 
 	@Override
 	public int getLineNumber() {
-		// TODO Auto-generated method stub
-		return 0;
+		return lineReader.getLineNumber();
 	}
 
 	@Override
@@ -43,7 +51,7 @@ public class ChesspressoPgnParser extends AbstractPgnParser {
 		do {
 			for (PgnParserListener listener: listeners) {
 				((ChesspressoPgnListener)listener).
-				gameParsed(chessprGame, 0);
+				gameParsed(chessprGame, getLineNumber());
 				
 			}
 			try {
@@ -54,7 +62,7 @@ public class ChesspressoPgnParser extends AbstractPgnParser {
 				}
             } catch (RuntimeException e) {
 				for (PgnParserListener listener: listeners) {					
-					PGNSyntaxError er = new PGNSyntaxError(0,e.getMessage(),"",0,"");
+					PGNSyntaxError er = new PGNSyntaxError(0,e.getMessage(),"",getLineNumber(),"");
 					((ChesspressoPgnListener)listener).error(er);													
 				}
             } catch (IOException e) {
@@ -35,6 +35,14 @@ public class GameUtils implements GameConstants {
 	private static int[] EP_DIR = { SOUTH, NORTH };
 	private static int[] EP_OPP_DIR = { NORTH, SOUTH };
 
+	/**
+	 * When true slider attacks are computed with the Kogge-Stone fills instead
+	 * of the magic tables. Set with -Draptor.chess.slider.fills=true to
+	 * benchmark or verify the tables against the fills.
+	 */
+	private static final boolean IS_USING_SLIDER_FILLS = Boolean
+			.getBoolean("raptor.chess.slider.fills");
+
 	private static long[] KING_ATTACKS = new long[64];
 	private static long[] KNIGHT_ATTACKS = new long[64];
 
@@ -114,8 +122,21 @@ public class GameUtils implements GameConstants {
 
 	}
 
+	/**
+	 * Returns the diagonal slider attacks from square. Uses the MagicBitboards
+	 * tables unless the raptor.chess.slider.fills system property is true.
+	 */
 	public static final long diagonalMove(int square, long emptySquares,
 			long occupied) {
+		return IS_USING_SLIDER_FILLS ? diagonalMoveFill(square, emptySquares)
+				: MagicBitboards.bishopAttacks(square, occupied);
+	}
+
+	/**
+	 * Returns the diagonal slider attacks from square computed with the
+	 * Kogge-Stone fills. Kept to build and verify the magic tables.
+	 */
+	public static final long diagonalMoveFill(int square, long emptySquares) {
 		long seed = getBitboard(square);
 		return shiftUpRight(fillUpRightOccluded(seed, emptySquares))
 				| shiftUpLeft(fillUpLeftOccluded(seed, emptySquares))
@@ -724,8 +745,22 @@ public class GameUtils implements GameConstants {
 		return bitboard << 8;
 	}
 
+	/**
+	 * Returns the orthogonal slider attacks from square. Uses the
+	 * MagicBitboards tables unless the raptor.chess.slider.fills system
+	 * property is true.
+	 */
 	public static final long orthogonalMove(int square, long emptySquares,
 			long occupied) {
+		return IS_USING_SLIDER_FILLS ? orthogonalMoveFill(square, emptySquares)
+				: MagicBitboards.rookAttacks(square, occupied);
+	}
+
+	/**
+	 * Returns the orthogonal slider attacks from square computed with the
+	 * Kogge-Stone fills. Kept to build and verify the magic tables.
+	 */
+	public static final long orthogonalMoveFill(int square, long emptySquares) {
 		long seed = getBitboard(square);
 		return shiftRight(fillRightOccluded(seed, emptySquares))
 				| shiftLeft(fillLeftOccluded(seed, emptySquares))
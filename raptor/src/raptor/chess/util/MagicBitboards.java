@@ -0,0 +1,177 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2011 RaptorProject (http://code.google.com/p/raptor-chess-interface/)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.chess.util;
+
+/**
+ * Slider attack tables indexed with magic multipliers.
+ * 
+ * For every square the relevant occupancy (the squares on the rays from it,
+ * excluding the board edges) is masked out of the occupied bitboard,
+ * multiplied by a magic number and shifted right, giving a perfect index into
+ * a table of precomputed attack sets. The tables are built once when this
+ * class is loaded, using the Kogge-Stone fills in GameUtils for every
+ * occupancy subset. A magic which maps two subsets with different attack sets
+ * to the same index fails the build with an IllegalStateException, so the
+ * tables can never disagree with the fills.
+ * 
+ * The magics were found with a seeded random search and are only valid with
+ * the A1=0,H8=63 square numbering in GameConstants.
+ */
+public final class MagicBitboards {
+	private static final long[] BISHOP_MAGICS = {
+			0x0140100082208224L, 0x0122089800888008L, 0x0144440092019200L,
+			0x1104410020380008L, 0x1dc20210110000b1L, 0x0003042016040800L,
+			0x0020440220110100L, 0x8001128801082000L, 0x00e01002080814a8L,
+			0x4000208a02060030L, 0x0000900400843081L, 0xc240142420800202L,
+			0x40c1021210200834L, 0x4000009010080010L, 0x5840442904022001L,
+			0x0000010402120240L, 0x084080300aa20c00L, 0x020400201400a221L,
+			0x00a0841001004008L, 0x0448040082004000L, 0x0404021220a00080L,
+			0x0a69000080600204L, 0x4081210080882081L, 0x0004810042009001L,
+			0x4960200810020240L, 0x100804c020041090L, 0x00602800101248c0L,
+			0x0001040088020820L, 0x1429001021004008L, 0x005c010138104201L,
+			0x0020841021142200L, 0x0124508022108400L, 0x8001084030881000L,
+			0x0009080880202102L, 0x0000842080100085L, 0x00400808000a0a00L,
+			0x01900182200a0200L, 0x0002004500021000L, 0x0001080082a11425L,
+			0x0711020828120100L, 0x0400887808004100L, 0x00084208200c4441L,
+			0x0042084402001002L, 0x4880005144010802L, 0x0800c01408200b02L,
+			0x2a2000d10240ae00L, 0x2020280160400103L, 0x4004008412440100L,
+			0x2011011010844600L, 0x1040841082101424L, 0x4424220128881610L,
+			0x0004004246081001L, 0x8405000803040218L, 0x0010084228820040L,
+			0x2040840404204a00L, 0x18b0042802704100L, 0x00828a0082200200L,
+			0x0030002404540400L, 0x1008400024020810L, 0x0000028010208811L,
+			0x400006012020c508L, 0x0009a04204480080L, 0x4100100448208421L,
+			0x0040198222014101L };
+
+	private static final long[] ROOK_MAGICS = {
+			0x0280008024104000L, 0x0040400010002000L, 0xc100110208200040L,
+			0x0480280080441000L, 0x0280040008008102L, 0x4d00084400810002L,
+			0x8080020000800100L, 0x0200020880304104L, 0x1c00800020804000L,
+			0x2024802000400084L, 0x0008802008100080L, 0x0012004012002008L,
+			0x0008800800040080L, 0x6108800400804200L, 0x2000808002000100L,
+			0x0002002415028042L, 0x8800218000824000L, 0x0200424010002000L,
+			0x0000808020001000L, 0x0c14210010000900L, 0x0400828008012400L,
+			0x0000808002000400L, 0x0a84240021420810L, 0x0008020002a4d401L,
+			0xa080004440002000L, 0x01c0048480402000L, 0x0100120200248240L,
+			0x0000100080080080L, 0xa128080080040080L, 0x0348020080800400L,
+			0x0000901400128841L, 0x0800b08600140841L, 0x1a10800041002100L,
+			0x2090402000401000L, 0x0118802000801000L, 0x0010801000800804L,
+			0x40b0810402800800L, 0x040a800400800200L, 0x4020020104001008L,
+			0x40802c8242000403L, 0x000c2188c0038000L, 0x3801008040010026L,
+			0x0810220080120041L, 0x0428001000088080L, 0x0818010011850008L,
+			0x0002001034060008L, 0x0809000200010004L, 0x03005400804a0001L,
+			0xa201008000204100L, 0x0100802000400080L, 0x1000809001200280L,
+			0x0014100840220200L, 0x0210104801000500L, 0x0084020080040080L,
+			0x0240089002014400L, 0x0600404084012200L, 0x3c02002240118502L,
+			0x0100201040010081L, 0xd080081220030041L, 0x0018900020592501L,
+			0x0202008820108402L, 0x3002000804100116L, 0x1000480211009004L,
+			0x04010000208e0041L };
+
+	private static final long[][] BISHOP_ATTACKS = new long[64][];
+	private static final long[] BISHOP_MASKS = new long[64];
+	private static final int[] BISHOP_SHIFTS = new int[64];
+	private static final long[][] ROOK_ATTACKS = new long[64][];
+	private static final long[] ROOK_MASKS = new long[64];
+	private static final int[] ROOK_SHIFTS = new int[64];
+
+	static {
+		for (int square = 0; square < 64; square++) {
+			BISHOP_MASKS[square] = relevantOccupancy(square, false);
+			BISHOP_SHIFTS[square] = 64 - Long.bitCount(BISHOP_MASKS[square]);
+			BISHOP_ATTACKS[square] = createAttacks(square, false,
+					BISHOP_MASKS[square], BISHOP_MAGICS[square],
+					BISHOP_SHIFTS[square]);
+
+			ROOK_MASKS[square] = relevantOccupancy(square, true);
+			ROOK_SHIFTS[square] = 64 - Long.bitCount(ROOK_MASKS[square]);
+			ROOK_ATTACKS[square] = createAttacks(square, true,
+					ROOK_MASKS[square], ROOK_MAGICS[square],
+					ROOK_SHIFTS[square]);
+		}
+	}
+
+	/**
+	 * Returns the squares a bishop on square attacks with the specified
+	 * occupancy, including occupied squares at the end of each ray.
+	 */
+	public static long bishopAttacks(int square, long occupied) {
+		return BISHOP_ATTACKS[square][(int) ((occupied & BISHOP_MASKS[square])
+				* BISHOP_MAGICS[square] >>> BISHOP_SHIFTS[square])];
+	}
+
+	/**
+	 * Returns the squares a queen on square attacks with the specified
+	 * occupancy, including occupied squares at the end of each ray.
+	 */
+	public static long queenAttacks(int square, long occupied) {
+		return bishopAttacks(square, occupied) | rookAttacks(square, occupied);
+	}
+
+	/**
+	 * Returns the squares a rook on square attacks with the specified
+	 * occupancy, including occupied squares at the end of each ray.
+	 */
+	public static long rookAttacks(int square, long occupied) {
+		return ROOK_ATTACKS[square][(int) ((occupied & ROOK_MASKS[square])
+				* ROOK_MAGICS[square] >>> ROOK_SHIFTS[square])];
+	}
+
+	private static long[] createAttacks(int square, boolean isRook, long mask,
+			long magic, int shift) {
+		long[] result = new long[1 << 64 - shift];
+		boolean[] isSet = new boolean[result.length];
+
+		// Carry-Rippler enumeration of every subset of the mask.
+		long subset = 0L;
+		do {
+			long empty = ~subset;
+			long attacks = isRook ? GameUtils.orthogonalMoveFill(square, empty)
+					: GameUtils.diagonalMoveFill(square, empty);
+			int index = (int) (subset * magic >>> shift);
+			if (!isSet[index]) {
+				isSet[index] = true;
+				result[index] = attacks;
+			} else if (result[index] != attacks) {
+				throw new IllegalStateException("Invalid "
+						+ (isRook ? "rook" : "bishop") + " magic for square "
+						+ square);
+			}
+			subset = subset - mask & mask;
+		} while (subset != 0L);
+
+		return result;
+	}
+
+	private static long relevantOccupancy(int square, boolean isRook) {
+		int[][] directions = isRook ? new int[][] { { 1, 0 }, { -1, 0 },
+				{ 0, 1 }, { 0, -1 } } : new int[][] { { 1, 1 }, { 1, -1 },
+				{ -1, 1 }, { -1, -1 } };
+
+		long result = 0L;
+		for (int[] direction : directions) {
+			int rank = square / 8 + direction[0];
+			int file = square % 8 + direction[1];
+			// Stop one short of the edge, the edge square never blocks.
+			while (rank + direction[0] >= 0 && rank + direction[0] < 8
+					&& file + direction[1] >= 0 && file + direction[1] < 8) {
+				result |= 1L << rank * 8 + file;
+				rank += direction[0];
+				file += direction[1];
+			}
+		}
+		return result;
+	}
+
+	private MagicBitboards() {
+	}
+}
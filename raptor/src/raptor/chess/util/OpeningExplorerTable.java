@@ -0,0 +1,513 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2011 RaptorProject (http://code.google.com/p/raptor-chess-interface/)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.chess.util;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import raptor.chess.Result;
+import raptor.util.RaptorLogger;
+
+/**
+ * A memory mapped hash table of move statistics keyed by position hash, used
+ * by the opening explorer.
+ * 
+ * Each record holds the statistics of one move played from one position. The
+ * table uses linear probing, so every record for a position lies between the
+ * slot the position hashes to and the next empty slot, and all of the moves
+ * played from a position are read with a single short scan. Records are
+ * updated in place, so games can be added at any time. When the table is
+ * more than MAX_LOAD full its records are copied into a new file of twice
+ * the capacity. The capacity is part of the file name, and the magic number
+ * is only written once the copy is complete, so an interrupted resize leaves
+ * the old table in use. The size in the header is only written on flush, so
+ * it is recounted from the records when the table is opened.
+ * 
+ * Changes are synchronized, while lookups only take the read side of a read
+ * write lock. A resize copies the records without that lock, so lookups keep
+ * reading the old table during the copy and the new one is swapped in after.
+ * 
+ * <pre>
+ * Header: int MAGIC, int VERSION, int capacity, int size, long gameCount
+ * Record: long key, short moveCode, short unused, int games,
+ *         int whiteWins, int draws, int blackWins, int eloCount, long eloSum
+ * </pre>
+ */
+public class OpeningExplorerTable {
+
+	/**
+	 * The statistics of one move played from a position.
+	 */
+	public static class Continuation {
+		protected int blackWins;
+		protected int draws;
+		protected int eloCount;
+		protected long eloSum;
+		protected int games;
+		protected int moveCode;
+		protected int whiteWins;
+
+		public int getAverageElo() {
+			return eloCount == 0 ? 0 : (int) (eloSum / eloCount);
+		}
+
+		public int getBlackWins() {
+			return blackWins;
+		}
+
+		public int getDraws() {
+			return draws;
+		}
+
+		public int getGames() {
+			return games;
+		}
+
+		/**
+		 * Returns the move code, see GameArchive.encodeMove.
+		 */
+		public int getMoveCode() {
+			return moveCode;
+		}
+
+		public int getWhiteWins() {
+			return whiteWins;
+		}
+	}
+
+	public static final int INITIAL_CAPACITY = 1 << 16;
+
+	public static final int MAGIC = 0x524F4554;
+
+	/**
+	 * The largest capacity whose file can still be mapped in one buffer.
+	 */
+	public static final int MAX_CAPACITY = 1 << 25;
+
+	public static final double MAX_LOAD = 0.7;
+
+	public static final int VERSION = 1;
+
+	private static final String FILE_PREFIX = "positions-";
+
+	private static final String FILE_SUFFIX = ".tbl";
+
+	private static final int HEADER_SIZE = 24;
+
+	private static final RaptorLogger LOG = RaptorLogger
+			.getLog(OpeningExplorerTable.class);
+
+	private static final int RECORD_SIZE = 40;
+
+	protected MappedByteBuffer buffer;
+	protected int capacity;
+	protected File directory;
+	protected File file;
+	protected long gameCount;
+	/**
+	 * Held for reading by lookups, and for writing while records or the
+	 * mapped table are changed.
+	 */
+	protected final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	protected int size;
+
+	public OpeningExplorerTable(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Returns true if a table has been created in the directory.
+	 */
+	public static boolean exists(File directory) {
+		return findTableFile(directory) != null;
+	}
+
+	private static File findTableFile(File directory) {
+		File[] files = directory.listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.startsWith(FILE_PREFIX)
+						&& name.endsWith(FILE_SUFFIX);
+			}
+		});
+
+		File result = null;
+		int resultCapacity = 0;
+		if (files != null) {
+			for (File candidate : files) {
+				String name = candidate.getName();
+				try {
+					int candidateCapacity = Integer.parseInt(name.substring(
+							FILE_PREFIX.length(), name.length()
+									- FILE_SUFFIX.length()));
+					if (candidateCapacity > resultCapacity
+							&& isComplete(candidate)) {
+						result = candidate;
+						resultCapacity = candidateCapacity;
+					}
+				} catch (NumberFormatException nfe) {
+				}
+			}
+		}
+		return result;
+	}
+
+	private static boolean isComplete(File file) {
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "r");
+			return raf.length() >= HEADER_SIZE && raf.readInt() == MAGIC;
+		} catch (IOException ioe) {
+			return false;
+		} finally {
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (IOException ioe) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Records that the move was played from the position with the specified
+	 * key.
+	 * 
+	 * @param elo
+	 *            The rating of the player making the move, 0 if unknown.
+	 */
+	public synchronized void add(long key, int moveCode, Result result,
+			int elo) throws IOException {
+		lock.writeLock().lock();
+		try {
+			int mask = capacity - 1;
+			int slot = (int) key & mask;
+			for (int probes = 0;; probes++, slot = slot + 1 & mask) {
+				if (probes == capacity) {
+					throw new IOException("The opening explorer table is full.");
+				}
+				int offset = HEADER_SIZE + slot * RECORD_SIZE;
+				int games = buffer.getInt(offset + 12);
+				if (games == 0) {
+					buffer.putLong(offset, key);
+					buffer.putShort(offset + 8, (short) moveCode);
+					size++;
+				} else if (buffer.getLong(offset) != key
+						|| (buffer.getShort(offset + 8) & 0xffff) != moveCode) {
+					continue;
+				}
+
+				buffer.putInt(offset + 12, games + 1);
+				if (result == Result.WHITE_WON) {
+					buffer.putInt(offset + 16, buffer.getInt(offset + 16) + 1);
+				} else if (result == Result.DRAW) {
+					buffer.putInt(offset + 20, buffer.getInt(offset + 20) + 1);
+				} else if (result == Result.BLACK_WON) {
+					buffer.putInt(offset + 24, buffer.getInt(offset + 24) + 1);
+				}
+				if (elo > 0) {
+					buffer.putInt(offset + 28, buffer.getInt(offset + 28) + 1);
+					buffer.putLong(offset + 32, buffer.getLong(offset + 32)
+							+ elo);
+				}
+				break;
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		if (size > capacity * MAX_LOAD) {
+			resize(capacity * 2);
+		}
+	}
+
+	/**
+	 * Increments the number of games added to the table.
+	 */
+	public synchronized void addGame() {
+		lock.writeLock().lock();
+		try {
+			gameCount++;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized void close() {
+		lock.writeLock().lock();
+		try {
+			flush();
+			buffer = null;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Writes the header and forces the table to disk.
+	 */
+	public synchronized void flush() {
+		lock.writeLock().lock();
+		try {
+			if (buffer != null) {
+				buffer.putInt(12, size);
+				buffer.putLong(16, gameCount);
+				buffer.force();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the moves played from the position with the specified key,
+	 * most played first. Returns an empty list once the table is closed.
+	 */
+	public List<Continuation> get(long key) {
+		List<Continuation> result = new ArrayList<Continuation>(8);
+		lock.readLock().lock();
+		try {
+			if (buffer == null) {
+				return result;
+			}
+			int mask = capacity - 1;
+			int slot = (int) key & mask;
+			for (int probes = 0; probes < capacity; probes++, slot = slot + 1
+					& mask) {
+				int offset = HEADER_SIZE + slot * RECORD_SIZE;
+				int games = buffer.getInt(offset + 12);
+				if (games == 0) {
+					break;
+				} else if (buffer.getLong(offset) == key) {
+					Continuation continuation = new Continuation();
+					continuation.moveCode = buffer.getShort(offset + 8) & 0xffff;
+					continuation.games = games;
+					continuation.whiteWins = buffer.getInt(offset + 16);
+					continuation.draws = buffer.getInt(offset + 20);
+					continuation.blackWins = buffer.getInt(offset + 24);
+					continuation.eloCount = buffer.getInt(offset + 28);
+					continuation.eloSum = buffer.getLong(offset + 32);
+					result.add(continuation);
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		if (result.size() > 1) {
+			Collections.sort(result, new Comparator<Continuation>() {
+				public int compare(Continuation c1, Continuation c2) {
+					return c2.games - c1.games;
+				}
+			});
+		}
+		return result;
+	}
+
+	public int getCapacity() {
+		lock.readLock().lock();
+		try {
+			return capacity;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public long getGameCount() {
+		lock.readLock().lock();
+		try {
+			return gameCount;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of records in the table.
+	 */
+	public int getSize() {
+		lock.readLock().lock();
+		try {
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Opens the table in the directory, creating it if it does not exist.
+	 * The records are counted rather than trusting the size in the header,
+	 * which is stale if the table was not closed.
+	 */
+	public synchronized void open() throws IOException {
+		directory.mkdirs();
+		File existing = findTableFile(directory);
+		File newFile;
+		MappedByteBuffer newBuffer;
+		int newCapacity;
+		int newSize = 0;
+		long newGameCount = 0;
+		if (existing == null) {
+			newCapacity = INITIAL_CAPACITY;
+			newFile = getTableFile(newCapacity);
+			newBuffer = create(newCapacity);
+			newBuffer.putInt(0, MAGIC);
+		} else {
+			newFile = existing;
+			if (existing.length() < HEADER_SIZE) {
+				throw new IOException(existing
+						+ " is not an opening explorer table.");
+			}
+			newBuffer = map(existing, existing.length());
+			if (newBuffer.getInt(0) != MAGIC || newBuffer.getInt(4) != VERSION) {
+				throw new IOException(existing
+						+ " is not an opening explorer table.");
+			}
+			newCapacity = newBuffer.getInt(8);
+			newGameCount = newBuffer.getLong(16);
+			newSize = countRecords(newBuffer, newCapacity);
+			if (newSize != newBuffer.getInt(12)) {
+				LOG.warn("Opening explorer table " + existing + " has "
+						+ newSize + " records, not " + newBuffer.getInt(12));
+			}
+		}
+
+		lock.writeLock().lock();
+		try {
+			file = newFile;
+			buffer = newBuffer;
+			capacity = newCapacity;
+			size = newSize;
+			gameCount = newGameCount;
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		if (size > capacity * MAX_LOAD && capacity < MAX_CAPACITY) {
+			resize(capacity * 2);
+		}
+	}
+
+	/**
+	 * Returns the number of slots in use in the mapped table.
+	 */
+	protected int countRecords(MappedByteBuffer tableBuffer, int tableCapacity) {
+		int result = 0;
+		for (int slot = 0; slot < tableCapacity; slot++) {
+			if (tableBuffer.getInt(HEADER_SIZE + slot * RECORD_SIZE + 12) != 0) {
+				result++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Creates and maps an empty table file of the specified capacity. The
+	 * caller writes the magic number once the table is usable.
+	 */
+	protected MappedByteBuffer create(int newCapacity) throws IOException {
+		if (newCapacity > MAX_CAPACITY) {
+			throw new IOException("The opening explorer table is full.");
+		}
+		File newFile = getTableFile(newCapacity);
+		newFile.delete();
+		MappedByteBuffer result = map(newFile, HEADER_SIZE + (long) newCapacity
+				* RECORD_SIZE);
+		result.putInt(4, VERSION);
+		result.putInt(8, newCapacity);
+		return result;
+	}
+
+	protected File getTableFile(int tableCapacity) {
+		return new File(directory, FILE_PREFIX + tableCapacity + FILE_SUFFIX);
+	}
+
+	/**
+	 * Maps length bytes of the file, extending it if it is shorter. The
+	 * mapping stays valid after the file is closed.
+	 */
+	protected MappedByteBuffer map(File mapFile, long length)
+			throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(mapFile, "rw");
+		try {
+			return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+					length);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Copies every record into a new table of the specified capacity, swaps
+	 * it in, then deletes the old table. Lookups keep reading the old table
+	 * during the copy. Only add changes records, and it is waiting for the
+	 * resize.
+	 */
+	protected void resize(int newCapacity) throws IOException {
+		long startTime = System.currentTimeMillis();
+		File oldFile = file;
+		MappedByteBuffer newBuffer = create(newCapacity);
+
+		int mask = newCapacity - 1;
+		for (int oldSlot = 0; oldSlot < capacity; oldSlot++) {
+			int oldOffset = HEADER_SIZE + oldSlot * RECORD_SIZE;
+			if (buffer.getInt(oldOffset + 12) == 0) {
+				continue;
+			}
+			long key = buffer.getLong(oldOffset);
+			int slot = (int) key & mask;
+			while (newBuffer.getInt(HEADER_SIZE + slot * RECORD_SIZE + 12) != 0) {
+				slot = slot + 1 & mask;
+			}
+			for (int i = 0; i < RECORD_SIZE; i += 4) {
+				newBuffer.putInt(HEADER_SIZE + slot * RECORD_SIZE + i, buffer
+						.getInt(oldOffset + i));
+			}
+		}
+		newBuffer.putInt(12, size);
+		newBuffer.putLong(16, gameCount);
+		newBuffer.force();
+		newBuffer.putInt(0, MAGIC);
+		newBuffer.force();
+
+		lock.writeLock().lock();
+		try {
+			file = getTableFile(newCapacity);
+			buffer = newBuffer;
+			capacity = newCapacity;
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		if (!oldFile.delete()) {
+			// A mapped file can not be deleted on some platforms until the
+			// buffer is collected.
+			oldFile.deleteOnExit();
+		}
+
+		if (LOG.isInfoEnabled()) {
+			LOG.info("Resized opening explorer table to " + newCapacity
+					+ " records in " + (System.currentTimeMillis() - startTime)
+					+ "ms");
+		}
+	}
+}
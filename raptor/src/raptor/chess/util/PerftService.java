@@ -0,0 +1,330 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2011 RaptorProject (http://code.google.com/p/raptor-chess-interface/)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.chess.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import raptor.chess.Game;
+import raptor.chess.GameFactory;
+import raptor.chess.Move;
+import raptor.chess.Variant;
+
+/**
+ * Counts the leaf nodes of the move tree from a position (perft) for any Game
+ * implementation, so variant rules can be checked against reference counts.
+ * 
+ * <p>
+ * The root moves are split across a ForkJoinPool. Each subtree is walked on
+ * its own deepCopy(true) of the game with Game.move/rollback, so the variant
+ * rules used are exactly the ones used during play. An optional transposition
+ * cache keyed by Zobrist hash and depth is shared by all of the workers.
+ * </p>
+ * 
+ * <p>
+ * The cache is ignored for drop variants because the Zobrist game hash does
+ * not include the drop counts.
+ * </p>
+ */
+public class PerftService {
+
+	/**
+	 * The result of a perft run: the total nodes, the per root move (divide)
+	 * counts and the elapsed time.
+	 */
+	public static class PerftResult {
+		protected int depth;
+		protected Map<String, Long> divide = new LinkedHashMap<String, Long>();
+		protected long elapsedNanos;
+		protected long cacheHits;
+		protected long nodes;
+
+		public long getCacheHits() {
+			return cacheHits;
+		}
+
+		public int getDepth() {
+			return depth;
+		}
+
+		/**
+		 * Returns the node count for each root move keyed by the move's LAN, in
+		 * the order the moves were generated.
+		 */
+		public Map<String, Long> getDivide() {
+			return divide;
+		}
+
+		public long getElapsedNanos() {
+			return elapsedNanos;
+		}
+
+		public long getNodes() {
+			return nodes;
+		}
+
+		public long getNodesPerSecond() {
+			return elapsedNanos == 0 ? 0 : nodes * 1000000000L / elapsedNanos;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder result = new StringBuilder(divide.size() * 16);
+			for (Map.Entry<String, Long> entry : divide.entrySet()) {
+				result.append(entry.getKey()).append(": ").append(
+						entry.getValue()).append('\n');
+			}
+			result.append("depth ").append(depth).append(" nodes ").append(
+					nodes).append(" nps ").append(getNodesPerSecond()).append(
+					" cache hits ").append(cacheHits);
+			return result.toString();
+		}
+	}
+
+	/**
+	 * A fixed size, lock free perft cache. Each slot stores the key xor the
+	 * data next to the data so a slot torn by two racing writers is detected
+	 * on read and treated as a miss.
+	 */
+	protected static class TranspositionCache {
+		protected long[] checks;
+		protected long[] data;
+		protected AtomicLong hits = new AtomicLong();
+		protected int mask;
+
+		public TranspositionCache(int sizePowerOfTwo) {
+			checks = new long[1 << sizePowerOfTwo];
+			data = new long[1 << sizePowerOfTwo];
+			mask = checks.length - 1;
+		}
+
+		/**
+		 * Returns the node count stored for hash and depth, -1 if there is
+		 * none.
+		 */
+		public long get(long hash, int depth) {
+			int index = index(hash, depth);
+			long entry = data[index];
+			if ((checks[index] ^ entry) == hash && (entry & 0xFF) == depth) {
+				hits.incrementAndGet();
+				return entry >>> 8;
+			}
+			return -1;
+		}
+
+		public void put(long hash, int depth, long nodes) {
+			int index = index(hash, depth);
+			long entry = nodes << 8 | depth;
+			data[index] = entry;
+			checks[index] = hash ^ entry;
+		}
+
+		protected int index(long hash, int depth) {
+			long mixed = hash ^ depth * 0x9E3779B97F4A7C15L;
+			return (int) (mixed ^ mixed >>> 32) & mask;
+		}
+	}
+
+	protected static class SubtreeTask extends RecursiveTask<Long> {
+		private static final long serialVersionUID = 1L;
+
+		protected TranspositionCache cache;
+		protected int depth;
+		protected Game game;
+
+		public SubtreeTask(Game game, int depth, TranspositionCache cache) {
+			this.game = game;
+			this.depth = depth;
+			this.cache = cache;
+		}
+
+		@Override
+		protected Long compute() {
+			return perft(game, depth, cache);
+		}
+	}
+
+	/**
+	 * The default cache size, 2^20 entries (16 megabytes).
+	 */
+	public static final int DEFAULT_CACHE_SIZE_POWER_OF_TWO = 20;
+
+	protected int cacheSizePowerOfTwo;
+	protected ForkJoinPool pool;
+	protected boolean useCache;
+
+	/**
+	 * Runs perft from a FEN and prints the divide counts.
+	 * 
+	 * <pre>
+	 * PerftService &quot;FEN&quot; variant depth [threads] [cache]
+	 * </pre>
+	 */
+	public static void main(String args[]) {
+		if (args.length < 3) {
+			System.err
+					.println("Usage: PerftService \"fen\" variant depth [threads] [true|false to use the cache]");
+			return;
+		}
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime
+				.getRuntime().availableProcessors();
+		boolean useCache = args.length > 4 && Boolean.parseBoolean(args[4]);
+
+		PerftService service = new PerftService(threads, useCache,
+				DEFAULT_CACHE_SIZE_POWER_OF_TWO);
+		try {
+			Game game = GameFactory.createFromFen(args[0], Variant
+					.valueOf(args[1]));
+			System.out.println(service.perft(game, Integer.parseInt(args[2])));
+		} finally {
+			service.dispose();
+		}
+	}
+
+	/**
+	 * Single threaded perft over the Game interface. Leaf counts are taken
+	 * from getLegalMoves at the last ply instead of making the moves.
+	 */
+	protected static long perft(Game game, int depth, TranspositionCache cache) {
+		if (depth == 0) {
+			return 1L;
+		}
+		if (isGameOver(game)) {
+			return 0L;
+		}
+
+		long hash = 0L;
+		if (cache != null && depth > 1) {
+			hash = game.getZobristGameHash();
+			long cached = cache.get(hash, depth);
+			if (cached >= 0) {
+				return cached;
+			}
+		}
+
+		Move[] moves = game.getLegalMoves().asArray();
+		long result;
+		if (depth == 1) {
+			result = moves.length;
+		} else {
+			result = 0L;
+			for (Move move : moves) {
+				if (game.move(move)) {
+					result += perft(game, depth - 1, cache);
+					game.rollback();
+				}
+			}
+		}
+
+		if (cache != null && depth > 1) {
+			cache.put(hash, depth, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Atomic games end when a king explodes. The other variants rely on
+	 * getLegalMoves returning nothing.
+	 */
+	protected static boolean isGameOver(Game game) {
+		return game.getVariant() == Variant.atomic
+				&& !game.areBothKingsOnBoard();
+	}
+
+	/**
+	 * Creates a service using the specified number of worker threads.
+	 * 
+	 * @param parallelism
+	 *            The number of worker threads.
+	 * @param useCache
+	 *            True to share a Zobrist keyed transposition cache between the
+	 *            workers.
+	 * @param cacheSizePowerOfTwo
+	 *            The cache holds 2^cacheSizePowerOfTwo entries of 16 bytes.
+	 */
+	public PerftService(int parallelism, boolean useCache,
+			int cacheSizePowerOfTwo) {
+		pool = new ForkJoinPool(parallelism);
+		this.useCache = useCache;
+		this.cacheSizePowerOfTwo = cacheSizePowerOfTwo;
+	}
+
+	/**
+	 * Shuts down the worker threads.
+	 */
+	public void dispose() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Runs perft to the specified depth from the game's current position. The
+	 * passed in game is not modified.
+	 */
+	public PerftResult perft(Game game, int depth) {
+		long startTime = System.nanoTime();
+		PerftResult result = new PerftResult();
+		result.depth = depth;
+
+		Game root = copy(game);
+		TranspositionCache cache = useCache
+				&& !root.isInState(Game.DROPPABLE_STATE) ? new TranspositionCache(
+				cacheSizePowerOfTwo)
+				: null;
+
+		if (depth <= 0 || isGameOver(root)) {
+			result.nodes = depth <= 0 ? 1 : 0;
+		} else {
+			Move[] moves = root.getLegalMoves().asArray();
+			List<String> lans = new ArrayList<String>(moves.length);
+			List<SubtreeTask> tasks = new ArrayList<SubtreeTask>(moves.length);
+
+			for (Move move : moves) {
+				Game subtree = copy(root);
+				if (subtree.move(move)) {
+					lans.add(move.getLan());
+					tasks.add(new SubtreeTask(subtree, depth - 1, cache));
+				}
+			}
+
+			for (SubtreeTask task : tasks) {
+				pool.execute(task);
+			}
+			for (int i = 0; i < tasks.size(); i++) {
+				long nodes = tasks.get(i).join();
+				result.divide.put(lans.get(i), nodes);
+				result.nodes += nodes;
+			}
+		}
+
+		result.cacheHits = cache == null ? 0 : cache.hits.get();
+		result.elapsedNanos = System.nanoTime() - startTime;
+		return result;
+	}
+
+	/**
+	 * Returns a copy of game with SAN and ECO updates turned off, since perft
+	 * never looks at them.
+	 */
+	protected Game copy(Game game) {
+		Game result = game.deepCopy(true);
+		result.clearState(Game.UPDATING_SAN_STATE);
+		result.clearState(Game.UPDATING_ECO_HEADERS_STATE);
+		return result;
+	}
+}
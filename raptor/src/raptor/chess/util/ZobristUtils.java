@@ -16,14 +16,24 @@ package raptor.chess.util;
 import static raptor.chess.util.GameUtils.bitscanClear;
 import static raptor.chess.util.GameUtils.bitscanForward;
 
-import java.security.SecureRandom;
 import java.util.Random;
 
 import raptor.chess.Game;
 import raptor.chess.GameConstants;
 
+/**
+ * Zobrist hashing for Game positions. The keys are generated from a fixed
+ * seed, so hashes are stable between runs and can be persisted (e.g. the ECO
+ * cache).
+ */
 public final class ZobristUtils implements GameConstants {
 
+	/**
+	 * The seed used to generate the Zobrist keys. Changing it invalidates any
+	 * persisted hashes.
+	 */
+	public static final long ZOBRIST_SEED = 0x5241505430524E47L;
+
 	private static long[][] ZOBRIST_CASTLE = new long[2][4];
 	private static long[][][] ZOBRIST_DROP_COUNT = new long[2][7][18];
 	private static long[] ZOBRIST_EP = new long[65];
@@ -73,6 +83,16 @@ public final class ZobristUtils implements GameConstants {
 						.getCastling(WHITE), game.getCastling(BLACK));
 	}
 
+	/**
+	 * Returns the game hash of the game's current position as if there were no
+	 * en passant square. Uses the incrementally maintained position hash.
+	 */
+	public static long zobristHashIgnoringEp(Game game) {
+		return game.getZobristPositionHash()
+				^ zobrist(game.getColorToMove(), EMPTY_SQUARE, game
+						.getCastling(WHITE), game.getCastling(BLACK));
+	}
+
 	public static long zobristHashPositionOnly(Game game) {
 		return zobristPiece(WHITE, PAWN, game)
 				^ zobristPiece(WHITE, BISHOP, game)
@@ -89,7 +109,7 @@ public final class ZobristUtils implements GameConstants {
 	}
 
 	private static void initZobrist() {
-		Random random = new SecureRandom();
+		Random random = new Random(ZOBRIST_SEED);
 
 		for (int i = 0; i < ZOBRIST_DROP_COUNT.length; i++) {
 			for (int j = 0; j < ZOBRIST_DROP_COUNT[i].length; j++) {
@@ -123,7 +143,7 @@ public final class ZobristUtils implements GameConstants {
 	}
 
 	private static long zobristPiece(int color, int piece, Game game) {
-		int result = 0;
+		long result = 0L;
 		long current = game.getPieceBB(color, piece);
 		while (current != 0L) {
 			result ^= zobrist(color, piece, bitscanForward(current));
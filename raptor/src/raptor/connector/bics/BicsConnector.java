@@ -13,11 +13,6 @@
  */
 package raptor.connector.bics;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
-
 import org.apache.commons.lang.StringUtils;
 import org.eclipse.jface.action.Action;
 import org.eclipse.jface.action.IAction;
@@ -149,7 +144,6 @@ public class BicsConnector extends IcsConnector implements PreferenceKeys {
 	protected Action bugbuttonsAction;
 	protected String partnerOnConnect;
 
-	protected Object extendedCensorSync = new Object();
 	protected static final String EXTENDED_CENSOR_FILE_NAME = Raptor.USER_RAPTOR_HOME_PATH
 			+ "/bics/extendedCensor.txt";
 
@@ -571,37 +565,8 @@ public class BicsConnector extends IcsConnector implements PreferenceKeys {
 	}
 
 	@Override
-	protected void loadExtendedCensorList() {
-		if (new File(EXTENDED_CENSOR_FILE_NAME).exists()) {
-			synchronized (extendedCensorSync) {
-				extendedCensorList.clear();
-				BufferedReader reader = null;
-				try {
-					reader = new BufferedReader(new FileReader(
-							EXTENDED_CENSOR_FILE_NAME));
-					String currentLine = null;
-					while ((currentLine = reader.readLine()) != null) {
-						String user = currentLine.trim();
-						if (StringUtils.isNotBlank(user)) {
-							extendedCensorList.add(IcsUtils.stripTitles(user)
-									.toLowerCase());
-						}
-					}
-
-				} catch (Throwable t) {
-					onError(local.getString("bicsConnector20")
-							+ EXTENDED_CENSOR_FILE_NAME, t);
-
-				} finally {
-					if (reader != null) {
-						try {
-							reader.close();
-						} catch (Throwable t) {
-						}
-					}
-				}
-			}
-		}
+	protected String getExtendedCensorFileName() {
+		return EXTENDED_CENSOR_FILE_NAME;
 	}
 
 	@Override
@@ -650,29 +615,4 @@ public class BicsConnector extends IcsConnector implements PreferenceKeys {
 			}
 		});
 	}
-
-	@Override
-	protected void writeExtendedCensorList() {
-		synchronized (extendedCensorSync) {
-			FileWriter writer = null;
-			try {
-				writer = new FileWriter(EXTENDED_CENSOR_FILE_NAME, false);
-				for (String user : extendedCensorList) {
-					writer.write(user + "\n");
-				}
-				writer.flush();
-
-			} catch (Throwable t) {
-				onError(local.getString("bicsConnector21")
-						+ EXTENDED_CENSOR_FILE_NAME, t);
-			} finally {
-				if (writer != null) {
-					try {
-						writer.close();
-					} catch (Throwable t) {
-					}
-				}
-			}
-		}
-	}
 }
\ No newline at end of file
@@ -15,10 +15,6 @@ package raptor.connector.fics;
 
 import static raptor.chess.util.GameUtils.getChessPieceCharacter;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -29,6 +25,8 @@ import org.eclipse.jface.action.MenuManager;
 import org.eclipse.jface.action.Separator;
 import org.eclipse.jface.preference.PreferenceNode;
 import org.eclipse.jface.preference.PreferencePage;
+import org.eclipse.jface.util.IPropertyChangeListener;
+import org.eclipse.jface.util.PropertyChangeEvent;
 
 import raptor.Raptor;
 import raptor.RaptorWindowItem;
@@ -54,6 +52,7 @@ import raptor.pref.page.ActionContainerPage;
 import raptor.pref.page.ConnectorMessageBlockPage;
 import raptor.pref.page.ConnectorQuadrantsPage;
 import raptor.service.ActionScriptService;
+import raptor.service.SeekService.SeekType;
 import raptor.service.ThreadService;
 import raptor.swt.BugButtonsWindowItem;
 import raptor.swt.FicsSeekDialog;
@@ -181,7 +180,6 @@ public class FicsConnector extends IcsConnector implements PreferenceKeys,
 	 */
 	protected FicsConnector fics2 = null;
 
-	protected Object extendedCensorSync = new Object();
 	protected static final String EXTENDED_CENSOR_FILE_NAME = Raptor.USER_RAPTOR_HOME_PATH
 			+ "/fics/extendedCensor.txt";
 
@@ -196,6 +194,22 @@ public class FicsConnector extends IcsConnector implements PreferenceKeys,
 	protected String partnerOnConnect;
 	protected boolean isDisconnecting = false;
 
+	/**
+	 * Turns the seekinfo stream on or off when the seek output type changes.
+	 */
+	protected IPropertyChangeListener seekOutputTypeListener = new IPropertyChangeListener() {
+		public void propertyChange(PropertyChangeEvent event) {
+			if (PreferenceKeys.SEEK_OUTPUT_TYPE.equals(event.getProperty())
+					&& isLoggedIn()) {
+				ThreadService.getInstance().run(new Runnable() {
+					public void run() {
+						sendSeekInfoSettings(true);
+					}
+				});
+			}
+		}
+	};
+
 	public FicsConnector() {
 		this(new IcsConnectorContext(new IcsParser(false)));
 	}
@@ -205,7 +219,7 @@ public class FicsConnector extends IcsConnector implements PreferenceKeys,
 		context.getParser().setConnector(this);
 		initFics2();
 		createMenuActions();
-
+		getPreferences().addPropertyChangeListener(seekOutputTypeListener);
 	}
 
 	protected String getInitialTimesealString() {
@@ -251,6 +265,7 @@ public class FicsConnector extends IcsConnector implements PreferenceKeys,
 
 	@Override
 	public void dispose() {
+		getPreferences().removePropertyChangeListener(seekOutputTypeListener);
 		super.dispose();
 		if (fics2 != null) {
 			fics2.dispose();
@@ -914,42 +929,28 @@ public class FicsConnector extends IcsConnector implements PreferenceKeys,
 						.equals(PlayingMouseAction.RandomRecapture.toString()));
 	}
 
-	protected void loadExtendedCensorList() {
-		if (new File(EXTENDED_CENSOR_FILE_NAME).exists()) {
-			if (LOG.isInfoEnabled()) {
-				LOG.info("Loading " + EXTENDED_CENSOR_FILE_NAME);
-			}
-			synchronized (extendedCensorSync) {
-				extendedCensorList.clear();
-				BufferedReader reader = null;
-				try {
-					reader = new BufferedReader(new FileReader(
-							EXTENDED_CENSOR_FILE_NAME));
-					String currentLine = null;
-					while ((currentLine = reader.readLine()) != null) {
-						String user = currentLine.trim();
-						if (StringUtils.isNotBlank(user)) {
-							extendedCensorList.add(IcsUtils.stripTitles(user)
-									.toLowerCase());
-						}
-					}
-
-				} catch (Throwable t) {
-					onError("Error reading " + EXTENDED_CENSOR_FILE_NAME, t);
+	@Override
+	protected String getExtendedCensorFileName() {
+		return EXTENDED_CENSOR_FILE_NAME;
+	}
 
-				} finally {
-					if (reader != null) {
-						try {
-							reader.close();
-						} catch (Throwable t) {
-						}
-					}
-				}
-			}
-		} else {
-			if (LOG.isInfoEnabled()) {
-				LOG.info("No extended censor list found.");
-			}
+	/**
+	 * Sends the seekinfo ivariables for the seek output type. Only AllSeeks
+	 * uses the seekinfo stream, so it is left off otherwise. If isChanging is
+	 * true the stream is also turned off when not needed, and the seeks it
+	 * maintained are cleared.
+	 */
+	protected void sendSeekInfoSettings(boolean isChanging) {
+		boolean isAllSeeks = SeekType.valueOf(getPreferences().getString(
+				PreferenceKeys.SEEK_OUTPUT_TYPE)) == SeekType.AllSeeks;
+		if (isAllSeeks) {
+			sendMessage("iset seekinfo 1", true);
+			sendMessage("iset seekremove 1", true);
+		} else if (isChanging) {
+			sendMessage("iset seekinfo 0", true);
+			sendMessage("iset seekremove 0", true);
+			seekService.reset();
+			seekService.refreshSeeks();
 		}
 	}
 
@@ -966,6 +967,7 @@ public class FicsConnector extends IcsConnector implements PreferenceKeys,
 				sendMessage("iset allresults 1", true);
 				sendMessage("iset startpos 1", true);
 				sendMessage("iset pendinfo 1", true);
+				sendSeekInfoSettings(false);
 
 				if (getPreferences().getBoolean(
 						PreferenceKeys.FICS_NO_WRAP_ENABLED)) {
@@ -1013,27 +1015,4 @@ public class FicsConnector extends IcsConnector implements PreferenceKeys,
 			}
 		});
 	}
-
-	protected void writeExtendedCensorList() {
-		synchronized (extendedCensorSync) {
-			FileWriter writer = null;
-			try {
-				writer = new FileWriter(EXTENDED_CENSOR_FILE_NAME, false);
-				for (String user : extendedCensorList) {
-					writer.write(user + "\n");
-				}
-				writer.flush();
-
-			} catch (Throwable t) {
-				onError("Error writing " + EXTENDED_CENSOR_FILE_NAME, t);
-			} finally {
-				if (writer != null) {
-					try {
-						writer.close();
-					} catch (Throwable t) {
-					}
-				}
-			}
-		}
-	}
 }
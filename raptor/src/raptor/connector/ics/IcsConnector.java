@@ -15,6 +15,7 @@ package raptor.connector.ics;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -23,6 +24,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
@@ -52,6 +54,7 @@ import raptor.connector.ics.timeseal.MessageProducer;
 import raptor.connector.ics.timeseal.TimesealSocketMessageProducer;
 import raptor.international.L10n;
 import raptor.pref.PreferenceKeys;
+import raptor.pref.PreferenceSnapshot;
 import raptor.pref.RaptorPreferenceStore;
 import raptor.script.ChatEventScript;
 import raptor.script.ChatScriptContext;
@@ -86,10 +89,14 @@ import raptor.swt.chat.controller.ChannelController;
 import raptor.swt.chat.controller.MainController;
 import raptor.swt.chat.controller.RegExController;
 import raptor.swt.chess.ChessBoardUtils;
+import raptor.util.BatchingQueue;
+import raptor.util.JournaledUserSet;
+import raptor.util.MultiPatternMatcher;
 import raptor.util.RaptorLogger;
 import raptor.util.RaptorStringTokenizer;
 import raptor.util.RaptorStringUtils;
 import raptor.util.RegExUtils;
+import raptor.util.UserKeyRegistry;
 
 /**
  * An ics (internet chess server) connector. You will need to supply yuor own
@@ -127,15 +134,56 @@ public abstract class IcsConnector implements Connector, MessageListener {
 
 	protected GameService gameService;
 	protected Map<String, Object> scriptHash = new HashMap<String, Object>();
+	/**
+	 * The UserKeyRegistry keys of the people whose tells are spoken.
+	 */
 	protected Set<String> peopleToSpeakTellsFrom = new HashSet<String>();
 	protected Set<String> channelToSpeakTellsFrom = new HashSet<String>();
 	protected Set<String> gamesToSpeakTellsFrom = new HashSet<String>();
 	protected SeekService seekService;
 	protected boolean isSpeakingAllPersonTells = false;
     protected TreeMap<String,String> autoCompleteList = new TreeMap<String,String>();
+	/**
+	 * The words in autoCompleteList, for lookups which do not need the
+	 * ordering or the lock.
+	 */
+	protected Set<String> autoCompleteWords = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 	protected List<Pattern> patternsToBlock = new ArrayList<Pattern>(20);
+	/**
+	 * Matches patternsToBlock. Rebuilt in setRegexPatternsToBlock.
+	 */
+	protected MultiPatternMatcher patternsToBlockMatcher = new MultiPatternMatcher(
+			patternsToBlock);
 	protected MessageProducer messageProducer;
 
+	/**
+	 * Where the next search for the prompt in the inbound message buffer
+	 * starts. Text before it was already searched.
+	 */
+	protected int promptSearchIndex;
+
+	/**
+	 * Publishes parsed events in the order they were parsed, a batch at a
+	 * time.
+	 */
+	protected BatchingQueue<ChatEvent> inboundEventQueue = new BatchingQueue<ChatEvent>(
+			"IcsConnector inbound events", 200) {
+		@Override
+		protected void processBatch(List<ChatEvent> batch) {
+			for (ChatEvent event : batch) {
+				try {
+					event.setMessage(IcsUtils.maciejgFormatToUnicode(event
+							.getMessage()));
+					publishEvent(event);
+				} catch (Throwable t) {
+					IcsConnector.this.onError("Error publishing event " + event,
+							t);
+				}
+			}
+		}
+	};
+
 	/**
 	 * Adds the game windows to the RaptorAppWindow.
 	 */
@@ -229,13 +277,23 @@ public abstract class IcsConnector implements Connector, MessageListener {
 	protected ChatConsoleWindowItem mainConsoleWindowItem;
 	protected String userName;
 	protected String userFollowing;
-	protected List<String> extendedCensorList = new ArrayList<String>(300);
+	protected JournaledUserSet extendedCensor;
 	protected String[] bughouseSounds = SoundService.getInstance()
 			.getBughouseSoundKeys();
-	protected ChatEventScript[] chatEventScripts = null;
+	/**
+	 * The active chat event scripts to run for each ChatType, indexed by
+	 * ordinal. Scripts for ChatType.ALL are in every entry.
+	 */
+	protected ChatEventScript[][] chatEventScriptsByType = null;
 
 	protected List<MessageCallbackEntry> messageCallbackEntries = new ArrayList<MessageCallbackEntry>(
 			20);
+	/**
+	 * Matches the patterns of messageCallbackEntries, in the same order. Set
+	 * to null whenever an entry is added or removed and rebuilt on the next
+	 * message. Guarded by messageCallbackEntries.
+	 */
+	protected MultiPatternMatcher messageCallbackMatcher;
 	protected ScriptServiceListener scriptServiceListener = new ScriptServiceListener() {
 		public void onParameterScriptsChanged() {
 		}
@@ -259,6 +317,7 @@ public abstract class IcsConnector implements Connector, MessageListener {
 		gameService = new GameService();
 		gameService.addGameServiceListener(gameServiceListener);
 		setBughouseService(new BughouseService(this));
+		extendedCensor = new JournaledUserSet(getExtendedCensorFileName());
 		prepopulateAutoCompleteList();
 	}
 
@@ -293,20 +352,12 @@ public abstract class IcsConnector implements Connector, MessageListener {
 	}
 
 	protected void setRegexPatternsToBlock() {
+		// Invalid patterns are logged and left out by getPatterns.
 		patternsToBlock.clear();
-		String[] regexPatterns = getPreferences().getStringArray(
+		patternsToBlock.addAll(getPreferences().getSnapshot().getPatterns(
 				context.getPreferencePrefix()
-						+ PreferenceKeys.REGULAR_EXPRESSIONS_TO_BLOCK);
-		if (regexPatterns != null) {
-			for (String regex : regexPatterns) {
-				Pattern pattern = RegExUtils.getPattern(regex);
-				if (pattern == null) {
-					LOG.error("Invalid regex pattern. Will be ignored.");
-				} else {
-					patternsToBlock.add(pattern);
-				}
-			}
-		}
+						+ PreferenceKeys.REGULAR_EXPRESSIONS_TO_BLOCK));
+		patternsToBlockMatcher = new MultiPatternMatcher(patternsToBlock);
 	}
 
 	public void acceptSeek(String adId) {
@@ -321,9 +372,11 @@ public abstract class IcsConnector implements Connector, MessageListener {
 	}
 
 	public void addExtendedCensor(String person) {
-		extendedCensorList.add(IcsUtils.stripTitles(person).toLowerCase());
-		Collections.sort(extendedCensorList);
-		writeExtendedCensorList();
+		try {
+			extendedCensor.add(person);
+		} catch (Throwable t) {
+			onError("Error writing " + extendedCensor.getFileName(), t);
+		}
 	}
 
 	/**
@@ -355,10 +408,7 @@ public abstract class IcsConnector implements Connector, MessageListener {
 	 * @return True if in auto complete, false otherwise.
 	 */
 	public boolean isInAutoComplete(String word) {
-	    synchronized(autoCompleteList) {
-		String lcw = word.toLowerCase();
-		return autoCompleteList.containsKey(lcw);
-	    }
+		return autoCompleteWords.contains(word.toLowerCase());
 	}
 
 	public String[] autoComplete(String word) {
@@ -448,9 +498,12 @@ public abstract class IcsConnector implements Connector, MessageListener {
 	}
 
 	public int clearExtendedCensor() {
-		int result = extendedCensorList.size();
-		extendedCensorList.clear();
-		writeExtendedCensorList();
+		int result = 0;
+		try {
+			result = extendedCensor.clear();
+		} catch (Throwable t) {
+			onError("Error writing " + extendedCensor.getFileName(), t);
+		}
 		return result;
 	}
 
@@ -487,6 +540,10 @@ public abstract class IcsConnector implements Connector, MessageListener {
 				}
 				closeAllConnectorWindowsItems();
 				context.getParser().processDisconnection(gameService);
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("Regular expression block statistics: "
+							+ patternsToBlockMatcher);
+				}
 				try {
 					ScriptService.getInstance().removeScriptServiceListener(
 							scriptServiceListener);
@@ -510,8 +567,8 @@ public abstract class IcsConnector implements Connector, MessageListener {
 					channelToSpeakTellsFrom.clear();
 					gamesToSpeakTellsFrom.clear();
 					isSpeakingAllPersonTells = false;
-					messageCallbackEntries.clear();
-					extendedCensorList.clear();
+					clearMessageCallbackEntries();
+					seekService.reset();
 				}
 			}
 
@@ -535,6 +592,7 @@ public abstract class IcsConnector implements Connector, MessageListener {
 			connectorListeners = null;
 		}
 
+		inboundEventQueue.dispose();
 		if (chatService != null) {
 			chatService.dispose();
 			chatService = null;
@@ -653,7 +711,7 @@ public abstract class IcsConnector implements Connector, MessageListener {
 	}
 
 	public String[] getPeopleOnExtendedCensor() {
-		return extendedCensorList.toArray(new String[0]);
+		return extendedCensor.toArray();
 	}
 
 	public String[][] getPersonQuickActions(String person) {
@@ -780,7 +838,10 @@ public abstract class IcsConnector implements Connector, MessageListener {
 				.getPattern(regularExpression);
 		messageCallbackEntry.isOneShot = true;
 		messageCallbackEntry.callback = callback;
-		messageCallbackEntries.add(messageCallbackEntry);
+		synchronized (messageCallbackEntries) {
+			messageCallbackEntries.add(messageCallbackEntry);
+			messageCallbackMatcher = null;
+		}
 	}
 
 	public boolean isConnected() {
@@ -808,8 +869,7 @@ public abstract class IcsConnector implements Connector, MessageListener {
 	}
 
 	public boolean isOnExtendedCensor(String person) {
-		return extendedCensorList.contains(IcsUtils.stripTitles(person)
-				.toLowerCase());
+		return extendedCensor.contains(person);
 	}
 
 	public boolean isSimulBugConnector() {
@@ -998,17 +1058,35 @@ public abstract class IcsConnector implements Connector, MessageListener {
 		ThreadService.getInstance().run(new Runnable() {
 			public void run() {
 				synchronized (messageCallbackEntries) {
-					for (int i = 0; i < messageCallbackEntries.size(); i++) {
-						MessageCallbackEntry entry = messageCallbackEntries
-								.get(i);
-						if (RegExUtils.matches(entry.regularExpression,
-								event.getMessage())) {
+					if (messageCallbackEntries.isEmpty()) {
+						return;
+					}
+					if (messageCallbackMatcher == null) {
+						List<Pattern> patterns = new ArrayList<Pattern>(
+								messageCallbackEntries.size());
+						for (MessageCallbackEntry entry : messageCallbackEntries) {
+							patterns.add(entry.regularExpression);
+						}
+						messageCallbackMatcher = new MultiPatternMatcher(
+								patterns);
+					}
+
+					// Callbacks may add entries, so work from a copy of the
+					// entries the matcher was built from.
+					MessageCallbackEntry[] entries = messageCallbackEntries
+							.toArray(new MessageCallbackEntry[messageCallbackEntries
+									.size()]);
+					BitSet matches = messageCallbackMatcher.getMatches(event
+							.getMessage());
+					for (int i = 0; i < entries.length; i++) {
+						MessageCallbackEntry entry = entries[i];
+						if (matches.get(i)) {
 							if (LOG.isDebugEnabled()) {
 								LOG.debug("Invoking callback " + entry.callback);
 							}
 							if (!entry.callback.matchReceived(event)) {
-								messageCallbackEntries.remove(i);
-								i--;
+								messageCallbackEntries.remove(entry);
+								messageCallbackMatcher = null;
 							}
 						} else {
 							entry.missCount++;
@@ -1024,15 +1102,17 @@ public abstract class IcsConnector implements Connector, MessageListener {
 	}
 
 	protected boolean isBlockedByRegularExpressionBlocks(ChatEvent event) {
-		String message = event.getMessage().trim();
-		boolean result = false;
-		for (Pattern pattern : patternsToBlock) {
-			if (RegExUtils.matches(pattern, message)) {
-				result = true;
-				break;
-			}
+		return patternsToBlockMatcher.matchesAny(event.getMessage().trim());
+	}
+
+	/**
+	 * Removes all message callbacks.
+	 */
+	protected void clearMessageCallbackEntries() {
+		synchronized (messageCallbackEntries) {
+			messageCallbackEntries.clear();
+			messageCallbackMatcher = null;
 		}
-		return result;
 	}
 
 	/**
@@ -1077,7 +1157,7 @@ public abstract class IcsConnector implements Connector, MessageListener {
 			if (event.getType() == ChatType.PARTNER_TELL) {
 				playBughouseSounds(event);
 				if (!event.hasSoundBeenHandled()
-						&& getPreferences().getBoolean(
+						&& getPreferences().getSnapshot().getBoolean(
 								PreferenceKeys.BUGHOUSE_SPEAK_PARTNER_TELLS)) {
 					event.setHasSoundBeenHandled(speak(getTextAfterColon(event
 							.getMessage())));
@@ -1098,7 +1178,7 @@ public abstract class IcsConnector implements Connector, MessageListener {
 
 			if (event.getType() == ChatType.TELL) {
 				if (isSpeakingAllPersonTells
-						|| peopleToSpeakTellsFrom.contains(event.getSource())) {
+						|| peopleToSpeakTellsFrom.contains(event.getSourceKey())) {
 					event.setHasSoundBeenHandled(speak(IcsUtils
 							.stripTitles(event.getSource())
 							+ " "
@@ -1141,11 +1221,11 @@ public abstract class IcsConnector implements Connector, MessageListener {
 	}
 
 	public boolean removeExtendedCensor(String person) {
-		boolean result = extendedCensorList.remove(IcsUtils.stripTitles(person)
-				.toLowerCase());
-		if (result) {
-			Collections.sort(extendedCensorList);
-			writeExtendedCensorList();
+		boolean result = false;
+		try {
+			result = extendedCensor.remove(person);
+		} catch (Throwable t) {
+			onError("Error writing " + extendedCensor.getFileName(), t);
 		}
 		return result;
 	}
@@ -1231,6 +1311,10 @@ public abstract class IcsConnector implements Connector, MessageListener {
 
 			switch (seekType) {
 			case AllSeeks:
+				// The seekinfo stream keeps the seeks up to date.
+				if (seekService.isIncremental()) {
+					break;
+				}
 				sendMessage("$$sought all", true, ChatType.SEEKS);
 				break;
 			case FormulaFiltered:
@@ -1376,12 +1460,11 @@ public abstract class IcsConnector implements Connector, MessageListener {
 
 	public void setSpeakingPersonTells(String person,
 			boolean isSpeakingPersonTells) {
+		String key = UserKeyRegistry.getKey(person);
 		if (isSpeakingPersonTells) {
-			if (!peopleToSpeakTellsFrom.contains(person)) {
-				peopleToSpeakTellsFrom.add(person);
-			}
+			peopleToSpeakTellsFrom.add(key);
 		} else {
-			peopleToSpeakTellsFrom.remove(person);
+			peopleToSpeakTellsFrom.remove(key);
 		}
 	}
 
@@ -1490,9 +1573,13 @@ public abstract class IcsConnector implements Connector, MessageListener {
 
 	protected void addToAutoComplete(String word) {
 		final String lowerCaseWord = word.toLowerCase();
+		if (autoCompleteWords.contains(lowerCaseWord)) {
+			return;
+		}
 		synchronized(autoCompleteList) {
 		    if (!autoCompleteList.containsKey(lowerCaseWord)) {
 			autoCompleteList.put(lowerCaseWord, lowerCaseWord);
+			autoCompleteWords.add(lowerCaseWord);
 		    }
 		}
 	}
@@ -1742,21 +1829,31 @@ public abstract class IcsConnector implements Connector, MessageListener {
 			return;
 		}
 
+		// Only schedule a runnable for events which open a tab.
+		PreferenceSnapshot preferences = getPreferences().getSnapshot();
+		final boolean isOpeningPersonTab = event.getType() == ChatType.TELL
+				&& preferences
+						.getBoolean(PreferenceKeys.CHAT_OPEN_PERSON_TAB_ON_PERSON_TELLS);
+		final boolean isOpeningChannelTab = event.getType() == ChatType.CHANNEL_TELL
+				&& preferences
+						.getBoolean(PreferenceKeys.CHAT_OPEN_CHANNEL_TAB_ON_CHANNEL_TELLS);
+		final boolean isOpeningPartnerTab = event.getType() == ChatType.PARTNER_TELL
+				&& preferences
+						.getBoolean(PreferenceKeys.CHAT_OPEN_PARTNER_TAB_ON_PTELLS);
+		if (!isOpeningPersonTab && !isOpeningChannelTab
+				&& !isOpeningPartnerTab) {
+			return;
+		}
+
 		ThreadService.getInstance().run(new Runnable() {
 			public void run() {
-				if (getPreferences().getBoolean(
-						PreferenceKeys.CHAT_OPEN_PERSON_TAB_ON_PERSON_TELLS)
-						&& event.getType() == ChatType.TELL) {
+				if (isOpeningPersonTab) {
 					ChatUtils.openPersonTab(IcsConnector.this,
 							event.getSource(), false);
-				} else if (getPreferences().getBoolean(
-						PreferenceKeys.CHAT_OPEN_CHANNEL_TAB_ON_CHANNEL_TELLS)
-						&& event.getType() == ChatType.CHANNEL_TELL) {
+				} else if (isOpeningChannelTab) {
 					ChatUtils.openChannelTab(IcsConnector.this,
 							event.getChannel(), false);
-				} else if (getPreferences().getBoolean(
-						PreferenceKeys.CHAT_OPEN_PARTNER_TAB_ON_PTELLS)
-						&& event.getType() == ChatType.PARTNER_TELL) {
+				} else if (isOpeningPartnerTab) {
 					ChatUtils.openPartnerTab(IcsConnector.this, false);
 				}
 			}
@@ -1814,7 +1911,7 @@ public abstract class IcsConnector implements Connector, MessageListener {
 		boolean result = false;
 		switch (event.getType()) {
 		case TELL:
-			if (isOnExtendedCensor(event.getSource())) {
+			if (extendedCensor.containsKey(event.getSourceKey())) {
 				publishEvent(new ChatEvent(null, ChatType.INTERNAL,
 						L10n.getInstance().getString("blockTell", event.getSource())));
 				result = true;
@@ -1828,13 +1925,29 @@ public abstract class IcsConnector implements Connector, MessageListener {
 		case KIBITZ:
 		case WHISPER:
 		case TOLD:
-			result = isOnExtendedCensor(event.getSource());
+			result = extendedCensor.containsKey(event.getSourceKey());
 			break;
 		}
 		return result;
 	}
 
-	protected abstract void loadExtendedCensorList();
+	/**
+	 * Returns the name of the file the extended censor list is journaled to.
+	 */
+	protected abstract String getExtendedCensorFileName();
+
+	protected void loadExtendedCensorList() {
+		try {
+			extendedCensor.load();
+			if (LOG.isInfoEnabled()) {
+				LOG.info("Loaded " + extendedCensor.size()
+						+ " extended censor users from "
+						+ extendedCensor.getFileName());
+			}
+		} catch (Throwable t) {
+			onError("Error reading " + extendedCensor.getFileName(), t);
+		}
+	}
 
 	/**
 	 * Processes a login message. Handles sending the user name and password
@@ -1931,14 +2044,21 @@ public abstract class IcsConnector implements Connector, MessageListener {
 		if (isLoggedIn) {
 
 			// If we are logged in. Then parse out all the text between the
-			// prompts.
+			// prompts. Only the text appended since the last call, and the
+			// end of the text before it a prompt could have started in, is
+			// searched.
+			String rawPrompt = context.getRawPrompt();
 			int promptIndex = -1;
-			while ((promptIndex = buffer.indexOf(context.getRawPrompt())) != -1) {
+			while ((promptIndex = buffer.indexOf(rawPrompt, promptSearchIndex)) != -1) {
+				promptSearchIndex = 0;
 				String message = drainInboundMessageBuffer(buffer, promptIndex
-						+ context.getRawPrompt().length());
+						+ rawPrompt.length());
 				parseMessage(message);
 			}
+			promptSearchIndex = Math.max(0, buffer.length()
+					- rawPrompt.length() + 1);
 		} else {
+			promptSearchIndex = 0;
 
 			// We are not logged in.
 			// There are several complex cases here depending on the prompt
@@ -2039,19 +2159,10 @@ public abstract class IcsConnector implements Connector, MessageListener {
 
 			// This call will handle all game events, and return back a list of
 			// ChatEvents to process.
-			final ChatEvent[] events = context.getParser().parse(
-					filteredMessage);
-
-			ThreadService.getInstance().run(new Runnable() {
-				public void run() {
-
-					for (ChatEvent event : events) {
-						event.setMessage(IcsUtils.maciejgFormatToUnicode(event
-								.getMessage()));
-						publishEvent(event);
-					}
-				}
-			});
+			ChatEvent[] events = context.getParser().parse(filteredMessage);
+			for (ChatEvent event : events) {
+				inboundEventQueue.add(event);
+			}
 		} catch (RuntimeException re) {
 			throw new RuntimeException("Error occured parsing message: "
 					+ message, re);
@@ -2063,7 +2174,8 @@ public abstract class IcsConnector implements Connector, MessageListener {
 	 * true on the event if a bughouse sound is played.
 	 */
 	protected void playBughouseSounds(ChatEvent event) {
-		if (getPreferences().getBoolean(PreferenceKeys.APP_SOUND_ENABLED)) {
+		if (getPreferences().getSnapshot().getBoolean(
+				PreferenceKeys.APP_SOUND_ENABLED)) {
 			String ptell = event.getMessage();
 			int colonIndex = ptell.indexOf(':');
 			if (colonIndex != -1) {
@@ -2173,15 +2285,17 @@ public abstract class IcsConnector implements Connector, MessageListener {
 	 * kicked off on a different thread.
 	 */
 	protected void processChatEventScripts(final ChatEvent event) {
-		if (chatEventScripts != null && chatEventScripts.length > 0) {
+		ChatEventScript[][] scriptsByType = chatEventScriptsByType;
+		if (scriptsByType == null || event.getType() == null) {
+			return;
+		}
+		final ChatEventScript[] scripts = scriptsByType[event.getType()
+				.ordinal()];
+		if (scripts.length > 0) {
 			ThreadService.getInstance().run(new Runnable() {
 				public void run() {
-					for (ChatEventScript script : chatEventScripts) {
-						if (script.isActive()
-								&& script.getChatType() == event.getType()
-								|| script.getChatType() == ChatType.ALL) {
-							script.execute(getChatScriptContext(event));
-						}
+					for (ChatEventScript script : scripts) {
+						script.execute(getChatScriptContext(event));
 					}
 				}
 
@@ -2330,8 +2444,24 @@ public abstract class IcsConnector implements Connector, MessageListener {
 	}
 
 	protected void refreshChatScripts() {
-		chatEventScripts = ScriptService.getInstance().getChatEventScripts(
-				getScriptConnectorType());
+		ChatEventScript[] scripts = ScriptService.getInstance()
+				.getChatEventScripts(getScriptConnectorType());
+		ChatType[] types = ChatType.values();
+		ChatEventScript[][] scriptsByType = new ChatEventScript[types.length][];
+		for (ChatType type : types) {
+			List<ChatEventScript> typeScripts = new ArrayList<ChatEventScript>(
+					2);
+			for (ChatEventScript script : scripts) {
+				if (script.isActive()
+						&& (script.getChatType() == type || script
+								.getChatType() == ChatType.ALL)) {
+					typeScripts.add(script);
+				}
+			}
+			scriptsByType[type.ordinal()] = typeScripts
+					.toArray(new ChatEventScript[typeScripts.size()]);
+		}
+		chatEventScriptsByType = scriptsByType;
 	}
 
 	/**
@@ -2347,7 +2477,7 @@ public abstract class IcsConnector implements Connector, MessageListener {
 		ignoringChatTypes.clear();
 		peopleToSpeakTellsFrom.clear();
 		channelToSpeakTellsFrom.clear();
-		messageCallbackEntries.clear();
+		clearMessageCallbackEntries();
 		isSpeakingAllPersonTells = false;
 	}
 
@@ -2364,11 +2494,14 @@ public abstract class IcsConnector implements Connector, MessageListener {
 		if (!isConnected()) {
 			return;
 		}
+		final String sourceKey = event.getSourceKey();
+		if (StringUtils.isBlank(sourceKey)
+				|| autoCompleteWords.contains(sourceKey)) {
+			return;
+		}
 		ThreadService.getInstance().run(new Runnable() {
 			public void run() {
-				if (StringUtils.isNotBlank(event.getSource())) {
-					addToAutoComplete(event.getSource());
-				}
+				addToAutoComplete(sourceKey);
 			}
 
 			public String toString() {
@@ -2390,8 +2523,6 @@ public abstract class IcsConnector implements Connector, MessageListener {
 		return result;
 	}
 
-	protected abstract void writeExtendedCensorList();
-
 	private void setBughouseService(BughouseService bughouseService) {
 		this.bughouseService = bughouseService;
 	}
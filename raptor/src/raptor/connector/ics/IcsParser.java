@@ -46,6 +46,7 @@ import raptor.connector.ics.chat.BugWhoAllEventParser;
 import raptor.connector.ics.chat.CShoutEventParser;
 import raptor.connector.ics.chat.ChallengeEventParser;
 import raptor.connector.ics.chat.ChannelTellEventParser;
+import raptor.connector.ics.chat.ChatEventClassifier;
 import raptor.connector.ics.chat.ChatEventParser;
 import raptor.connector.ics.chat.DrawOfferedEventParser;
 import raptor.connector.ics.chat.FingerEventParser;
@@ -77,6 +78,7 @@ import raptor.service.GameService;
 import raptor.service.GameService.GameInfo;
 import raptor.service.GameService.Offer;
 import raptor.service.GameService.Offer.OfferType;
+import raptor.service.SeekService.SeekType;
 import raptor.swt.UserInfoDialog;
 import raptor.util.RaptorLogger;
 import raptor.util.RaptorStringTokenizer;
@@ -98,11 +100,20 @@ public class IcsParser implements GameConstants {
 	protected NoLongerExaminingGameParser noLongerExaminingParser;
 	protected List<ChatEventParser> nonGameEventParsers = new ArrayList<ChatEventParser>(
 			30);
+	protected ChatEventClassifier chatEventClassifier;
 	protected RemovingObsGameParser removingObsGameParser;
 	protected FollowingEventParser followingParser;
 	protected Style12Parser style12Parser;
 	protected SoughtParser soughtParser;
 
+	/**
+	 * Seekinfo adds and removes parsed from the current message which have
+	 * not been sent to the SeekService yet. They are sent a message at a time
+	 * so listeners get one event for a burst of seeks.
+	 */
+	protected List<Seek> seekInfoAdds = new ArrayList<Seek>(10);
+	protected List<String> seekInfoRemoves = new ArrayList<String>(10);
+
 	protected BugWhoGParser bugWhoGParser;
 	protected BugWhoPParser bugWhoPParser;
 	protected BugWhoUParser bugWhoUParser;
@@ -197,6 +208,15 @@ public class IcsParser implements GameConstants {
 		nonGameEventParsers.add(new NotificationEventParser());
 		nonGameEventParsers.add(new VariablesEventParser());
 
+		chatEventClassifier = new ChatEventClassifier(nonGameEventParsers);
+	}
+
+	/**
+	 * Returns the classifier routing messages to the chat event parsers. It
+	 * holds the per parser hit counts and parse times.
+	 */
+	public ChatEventClassifier getChatEventClassifier() {
+		return chatEventClassifier;
 	}
 
 	/**
@@ -245,12 +265,10 @@ public class IcsParser implements GameConstants {
 						if (gameInfoEvent == null) {
 							// Its not a game,gameInfo,bugwho,or sought event so
 							// now try the other parsers.
-							for (ChatEventParser parser : nonGameEventParsers) {
-								ChatEvent event = parser.parse(afterGameEvents);
-								if (event != null) {
-									events.add(event);
-									break;
-								}
+							ChatEvent event = chatEventClassifier
+									.parse(afterGameEvents);
+							if (event != null) {
+								events.add(event);
 							}
 							// Its an unhandled event
 							if (events.isEmpty()) {
@@ -504,7 +522,8 @@ public class IcsParser implements GameConstants {
 	protected String parseGameEvents(String inboundMessage) {
 		containedStyle12 = false;
 		if (inboundMessage.length() > MAX_GAME_MESSAGE) {
-			return inboundMessage;
+			// The seekinfo stream can send hundreds of seeks in one message.
+			return parseSeekInfoMessage(inboundMessage);
 		} else {
 			if (LOG.isDebugEnabled()) {
 				LOG.debug("Raw message in "
@@ -577,6 +596,11 @@ public class IcsParser implements GameConstants {
 					continue;
 				}
 
+				if (processSeekInfo(line)) {
+					trimAtEnd = true;
+					continue;
+				}
+
 				NoLongerExaminingGameMessage noLongerExaminingGameMessage = noLongerExaminingParser
 						.parse(line);
 				if (noLongerExaminingGameMessage != null) {
@@ -610,6 +634,7 @@ public class IcsParser implements GameConstants {
 
                 result.append(line).append(tok.hasMoreTokens() ? "\n" : "");
 			}
+			flushSeekInfo();
 			return trimAtEnd ? result.toString().trim() : result.toString();
 		}
 	}
@@ -954,6 +979,10 @@ public class IcsParser implements GameConstants {
 				LOG.debug("Processed removing game: " + game.getId());
 			}
 		}
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Chat event parser statistics:\n"
+					+ chatEventClassifier.getStatistics());
+		}
 	}
 
 	/**
@@ -1188,6 +1217,114 @@ public class IcsParser implements GameConstants {
 		return false;
 	}
 
+	/**
+	 * Handles a seekinfo line. Adds and removes are queued until flushSeekInfo
+	 * is invoked, in the order they were received.
+	 * 
+	 * <pre>
+	 * &lt;s&gt; 8 w=visar ti=02 rt=2194  t=4 i=0 r=r tp=suicide c=? rr=0-9999 a=t f=f
+	 * &lt;sr&gt; 8 12
+	 * &lt;sc&gt;
+	 * </pre>
+	 * 
+	 * The lines are only applied when all seeks are being shown. Sought is
+	 * still polled when seeks are formula filtered, since the seekinfo stream
+	 * is not filtered by the user's formula.
+	 * 
+	 * @param line
+	 *            The line being parsed.
+	 * @return True if it was a seekinfo line and was processed, false
+	 *         otherwise.
+	 */
+	protected boolean processSeekInfo(String line) {
+		if (soughtParser == null || !line.startsWith("<s")) {
+			return false;
+		}
+
+		if (line.startsWith("<s> ")) {
+			if (isApplyingSeekInfo()) {
+				Seek seek = soughtParser.parseSeekInfo(line);
+				if (seek != null) {
+					if (!seekInfoRemoves.isEmpty()) {
+						flushSeekInfo();
+					}
+					seekInfoAdds.add(seek);
+				}
+			}
+			return true;
+		} else if (line.startsWith("<sr>")) {
+			if (isApplyingSeekInfo()) {
+				if (!seekInfoAdds.isEmpty()) {
+					flushSeekInfo();
+				}
+				RaptorStringTokenizer tok = new RaptorStringTokenizer(line,
+						" ", true);
+				tok.nextToken();
+				while (tok.hasMoreTokens()) {
+					seekInfoRemoves.add(tok.nextToken());
+				}
+			}
+			return true;
+		} else if (line.startsWith("<sc>")) {
+			if (isApplyingSeekInfo()) {
+				seekInfoAdds.clear();
+				seekInfoRemoves.clear();
+				connector.getSeekService().beginSeekInfo();
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Sends the queued seekinfo adds and removes to the SeekService.
+	 */
+	protected void flushSeekInfo() {
+		if (!seekInfoAdds.isEmpty()) {
+			connector.getSeekService().addSeeks(
+					seekInfoAdds.toArray(new Seek[seekInfoAdds.size()]));
+			seekInfoAdds.clear();
+		}
+		if (!seekInfoRemoves.isEmpty()) {
+			connector.getSeekService().removeSeeks(
+					seekInfoRemoves.toArray(new String[seekInfoRemoves.size()]));
+			seekInfoRemoves.clear();
+		}
+	}
+
+	/**
+	 * Returns true if seekinfo lines should be applied to the SeekService.
+	 */
+	protected boolean isApplyingSeekInfo() {
+		return SeekType.valueOf(Raptor.getInstance().getPreferences()
+				.getSnapshot().getString(PreferenceKeys.SEEK_OUTPUT_TYPE)) == SeekType.AllSeeks;
+	}
+
+	/**
+	 * Removes and processes the seekinfo lines in a message too long to be
+	 * checked for game events. Returns the rest of the message.
+	 */
+	protected String parseSeekInfoMessage(String inboundMessage) {
+		if (soughtParser == null || !inboundMessage.contains("<s")) {
+			return inboundMessage;
+		}
+
+		boolean containedSeekInfo = false;
+		StringBuilder result = new StringBuilder(inboundMessage.length());
+		RaptorStringTokenizer tok = new RaptorStringTokenizer(inboundMessage,
+				"\n");
+		while (tok.hasMoreTokens()) {
+			String line = tok.nextToken();
+			if (processSeekInfo(line)) {
+				containedSeekInfo = true;
+			} else {
+				result.append(line).append(tok.hasMoreTokens() ? "\n" : "");
+			}
+		}
+		flushSeekInfo();
+		return containedSeekInfo ? result.toString().trim() : inboundMessage;
+	}
+
 	protected ChatEvent processSought(String message) {
 		ChatEvent result = null;
 		if (soughtParser != null) {
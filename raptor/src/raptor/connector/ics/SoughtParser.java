@@ -31,10 +31,47 @@ public class SoughtParser {
 	private static final RaptorLogger LOG = RaptorLogger.getLog(SoughtParser.class);
 	private static final String AD_DISPLAYED = "ad displayed.";
 	private static final String ADS_DISPLAYED = "ads displayed.";
+	private static final String SEEK_INFO_ADD = "<s> ";
+
+	/**
+	 * The titles in the ti field of a seekinfo line, indexed by bit.
+	 */
+	private static final String[] SEEK_INFO_TITLES = { "(U)", "(C)", "(GM)",
+			"(IM)", "(FM)", "(WGM)", "(WIM)", "(WFM)" };
 
 	public SoughtParser() {
 	}
 
+	/**
+	 * Returns the GameType for a seek type description from a sought or
+	 * seekinfo message.
+	 */
+	public static GameType getGameType(String typeDescription) {
+		if (typeDescription.contains("blitz")) {
+			return GameType.blitz;
+		} else if (typeDescription.contains("lightning")) {
+			return GameType.lightning;
+		} else if (typeDescription.contains("standard")) {
+			return GameType.standard;
+		} else if (typeDescription.contains("suicide")) {
+			return GameType.suicide;
+		} else if (typeDescription.contains("losers")) {
+			return GameType.losers;
+		} else if (typeDescription.contains("atomic")) {
+			return GameType.atomic;
+		} else if (typeDescription.contains("fr")) {
+			return GameType.fischerRandom;
+		} else if (typeDescription.contains("crazyhouse")) {
+			return GameType.crazyhouse;
+		} else if (typeDescription.contains("wild")) {
+			return GameType.wild;
+		} else if (typeDescription.contains("untimed")) {
+			return GameType.untimed;
+		} else {
+			return GameType.other;
+		}
+	}
+
 	public Seek[] parse(String message) {
 		if (message.endsWith(ADS_DISPLAYED) || message.endsWith(AD_DISPLAYED)) {
 
@@ -109,29 +146,7 @@ public class SoughtParser {
 					}
 				}
 
-				if (seek.getTypeDescription().contains("blitz")) {
-					seek.setType(GameType.blitz);
-				} else if (seek.getTypeDescription().contains("lightning")) {
-					seek.setType(GameType.lightning);
-				} else if (seek.getTypeDescription().contains("standard")) {
-					seek.setType(GameType.standard);
-				} else if (seek.getTypeDescription().contains("suicide")) {
-					seek.setType(GameType.suicide);
-				} else if (seek.getTypeDescription().contains("losers")) {
-					seek.setType(GameType.losers);
-				} else if (seek.getTypeDescription().contains("atomic")) {
-					seek.setType(GameType.atomic);
-				} else if (seek.getTypeDescription().contains("fr")) {
-					seek.setType(GameType.fischerRandom);
-				} else if (seek.getTypeDescription().contains("crazyhouse")) {
-					seek.setType(GameType.crazyhouse);
-				} else if (seek.getTypeDescription().contains("wild")) {
-					seek.setType(GameType.wild);
-				} else if (seek.getTypeDescription().contains("untimed")) {
-					seek.setType(GameType.untimed);
-				} else {
-					seek.setType(GameType.other);
-				}
+				seek.setType(getGameType(seek.getTypeDescription()));
 				seeks.add(seek);
 			}
 			return seeks.toArray(new Seek[0]);
@@ -139,4 +154,100 @@ public class SoughtParser {
 			return null;
 		}
 	}
+
+	/**
+	 * Parses a seekinfo add line, i.e.
+	 * 
+	 * <pre>
+	 * &lt;s&gt; 8 w=visar ti=02 rt=2194  t=4 i=0 r=r tp=suicide c=? rr=0-9999 a=t f=f
+	 * </pre>
+	 * 
+	 * Returns null if the line is'nt a seekinfo add line. The seek is filled
+	 * in the same way parse fills in a seek from a sought line.
+	 */
+	public Seek parseSeekInfo(String line) {
+		if (!line.startsWith(SEEK_INFO_ADD)) {
+			return null;
+		}
+
+		try {
+			RaptorStringTokenizer tok = new RaptorStringTokenizer(line, " ",
+					true);
+			tok.nextToken();
+
+			Seek seek = new Seek();
+			seek.setAd(tok.nextToken());
+			seek.setColor(null);
+
+			int titles = 0;
+			String name = null;
+			String rating = null;
+			while (tok.hasMoreTokens()) {
+				String token = tok.nextToken();
+				int equalsIndex = token.indexOf('=');
+				if (equalsIndex == -1) {
+					continue;
+				}
+				String key = token.substring(0, equalsIndex);
+				String value = token.substring(equalsIndex + 1);
+
+				if (key.equals("w")) {
+					name = value;
+				} else if (key.equals("ti")) {
+					titles = Integer.parseInt(value, 16);
+				} else if (key.equals("rt")) {
+					rating = value;
+				} else if (key.equals("t")) {
+					seek.setMinutes(Integer.parseInt(value));
+				} else if (key.equals("i")) {
+					seek.setIncrement(Integer.parseInt(value));
+				} else if (key.equals("r")) {
+					seek.setRated(value.equals("r"));
+				} else if (key.equals("tp")) {
+					seek.setTypeDescription(value);
+				} else if (key.equals("c")) {
+					if (value.equals("W")) {
+						seek.setColor(Seek.GameColor.white);
+					} else if (value.equals("B")) {
+						seek.setColor(Seek.GameColor.black);
+					}
+				} else if (key.equals("rr")) {
+					int dashIndex = value.indexOf('-');
+					seek.setMinRating(Integer.parseInt(value.substring(0,
+							dashIndex)));
+					seek.setMaxRating(Integer.parseInt(value
+							.substring(dashIndex + 1)));
+				} else if (key.equals("a")) {
+					seek.setManual(value.equals("f"));
+				} else if (key.equals("f")) {
+					seek.setFormula(value.equals("t"));
+				}
+			}
+
+			if (name == null || seek.getTypeDescription() == null) {
+				LOG.warn("Invalid seekinfo line: " + line);
+				return null;
+			}
+
+			// Sought appends the titles to the name and shows unrated
+			// players as ++++. Do the same so both sources look alike.
+			StringBuilder nameWithTitles = new StringBuilder(name);
+			for (int i = 0; i < SEEK_INFO_TITLES.length; i++) {
+				if ((titles & 1 << i) != 0) {
+					nameWithTitles.append(SEEK_INFO_TITLES[i]);
+				}
+			}
+			seek.setName(nameWithTitles.toString());
+			seek.setRating(rating == null || rating.startsWith("0") ? "++++"
+					: rating);
+			seek.setType(getGameType(seek.getTypeDescription()));
+			return seek;
+		} catch (NumberFormatException nfe) {
+			LOG.warn("Invalid seekinfo line: " + line, nfe);
+			return null;
+		} catch (StringIndexOutOfBoundsException sioobe) {
+			LOG.warn("Invalid seekinfo line: " + line, sioobe);
+			return null;
+		}
+	}
 }
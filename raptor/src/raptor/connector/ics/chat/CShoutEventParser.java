@@ -25,6 +25,11 @@ public class CShoutEventParser extends ChatEventParser {
 		super();
 	}
 
+	@Override
+	public String[] getSecondTokens() {
+		return new String[] { IDENTIFIER };
+	}
+
 	/**
 	 * Returns null if text does not match the event this class produces.
 	 */
@@ -0,0 +1,313 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2011 RaptorProject (http://code.google.com/p/raptor-chess-interface/)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.connector.ics.chat;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import raptor.chat.ChatEvent;
+
+/**
+ * Routes a message to the ChatEventParsers that can match it instead of
+ * trying every parser in turn.
+ *
+ * Each parser declares the prefixes or second tokens a message needs for it
+ * to match (see {@link ChatEventParser}). Parsers declaring neither are
+ * always tried. The start of the message is scanned once:
+ * <ul>
+ * <li>Prefixes are looked up in a trie, from the first non white space
+ * character and from the second character.</li>
+ * <li>The second token is found the ways the parsers tokenize: split on
+ * spaces and new lines after trimming, skipping a prompt ending in '%', and
+ * split on spaces with and without eating runs of them, from the raw and the
+ * trimmed start. Each is looked up in a map.</li>
+ * </ul>
+ *
+ * The candidates are then tried in the order the parsers were given and the
+ * first event returned wins, exactly as if every parser had been tried. The
+ * number of attempts, hits and the nanoseconds spent in each parser are
+ * recorded.
+ */
+public class ChatEventClassifier {
+	protected static class Node {
+		char[] characters = new char[0];
+		Node[] children = new Node[0];
+		long parsers;
+
+		Node getChild(char character) {
+			for (int i = 0; i < characters.length; i++) {
+				if (characters[i] == character) {
+					return children[i];
+				}
+			}
+			return null;
+		}
+
+		Node getOrAddChild(char character) {
+			Node result = getChild(character);
+			if (result == null) {
+				result = new Node();
+				char[] newCharacters = new char[characters.length + 1];
+				Node[] newChildren = new Node[children.length + 1];
+				System.arraycopy(characters, 0, newCharacters, 0,
+						characters.length);
+				System.arraycopy(children, 0, newChildren, 0, children.length);
+				newCharacters[characters.length] = character;
+				newChildren[children.length] = result;
+				characters = newCharacters;
+				children = newChildren;
+			}
+			return result;
+		}
+	}
+
+	public static final int MAX_PARSERS = 64;
+
+	protected long alwaysTried;
+	protected AtomicLongArray attempts;
+	protected AtomicLongArray hits;
+	protected int maxSecondTokenLength;
+	protected AtomicLongArray nanos;
+	protected ChatEventParser[] parsers;
+	protected Node prefixes = new Node();
+	protected Map<String, Long> secondTokens = new HashMap<String, Long>();
+
+	/**
+	 * Constructs a ChatEventClassifier for parsers, which are tried in list
+	 * order. At most MAX_PARSERS parsers are supported.
+	 */
+	public ChatEventClassifier(List<ChatEventParser> parserList) {
+		if (parserList.size() > MAX_PARSERS) {
+			throw new IllegalArgumentException("At most " + MAX_PARSERS
+					+ " parsers are supported.");
+		}
+		parsers = parserList.toArray(new ChatEventParser[parserList.size()]);
+		attempts = new AtomicLongArray(parsers.length);
+		hits = new AtomicLongArray(parsers.length);
+		nanos = new AtomicLongArray(parsers.length);
+
+		for (int i = 0; i < parsers.length; i++) {
+			long bit = 1L << i;
+			String[] parserPrefixes = parsers[i].getPrefixes();
+			String[] parserSecondTokens = parsers[i].getSecondTokens();
+
+			if (parserPrefixes == null && parserSecondTokens == null) {
+				alwaysTried |= bit;
+				continue;
+			}
+			if (parserPrefixes != null) {
+				for (String prefix : parserPrefixes) {
+					Node node = prefixes;
+					for (int j = 0; j < prefix.length(); j++) {
+						node = node.getOrAddChild(prefix.charAt(j));
+					}
+					node.parsers |= bit;
+				}
+			}
+			if (parserSecondTokens != null) {
+				for (String token : parserSecondTokens) {
+					Long current = secondTokens.get(token);
+					secondTokens.put(token, current == null ? bit : current
+							| bit);
+					maxSecondTokenLength = Math.max(maxSecondTokenLength,
+							token.length());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of messages the parser at index was tried on.
+	 */
+	public long getAttemptCount(int index) {
+		return attempts.get(index);
+	}
+
+	/**
+	 * Returns the number of events the parser at index returned.
+	 */
+	public long getHitCount(int index) {
+		return hits.get(index);
+	}
+
+	/**
+	 * Returns the total nanoseconds spent in the parse method of the parser at
+	 * index.
+	 */
+	public long getParseNanos(int index) {
+		return nanos.get(index);
+	}
+
+	public ChatEventParser getParser(int index) {
+		return parsers[index];
+	}
+
+	public int getParserCount() {
+		return parsers.length;
+	}
+
+	/**
+	 * Returns a line per parser with its attempts, hits and parse time.
+	 */
+	public String getStatistics() {
+		StringBuilder result = new StringBuilder(100 * parsers.length);
+		for (int i = 0; i < parsers.length; i++) {
+			result.append(parsers[i].getClass().getSimpleName()).append(
+					" attempts=").append(attempts.get(i)).append(" hits=")
+					.append(hits.get(i)).append(" parseMillis=").append(
+							nanos.get(i) / 1000000L).append('\n');
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Returns the event produced by the first candidate parser matching text,
+	 * or null if none match.
+	 */
+	public ChatEvent parse(String text) {
+		long candidates = classify(text);
+		for (int i = 0; i < parsers.length; i++) {
+			if ((candidates & 1L << i) == 0) {
+				continue;
+			}
+			long startTime = System.nanoTime();
+			ChatEvent event = null;
+			try {
+				event = parsers[i].parse(text);
+			} finally {
+				nanos.addAndGet(i, System.nanoTime() - startTime);
+				attempts.incrementAndGet(i);
+			}
+			if (event != null) {
+				hits.incrementAndGet(i);
+				return event;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Resets all attempt, hit and time counters to 0.
+	 */
+	public void resetStatistics() {
+		for (int i = 0; i < parsers.length; i++) {
+			attempts.set(i, 0);
+			hits.set(i, 0);
+			nanos.set(i, 0);
+		}
+	}
+
+	/**
+	 * Returns a bit for each parser which could match text.
+	 */
+	protected long classify(String text) {
+		int start = 0;
+		while (start < text.length() && text.charAt(start) <= ' ') {
+			start++;
+		}
+		int end = text.length();
+		while (end > start && text.charAt(end - 1) <= ' ') {
+			end--;
+		}
+
+		long result = alwaysTried | matchPrefixes(text, start);
+		if (start != 1) {
+			result |= matchPrefixes(text, 1);
+		}
+
+		if (!secondTokens.isEmpty()) {
+			result |= matchSecondToken(text, start, end, true, true, true);
+			result |= matchSecondToken(text, start, end, false, true, false);
+			result |= matchSecondToken(text, 0, text.length(), false, false,
+					false);
+			result |= matchSecondToken(text, 0, text.length(), false, true,
+					false);
+		}
+		return result;
+	}
+
+	private boolean isDelimiter(char character, boolean isSplittingLines) {
+		return character == ' ' || isSplittingLines
+				&& (character == '\n' || character == '\r');
+	}
+
+	private int matchDelimiters(String text, int index, int end,
+			boolean isSplittingLines, boolean isEating) {
+		if (isEating) {
+			while (index < end && isDelimiter(text.charAt(index), isSplittingLines)) {
+				index++;
+			}
+		}
+		return index;
+	}
+
+	private long matchPrefixes(String text, int start) {
+		long result = 0;
+		Node node = prefixes;
+		for (int i = start; i < text.length(); i++) {
+			node = node.getChild(text.charAt(i));
+			if (node == null) {
+				break;
+			}
+			result |= node.parsers;
+		}
+		return result;
+	}
+
+	/**
+	 * Looks up the second token of text between start and end. When
+	 * isSkippingPrompt is true and the first token ends in '%' the third token
+	 * is looked up as well.
+	 */
+	private long matchSecondToken(String text, int start, int end,
+			boolean isSplittingLines, boolean isEating, boolean isSkippingPrompt) {
+		int firstStart = matchDelimiters(text, start, end, isSplittingLines,
+				isEating);
+		int firstEnd = nextDelimiter(text, firstStart, end, isSplittingLines);
+		if (firstEnd >= end) {
+			return 0;
+		}
+		int secondStart = matchDelimiters(text, firstEnd + 1, end,
+				isSplittingLines, isEating);
+		int secondEnd = nextDelimiter(text, secondStart, end, isSplittingLines);
+		long result = matchToken(text, secondStart, secondEnd);
+
+		if (isSkippingPrompt && firstEnd > firstStart
+				&& text.charAt(firstEnd - 1) == '%' && secondEnd < end) {
+			int thirdStart = matchDelimiters(text, secondEnd + 1, end,
+					isSplittingLines, isEating);
+			result |= matchToken(text, thirdStart, nextDelimiter(text,
+					thirdStart, end, isSplittingLines));
+		}
+		return result;
+	}
+
+	private long matchToken(String text, int start, int end) {
+		if (end == start || end - start > maxSecondTokenLength) {
+			return 0;
+		}
+		Long result = secondTokens.get(text.substring(start, end));
+		return result == null ? 0 : result;
+	}
+
+	private int nextDelimiter(String text, int index, int end,
+			boolean isSplittingLines) {
+		while (index < end && !isDelimiter(text.charAt(index), isSplittingLines)) {
+			index++;
+		}
+		return index;
+	}
+}
@@ -19,6 +19,24 @@ public abstract class ChatEventParser {
 	public ChatEventParser() {
 	}
 
+	/**
+	 * Returns the strings one of which text must start with for parse to
+	 * match, or null if parse does not depend on how text starts. See
+	 * {@link ChatEventClassifier}.
+	 */
+	public String[] getPrefixes() {
+		return null;
+	}
+
+	/**
+	 * Returns the tokens one of which must be the second token of text for
+	 * parse to match, or null if parse does not depend on it. See
+	 * {@link ChatEventClassifier}.
+	 */
+	public String[] getSecondTokens() {
+		return null;
+	}
+
 	/**
 	 * Returns null if text does not match the event this class produces.
 	 */
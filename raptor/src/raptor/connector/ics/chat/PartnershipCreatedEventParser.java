@@ -26,6 +26,16 @@ public class PartnershipCreatedEventParser extends ChatEventParser {
 	public PartnershipCreatedEventParser() {
 	}
 
+	@Override
+	public String[] getPrefixes() {
+		return new String[] { IDENTIFIER };
+	}
+
+	@Override
+	public String[] getSecondTokens() {
+		return new String[] { "agrees" };
+	}
+
 	@Override
 	public ChatEvent parse(String text) {
 		if (text.length() < 100) {
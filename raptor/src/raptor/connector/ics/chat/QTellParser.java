@@ -17,6 +17,11 @@ import raptor.chat.ChatEvent;
 import raptor.chat.ChatType;
 
 public class QTellParser extends ChatEventParser {
+	@Override
+	public String[] getPrefixes() {
+		return new String[] { ":" };
+	}
+
 	/**
 	 * Returns null if text does not match the event this class produces.
 	 */
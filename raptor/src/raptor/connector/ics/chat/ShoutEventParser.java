@@ -28,6 +28,16 @@ public class ShoutEventParser extends ChatEventParser {
 	public ShoutEventParser() {
 	}
 
+	@Override
+	public String[] getPrefixes() {
+		return new String[] { SHOUT_1 };
+	}
+
+	@Override
+	public String[] getSecondTokens() {
+		return new String[] { SHOUT_2 };
+	}
+
 	/**
 	 * Returns null if text does not match the event this class produces.
 	 */
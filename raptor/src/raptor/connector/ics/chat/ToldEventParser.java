@@ -21,6 +21,11 @@ public class ToldEventParser extends ChatEventParser {
 	// (told TheTactician)
 	public static final String STARTING_TEXT = "(told ";
 
+	@Override
+	public String[] getPrefixes() {
+		return new String[] { STARTING_TEXT };
+	}
+
 	/**
 	 * Returns null if text does not match the event this class produces.
 	 */
@@ -11,6 +11,11 @@ public class VariablesEventParser extends ChatEventParser {
 		super();
 	}
 	
+	@Override
+	public String[] getPrefixes() {
+		return new String[] { BEGINING_MESSAGE };
+	}
+
 	@Override
 	public ChatEvent parse(String text) {
 		ChatEvent result = null;
@@ -0,0 +1,143 @@
+package raptor.connector.ics.timeseal;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import raptor.util.RaptorLogger;
+
+/**
+ * One NIO selector and thread shared by every connection. Connections
+ * register a non-blocking channel with a Handler and are called back on the
+ * selector thread whenever the channel is ready, so any number of
+ * connections costs one thread instead of one blocked thread each.
+ *
+ * <p>
+ * Selection keys may only be registered or changed on the selector thread.
+ * Other threads hand that work over with {@link #invokeLater(Runnable)}.
+ * </p>
+ */
+public class MessageSelector {
+	/**
+	 * Called on the selector thread when a registered channel is ready.
+	 */
+	public static interface Handler {
+		public void selected(SelectionKey key);
+	}
+
+	private static final RaptorLogger LOG = RaptorLogger
+			.getLog(MessageSelector.class);
+
+	private static MessageSelector singletonInstance;
+
+	public static boolean serviceCreated = false;
+
+	public static synchronized MessageSelector getInstance() {
+		if (singletonInstance != null)
+			return singletonInstance;
+
+		singletonInstance = new MessageSelector();
+		return singletonInstance;
+	}
+
+	private volatile boolean isDisposed;
+	private Selector selector;
+	private Thread selectorThread;
+	private ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+	private MessageSelector() {
+		try {
+			selector = Selector.open();
+		} catch (IOException ioe) {
+			throw new RuntimeException(ioe);
+		}
+		selectorThread = new Thread(new Runnable() {
+			public void run() {
+				selectLoop();
+			}
+		}, "MessageSelector");
+		selectorThread.setDaemon(true);
+		selectorThread.setPriority(Thread.MAX_PRIORITY);
+		selectorThread.start();
+		serviceCreated = true;
+	}
+
+	/**
+	 * Closes the selector. Channels still registered are not closed.
+	 */
+	public void dispose() {
+		isDisposed = true;
+		selector.wakeup();
+		try {
+			selectorThread.join(5000);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public Selector getSelector() {
+		return selector;
+	}
+
+	/**
+	 * Runs the runnable on the selector thread before it next selects.
+	 */
+	public void invokeLater(Runnable runnable) {
+		tasks.add(runnable);
+		if (Thread.currentThread() != selectorThread) {
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Returns true if the calling thread is the selector thread.
+	 */
+	public boolean isSelectorThread() {
+		return Thread.currentThread() == selectorThread;
+	}
+
+	private void runTasks() {
+		Runnable task = null;
+		while ((task = tasks.poll()) != null) {
+			try {
+				task.run();
+			} catch (Throwable t) {
+				LOG.error("Error in MessageSelector task " + task, t);
+			}
+		}
+	}
+
+	private void selectLoop() {
+		try {
+			while (!isDisposed) {
+				runTasks();
+				selector.select();
+
+				Iterator<SelectionKey> iterator = selector.selectedKeys()
+						.iterator();
+				while (iterator.hasNext()) {
+					SelectionKey key = iterator.next();
+					iterator.remove();
+					try {
+						((Handler) key.attachment()).selected(key);
+					} catch (Throwable t) {
+						LOG.error("Error handling selected key "
+								+ key.attachment(), t);
+					}
+				}
+			}
+		} catch (ClosedSelectorException cse) {
+		} catch (Throwable t) {
+			LOG.error("Error in MessageSelector select loop", t);
+		} finally {
+			try {
+				selector.close();
+			} catch (IOException ioe) {
+			}
+			LOG.debug("MessageSelector leaving selectLoop");
+		}
+	}
+}
@@ -2,261 +2,366 @@ package raptor.connector.ics.timeseal;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 
-import org.apache.commons.lang.StringUtils;
-
-import raptor.connector.ics.IcsUtils;
 import raptor.util.RaptorLogger;
 
-public class TimesealSocketMessageProducer implements MessageProducer {
-	private class CryptOutputStream extends OutputStream {
-		private byte buffer[];
-		private final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-		private OutputStream outputStreamToDecorate;
-		private final byte timesealKey[] = "Timestamp (FICS) v1.0 - programmed by Henrik Gram."
-				.getBytes();
-
-		public CryptOutputStream(OutputStream outputstream) {
-			buffer = new byte[10000];
-			outputStreamToDecorate = outputstream;
-		}
+/**
+ * A non-blocking connection to an ics server with optional timeseal.
+ *
+ * The socket channel is registered with the shared {@link MessageSelector},
+ * so a connection does not need a thread of its own. Reads are decoded from
+ * one reusable ByteBuffer into one reusable CharBuffer and scanned a single
+ * time. That scan strips the '\r' characters IcsUtils.cleanupMessage used to
+ * remove, removes each timeseal "\n\r[G]\n\r" marker and acks it, and appends
+ * everything else to the inbound message buffer. A marker split across two
+ * reads is still recognized. The listener is called on the selector thread.
+ *
+ * Writes are queued in an outbound buffer and written as far as the socket
+ * accepts. Anything left is written when the selector reports the channel
+ * writable.
+ */
+public class TimesealSocketMessageProducer implements MessageProducer,
+		MessageSelector.Handler {
+	private static final RaptorLogger LOG = RaptorLogger
+			.getLog(TimesealSocketMessageProducer.class);
 
-		@Override
-		public void write(int i) throws IOException {
-			if (i == 10) {
-				synchronized (socket) {
-					if (initialTime == -1) {
-						initialTime = System.currentTimeMillis();
-					}
-					int resultLength = crypt(
-							byteArrayOutputStream.toByteArray(),
-							System.currentTimeMillis() - initialTime);
-					outputStreamToDecorate.write(buffer, 0, resultLength);
-					outputStreamToDecorate.flush();
-					byteArrayOutputStream.reset();
-				}
-			} else {
-				byteArrayOutputStream.write(i);
-				//System.err.print(i);
-			}
-		}
+	private static final byte[] TIMESEAL_KEY = "Timestamp (FICS) v1.0 - programmed by Henrik Gram."
+			.getBytes();
 
-		private int crypt(byte stringToWriteBytes[], long timestamp) {
-			//System.err.println("Writing " + stringToWriteBytes);
-			int bytesInLength = stringToWriteBytes.length;
-			System.arraycopy(stringToWriteBytes, 0, buffer, 0,
-					stringToWriteBytes.length);
-			buffer[bytesInLength++] = 24;
-			byte abyte1[] = Long.toString(timestamp).getBytes();
-			System.arraycopy(abyte1, 0, buffer, bytesInLength, abyte1.length);
-			bytesInLength += abyte1.length;
-			buffer[bytesInLength++] = 25;
-			int j = bytesInLength;
-			for (bytesInLength += 12 - bytesInLength % 12; j < bytesInLength;) {
-				buffer[j++] = 49;
-			}
+	private static final byte[] TIMESEAL_ACK = "\0029\n".getBytes();
 
-			for (int k = 0; k < bytesInLength; k++) {
-                buffer[k] |= 0x80;
-			}
+	private static final char[] TIMESEAL_MARKER = "\n\r[G]\n\r".toCharArray();
 
-			for (int i1 = 0; i1 < bytesInLength; i1 += 12) {
-				byte byte0 = buffer[i1 + 11];
-				buffer[i1 + 11] = buffer[i1];
-				buffer[i1] = byte0;
-				byte0 = buffer[i1 + 9];
-				buffer[i1 + 9] = buffer[i1 + 2];
-				buffer[i1 + 2] = byte0;
-				byte0 = buffer[i1 + 7];
-				buffer[i1 + 7] = buffer[i1 + 4];
-				buffer[i1 + 4] = byte0;
-			}
+	/**
+	 * MARKER_FALLBACK[i] is the length of the longest proper prefix of the
+	 * first i marker characters which is also a suffix of them. When a partial
+	 * match fails only the characters before that suffix can be released.
+	 */
+	private static final int[] MARKER_FALLBACK = new int[TIMESEAL_MARKER.length + 1];
 
-			int l1 = 0;
-			for (int j1 = 0; j1 < bytesInLength; j1++) {
-                buffer[j1] ^= timesealKey[l1];
-				l1 = (l1 + 1) % timesealKey.length;
+	static {
+		for (int i = 2, length = 0; i <= TIMESEAL_MARKER.length; i++) {
+			while (length > 0
+					&& TIMESEAL_MARKER[i - 1] != TIMESEAL_MARKER[length]) {
+				length = MARKER_FALLBACK[length];
 			}
-
-			for (int k1 = 0; k1 < bytesInLength; k1++) {
-                buffer[k1] -= 32;
+			if (TIMESEAL_MARKER[i - 1] == TIMESEAL_MARKER[length]) {
+				length++;
 			}
-
-			buffer[bytesInLength++] = -128;
-			buffer[bytesInLength++] = 10;
-			return bytesInLength;
+			MARKER_FALLBACK[i] = length;
 		}
 	}
 
-	private static final RaptorLogger LOG = RaptorLogger
-			.getLog(TimesealSocketMessageProducer.class);
+	private static final int READ_BUFFER_SIZE = 40000;
 
-	private CryptOutputStream cryptedOutputStream;
+	private volatile SocketChannel channel;
 
-	private long initialTime = -1;
+	private byte[] cryptBuffer = new byte[10000];
 
-	private String initialTimesealString = null;
+	private long initialTime = -1;
 
-	private Socket socket;
+	private volatile SelectionKey key;
 
 	private MessageListener listener;
 
-	protected Thread daemonThread;
+	private ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream();
+
+	/**
+	 * Bytes waiting to be written, in write mode. Guarded by writeLock.
+	 */
+	private ByteBuffer outboundBuffer = ByteBuffer.allocate(8192);
+
+	private Object writeLock = new Object();
+
+	protected CharBuffer charBuffer = CharBuffer.allocate(READ_BUFFER_SIZE);
+
+	protected CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
 
 	protected StringBuilder inboundMessageBuffer = new StringBuilder(25000);
 
 	protected boolean isTimesealOn;
 
-	@Override
-	public void send(String message) {
+	/**
+	 * The number of timeseal marker characters matched and held back at the
+	 * end of the last read.
+	 */
+	protected int markerIndex;
+
+	protected ByteBuffer readBuffer = ByteBuffer
+			.allocateDirect(READ_BUFFER_SIZE);
+
+	public TimesealSocketMessageProducer(String address, int port,
+			String initialTimestampString, boolean isTimesealOn,
+			MessageListener listener) {
 		try {
-			getOutputStream().write(message.getBytes());
+			this.isTimesealOn = isTimesealOn;
+			this.listener = listener;
+			channel = SocketChannel.open(new InetSocketAddress(address, port));
+			init(initialTimestampString);
 		} catch (IOException ioe) {
+			this.listener = null;
+			close();
 			throw new RuntimeException(ioe);
 		}
 	}
 
 	@Override
 	public void close() {
-		try {
-			if (socket != null) {
-				socket.close();
+		MessageListener tempListener = null;
+		synchronized (this) {
+			if (channel == null) {
+				return;
 			}
-		} catch (IOException ioe) {
+			try {
+				channel.close();
+			} catch (IOException ioe) {
+			}
+			if (key != null) {
+				key.cancel();
+			}
+			channel = null;
+			key = null;
+			tempListener = listener;
+			listener = null;
 		}
 
-		socket = null;
-		daemonThread = null;
-		cryptedOutputStream = null;
-		initialTimesealString = null;
-		if (listener != null) {
-			MessageListener tempListener = listener;
-			listener = null;
+		if (tempListener != null) {
+			appendMarker(markerIndex);
+			markerIndex = 0;
 			try {
 				tempListener.connectionClosed(inboundMessageBuffer);
 			} catch (Throwable t) {
 			}
+		}
+	}
+
+	public boolean isConnected() {
+		SocketChannel currentChannel = channel;
+		return currentChannel != null && currentChannel.isOpen();
+	}
 
-			inboundMessageBuffer = null;
+	/**
+	 * Invoked on the selector thread when the channel is readable or
+	 * writable.
+	 */
+	public void selected(SelectionKey selectedKey) {
+		try {
+			if (selectedKey.isValid() && selectedKey.isWritable()) {
+				synchronized (writeLock) {
+					flush();
+				}
+				updateInterestOps();
+			}
+			if (selectedKey.isValid() && selectedKey.isReadable()) {
+				read();
+			}
+		} catch (Throwable t) {
+			if (t instanceof IOException) {
+				LOG.debug(
+						"TimesealSocketMessageProducer "
+								+ "Connector "
+								+ "IOException occured reading (These are common when disconnecting and ignorable)",
+						t);
+			} else {
+				MessageListener currentListener = listener;
+				if (currentListener != null) {
+					currentListener.onError("TimesealSocketMessageProducer "
+							+ "Connector Error reading", t);
+				}
+			}
+			close();
 		}
 	}
 
-	public TimesealSocketMessageProducer(String address, int port,
-			String initialTimestampString, boolean isTimesealOn,
-			MessageListener listener) {
+	@Override
+	public void send(String message) {
 		try {
-			this.isTimesealOn = isTimesealOn;
-			this.listener = listener;
-			socket = new Socket(address, port);
-			this.initialTimesealString = initialTimestampString;
-			init();
+			write(message.getBytes());
 		} catch (IOException ioe) {
 			throw new RuntimeException(ioe);
 		}
 	}
 
-	public boolean isConnected() {
-		return socket != null && daemonThread != null;
+	@Override
+	public String toString() {
+		return "TimesealSocketMessageProducer " + channel;
 	}
 
 	/**
-	 * Handles sending the timeseal ack.
-	 * 
-	 * @param text
-	 * @return
-	 * @throws IOException
+	 * Appends the first count timeseal marker characters, without their
+	 * '\r', to the inbound message buffer.
 	 */
-	protected String handleTimeseal(String text) throws IOException {
-		//text.replace("[G]\0", "") TIMESEAL 2.
-		
-		//Send an ack for each \n\r[G]\n\r received.
-		String beforeReplace = text;
-		String afterReplace  = StringUtils.replaceOnce(beforeReplace,"\n\r[G]\n\r", "");
-		
-		while (!StringUtils.equals(beforeReplace,afterReplace)) {
-			sendAck();
-			beforeReplace = afterReplace;
-			afterReplace  = StringUtils.replaceOnce(beforeReplace,"\n\r[G]\n\r", "");
+	protected void appendMarker(int count) {
+		for (int i = 0; i < count; i++) {
+			if (TIMESEAL_MARKER[i] != '\r') {
+				inboundMessageBuffer.append(TIMESEAL_MARKER[i]);
+			}
 		}
-
-		return afterReplace;
 	}
 
 	/**
-	 * The messageLoop. Reads the inputChannel and then invokes publishInput
-	 * with the text read. Should really never be invoked.
+	 * Reads what is available, decodes it into charBuffer and passes the
+	 * result to the listener.
 	 */
-	protected void messageLoop() {
-		try {
-			byte[] buffer = new byte[40000];
-			while (isConnected()) {
-				//long start = System.currentTimeMillis();
-				int numRead = socket.getInputStream().read(buffer);
-				if (numRead > 0) {
-					if (LOG.isDebugEnabled()) {
-						LOG.debug("TimesealSocketMessageProducer " + "Read "
-								+ numRead + " bytes.");
-					}
-					
-
-					//System.err.println("Raw in: " + new String(buffer, 0,
-					//numRead));
+	protected void read() throws IOException {
+		SocketChannel currentChannel = channel;
+		if (currentChannel == null) {
+			return;
+		}
+		int numRead = currentChannel.read(readBuffer);
+		if (numRead < 0) {
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("TimesealSocketMessageProducer "
+						+ "Read end of stream disconnecting.");
+			}
+			close();
+			return;
+		}
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("TimesealSocketMessageProducer " + "Read " + numRead
+					+ " bytes.");
+		}
 
-					String text = isTimesealOn ? handleTimeseal(new String(
-							buffer, 0, numRead)) : new String(buffer, 0,
-							numRead);
+		int lengthBefore = inboundMessageBuffer.length();
+		readBuffer.flip();
+		CoderResult result = null;
+		do {
+			result = decoder.decode(readBuffer, charBuffer, false);
+			charBuffer.flip();
+			scan(charBuffer);
+			charBuffer.clear();
+		} while (result.isOverflow());
+		readBuffer.compact();
+
+		MessageListener currentListener = listener;
+		if (inboundMessageBuffer.length() != lengthBefore
+				&& currentListener != null) {
+			currentListener.messageArrived(inboundMessageBuffer);
+		}
+	}
 
-					if (StringUtils.isNotBlank(text)) {
-						inboundMessageBuffer.append(IcsUtils
-								.cleanupMessage(text));
-						listener.messageArrived(inboundMessageBuffer);
-					}
-				} else {
-					if (LOG.isDebugEnabled()) {
-						LOG.debug("TimesealSocketMessageProducer  "
-								+ "Read 0 bytes disconnecting.");
+	/**
+	 * Scans the decoded characters once. Drops '\r', acks and removes timeseal
+	 * markers, and appends everything else to inboundMessageBuffer.
+	 */
+	protected void scan(CharBuffer chars) throws IOException {
+		char[] array = chars.array();
+		int end = chars.arrayOffset() + chars.limit();
+		for (int i = chars.arrayOffset() + chars.position(); i < end; i++) {
+			char character = array[i];
+			if (isTimesealOn) {
+				while (markerIndex > 0
+						&& character != TIMESEAL_MARKER[markerIndex]) {
+					int fallback = MARKER_FALLBACK[markerIndex];
+					appendMarker(markerIndex - fallback);
+					markerIndex = fallback;
+				}
+				if (character == TIMESEAL_MARKER[markerIndex]) {
+					markerIndex++;
+					if (markerIndex == TIMESEAL_MARKER.length) {
+						markerIndex = 0;
+						write(TIMESEAL_ACK);
 					}
-					close();
-					break;
+					continue;
 				}
-				//System.err.println("Processed message in " + (System.currentTimeMillis() - start));
 			}
-			LOG.debug("TimesealSocketMessageProducer "
-					+ "Not connected disconnecting.");
-		} catch (Throwable t) {
-			if (t instanceof IOException) {
-				LOG.debug(
-						"TimesealSocketMessageProducer "
-								+ "Connector "
-								+ "IOException occured in messageLoop (These are common when disconnecting and ignorable)",
-						t);
-			} else {
-				listener.onError("TimesealSocketMessageProducer "
-						+ "Connector Error in DaemonRun Thwoable", t);
+			if (character != '\r') {
+				inboundMessageBuffer.append(character);
 			}
-			close();
-		} finally {
-			LOG.debug("TimesealSocketMessageProducer  Leaving readInput");
 		}
 	}
 
-	private OutputStream getOutputStream() throws IOException {
-		return isTimesealOn ? cryptedOutputStream : socket.getOutputStream();
-	}
+	/**
+	 * Encrypts lineLength bytes of line followed by the timestamp into
+	 * cryptBuffer and returns the number of bytes to send.
+	 */
+	private int crypt(byte line[], int lineLength, long timestamp) {
+		byte timestampBytes[] = Long.toString(timestamp).getBytes();
+		int maxLength = lineLength + timestampBytes.length + 16;
+		if (cryptBuffer.length < maxLength) {
+			cryptBuffer = new byte[maxLength];
+		}
+		byte buffer[] = cryptBuffer;
+
+		int bytesInLength = lineLength;
+		System.arraycopy(line, 0, buffer, 0, lineLength);
+		buffer[bytesInLength++] = 24;
+		System.arraycopy(timestampBytes, 0, buffer, bytesInLength,
+				timestampBytes.length);
+		bytesInLength += timestampBytes.length;
+		buffer[bytesInLength++] = 25;
+		int j = bytesInLength;
+		for (bytesInLength += 12 - bytesInLength % 12; j < bytesInLength;) {
+			buffer[j++] = 49;
+		}
 
-	private void sendAck() throws IOException {
-		getOutputStream().write("\0029\n".getBytes());
+		for (int k = 0; k < bytesInLength; k++) {
+			buffer[k] |= 0x80;
+		}
+
+		for (int i1 = 0; i1 < bytesInLength; i1 += 12) {
+			byte byte0 = buffer[i1 + 11];
+			buffer[i1 + 11] = buffer[i1];
+			buffer[i1] = byte0;
+			byte0 = buffer[i1 + 9];
+			buffer[i1 + 9] = buffer[i1 + 2];
+			buffer[i1 + 2] = byte0;
+			byte0 = buffer[i1 + 7];
+			buffer[i1 + 7] = buffer[i1 + 4];
+			buffer[i1 + 4] = byte0;
+		}
+
+		int l1 = 0;
+		for (int j1 = 0; j1 < bytesInLength; j1++) {
+			buffer[j1] ^= TIMESEAL_KEY[l1];
+			l1 = (l1 + 1) % TIMESEAL_KEY.length;
+		}
+
+		for (int k1 = 0; k1 < bytesInLength; k1++) {
+			buffer[k1] -= 32;
+		}
+
+		buffer[bytesInLength++] = -128;
+		buffer[bytesInLength++] = 10;
+		return bytesInLength;
 	}
 
-	private void init() throws IOException {
-		initialTime = System.currentTimeMillis();
-		cryptedOutputStream = new CryptOutputStream(socket.getOutputStream());
-		writeInitialTimesealString();
+	/**
+	 * Writes as much of the outbound buffer as the socket accepts. Returns
+	 * true if bytes are left. Must hold writeLock.
+	 */
+	private boolean flush() throws IOException {
+		SocketChannel currentChannel = channel;
+		if (currentChannel == null) {
+			throw new ClosedChannelException();
+		}
+		outboundBuffer.flip();
+		try {
+			currentChannel.write(outboundBuffer);
+		} finally {
+			outboundBuffer.compact();
+		}
+		return outboundBuffer.position() > 0;
 	}
 
-	private void writeInitialTimesealString() throws IOException {
+	/**
+	 * Writes the initial timeseal string while the channel is still blocking,
+	 * then switches it to non-blocking and registers it with the selector.
+	 */
+	private void init(String initialTimesealString) throws IOException {
+		initialTime = System.currentTimeMillis();
 
 		// BICS can't handle speedy connections so this slows it down a bit.
 		try {
@@ -265,22 +370,102 @@ public class TimesealSocketMessageProducer implements MessageProducer {
 		}
 
 		if (isTimesealOn) {
-			OutputStream outputstream = getOutputStream();
-			synchronized (socket) {
-				outputstream.write(initialTimesealString.getBytes());
-				outputstream.write(10);
-			}
+			write((initialTimesealString + "\n").getBytes());
 		}
 
-		daemonThread = new Thread(new Runnable() {
-			@Override
+		channel.configureBlocking(false);
+		MessageSelector.getInstance().invokeLater(new Runnable() {
 			public void run() {
-				messageLoop();
+				SocketChannel currentChannel = channel;
+				if (currentChannel == null) {
+					return;
+				}
+				try {
+					key = currentChannel.register(MessageSelector
+							.getInstance().getSelector(),
+							SelectionKey.OP_READ,
+							TimesealSocketMessageProducer.this);
+					updateInterestOps();
+				} catch (ClosedChannelException cce) {
+					close();
+				}
+			}
+
+			@Override
+			public String toString() {
+				return "TimesealSocketMessageProducer register";
 			}
 		});
-		daemonThread.setDaemon(true);
-		daemonThread.setName("TimesealSocketMessageProducer Thread");
-		daemonThread.setPriority(Thread.MAX_PRIORITY);
-		daemonThread.start();
+	}
+
+	/**
+	 * Adds or removes write interest depending on whether bytes are waiting.
+	 * Must run on the selector thread.
+	 */
+	private void updateInterestOps() {
+		SelectionKey currentKey = key;
+		if (currentKey == null || !currentKey.isValid()) {
+			return;
+		}
+		synchronized (writeLock) {
+			currentKey.interestOps(outboundBuffer.position() > 0 ? SelectionKey.OP_READ
+					| SelectionKey.OP_WRITE
+					: SelectionKey.OP_READ);
+		}
+	}
+
+	/**
+	 * Queues bytes for writing. With timeseal on each complete line is
+	 * encrypted and the rest is held until its new line arrives.
+	 */
+	private void write(byte[] bytes) throws IOException {
+		synchronized (writeLock) {
+			if (isTimesealOn) {
+				for (byte current : bytes) {
+					if (current == 10) {
+						if (initialTime == -1) {
+							initialTime = System.currentTimeMillis();
+						}
+						int length = crypt(lineBuffer.toByteArray(), lineBuffer
+								.size(), System.currentTimeMillis()
+								- initialTime);
+						queue(cryptBuffer, length);
+						lineBuffer.reset();
+					} else {
+						lineBuffer.write(current);
+					}
+				}
+			} else {
+				queue(bytes, bytes.length);
+			}
+
+			if (flush()) {
+				MessageSelector.getInstance().invokeLater(new Runnable() {
+					public void run() {
+						updateInterestOps();
+					}
+
+					@Override
+					public String toString() {
+						return "TimesealSocketMessageProducer updateInterestOps";
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Appends length bytes to the outbound buffer, growing it if needed. Must
+	 * hold writeLock.
+	 */
+	private void queue(byte[] bytes, int length) {
+		if (outboundBuffer.remaining() < length) {
+			ByteBuffer grown = ByteBuffer.allocate(Math.max(outboundBuffer
+					.capacity() * 2, outboundBuffer.position() + length));
+			outboundBuffer.flip();
+			grown.put(outboundBuffer);
+			outboundBuffer = grown;
+		}
+		outboundBuffer.put(bytes, 0, length);
 	}
 }
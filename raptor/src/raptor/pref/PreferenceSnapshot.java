@@ -0,0 +1,188 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2011 RaptorProject (http://code.google.com/p/raptor-chess-interface/)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.pref;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.eclipse.swt.graphics.Color;
+
+import raptor.chat.ChatEvent;
+import raptor.chat.ChatType;
+import raptor.util.RaptorLogger;
+import raptor.util.RegExUtils;
+
+/**
+ * A typed, read only view of the RaptorPreferenceStore for code which reads
+ * preferences on every chat event or paint.
+ *
+ * Each value is read from the store and parsed the first time it is asked
+ * for and cached. Later reads are a lookup in a ConcurrentHashMap: the
+ * property map, the string converters and the pattern compiler are not
+ * touched again. Arrays are copied on the way out, so the cached ones can
+ * not be changed by callers.
+ *
+ * The store replaces its snapshot whenever a property changes, so a
+ * snapshot never holds a stale value for long. Code which reads several
+ * values for one operation should get the snapshot once and read them all
+ * from it. Obtain the current snapshot with
+ * {@link RaptorPreferenceStore#getSnapshot()}.
+ */
+public class PreferenceSnapshot {
+	private static final RaptorLogger LOG = RaptorLogger
+			.getLog(PreferenceSnapshot.class);
+
+	/**
+	 * Cached in place of a null color, ConcurrentHashMap does not allow null
+	 * values.
+	 */
+	private static final Object NO_COLOR = new Object();
+
+	protected ConcurrentHashMap<String, Boolean> booleans = new ConcurrentHashMap<String, Boolean>();
+	protected ConcurrentHashMap<Object, Object> chatColors = new ConcurrentHashMap<Object, Object>();
+	protected ConcurrentHashMap<String, Color> colors = new ConcurrentHashMap<String, Color>();
+	protected ConcurrentHashMap<String, Double> doubles = new ConcurrentHashMap<String, Double>();
+	protected ConcurrentHashMap<String, int[]> intArrays = new ConcurrentHashMap<String, int[]>();
+	protected ConcurrentHashMap<String, Integer> ints = new ConcurrentHashMap<String, Integer>();
+	protected ConcurrentHashMap<String, List<Pattern>> patterns = new ConcurrentHashMap<String, List<Pattern>>();
+	protected RaptorPreferenceStore store;
+	protected ConcurrentHashMap<String, String[]> stringArrays = new ConcurrentHashMap<String, String[]>();
+	protected ConcurrentHashMap<String, String> strings = new ConcurrentHashMap<String, String>();
+
+	PreferenceSnapshot(RaptorPreferenceStore store) {
+		this.store = store;
+	}
+
+	public boolean getBoolean(String key) {
+		Boolean result = booleans.get(key);
+		if (result == null) {
+			result = store.getBoolean(key);
+			booleans.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the color for key, or black if it is not set. See
+	 * {@link RaptorPreferenceStore#getColor(String)}.
+	 */
+	public Color getColor(String key) {
+		Color result = colors.get(key);
+		if (result == null) {
+			result = store.getColor(key);
+			if (result != null) {
+				colors.put(key, result);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the foreground color for event, or null if no special color
+	 * should be used. See {@link RaptorPreferenceStore#getColor(ChatEvent)}.
+	 */
+	public Color getColor(ChatEvent event) {
+		Object cacheKey = event.getType() == ChatType.CHANNEL_TELL ? "channel-"
+				+ event.getChannel()
+				: event.getType();
+		Object result = chatColors.get(cacheKey);
+		if (result == null) {
+			result = store.getColor(event);
+			chatColors.put(cacheKey, result == null ? NO_COLOR : result);
+		}
+		return result == NO_COLOR ? null : (Color) result;
+	}
+
+	public double getDouble(String key) {
+		Double result = doubles.get(key);
+		if (result == null) {
+			result = store.getDouble(key);
+			doubles.put(key, result);
+		}
+		return result;
+	}
+
+	public int getInt(String key) {
+		Integer result = ints.get(key);
+		if (result == null) {
+			result = store.getInt(key);
+			ints.put(key, result);
+		}
+		return result;
+	}
+
+	public int[] getIntArray(String key) {
+		int[] result = intArrays.get(key);
+		if (result == null) {
+			result = store.getIntArray(key);
+			if (result == null) {
+				return null;
+			}
+			intArrays.put(key, result);
+		}
+		return result.clone();
+	}
+
+	/**
+	 * Returns the regular expressions in the string array for key compiled
+	 * with {@link RegExUtils#getPattern(String)}. Invalid expressions are
+	 * left out. The list can not be modified.
+	 */
+	public List<Pattern> getPatterns(String key) {
+		List<Pattern> result = patterns.get(key);
+		if (result == null) {
+			String[] regularExpressions = getStringArray(key);
+			List<Pattern> compiled = new ArrayList<Pattern>(
+					regularExpressions == null ? 0 : regularExpressions.length);
+			if (regularExpressions != null) {
+				for (String regularExpression : regularExpressions) {
+					Pattern pattern = RegExUtils.getPattern(regularExpression);
+					if (pattern == null) {
+						LOG.error("Invalid regex pattern " + regularExpression
+								+ " in " + key + ". Will be ignored.");
+					} else {
+						compiled.add(pattern);
+					}
+				}
+			}
+			result = Collections.unmodifiableList(compiled);
+			patterns.put(key, result);
+		}
+		return result;
+	}
+
+	public String getString(String key) {
+		String result = strings.get(key);
+		if (result == null) {
+			result = store.getString(key);
+			strings.put(key, result);
+		}
+		return result;
+	}
+
+	public String[] getStringArray(String key) {
+		String[] result = stringArrays.get(key);
+		if (result == null) {
+			result = store.getStringArray(key);
+			if (result == null) {
+				return null;
+			}
+			stringArrays.put(key, result);
+		}
+		return result.clone();
+	}
+}
@@ -78,6 +78,7 @@ public class RaptorPreferenceStore extends PreferenceStore implements
 	protected int defaultMediumFontSize;
 	protected int defaultTinyFontSize;
 	private boolean isDefFontLoaded; 
+	private volatile PreferenceSnapshot snapshot;
 
 	private IPropertyChangeListener propertyChangeListener = new IPropertyChangeListener() {
 
@@ -123,6 +124,10 @@ public class RaptorPreferenceStore extends PreferenceStore implements
 					}
 				}
 			}
+
+			// Publish a new snapshot last, so it sees the registries updated
+			// above.
+			publishSnapshot();
 		}
 	};
 	
@@ -180,10 +185,28 @@ public class RaptorPreferenceStore extends PreferenceStore implements
 		}
 
 		addPropertyChangeListener(propertyChangeListener);
+		publishSnapshot();
 		LOG.info("Loaded preferences from "
 				+ RAPTOR_PROPERTIES.getAbsolutePath());
 	}
 
+	/**
+	 * Returns the current PreferenceSnapshot. Use it instead of the get
+	 * methods of this class on paths which run per chat event or per paint.
+	 */
+	public PreferenceSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Replaces the snapshot. Changing a value fires a property change which
+	 * does this, changing a default does not, so methods changing defaults
+	 * invoke this.
+	 */
+	protected void publishSnapshot() {
+		snapshot = new PreferenceSnapshot(this);
+	}
+
 	/**
 	 * Returns null for CHANNEL_TELL type.
 	 */
@@ -424,6 +447,7 @@ public class RaptorPreferenceStore extends PreferenceStore implements
 		for (String propertyName : theme.getProperties().keySet()) {
 			setDefault(propertyName, theme.getProperties().get(propertyName));
 		}		
+		publishSnapshot();
 	}
 
 	public void applyDefaultLayout() {
@@ -437,6 +461,7 @@ public class RaptorPreferenceStore extends PreferenceStore implements
 				setDefault(stringStringEntry.getKey(), stringStringEntry.getValue());
 			}
 		}
+		publishSnapshot();
 	}
 
 	public void loadDefaults() {
@@ -551,6 +576,7 @@ public class RaptorPreferenceStore extends PreferenceStore implements
 		setDefault(BOARD_PLAY_MOVE_SOUND_WHEN_OBSERVING, true);
 		setDefault(BOARD_QUEUED_PREMOVE_ENABLED, false);
 		setDefault(BOARD_IS_USING_CROSSHAIRS_CURSOR, false);
+		setDefault(BOARD_IS_USING_SINGLE_CANVAS, false);
 		setDefault(BOARD_LAYOUT, "raptor.swt.chess.layout.RightOrientedLayout");
 		setDefault(BOARD_TAKEOVER_INACTIVE_GAMES, true);
 		setDefault(BOARD_PIECE_JAIL_SHADOW_ALPHA, 30);
@@ -1078,6 +1104,7 @@ public class RaptorPreferenceStore extends PreferenceStore implements
 		setDefault("bics2-" + GAME_CHAT_TAB_QUADRANT, Quadrant.VII);
 		setDefault("bics2-" + GAMES_TAB_QUADRANT, Quadrant.VIII);
 
+		publishSnapshot();
 		LOG.info("Loaded defaults " + PREFERENCE_PROPERTIES_FILE);
 	}
 
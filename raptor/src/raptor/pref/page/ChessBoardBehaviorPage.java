@@ -102,6 +102,11 @@ public class ChessBoardBehaviorPage extends FieldEditorPreferencePage {
 				local.getString("chesBBehP19"),
 				getFieldEditorParent()));
 
+		addField(new BooleanFieldEditor(
+				PreferenceKeys.BOARD_IS_USING_SINGLE_CANVAS,
+				local.getString("chesBBehP34"),
+				getFieldEditorParent()));
+
 		addField(new BooleanFieldEditor(
 				PreferenceKeys.BOARD_PLAY_ABORT_REQUEST_SOUND,
 				local.getString("chesBBehP20"), getFieldEditorParent()));
@@ -14,15 +14,19 @@
 package raptor.script;
 
 import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 import raptor.Raptor;
 import raptor.chat.ChatType;
 import raptor.util.RaptorLogger;
-import bsh.Interpreter;
 
 /**
  * The chat script class. Currently uses BeanShell to execute scripts.
+ * 
+ * The script is compiled into a CompiledScript the first time it is executed
+ * and again only after setScript changes it. Execution counts and times are
+ * kept so slow scripts can be found.
  */
 public class ChatEventScript implements
 		Comparable<ChatEventScript> {
@@ -45,6 +49,12 @@ public class ChatEventScript implements
 	protected boolean isSystemScript = true;
 	protected ScriptConnectorType connectorType = ScriptConnectorType.ICS;
 	protected Pattern pattern = null;
+	protected volatile CompiledScript compiledScript;
+
+	protected AtomicLong executionCount = new AtomicLong();
+	protected AtomicLong errorCount = new AtomicLong();
+	protected AtomicLong totalExecutionNanos = new AtomicLong();
+	protected AtomicLong maxExecutionNanos = new AtomicLong();
 
 	public int compareTo(ChatEventScript arg0) {
 		return name.compareTo(arg0.name);
@@ -70,14 +80,67 @@ public class ChatEventScript implements
 	 * @param context
 	 */
 	public void execute(ChatScriptContext context) {
+		long startTime = System.nanoTime();
 		try {
-			Interpreter interpeter = new Interpreter();
-			interpeter.set("context", context);
-			interpeter.eval("import raptor.chat.*;\n" + script);
+			getCompiledScript().execute(context);
 		} catch (Throwable t) {
+			errorCount.incrementAndGet();
 			Raptor.getInstance().onError("Error executing script " + name,
 					t);
+		} finally {
+			long elapsed = System.nanoTime() - startTime;
+			executionCount.incrementAndGet();
+			totalExecutionNanos.addAndGet(elapsed);
+			long max = maxExecutionNanos.get();
+			while (elapsed > max
+					&& !maxExecutionNanos.compareAndSet(max, elapsed)) {
+				max = maxExecutionNanos.get();
+			}
+		}
+	}
+
+	/**
+	 * Returns the average time an execution took in nanoseconds, or 0 if the
+	 * script has not been executed.
+	 */
+	public long getAverageExecutionNanos() {
+		long count = executionCount.get();
+		return count == 0 ? 0 : totalExecutionNanos.get() / count;
+	}
+
+	/**
+	 * Returns the compiled form of the current script, compiling it if the
+	 * script changed since it was last compiled.
+	 */
+	protected CompiledScript getCompiledScript() {
+		CompiledScript result = compiledScript;
+		if (result == null) {
+			result = new CompiledScript(name, script, "context",
+					ChatScriptContext.class);
+			compiledScript = result;
 		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of executions which threw an error.
+	 */
+	public long getErrorCount() {
+		return errorCount.get();
+	}
+
+	/**
+	 * Returns the number of times the script has been executed.
+	 */
+	public long getExecutionCount() {
+		return executionCount.get();
+	}
+
+	/**
+	 * Returns the longest time an execution took in nanoseconds.
+	 */
+	public long getMaxExecutionNanos() {
+		return maxExecutionNanos.get();
 	}
 
 	public ScriptConnectorType getConnectorType() {
@@ -130,6 +193,7 @@ public class ChatEventScript implements
 
 	public void setScript(String script) {
 		this.script = script;
+		compiledScript = null;
 	}
 
 	public void setSystemScript(boolean isSystemScript) {
@@ -0,0 +1,121 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2011 RaptorProject (http://code.google.com/p/raptor-chess-interface/)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.script;
+
+import bsh.BshMethod;
+import bsh.EvalError;
+import bsh.Interpreter;
+import bsh.NameSpace;
+import bsh.UtilEvalError;
+
+/**
+ * A BeanShell script parsed once into a scripted method taking a single
+ * argument.
+ *
+ * Every thread keeps one Interpreter, created the first time it runs a
+ * script. The script is declared as a method in its own NameSpace under that
+ * interpreter the first time the thread executes it. Afterwards executing
+ * the script only invokes the method, so neither the interpreter nor the
+ * script is set up again per call. A CompiledScript is immutable; create a
+ * new one when the script text changes.
+ */
+public class CompiledScript {
+	private static final String METHOD_NAME = "runScript";
+
+	private static final ThreadLocal<Interpreter> INTERPRETER = new ThreadLocal<Interpreter>() {
+		@Override
+		protected Interpreter initialValue() {
+			Interpreter interpreter = new Interpreter();
+			interpreter.getNameSpace().importPackage("raptor.chat");
+			return interpreter;
+		}
+	};
+
+	protected String name;
+	protected String script;
+	protected String parameterName;
+	protected Class<?> parameterType;
+
+	/**
+	 * Holds either this threads BshMethod or the exception declaring it
+	 * failed with.
+	 */
+	protected ThreadLocal<Object> methods = new ThreadLocal<Object>();
+
+	/**
+	 * Constructs a CompiledScript.
+	 *
+	 * @param name
+	 *            The script name, used in error messages.
+	 * @param script
+	 *            The script source.
+	 * @param parameterName
+	 *            The name the argument is bound to in the script.
+	 * @param parameterType
+	 *            The type of the argument.
+	 */
+	public CompiledScript(String name, String script, String parameterName,
+			Class<?> parameterType) {
+		this.name = name;
+		this.script = script;
+		this.parameterName = parameterName;
+		this.parameterType = parameterType;
+	}
+
+	/**
+	 * Runs the script on the calling thread with its parameter bound to
+	 * argument and returns the scripts return value.
+	 */
+	public Object execute(Object argument) throws Exception {
+		Object method = methods.get();
+		if (method == null) {
+			method = declare();
+			methods.set(method);
+		}
+		if (method instanceof Exception) {
+			throw (Exception) method;
+		}
+		return ((BshMethod) method).invoke(new Object[] { argument },
+				INTERPRETER.get());
+	}
+
+	public String getScript() {
+		return script;
+	}
+
+	/**
+	 * Declares the script as a method in a new NameSpace of this threads
+	 * interpreter. The method header is on the scripts first line so error
+	 * line numbers still match the script.
+	 */
+	protected Object declare() {
+		Interpreter interpreter = INTERPRETER.get();
+		NameSpace nameSpace = new NameSpace(interpreter.getNameSpace(), name);
+		try {
+			interpreter.eval(METHOD_NAME + "(" + parameterType.getName() + " "
+					+ parameterName + ") {" + script + "\n}", nameSpace);
+			BshMethod result = nameSpace.getMethod(METHOD_NAME,
+					new Class<?>[] { parameterType }, true);
+			if (result == null) {
+				return new IllegalStateException("Could not declare script "
+						+ name);
+			}
+			return result;
+		} catch (EvalError ee) {
+			return ee;
+		} catch (UtilEvalError uee) {
+			return uee;
+		}
+	}
+}
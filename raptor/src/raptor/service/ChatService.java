@@ -14,32 +14,47 @@
 package raptor.service;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import raptor.Raptor;
 import raptor.chat.ChatEvent;
 import raptor.chat.ChatLogger;
 import raptor.connector.Connector;
 import raptor.pref.PreferenceKeys;
+import raptor.util.BatchingQueue;
 
 /**
- * A service which invokes chatEventOccured on added ChatListeners when a
+ * A service which invokes chatEventsOccured on added ChatListeners when
  * ChatEvents arrive on a connector.
+ *
+ * Published events are queued and dispatched in order by a single consumer.
+ * It drains them in batches and hands each listener all the events of a
+ * batch it is handling in one chatEventsOccured call.
  */
 public class ChatService {
 
 	public static interface ChatListener {
-		public void chatEventOccured(ChatEvent e);
+		/**
+		 * Invoked with the events of one batch this listener is handling, in
+		 * the order they were published.
+		 */
+		public void chatEventsOccured(List<ChatEvent> events);
 
 		public boolean isHandling(ChatEvent e);
 	}
 
+	public static final int MAX_BATCH_SIZE = 200;
+
 	protected Connector connector = null;
-	protected List<ChatListener> listeners = new ArrayList<ChatListener>(5);
-	protected List<ChatListener> mainConsoleListeners = new ArrayList<ChatListener>(
-			5);
+	protected List<ChatListener> listeners = new CopyOnWriteArrayList<ChatListener>();
+	protected List<ChatListener> mainConsoleListeners = new CopyOnWriteArrayList<ChatListener>();
 	protected ChatLogger logger = null;
 
+	protected BatchingQueue<ChatEvent> eventQueue;
+
 	/**
 	 * Constructs a chat service for the specified connector.
 	 * 
@@ -49,6 +64,13 @@ public class ChatService {
 		this.connector = null;
 		logger = new ChatLogger(connector, Raptor.USER_RAPTOR_HOME_PATH
 				+ "/chatcache/" + connector.getShortName() + ".txt");
+		eventQueue = new BatchingQueue<ChatEvent>("ChatService "
+				+ connector.getShortName(), MAX_BATCH_SIZE) {
+			@Override
+			protected void processBatch(List<ChatEvent> batch) {
+				dispatch(batch);
+			}
+		};
 	}
 
 	/**
@@ -67,6 +89,7 @@ public class ChatService {
 	 * Disposes all resources the ChatService is using.
 	 */
 	public void dispose() {
+		eventQueue.dispose();
 		listeners.clear();
 		if (logger != null) {
 			logger.delete();
@@ -91,38 +114,11 @@ public class ChatService {
 	}
 
 	/**
-	 * Chat events are published asynchronously.
+	 * Chat events are published asynchronously, in the order this method is
+	 * invoked.
 	 */
 	public void publishChatEvent(final ChatEvent event) {
-		ThreadService.getInstance().run(new Runnable() {
-			public void run() {
-				if (listeners == null) {
-					return;
-				}
-				boolean wasHandled = false;
-				for (ChatListener listener : listeners) {
-					if (listener.isHandling(event)) {
-						listener.chatEventOccured(event);
-						wasHandled = true;
-					}
-				}
-
-				if (!wasHandled
-						|| !Raptor
-								.getInstance()
-								.getPreferences()
-								.getBoolean(
-										PreferenceKeys.CHAT_REMOVE_SUB_TAB_MESSAGES_FROM_MAIN_TAB)) {
-					for (ChatListener listener : mainConsoleListeners) {
-						if (listener.isHandling(event)) {
-							listener.chatEventOccured(event);
-							wasHandled = true;
-						}
-					}
-				}
-				logger.write(event);
-			}
-		});
+		eventQueue.add(event);
 	}
 
 	/**
@@ -133,4 +129,55 @@ public class ChatService {
 		mainConsoleListeners.remove(listener);
 	}
 
+	/**
+	 * Groups the batch by the listeners handling each event, logs the events,
+	 * then invokes each listener once.
+	 */
+	protected void dispatch(List<ChatEvent> batch) {
+		List<ChatListener> currentListeners = listeners;
+		ChatLogger currentLogger = logger;
+		if (currentListeners == null) {
+			return;
+		}
+		boolean isRemovingSubTabMessages = Raptor.getInstance()
+				.getPreferences().getSnapshot().getBoolean(
+						PreferenceKeys.CHAT_REMOVE_SUB_TAB_MESSAGES_FROM_MAIN_TAB);
+
+		Map<ChatListener, List<ChatEvent>> eventsByListener = new LinkedHashMap<ChatListener, List<ChatEvent>>();
+		for (ChatEvent event : batch) {
+			boolean wasHandled = false;
+			for (ChatListener listener : currentListeners) {
+				if (listener.isHandling(event)) {
+					addEvent(eventsByListener, listener, event);
+					wasHandled = true;
+				}
+			}
+
+			if (!wasHandled || !isRemovingSubTabMessages) {
+				for (ChatListener listener : mainConsoleListeners) {
+					if (listener.isHandling(event)) {
+						addEvent(eventsByListener, listener, event);
+					}
+				}
+			}
+			if (currentLogger != null) {
+				currentLogger.write(event);
+			}
+		}
+
+		for (Map.Entry<ChatListener, List<ChatEvent>> entry : eventsByListener
+				.entrySet()) {
+			entry.getKey().chatEventsOccured(entry.getValue());
+		}
+	}
+
+	private void addEvent(Map<ChatListener, List<ChatEvent>> eventsByListener,
+			ChatListener listener, ChatEvent event) {
+		List<ChatEvent> events = eventsByListener.get(listener);
+		if (events == null) {
+			events = new ArrayList<ChatEvent>();
+			eventsByListener.put(listener, events);
+		}
+		events.add(event);
+	}
 }
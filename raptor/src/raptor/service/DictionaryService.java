@@ -14,12 +14,17 @@
 package raptor.service;
 
 import java.io.BufferedReader;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
@@ -32,6 +37,14 @@ import raptor.util.RaptorLogger;
 import raptor.util.RaptorStringTokenizer;
 import raptor.util.RegExUtils;
 
+/**
+ * Spell checks words against words.txt and the custom dictionary.
+ * 
+ * words.txt is loaded once into a packed, sorted byte array with an offset
+ * per word. Lookups and prefix completion are binary searches over it, and
+ * suggestions are computed from it without touching the file again, since
+ * spell checking runs as the user types in the chat console.
+ */
 public class DictionaryService {
 	private static final RaptorLogger LOG = RaptorLogger.getLog(DictionaryService.class);
 	public static boolean serviceCreated = false;
@@ -42,12 +55,23 @@ public class DictionaryService {
 	private static final String USER_DICTIONARY_PATH = Raptor.USER_RAPTOR_HOME_PATH
 			+ "/customDictionary.txt";
 
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+	private static final int MAX_SUGGESTIONS = 10;
+	private static final int MAX_SUGGESTION_DISTANCE = 2;
+	private static final int EDIT_COST = 2;
+	private static final int TRANSPOSITION_COST = 1;
+	private static final int MAX_WORD_LENGTH = 64;
+
 	private static final Pattern VALID_WORD_PATTERN = RegExUtils
 			.getPattern("[a-zA-Z']*");
 	private static DictionaryService singletonInstance;
 
 	public Set<String> customDictionary = new TreeSet<String>();
 
+	protected byte[] words = new byte[0];
+	protected int[] wordOffsets = new int[1];
+	protected int wordCount;
+
 	private DictionaryService() {
 		init();
 		serviceCreated = true;
@@ -89,175 +113,334 @@ public class DictionaryService {
 
 	public String[] getWordsThatStartWith(String string) {
 		List<String> result = new ArrayList<String>(10);
-
-		string = string.toLowerCase();
+		byte[] prefix = toBytes(string.toLowerCase());
 		long startTime = System.currentTimeMillis();
-		RandomAccessFile raf = null;
-		try {
-			File file = new File(DICTIONARY_PATH);
-			raf = new RandomAccessFile(file, "r");
-
-			long low = 0;
-			long high = file.length();
-
-			long p = -1;
-			while (low < high) {
-				long mid = (low + high) / 2;
-				p = mid;
-				while (p >= 0) {
-					raf.seek(p);
-
-					char c = (char) raf.readByte();
-					if (c == '\n')
-						break;
-					p--;
-				}
-				if (p < 0)
-					raf.seek(0);
-				String line = raf.readLine();
-				// Useful for debugging
-				// System.out.println("-- " + mid + " " + line);
-				if (line == null) {
-					low = high;
-				} else {
-					int compare = line.compareTo(string);
-					if (compare < 0) {
-						low = mid + 1;
-					} else if (compare == 0) {
-						low = p;
-						break;
-					} else {
-						high = mid;
-					}
-				}
-			}
+		for (int i = lowerBound(prefix); i < wordCount
+				&& hasPrefix(i, prefix, prefix.length); i++) {
+			result.add(getWord(i));
+		}
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Searched " + string + " ("
+					+ (System.currentTimeMillis() - startTime) + ") " + result);
+		}
+		return result.toArray(new String[0]);
+	}
 
-			p = low;
-			while (p >= 0 && p < high) {
-				raf.seek(p);
-				if (((char) raf.readByte()) == '\n')
-					break;
-				p--;
+	/**
+	 * Returns true if the packed word list contains the word.
+	 */
+	protected boolean binarySearch(String string) {
+		byte[] key = toBytes(string.toLowerCase());
+		int index = lowerBound(key);
+		return index < wordCount && compare(index, key) == 0;
+	}
+
+	/**
+	 * Returns the signum of the comparison of the word at index to key.
+	 */
+	protected int compare(int index, byte[] key) {
+		int start = wordOffsets[index];
+		int length = wordOffsets[index + 1] - start;
+		int commonLength = Math.min(length, key.length);
+		for (int i = 0; i < commonLength; i++) {
+			int difference = (words[start + i] & 0xff) - (key[i] & 0xff);
+			if (difference != 0) {
+				return difference;
 			}
+		}
+		return length - key.length;
+	}
 
-			if (p < 0)
-				raf.seek(0);
+	protected String getWord(int index) {
+		int start = wordOffsets[index];
+		return new String(words, start, wordOffsets[index + 1] - start,
+				ISO_8859_1);
+	}
 
-			String line = raf.readLine();
-			while (line != null && line.startsWith(string)) {
-				result.add(line);
-				line = raf.readLine();
-			}
-		} catch (Throwable t) {
-			Raptor.getInstance().onError(
-					"Error reading dictionary file: " + DICTIONARY_PATH, t);
-		} finally {
-			try {
-				raf.close();
-			} catch (Throwable t) {
+	/**
+	 * Returns true if the word at index starts with the first prefixLength
+	 * bytes of prefix.
+	 */
+	protected boolean hasPrefix(int index, byte[] prefix, int prefixLength) {
+		int start = wordOffsets[index];
+		if (wordOffsets[index + 1] - start < prefixLength) {
+			return false;
+		}
+		for (int i = 0; i < prefixLength; i++) {
+			if (words[start + i] != prefix[i]) {
+				return false;
 			}
+		}
+		return true;
+	}
 
-			if (LOG.isDebugEnabled()) {
-				LOG.debug("Searched " + string + " ("
-						+ (System.currentTimeMillis() - startTime) + ") "
-						+ result);
+	/**
+	 * Returns the index of the first word not less than key.
+	 */
+	protected int lowerBound(byte[] key) {
+		int low = 0;
+		int high = wordCount;
+		while (low < high) {
+			int mid = low + high >>> 1;
+			if (compare(mid, key) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
 			}
+		}
+		return low;
+	}
 
+	/**
+	 * Returns the index of the first word after index which does not start
+	 * with the first prefixLength characters of the word at index.
+	 */
+	protected int prefixEnd(int index, int prefixLength) {
+		byte[] prefix = new byte[prefixLength];
+		System.arraycopy(words, wordOffsets[index], prefix, 0, prefixLength);
+		int low = index + 1;
+		int high = wordCount;
+		while (low < high) {
+			int mid = low + high >>> 1;
+			if (hasPrefix(mid, prefix, prefixLength)) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
 		}
-		return result.toArray(new String[0]);
+		return low;
+	}
+
+	protected static byte[] toBytes(String string) {
+		return string.getBytes(ISO_8859_1);
 	}
 
 	/**
-	 * This method started out as code from
-	 * http://stackoverflow.com/questions/736556/binary
-	 * -search-in-a-sorted-memory-mapped-file-in-java
-	 * 
-	 * It has been altered to fix some bugs.
+	 * Loads words.txt into words and wordOffsets. The file is sorted, so the
+	 * packed words are as well. Each word is stored as ISO-8859-1 bytes with
+	 * its start in wordOffsets, and wordOffsets[wordCount] is the end of the
+	 * last word.
 	 */
-	protected boolean binarySearch(String filename, String string) {
-		string = string.toLowerCase();
-		long startTime = System.currentTimeMillis();
-		RandomAccessFile raf = null;
-		boolean result = false;
+	protected void loadWords() throws IOException {
+		File file = new File(DICTIONARY_PATH);
+		byte[] contents = new byte[(int) file.length()];
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
 		try {
-			File file = new File(filename);
-			raf = new RandomAccessFile(file, "r");
-
-			long low = 0;
-			long high = file.length();
-
-			long p = -1;
-			while (low < high) {
-				long mid = (low + high) / 2;
-				p = mid;
-				while (p >= 0) {
-					raf.seek(p);
-
-					char c = (char) raf.readByte();
-					if (c == '\n')
-						break;
-					p--;
+			in.readFully(contents);
+		} finally {
+			in.close();
+		}
+
+		int lineCount = 1;
+		for (byte current : contents) {
+			if (current == '\n') {
+				lineCount++;
+			}
+		}
+		int[] offsets = new int[lineCount + 1];
+		int count = 0;
+		int writeIndex = 0;
+		int lineStart = 0;
+		for (int i = 0; i <= contents.length; i++) {
+			if (i == contents.length || contents[i] == '\n') {
+				int lineEnd = i;
+				while (lineEnd > lineStart
+						&& (contents[lineEnd - 1] == '\r' || contents[lineEnd - 1] == ' ')) {
+					lineEnd--;
 				}
-				if (p < 0)
-					raf.seek(0);
-				String line = raf.readLine();
-				// Useful for debugging
-				// System.out.println("-- " + mid + " " + line);
-				if (line == null) {
-					low = high;
-				} else {
-					int compare = line.compareTo(string);
-					if (compare < 0) {
-						low = mid + 1;
-					} else if (compare == 0) {
-						return true;
-					} else {
-						high = mid;
+				if (lineEnd > lineStart) {
+					offsets[count++] = writeIndex;
+					for (int j = lineStart; j < lineEnd; j++) {
+						byte current = contents[j];
+						contents[writeIndex++] = current >= 'A'
+								&& current <= 'Z' ? (byte) (current + 32)
+								: current;
 					}
 				}
+				lineStart = i + 1;
 			}
+		}
+		offsets[count] = writeIndex;
 
-			p = low;
-			while (p >= 0 && p < high) {
-				raf.seek(p);
-				if (((char) raf.readByte()) == '\n')
-					break;
-				p--;
+		words = new byte[writeIndex];
+		System.arraycopy(contents, 0, words, 0, writeIndex);
+		wordOffsets = new int[count + 1];
+		System.arraycopy(offsets, 0, wordOffsets, 0, count + 1);
+		wordCount = count;
+	}
+
+	/**
+	 * Returns up to MAX_SUGGESTIONS words within MAX_SUGGESTION_DISTANCE
+	 * (1 for words of 4 characters or less) edits of word, closest first. An
+	 * edit is an insertion, deletion or substitution. Transposing adjacent
+	 * characters costs half an edit, so "teh" suggests "the" before "ten".
+	 * Ties are broken in favor of words starting with the same letter.
+	 * 
+	 * The packed word list is walked as if it were a trie: consecutive words
+	 * share the distance rows of their common prefix, and every word starting
+	 * with a prefix that is already too far from word is skipped with a
+	 * binary search.
+	 */
+	public String[] suggest(String word) {
+		long startTime = System.currentTimeMillis();
+		String lowerCaseWord = word.toLowerCase();
+		byte[] target = toBytes(lowerCaseWord);
+		int maxDistance = (target.length <= 4 ? 1 : MAX_SUGGESTION_DISTANCE)
+				* EDIT_COST;
+		int columns = target.length + 1;
+
+		// rows[d][j] is the distance between the first d characters of the
+		// current word and the first j characters of target.
+		int[][] rows = new int[MAX_WORD_LENGTH + 1][columns];
+		for (int j = 0; j < columns; j++) {
+			rows[0][j] = j * EDIT_COST;
+		}
+
+		List<List<String>> byDistance = new ArrayList<List<String>>(
+				maxDistance + 1);
+		for (int i = 0; i <= maxDistance; i++) {
+			byDistance.add(new ArrayList<String>());
+		}
+
+		int previousStart = 0;
+		int validDepth = 0;
+		int index = 0;
+		while (index < wordCount) {
+			int start = wordOffsets[index];
+			int length = Math.min(wordOffsets[index + 1] - start,
+					MAX_WORD_LENGTH);
+
+			int depth = 0;
+			int limit = Math.min(validDepth, length);
+			while (depth < limit
+					&& words[previousStart + depth] == words[start + depth]) {
+				depth++;
 			}
 
-			if (p < 0)
-				raf.seek(0);
+			boolean isPruned = false;
+			for (; depth < length; depth++) {
+				int[] previousRow = rows[depth];
+				int[] row = rows[depth + 1];
+				byte current = words[start + depth];
+				row[0] = (depth + 1) * EDIT_COST;
+				int rowMinimum = row[0];
+				for (int j = 1; j < columns; j++) {
+					int cost = target[j - 1] == current ? 0 : EDIT_COST;
+					int distance = Math.min(Math.min(row[j - 1] + EDIT_COST,
+							previousRow[j] + EDIT_COST), previousRow[j - 1]
+							+ cost);
+					if (depth > 0 && j > 1 && current == target[j - 2]
+							&& words[start + depth - 1] == target[j - 1]) {
+						distance = Math.min(distance, rows[depth - 1][j - 2]
+								+ TRANSPOSITION_COST);
+					}
+					row[j] = distance;
+					rowMinimum = Math.min(rowMinimum, distance);
+				}
 
-			while (true) {
-				String line = raf.readLine();
-				// Useful for debugging.
-				// System.out.println("searching forwards " + line);
-				if (line == null) {
-					result = false;
-					break;
-				} else if (line.equals(string)) {
-					result = true;
-					break;
-				} else if (!line.startsWith(string)) {
-					result = false;
+				if (rowMinimum > maxDistance
+						&& minimum(previousRow) > maxDistance) {
+					// Distances only grow from row to row, except through a
+					// transposition which reaches back two rows. Once two
+					// consecutive rows are out of range no word with this
+					// prefix can be in range.
+					previousStart = start;
+					validDepth = depth + 1;
+					index = prefixEnd(index, depth + 1);
+					isPruned = true;
 					break;
 				}
 			}
-		} catch (Throwable t) {
-			Raptor.getInstance().onError(
-					"Error reading dictionary file: " + DICTIONARY_PATH, t);
-		} finally {
-			try {
-				raf.close();
-			} catch (Throwable t) {
+
+			if (!isPruned) {
+				int distance = rows[length][columns - 1];
+				if (distance <= maxDistance) {
+					byDistance.get(distance).add(getWord(index));
+				}
+				previousStart = start;
+				validDepth = length;
+				index++;
 			}
+		}
+
+		for (String customWord : customDictionary) {
+			int distance = editDistance(lowerCaseWord, customWord
+					.toLowerCase());
+			if (distance <= maxDistance) {
+				byDistance.get(distance).add(customWord);
+			}
+		}
 
-			if (LOG.isDebugEnabled()) {
-				LOG.debug("Searched " + string + " ("
-						+ (System.currentTimeMillis() - startTime) + ") "
-						+ result);
+		final char firstLetter = lowerCaseWord.length() > 0 ? lowerCaseWord
+				.charAt(0) : ' ';
+		Comparator<String> comparator = new Comparator<String>() {
+			public int compare(String word1, String word2) {
+				boolean isSameFirstLetter1 = word1.charAt(0) == firstLetter;
+				boolean isSameFirstLetter2 = word2.charAt(0) == firstLetter;
+				if (isSameFirstLetter1 != isSameFirstLetter2) {
+					return isSameFirstLetter1 ? -1 : 1;
+				}
+				return word1.compareTo(word2);
+			}
+		};
+
+		boolean isCapitalized = word.length() > 0
+				&& Character.isUpperCase(word.charAt(0));
+		Set<String> suggested = new HashSet<String>();
+		suggested.add(lowerCaseWord);
+		List<String> result = new ArrayList<String>(MAX_SUGGESTIONS);
+		for (List<String> suggestions : byDistance) {
+			Collections.sort(suggestions, comparator);
+			for (String suggestion : suggestions) {
+				if (result.size() == MAX_SUGGESTIONS) {
+					break;
+				}
+				if (suggested.add(suggestion.toLowerCase())) {
+					result.add(isCapitalized ? StringUtils
+							.capitalize(suggestion) : suggestion);
+				}
 			}
+		}
 
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Suggested " + result + " for " + word + " ("
+					+ (System.currentTimeMillis() - startTime) + ")");
+		}
+		return result.toArray(new String[0]);
+	}
+
+	/**
+	 * Returns the distance between two strings with the same costs suggest
+	 * uses.
+	 */
+	protected static int editDistance(String string1, String string2) {
+		int[][] distances = new int[string1.length() + 1][string2.length() + 1];
+		for (int i = 0; i <= string1.length(); i++) {
+			for (int j = 0; j <= string2.length(); j++) {
+				if (i == 0 || j == 0) {
+					distances[i][j] = (i + j) * EDIT_COST;
+				} else {
+					int cost = string1.charAt(i - 1) == string2.charAt(j - 1) ? 0
+							: EDIT_COST;
+					distances[i][j] = Math.min(Math.min(distances[i - 1][j]
+							+ EDIT_COST, distances[i][j - 1] + EDIT_COST),
+							distances[i - 1][j - 1] + cost);
+					if (i > 1 && j > 1
+							&& string1.charAt(i - 1) == string2.charAt(j - 2)
+							&& string1.charAt(i - 2) == string2.charAt(j - 1)) {
+						distances[i][j] = Math.min(distances[i][j],
+								distances[i - 2][j - 2] + TRANSPOSITION_COST);
+					}
+				}
+			}
+		}
+		return distances[string1.length()][string2.length()];
+	}
+
+	protected static int minimum(int[] row) {
+		int result = row[0];
+		for (int i = 1; i < row.length; i++) {
+			result = Math.min(result, row[i]);
 		}
 		return result;
 	}
@@ -267,6 +450,8 @@ public class DictionaryService {
 		customDictionary.clear();
 		BufferedReader reader = null;
 		try {
+			loadWords();
+
 			File userFile = new File(USER_DICTIONARY_PATH);
 			if (userFile.exists()) {
 				reader = new BufferedReader(new FileReader(userFile));
@@ -294,14 +479,17 @@ public class DictionaryService {
 				}
 			}
 		}
-		LOG.info("Initialized Dictionary Service " + customDictionary.size()
-				+ " words in " + (System.currentTimeMillis() - startTime)
+		LOG.info("Initialized Dictionary Service " + wordCount + " words "
+				+ customDictionary.size() + " custom words in " + (System.currentTimeMillis() - startTime)
 				+ "ms");
 	}
 
 	public void dispose() {
 		customDictionary.clear();
 		customDictionary = null;
+		words = null;
+		wordOffsets = null;
+		wordCount = 0;
 	}
 
 	public boolean isValidWord(String word) {
@@ -309,12 +497,8 @@ public class DictionaryService {
 				|| customDictionary.contains(word.toLowerCase())) {
 			return true;
 		} else {
-			return binarySearch(DICTIONARY_PATH, word);
+			return binarySearch(word);
 		}
 	}
 
-	public String[] suggest(String word) {
-		return new String[0];
-	}
-
 }
@@ -13,21 +13,30 @@
  */
 package raptor.service;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 
 import org.apache.commons.lang.StringUtils;
 
+import raptor.Raptor;
 import raptor.chess.EcoInfo;
 import raptor.chess.Game;
-import raptor.chess.GameConstants;
+import raptor.chess.GameFactory;
 import raptor.chess.Variant;
-import raptor.chess.util.GameUtils;
+import raptor.chess.util.ZobristUtils;
+import raptor.util.LongHashMap;
 import raptor.util.RaptorLogger;
 import raptor.util.RaptorStringTokenizer;
 
@@ -37,6 +46,11 @@ import raptor.util.RaptorStringTokenizer;
  * 
  * Currently this service only supports Classic but hopefully others will
  * contribute files to match other variants (bug,zh,suicide,losers,etc).
+ * 
+ * Positions are indexed by Zobrist hash, so a lookup is a single probe using
+ * the hash the game already maintains incrementally. The parsed scidECO.txt is
+ * cached in a binary file in the users raptor home directory so it only has to
+ * be parsed again when it changes.
  */
 public class EcoService {
 
@@ -54,7 +68,15 @@ public class EcoService {
 		return singletonInstance;
 	}
 
-	private Map<Variant, Map<String, EcoInfo>> typeToFenToEco = new HashMap<Variant, Map<String, EcoInfo>>();
+	/**
+	 * Bump when the binary cache layout changes.
+	 */
+	private static final int CACHE_VERSION = 1;
+
+	private static final String CACHE_FILE_PATH = Raptor.USER_RAPTOR_HOME_PATH
+			+ "/cache/scidECO.bin";
+
+	private Map<Variant, LongHashMap<EcoInfo>> typeToHashToEco = new HashMap<Variant, LongHashMap<EcoInfo>>();
 
 	private EcoService() {
 		initClassic();
@@ -65,7 +87,7 @@ public class EcoService {
 	 * Disposes the EcoService.
 	 */
 	public void dispose() {
-		typeToFenToEco.clear();
+		typeToHashToEco.clear();
 	}
 
 	/**
@@ -75,11 +97,12 @@ public class EcoService {
 	public String getEco(Game game) {
 		// Don't add debug messages in here. It gets called so often they are
 		// annoying and really slow it down.
-		Map<String, EcoInfo> map = typeToFenToEco.get(getAdjustedVariant(game));
+		LongHashMap<EcoInfo> map = typeToHashToEco
+				.get(getAdjustedVariant(game));
 		if (map == null) {
 			return null;
 		} else {
-			EcoInfo info = map.get(getFenKey(game, true));
+			EcoInfo info = map.get(game.getZobristGameHash());
 			return info == null ? null : info.getEcoCode();
 		}
 	}
@@ -91,11 +114,12 @@ public class EcoService {
 	public String getLongDescription(Game game) {
 		// Don't add debug messages in here. It gets called so often they are
 		// annoying and really slow it down.
-		Map<String, EcoInfo> map = typeToFenToEco.get(getAdjustedVariant(game));
+		LongHashMap<EcoInfo> map = typeToHashToEco
+				.get(getAdjustedVariant(game));
 		if (map == null) {
 			return null;
 		} else {
-			EcoInfo info = map.get(getFenKey(game, false));
+			EcoInfo info = map.get(ZobristUtils.zobristHashIgnoringEp(game));
 			return info == null ? null : info.getOpening();
 		}
 	}
@@ -108,21 +132,21 @@ public class EcoService {
 		}
 	}
 
-	protected String getFenKey(Game game, boolean includeEP) {
-		return game.toFenPosition()
-				+ " "
-				+ (game.isWhitesMove() ? 'w' : 'b')
-				+ " "
-				+ game.getFenCastle()
-				+ " "
-				+ (includeEP ? game.getEpSquare() == GameConstants.EMPTY_SQUARE ? "-"
-						: GameUtils.getSan(game.getEpSquare())
-						: "-");
-	}
-
 	private void initClassic() {
 		File file = new File(raptor.Raptor.RESOURCES_DIR + "scidECO.txt");
-		typeToFenToEco.put(Variant.classic, parse(file));
+		File cacheFile = new File(CACHE_FILE_PATH);
+
+		List<EcoInfo> infos = readCache(cacheFile, file);
+		if (infos == null) {
+			infos = parse(file);
+			writeCache(cacheFile, file, infos);
+		}
+
+		LongHashMap<EcoInfo> map = new LongHashMap<EcoInfo>(infos.size());
+		for (EcoInfo info : infos) {
+			map.put(info.getZobristHash(), info);
+		}
+		typeToHashToEco.put(Variant.classic, map);
 	}
 
 	/**
@@ -135,12 +159,13 @@ public class EcoService {
 	 * @throws IOException
 	 *             If something goes wrong during reading.
 	 */
-	private Map<String, EcoInfo> parse(File file) {
+	private List<EcoInfo> parse(File file) {
 		if (LOG.isDebugEnabled()) {
 			LOG.info("parse(" + file.getAbsolutePath() + ")");
 		}
 		long startTime = System.currentTimeMillis();
-		Map<String, EcoInfo> result = new TreeMap<String, EcoInfo>();
+		List<EcoInfo> result = new ArrayList<EcoInfo>(12000);
+		Map<String, String> interned = new HashMap<String, String>();
 
 		BufferedReader reader = null;
 
@@ -148,29 +173,48 @@ public class EcoService {
 			reader = new BufferedReader(new FileReader(file));
 			String currentLine = null;
 			StringBuilder fen = new StringBuilder();
+			List<String> tokens = new ArrayList<String>(20);
 			while ((currentLine = reader.readLine()) != null) {
 				if (StringUtils.isNotBlank(currentLine)) {
 
+					// The FEN is always the last six tokens. Descriptions can
+					// contain '/' so they can't be used to find the FEN.
 					RaptorStringTokenizer tok = new RaptorStringTokenizer(
 							currentLine, " ", true);
-					String eco = tok.nextToken();
-					StringBuilder description = new StringBuilder(tok.nextToken());
-
-					String lastToken = null;
-					while (!(lastToken = tok.nextToken()).contains("/")) {
+					tokens.clear();
+					while (tok.hasMoreTokens()) {
+						tokens.add(tok.nextToken());
+					}
+					if (tokens.size() < 8) {
+						LOG.warn("Skipping invalid ECO line: " + currentLine);
+						continue;
+					}
+					String eco = tokens.get(0);
+					StringBuilder description = new StringBuilder(tokens.get(1));
+					for (int i = 2; i < tokens.size() - 6; i++) {
 						description.append(" ");
-						description.append(lastToken);
+						description.append(tokens.get(i));
 					}
+					int fenStart = tokens.size() - 6;
 					fen.setLength(0);
-					fen.append(lastToken);
+					fen.append(tokens.get(fenStart));
 					fen.append(" ");
-					fen.append(tok.nextToken());
+					fen.append(tokens.get(fenStart + 1));
 					fen.append(" ");
-					fen.append(tok.nextToken());
+					fen.append(tokens.get(fenStart + 2));
 					fen.append(" ");
-					fen.append(tok.nextToken());
+					fen.append(tokens.get(fenStart + 3));
 
-					result.put(fen.toString(), new EcoInfo(fen.toString(), eco, description.toString()));
+					try {
+						Game game = GameFactory.createFromFen(fen.toString(),
+								Variant.classic);
+						result.add(new EcoInfo(fen.toString(), intern(
+								interned, eco), intern(interned, description
+								.toString()), game.getZobristGameHash()));
+					} catch (RuntimeException re) {
+						LOG.warn("Skipping invalid ECO line: " + currentLine,
+								re);
+					}
 				}
 
 			}
@@ -191,4 +235,122 @@ public class EcoService {
 
 		return result;
 	}
+
+	private String intern(Map<String, String> interned, String string) {
+		String result = interned.get(string);
+		if (result == null) {
+			interned.put(string, string);
+			result = string;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the entries in the binary cache, or null if the cache is
+	 * missing, unreadable or was built from a different source file or
+	 * Zobrist seed.
+	 */
+	private List<EcoInfo> readCache(File cacheFile, File sourceFile) {
+		if (!cacheFile.exists()) {
+			return null;
+		}
+		long startTime = System.currentTimeMillis();
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(cacheFile)));
+			if (in.readInt() != CACHE_VERSION
+					|| in.readLong() != ZobristUtils.ZOBRIST_SEED
+					|| in.readLong() != sourceFile.length()
+					|| in.readLong() != sourceFile.lastModified()) {
+				return null;
+			}
+
+			String[] strings = new String[in.readInt()];
+			for (int i = 0; i < strings.length; i++) {
+				strings[i] = in.readUTF();
+			}
+
+			int entries = in.readInt();
+			List<EcoInfo> result = new ArrayList<EcoInfo>(entries);
+			for (int i = 0; i < entries; i++) {
+				long hash = in.readLong();
+				String fen = in.readUTF();
+				String eco = strings[in.readInt()];
+				String description = strings[in.readInt()];
+				result.add(new EcoInfo(fen, eco, description, hash));
+			}
+
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("readCache(" + cacheFile.getAbsolutePath()
+						+ ") executed in "
+						+ (System.currentTimeMillis() - startTime) + "ms");
+			}
+			return result;
+		} catch (IOException ioe) {
+			LOG.warn("Error reading ECO cache " + cacheFile.getAbsolutePath()
+					+ ". It will be rebuilt.", ioe);
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException ioe) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the parsed entries to the binary cache. ECO codes and
+	 * descriptions are written once to a string table and referenced by index.
+	 */
+	private void writeCache(File cacheFile, File sourceFile,
+			List<EcoInfo> infos) {
+		DataOutputStream out = null;
+		try {
+			cacheFile.getParentFile().mkdirs();
+			out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(cacheFile)));
+			out.writeInt(CACHE_VERSION);
+			out.writeLong(ZobristUtils.ZOBRIST_SEED);
+			out.writeLong(sourceFile.length());
+			out.writeLong(sourceFile.lastModified());
+
+			Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+			List<String> strings = new ArrayList<String>();
+			for (EcoInfo info : infos) {
+				for (String string : new String[] { info.getEcoCode(),
+						info.getOpening() }) {
+					if (!stringIndexes.containsKey(string)) {
+						stringIndexes.put(string, strings.size());
+						strings.add(string);
+					}
+				}
+			}
+
+			out.writeInt(strings.size());
+			for (String string : strings) {
+				out.writeUTF(string);
+			}
+			out.writeInt(infos.size());
+			for (EcoInfo info : infos) {
+				out.writeLong(info.getZobristHash());
+				out.writeUTF(info.getPositionOnlyFen());
+				out.writeInt(stringIndexes.get(info.getEcoCode()));
+				out.writeInt(stringIndexes.get(info.getOpening()));
+			}
+		} catch (IOException ioe) {
+			LOG.warn("Error writing ECO cache " + cacheFile.getAbsolutePath(),
+					ioe);
+			cacheFile.delete();
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException ioe) {
+				}
+			}
+		}
+	}
 }
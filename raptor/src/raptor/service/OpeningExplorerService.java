@@ -0,0 +1,329 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2011 RaptorProject (http://code.google.com/p/raptor-chess-interface/)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.service;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
+
+import raptor.Raptor;
+import raptor.chess.Game;
+import raptor.chess.GameFactory;
+import raptor.chess.Move;
+import raptor.chess.MoveList;
+import raptor.chess.Result;
+import raptor.chess.Variant;
+import raptor.chess.pgn.GameArchive;
+import raptor.chess.pgn.LenientPgnParserListener;
+import raptor.chess.pgn.PgnHeader;
+import raptor.chess.pgn.PgnParserError;
+import raptor.chess.pgn.StreamingPgnParser;
+import raptor.chess.util.OpeningExplorerTable;
+import raptor.chess.util.OpeningExplorerTable.Continuation;
+import raptor.util.RaptorLogger;
+
+/**
+ * A singleton service which answers what was played from a position in the
+ * pgn files the user has added to the opening explorer.
+ * 
+ * Games are replayed through their first MAX_PLY half moves and every move is
+ * recorded in an OpeningExplorerTable keyed by the Zobrist position hash of
+ * the position it was played from, so transpositions share their statistics.
+ * Only classic games are added. Adding a file only updates the table, so
+ * files can be added at any time without rebuilding it.
+ * 
+ * Lookups are made on the SWT thread, so they never wait on the service. The
+ * table is opened on a background thread the first time it is looked up, and
+ * lookups return nothing until it is open.
+ */
+public class OpeningExplorerService {
+
+	public static final String EXPLORER_DIRECTORY = Raptor.USER_RAPTOR_HOME_PATH
+			+ "/explorer";
+
+	/**
+	 * Moves after this many half moves are not recorded.
+	 */
+	public static final int MAX_PLY = 40;
+
+	/**
+	 * The position hash does not include the side to move, so it is folded
+	 * into the key to keep white and black moves from the same placement of
+	 * pieces apart.
+	 */
+	private static final long BLACK_TO_MOVE_KEY = 0x9E3779B97F4A7C15L;
+
+	private static final RaptorLogger LOG = RaptorLogger
+			.getLog(OpeningExplorerService.class);
+
+	private static OpeningExplorerService singletonInstance;
+
+	public static boolean serviceCreated = false;
+
+	public static OpeningExplorerService getInstance() {
+		if (singletonInstance != null)
+			return singletonInstance;
+
+		singletonInstance = new OpeningExplorerService();
+		return singletonInstance;
+	}
+
+	protected File directory;
+
+	protected final AtomicBoolean isOpening = new AtomicBoolean(false);
+
+	/**
+	 * Set once a lookup found no table, so later lookups do not check the
+	 * directory again. Cleared when a game is added.
+	 */
+	protected volatile boolean isTableMissing;
+
+	protected volatile OpeningExplorerTable table;
+
+	private OpeningExplorerService() {
+		this(new File(EXPLORER_DIRECTORY));
+		serviceCreated = true;
+	}
+
+	/**
+	 * Creates an explorer stored in the specified directory. Used by tests,
+	 * Raptor uses getInstance.
+	 */
+	public OpeningExplorerService(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Adds the moves of the game to the explorer. Games which are not classic
+	 * are ignored.
+	 */
+	public synchronized void addGame(Game game) throws IOException {
+		if (!Variant.isClassic(game.getVariant())) {
+			return;
+		}
+		MoveList moves = game.getMoveList();
+		if (moves.getSize() == 0) {
+			return;
+		}
+
+		OpeningExplorerTable table = getTable(true);
+		Result result = Result.get(game.getHeader(PgnHeader.Result));
+		int whiteElo = parseElo(game.getHeader(PgnHeader.WhiteElo));
+		int blackElo = parseElo(game.getHeader(PgnHeader.BlackElo));
+
+		// The moves of the game were made against its own position, so they
+		// are replayed by move code against a fresh game without san.
+		String fen = game.getHeader(PgnHeader.FEN);
+		Game position = StringUtils.isBlank(fen) ? GameFactory
+				.createStartingPosition(Variant.classic) : GameFactory
+				.createFromFen(fen, Variant.classic);
+
+		for (int i = 0; i < moves.getSize() && i < MAX_PLY; i++) {
+			int moveCode = GameArchive.encodeMove(moves.get(i));
+			table.add(getKey(position), moveCode, result, position
+					.isWhitesMove() ? whiteElo : blackElo);
+
+			Move move = GameArchive.decodeMove(position, moveCode);
+			if (move == null || !position.move(move)) {
+				break;
+			}
+		}
+		table.addGame();
+	}
+
+	/**
+	 * Adds every game in the pgn file to the explorer and returns the number
+	 * of games added.
+	 */
+	public int addPgnFile(File file) throws IOException {
+		final int[] gamesAdded = new int[1];
+		final IOException[] error = new IOException[1];
+
+		StreamingPgnParser parser = new StreamingPgnParser(
+				new FileReader(file), Integer.MAX_VALUE);
+		parser.addPgnParserListener(new LenientPgnParserListener() {
+			@Override
+			public void errorEncountered(PgnParserError error) {
+			}
+
+			@Override
+			public void gameParsed(Game game, int lineNumber) {
+				if (error[0] != null) {
+					return;
+				}
+				try {
+					addGame(game);
+					gamesAdded[0]++;
+				} catch (IOException ioe) {
+					error[0] = ioe;
+				}
+			}
+		});
+
+		long startTime = System.currentTimeMillis();
+		try {
+			parser.parse();
+		} finally {
+			synchronized (this) {
+				if (table != null) {
+					table.flush();
+				}
+			}
+		}
+		if (error[0] != null) {
+			throw error[0];
+		}
+
+		if (LOG.isInfoEnabled()) {
+			LOG.info("Added " + gamesAdded[0] + " games from " + file
+					+ " to the opening explorer in "
+					+ (System.currentTimeMillis() - startTime) + "ms");
+		}
+		return gamesAdded[0];
+	}
+
+	/**
+	 * Disposes the OpeningExplorerService.
+	 */
+	public synchronized void dispose() {
+		isTableMissing = true;
+		if (table != null) {
+			table.close();
+			table = null;
+		}
+	}
+
+	/**
+	 * Returns the moves played from the current position of the game, most
+	 * played first. Returns an empty list if nothing was played from it or
+	 * the game is not classic, or while the table is still being opened.
+	 */
+	public List<Continuation> getContinuations(Game game) {
+		if (!Variant.isClassic(game.getVariant())) {
+			return Collections.emptyList();
+		}
+		OpeningExplorerTable table = getOpenTable();
+		if (table == null) {
+			return Collections.emptyList();
+		}
+		List<Continuation> result = table.get(getKey(game));
+
+		// Positions with the same pieces but different castling or en
+		// passant rights share a key, so moves which are not possible here
+		// are dropped.
+		List<Continuation> possible = new ArrayList<Continuation>(result
+				.size());
+		for (Continuation continuation : result) {
+			if (GameArchive.decodeMove(game, continuation.getMoveCode()) != null) {
+				possible.add(continuation);
+			}
+		}
+		return possible;
+	}
+
+	/**
+	 * Returns the number of games added to the explorer, or 0 while the
+	 * table is still being opened.
+	 */
+	public long getGameCount() {
+		OpeningExplorerTable table = getOpenTable();
+		return table == null ? 0 : table.getGameCount();
+	}
+
+	/**
+	 * Returns the san of the continuation in the current position of the
+	 * game.
+	 */
+	public String getSan(Game game, Continuation continuation) {
+		Game copy = game.deepCopy(true);
+		copy.addState(Game.UPDATING_SAN_STATE);
+		Move move = GameArchive.decodeMove(copy, continuation.getMoveCode());
+		if (move == null) {
+			return "?";
+		}
+		copy.forceMove(move);
+		return move.getSan();
+	}
+
+	/**
+	 * Opens the table if one exists. Lookups call this on a background
+	 * thread, it is public so tests can wait for it.
+	 */
+	public synchronized void open() throws IOException {
+		try {
+			getTable(false);
+		} finally {
+			isOpening.set(false);
+		}
+	}
+
+	protected long getKey(Game game) {
+		return game.isWhitesMove() ? game.getZobristPositionHash() : game
+				.getZobristPositionHash()
+				^ BLACK_TO_MOVE_KEY;
+	}
+
+	/**
+	 * Returns the table if it is open. Otherwise null is returned and, unless
+	 * no table was found before, it is opened on a background thread.
+	 */
+	protected OpeningExplorerTable getOpenTable() {
+		OpeningExplorerTable result = table;
+		if (result == null && !isTableMissing
+				&& isOpening.compareAndSet(false, true)) {
+			ThreadService.getInstance().run(new Runnable() {
+				public void run() {
+					try {
+						open();
+					} catch (IOException ioe) {
+						LOG.error("Error opening the opening explorer", ioe);
+					}
+				}
+			});
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the table, opening it if needed. If isCreating is false and no
+	 * table exists yet null is returned, so users who never add a file do not
+	 * get one created.
+	 */
+	protected OpeningExplorerTable getTable(boolean isCreating)
+			throws IOException {
+		if (table == null) {
+			if (isCreating || OpeningExplorerTable.exists(directory)) {
+				OpeningExplorerTable newTable = new OpeningExplorerTable(
+						directory);
+				newTable.open();
+				table = newTable;
+				isTableMissing = false;
+			} else {
+				isTableMissing = true;
+			}
+		}
+		return table;
+	}
+
+	private int parseElo(String elo) {
+		return NumberUtils.isDigits(elo) ? Integer.parseInt(elo) : 0;
+	}
+}
@@ -14,21 +14,63 @@
 package raptor.service;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import raptor.chat.Seek;
 import raptor.connector.Connector;
 
+/**
+ * Maintains the seeks on a connector keyed by ad number.
+ * 
+ * The seeks can be replaced all at once from a sought message, or kept up to
+ * date incrementally from the seekinfo stream. Once the seekinfo stream has
+ * started refreshSeeks no longer needs to poll the server, sought output no
+ * longer replaces the seeks, and listeners are sent the seeks which were
+ * added or removed instead of the whole list.
+ */
 public class SeekService {
 	public static interface SeekServiceListener {
+		/**
+		 * Invoked when seeks are added or replaced by the seekinfo stream.
+		 */
+		public void seeksAdded(Seek[] addedSeeks);
+
+		/**
+		 * Invoked when the entire list of seeks has been replaced.
+		 */
 		public void seeksChanged(Seek[] newSeeks);
+
+		/**
+		 * Invoked when seeks are removed by the seekinfo stream. The ads are
+		 * only the ads of seeks which were in the service.
+		 */
+		public void seeksRemoved(String[] removedAds);
+	}
+
+	/**
+	 * An adapter class which provides default implementations for the
+	 * SeekServiceListener interface.
+	 */
+	public static class SeekServiceAdapter implements SeekServiceListener {
+		public void seeksAdded(Seek[] addedSeeks) {
+		}
+
+		public void seeksChanged(Seek[] newSeeks) {
+		}
+
+		public void seeksRemoved(String[] removedAds) {
+		}
 	}
 
 	public static enum SeekType {
 		FormulaFiltered, AllSeeks
 	}
 
-    private Seek[] seeks = new Seek[0];
+	private Map<String, Seek> adToSeek = new LinkedHashMap<String, Seek>();
+	private Seek[] seeks = new Seek[0];
+	private boolean isIncremental;
 	private Connector connector;
 	private List<SeekServiceListener> listeners = new ArrayList<SeekServiceListener>(
 			10);
@@ -41,14 +83,73 @@ public class SeekService {
 		listeners.add(listener);
 	}
 
+	/**
+	 * Adds the specified seeks from the seekinfo stream. A seek with the same
+	 * ad as an existing seek replaces it.
+	 */
+	public void addSeeks(Seek[] addedSeeks) {
+		synchronized (this) {
+			for (Seek seek : addedSeeks) {
+				adToSeek.put(seek.getAd(), seek);
+			}
+			seeks = null;
+		}
+		fireSeeksAdded(addedSeeks);
+	}
+
+	/**
+	 * Removes all seeks and switches to incremental updates. Invoked when the
+	 * seekinfo stream starts, i.e. on a seek clear line, which is followed by
+	 * every current seek.
+	 */
+	public void beginSeekInfo() {
+		synchronized (this) {
+			isIncremental = true;
+		}
+		clearSeeks();
+	}
+
+	/**
+	 * Removes all seeks.
+	 */
+	public void clearSeeks() {
+		synchronized (this) {
+			adToSeek.clear();
+			seeks = new Seek[0];
+		}
+		fireSeeksChanged(new Seek[0]);
+	}
+
 	public Connector getConnector() {
 		return connector;
 	}
 
-	public Seek[] getSeeks() {
+	/**
+	 * Returns the seek with the specified ad, or null if there is'nt one.
+	 */
+	public synchronized Seek getSeek(String ad) {
+		return adToSeek.get(ad);
+	}
+
+	public synchronized Seek[] getSeeks() {
+		if (seeks == null) {
+			seeks = adToSeek.values().toArray(new Seek[adToSeek.size()]);
+		}
 		return seeks;
 	}
 
+	/**
+	 * Returns true if seeks are being updated from the seekinfo stream, false
+	 * if they have to be polled with refreshSeeks.
+	 */
+	public synchronized boolean isIncremental() {
+		return isIncremental;
+	}
+
+	/**
+	 * Requests the seeks from the server. The connector does not send
+	 * anything if the seeks are being updated incrementally.
+	 */
 	public void refreshSeeks() {
 		connector.sendGetSeeksMessage();
 	}
@@ -57,14 +158,73 @@ public class SeekService {
 		listeners.remove(listener);
 	}
 
+	/**
+	 * Removes the seeks with the specified ads from the seekinfo stream. Ads
+	 * which are not in the service are ignored.
+	 */
+	public void removeSeeks(String[] ads) {
+		List<String> removedAds = new ArrayList<String>(ads.length);
+		synchronized (this) {
+			for (String ad : ads) {
+				if (adToSeek.remove(ad) != null) {
+					removedAds.add(ad);
+				}
+			}
+			if (!removedAds.isEmpty()) {
+				seeks = null;
+			}
+		}
+		if (!removedAds.isEmpty()) {
+			fireSeeksRemoved(removedAds.toArray(new String[removedAds.size()]));
+		}
+	}
+
+	/**
+	 * Clears all seeks and returns to polling. Invoked when the connector
+	 * disconnects and when the seekinfo stream is turned off.
+	 */
+	public void reset() {
+		synchronized (this) {
+			isIncremental = false;
+		}
+		clearSeeks();
+	}
+
+	/**
+	 * Replaces all of the seeks, i.e. from a sought message. Ignored while the
+	 * seeks are kept up to date by the seekinfo stream, since a sought the
+	 * user typed may have been filtered and would leave only part of the
+	 * seeks.
+	 */
 	public void setSeeks(Seek[] seeks) {
-		this.seeks = seeks;
-		fireSeeksChanged();
+		synchronized (this) {
+			if (isIncremental) {
+				return;
+			}
+			adToSeek.clear();
+			for (Seek seek : seeks) {
+				adToSeek.put(seek.getAd(), seek);
+			}
+			this.seeks = seeks;
+		}
+		fireSeeksChanged(seeks);
+	}
+
+	protected void fireSeeksAdded(Seek[] addedSeeks) {
+		for (SeekServiceListener listener : listeners) {
+			listener.seeksAdded(addedSeeks);
+		}
+	}
+
+	protected void fireSeeksChanged(Seek[] newSeeks) {
+		for (SeekServiceListener listener : listeners) {
+			listener.seeksChanged(newSeeks);
+		}
 	}
 
-	protected void fireSeeksChanged() {
+	protected void fireSeeksRemoved(String[] removedAds) {
 		for (SeekServiceListener listener : listeners) {
-			listener.seeksChanged(seeks);
+			listener.seeksRemoved(removedAds);
 		}
 	}
 }
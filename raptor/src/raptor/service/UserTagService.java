@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -33,6 +34,7 @@ import raptor.Raptor;
 import raptor.pref.PreferenceKeys;
 import raptor.util.RaptorLogger;
 import raptor.util.RaptorStringTokenizer;
+import raptor.util.UserKeyRegistry;
 
 public class UserTagService {
 	private static final RaptorLogger LOG = RaptorLogger.getLog(UserTagService.class);
@@ -41,6 +43,11 @@ public class UserTagService {
 	private static UserTagService singletonInstance;
 	public static boolean serviceCreated = false;
 	protected Map<String, Set<String>> tagToUsersMap = new TreeMap<String, Set<String>>();
+	/**
+	 * The lower case tags of each user, keyed by UserKeyRegistry key. Rebuilt
+	 * from tagToUsersMap whenever it changes, so getTags does not lock.
+	 */
+	protected volatile Map<String, String[]> userToTagsMap = new HashMap<String, String[]>();
 
 	public static UserTagService getInstance() {
 		if (singletonInstance != null)
@@ -79,12 +86,13 @@ public class UserTagService {
 					String tag = tok.nextToken().toLowerCase();
 					Set<String> users = new TreeSet<String>();
 					while (tok.hasMoreTokens()) {
-						users.add(tok.nextToken().toLowerCase());
+						users.add(UserKeyRegistry.getKey(tok.nextToken()));
 						counter++;
 					}
 					tagToUsersMap.put(tag, users);
 				}
 			}
+			updateUserToTagsMap();
 		} catch (Throwable t) {
 			Raptor.getInstance().onError("Error parsing tag file: " + TAG_FILE,
 					t);
@@ -103,6 +111,7 @@ public class UserTagService {
 	}
 
 	protected void saveFile() {
+		updateUserToTagsMap();
 		FileWriter writer = null;
 		try {
 			writer = new FileWriter(TAG_FILE, false);
@@ -152,17 +161,26 @@ public class UserTagService {
 
 	public void dispose() {
 		tagToUsersMap.clear();
+		userToTagsMap = new HashMap<String, String[]>();
 	}
 
 	public String[] getTags(String user) {
-		user = user.toLowerCase();
-		List<String> result = new ArrayList<String>(10);
+		String[] userTags = userToTagsMap.get(UserKeyRegistry.getKey(user));
+		if (userTags == null) {
+			return new String[0];
+		}
+
+		// Return the tags as they are spelled in the preferences, and only
+		// those still in the preferences.
+		List<String> result = new ArrayList<String>(userTags.length);
 		String[] tags = getTags();
 		for (String tag : tags) {
 			String lowerCaseTag = tag.toLowerCase();
-			Set<String> set = tagToUsersMap.get(lowerCaseTag);
-			if (set != null && set.contains(user)) {
-				result.add(tag);
+			for (String userTag : userTags) {
+				if (userTag.equals(lowerCaseTag)) {
+					result.add(tag);
+					break;
+				}
 			}
 		}
 		Collections.sort(result);
@@ -170,8 +188,8 @@ public class UserTagService {
 	}
 
 	public String[] getTags() {
-		String[] tags = Raptor.getInstance().getPreferences().getStringArray(
-				PreferenceKeys.APP_USER_TAGS);
+		String[] tags = Raptor.getInstance().getPreferences().getSnapshot()
+				.getStringArray(PreferenceKeys.APP_USER_TAGS);
 		Arrays.sort(tags);
 		return tags;
 
@@ -213,7 +231,7 @@ public class UserTagService {
 	public boolean clearTag(String tag, String user) {
 		boolean result = false;
 		tag = tag.toLowerCase();
-		user = user.toLowerCase();
+		user = UserKeyRegistry.getKey(user);
 		Set<String> tagList = tagToUsersMap.get(tag);
 		if (tagList != null) {
 			result = tagList.remove(user);
@@ -228,9 +246,7 @@ public class UserTagService {
 	}
 
 	public void clear() {
-		for (String key : tagToUsersMap.keySet()) {
-			tagToUsersMap.remove(key);
-		}
+		tagToUsersMap.clear();
 		saveFile();
 	}
 
@@ -241,7 +257,7 @@ public class UserTagService {
 
 	public boolean clearTags(String user) {
 		boolean result = false;
-		user = user.toLowerCase();
+		user = UserKeyRegistry.getKey(user);
 		for (Set<String> set : tagToUsersMap.values()) {
 			boolean removed = set.remove(user);
 			if (removed) {
@@ -256,7 +272,7 @@ public class UserTagService {
 
 	public void addUser(String tag, String user) {
 		String lowerCaseTag = tag.toLowerCase();
-		user = user.toLowerCase();
+		user = UserKeyRegistry.getKey(user);
 		Set<String> tagList = tagToUsersMap.get(lowerCaseTag);
 		if (tagList == null) {
 			addTag(tag);
@@ -267,4 +283,28 @@ public class UserTagService {
 		}
 		saveFile();
 	}
+
+	/**
+	 * Rebuilds userToTagsMap from tagToUsersMap.
+	 */
+	protected void updateUserToTagsMap() {
+		Map<String, List<String>> userToTags = new HashMap<String, List<String>>();
+		for (Map.Entry<String, Set<String>> entry : tagToUsersMap.entrySet()) {
+			for (String user : entry.getValue()) {
+				List<String> tags = userToTags.get(user);
+				if (tags == null) {
+					userToTags.put(user, tags = new ArrayList<String>(2));
+				}
+				tags.add(entry.getKey());
+			}
+		}
+
+		Map<String, String[]> result = new HashMap<String, String[]>(
+				userToTags.size() * 2);
+		for (Map.Entry<String, List<String>> entry : userToTags.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().toArray(
+					new String[entry.getValue().size()]));
+		}
+		userToTagsMap = result;
+	}
 }
@@ -0,0 +1,170 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2011 RaptorProject (http://code.google.com/p/raptor-chess-interface/)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.swt;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.swt.graphics.Image;
+
+import raptor.util.RaptorLogger;
+
+/**
+ * A least recently used cache of images which owns, and disposes, the images
+ * put in it. When more than the maximum number of images are cached the least
+ * recently used one is evicted and disposed, so the number of native image
+ * handles held stays bounded no matter how many sizes are requested.
+ * 
+ * Callers which hold on to an image returned by this cache should check
+ * Image.isDisposed() before reusing it and fetch it again if it was evicted.
+ * 
+ * Hit, miss and eviction counts are kept for profiling.
+ */
+public class BoundedImageCache {
+	private static final RaptorLogger LOG = RaptorLogger
+			.getLog(BoundedImageCache.class);
+
+	protected long evictions;
+	protected long hits;
+	protected LinkedHashMap<String, Image> images;
+	protected int maxSize;
+	protected long misses;
+	protected String name;
+
+	/**
+	 * Creates a cache holding at most maxSize images.
+	 * 
+	 * @param name
+	 *            A name used when logging.
+	 * @param maxSize
+	 *            The maximum number of images to cache.
+	 */
+	public BoundedImageCache(String name, int maxSize) {
+		this.name = name;
+		this.maxSize = maxSize;
+		images = new LinkedHashMap<String, Image>(maxSize * 4 / 3 + 1, 0.75f,
+				true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Image> eldest) {
+				if (size() > BoundedImageCache.this.maxSize) {
+					evictions++;
+					dispose(eldest.getValue());
+					if (LOG.isDebugEnabled()) {
+						LOG.debug(BoundedImageCache.this.name + " evicted "
+								+ eldest.getKey());
+					}
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Removes and disposes all of the cached images.
+	 */
+	public synchronized void clear() {
+		for (Image image : images.values()) {
+			dispose(image);
+		}
+		images.clear();
+	}
+
+	/**
+	 * Returns true if an undisposed image is cached for the key. Does not
+	 * affect the hit/miss counts or the LRU order.
+	 */
+	public synchronized boolean contains(String key) {
+		Image image = images.get(key);
+		return image != null && !image.isDisposed();
+	}
+
+	/**
+	 * Returns the cached image for the key, or null if there is none.
+	 */
+	public synchronized Image get(String key) {
+		Image result = images.get(key);
+		if (result != null && result.isDisposed()) {
+			images.remove(key);
+			result = null;
+		}
+		if (result == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return result;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized int getSize() {
+		return images.size();
+	}
+
+	/**
+	 * Caches the image under the key, evicting the least recently used image
+	 * if the cache is full. Any image previously cached under the key is
+	 * disposed.
+	 */
+	public synchronized void put(String key, Image image) {
+		Image previous = images.put(key, image);
+		if (previous != null && previous != image) {
+			dispose(previous);
+		}
+	}
+
+	/**
+	 * Removes and disposes all cached images whose keys start with the prefix.
+	 */
+	public synchronized void removeAll(String keyPrefix) {
+		for (Iterator<Map.Entry<String, Image>> i = images.entrySet()
+				.iterator(); i.hasNext();) {
+			Map.Entry<String, Image> entry = i.next();
+			if (entry.getKey().startsWith(keyPrefix)) {
+				dispose(entry.getValue());
+				i.remove();
+			}
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return name + " " + images.size() + "/" + maxSize + " hits=" + hits
+				+ " misses=" + misses + " evictions=" + evictions;
+	}
+
+	protected void dispose(Image image) {
+		if (image != null && !image.isDisposed()) {
+			image.dispose();
+		}
+	}
+}
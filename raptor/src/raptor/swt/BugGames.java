@@ -110,6 +110,8 @@ public class BugGames extends Composite {
 				new RatingComparator());
 		bugGamesTable.addColumn(local.getString("bugGames6"), SWT.LEFT, 19, true, null);
 		bugGamesTable.addColumn(local.getString("bugGames7"), SWT.LEFT, 14, true, null);
+		// Rows are identified by the game number.
+		bugGamesTable.setKeyColumn(0);
 
 		bugGamesTable.addRaptorTableListener(new RaptorTableAdapter() {
 			@Override
@@ -226,6 +226,9 @@ public class GamesWindowItem implements RaptorConnectorWindowItem {
 		gamesTable.addColumn(local.getString("gameWI9"), SWT.LEFT, 20, true, null);
 		gamesTable.addColumn(local.getString("gameWI10"), SWT.LEFT, 20, true, null);
 
+		// Rows are identified by the game number.
+		gamesTable.setKeyColumn(0);
+
 		// Sort once so when data is refreshed it will be on elo descending.
 		gamesTable.sort(1);
 		tableTab.setControl(tableComposite);
@@ -37,15 +37,16 @@ import org.eclipse.swt.widgets.Shell;
 
 import raptor.Raptor;
 import raptor.chess.Game;
-import raptor.chess.pgn.AbstractPgnParser;
+import raptor.chess.pgn.GameArchive;
 import raptor.chess.pgn.LenientPgnParserListener;
+import raptor.chess.pgn.ParallelPgnParser;
+import raptor.chess.pgn.PgnFileIndex;
 import raptor.chess.pgn.PgnParserError;
 import raptor.chess.pgn.PgnUtils;
-import raptor.chess.pgn.StreamingPgnParser;
 import raptor.chess.pgn.chesspresso.ChesspressoPgnListener;
-import raptor.chess.pgn.chesspresso.ChesspressoPgnParser;
 import raptor.international.L10n;
 import raptor.service.ThreadService;
+import raptor.swt.chess.PgnDatabaseWindowItem;
 import raptor.swt.chess.PgnParseResultsWindowItem;
 import raptor.util.RaptorLogger;
 import raptor.util.RaptorRunnable;
@@ -129,13 +130,17 @@ public class PgnProcessingDialog extends Dialog {
 
 	public static final int MAX_BYTES_IN_FILE = 1048576 * 15;
 
+	private static final int DATABASE_PROGRESS_MAXIMUM = 1000;
+
 	private static final RaptorLogger LOG = RaptorLogger.getLog(PgnProcessingDialog.class);
 
 	private Button cancelButton;
 	private Composite cancelComposite;
 	protected int executeTime = 50;
 	protected File file;
+	protected boolean isArchive;
 	protected volatile boolean isClosed = false;
+	protected boolean isDatabaseMode;
 	private Label lineLabel;
 
 	protected boolean mayCancel = true;
@@ -150,16 +155,33 @@ public class PgnProcessingDialog extends Dialog {
 	private Shell shell;
 
 	public PgnProcessingDialog(Shell parent, String file) {
+		this(parent, file, false);
+	}
+
+	/**
+	 * @param isDatabaseMode
+	 *            True to index the file and browse it with a
+	 *            PgnDatabaseWindowItem instead of parsing every game. Files
+	 *            larger than MAX_BYTES_IN_FILE are always opened this way.
+	 *            Game archives are always loaded in full.
+	 */
+	public PgnProcessingDialog(Shell parent, String file,
+			boolean isDatabaseMode) {
 		super(parent);
 		this.file = new File(file);
+		this.isArchive = GameArchive.isArchive(file);
+		this.isDatabaseMode = !isArchive
+				&& (isDatabaseMode || this.file.length() > MAX_BYTES_IN_FILE);
+	}
 
-		if (this.file.length() > MAX_BYTES_IN_FILE) {
-			Raptor
-					.getInstance()
-					.alert(L10n.getInstance().getString("pgnProcD1")
-							.replaceAll("MAX_BYTES_IN_FILE", Integer.toString(MAX_BYTES_IN_FILE)));
-
-		}
+	/**
+	 * Returns the file the index of the specified pgn file is stored in.
+	 */
+	public static File getIndexFile(File pgnFile) {
+		return new File(Raptor.USER_RAPTOR_HOME_PATH + "/pgnindex/"
+				+ pgnFile.getName() + "_"
+				+ Integer.toHexString(pgnFile.getAbsolutePath().hashCode())
+				+ ".idx");
 	}
 
 	public void open() {
@@ -169,32 +191,41 @@ public class PgnProcessingDialog extends Dialog {
 
 		ThreadService.getInstance().scheduleOneShot(250, new Runnable() {
 			public void run() {
-				FileReader reader = null;
-				LenientPgnParserListener listener;
-				try {					
-					AbstractPgnParser parser;
+				if (isDatabaseMode) {
+					openDatabase();
+					return;
+				} else if (isArchive) {
+					openArchive();
+					return;
+				}
+				try {
+					// Games are parsed in chunks on all cores and handed back
+					// in file order.
+					ParallelPgnParser parser = new ParallelPgnParser(file);
 					boolean pgnContainsVariants = pgnHasVariantGames(file);
+
+					long startTime = System.currentTimeMillis();
+					PgnParseResultsWindowItem windowItem;
 					if (!pgnContainsVariants) {
-						parser = new ChesspressoPgnParser(reader = new FileReader(file));
-						listener = new ChesspressoPgnProgressListener();
+						ChesspressoPgnProgressListener listener = new ChesspressoPgnProgressListener();
+						parser.parse(listener);
+						windowItem = new PgnParseResultsWindowItem(file
+								.getName(), listener.getErrors(), listener
+								.getGames(), file.getAbsolutePath());
+					} else {
+						ProfressPgnParserListener listener = new ProfressPgnParserListener();
+						parser.parse(listener);
+						windowItem = new PgnParseResultsWindowItem(file
+								.getName(), listener.getErrors(), listener
+								.getGames(), file.getAbsolutePath());
 					}
-					else {
-						// start work
-						parser = new StreamingPgnParser(
-								reader = new FileReader(file), MAX_BYTES_IN_FILE);
-						listener = new ProfressPgnParserListener();
-					}	
-					parser.addPgnParserListener(listener);
-					
-					long startTime = System.currentTimeMillis();
-					parser.parse();
 
 					if (LOG.isDebugEnabled()) {
 						LOG.debug("Parsed in "
 								+ (System.currentTimeMillis() - startTime)
 								+ "ms");
 					}
-					
+
 					shell.getDisplay().asyncExec(new RaptorRunnable() {
 						@Override
 						public void execute() {
@@ -202,33 +233,108 @@ public class PgnProcessingDialog extends Dialog {
 						}
 					});
 
-					if (!pgnContainsVariants) {
-						PgnParseResultsWindowItem windowItem = new PgnParseResultsWindowItem(
-								file.getName(), ((ChesspressoPgnProgressListener)listener).getErrors(),
-								((ChesspressoPgnProgressListener)listener)
-										.getGames(), file.getAbsolutePath());
+					Raptor.getInstance().getWindow().addRaptorWindowItem(
+							windowItem);
+				} catch (Throwable t) {
+					if (!isClosed) {
+						LOG.error("Error parsing pgn file", t);
+						Raptor.getInstance().onError(
+								L10n.getInstance().getString("pgnProcD2") + file, t);
+					}
+				}
+			}
+
+			private void openArchive() {
+				final GameArchive archive = new GameArchive(file);
+				try {
+					archive.open();
+					final int gameCount = archive.getGameCount();
+					shell.getDisplay().asyncExec(new RaptorRunnable() {
+						@Override
+						public void execute() {
+							progressBar.setMaximum(Math.max(1, gameCount));
+						}
+					});
+
+					ArrayList<Game> games = new ArrayList<Game>(gameCount);
+					for (int i = 0; i < gameCount && !isClosed; i++) {
+						games.add(archive.getGame(i));
+						if (games.size() % 100 == 0) {
+							updateArchiveProgress(games.size());
+						}
+					}
+
+					shell.getDisplay().asyncExec(new RaptorRunnable() {
+						@Override
+						public void execute() {
+							shell.close();
+						}
+					});
+
+					if (!isClosed) {
 						Raptor.getInstance().getWindow().addRaptorWindowItem(
-								windowItem);
+								new PgnParseResultsWindowItem(file.getName(),
+										new ArrayList<PgnParserError>(), games,
+										file.getAbsolutePath()));
 					}
-					else {
-						PgnParseResultsWindowItem windowItem = new PgnParseResultsWindowItem(
-								file.getName(), ((ProfressPgnParserListener)listener).getErrors(), 
-								((ProfressPgnParserListener)listener).getGames(), file.getAbsolutePath());
+				} catch (Throwable t) {
+					shell.getDisplay().asyncExec(new RaptorRunnable() {
+						@Override
+						public void execute() {
+							shell.close();
+						}
+					});
+					LOG.error("Error reading game archive", t);
+					Raptor.getInstance().onError(
+							L10n.getInstance().getString("pgnProcD2") + file, t);
+				} finally {
+					archive.close();
+				}
+			}
+
+			private void openDatabase() {
+				PgnFileIndex index = new PgnFileIndex(file, getIndexFile(file));
+				try {
+					boolean isOpened = index
+							.open(new PgnFileIndex.ProgressListener() {
+								public boolean indexProgress(int gamesIndexed,
+										long bytesRead, long totalBytes) {
+									if (isClosed) {
+										return false;
+									}
+									updateDatabaseProgress(gamesIndexed,
+											bytesRead, totalBytes);
+									return true;
+								}
+							});
+
+					shell.getDisplay().asyncExec(new RaptorRunnable() {
+						@Override
+						public void execute() {
+							shell.close();
+						}
+					});
+
+					if (isOpened) {
 						Raptor.getInstance().getWindow().addRaptorWindowItem(
-								windowItem);
+								new PgnDatabaseWindowItem(index));
+					} else {
+						index.close();
 					}
 				} catch (Throwable t) {
+					index.close();
+					shell.getDisplay().asyncExec(new RaptorRunnable() {
+						@Override
+						public void execute() {
+							shell.close();
+						}
+					});
 					if (!isClosed) {
-						LOG.error("Error parsing pgn file", t);
+						LOG.error("Error indexing pgn file", t);
 						Raptor.getInstance().onError(
 								L10n.getInstance().getString("pgnProcD2") + file, t);
 					}
-				} finally {
-					try {
-						reader.close();
-					} catch (Throwable t) {
-					}
-				}				
+				}
 			}
 
 			private boolean pgnHasVariantGames(File fileName) {
@@ -285,6 +391,32 @@ public class PgnProcessingDialog extends Dialog {
 
 	}
 
+	protected void updateArchiveProgress(final int gamesRead) {
+		shell.getDisplay().asyncExec(new RaptorRunnable() {
+			@Override
+			public void execute() {
+				processMessageLabel.setText(L10n.getInstance().getString(
+						"pgnParseWI3")
+						+ gamesRead);
+				progressBar.setSelection(gamesRead);
+			}
+		});
+	}
+
+	protected void updateDatabaseProgress(final int gamesIndexed,
+			final long bytesRead, final long totalBytes) {
+		shell.getDisplay().asyncExec(new RaptorRunnable() {
+			@Override
+			public void execute() {
+				processMessageLabel.setText(L10n.getInstance().getString(
+						"pgnParseWI3")
+						+ gamesIndexed);
+				progressBar.setSelection((int) (bytesRead
+						* DATABASE_PROGRESS_MAXIMUM / Math.max(1L, totalBytes)));
+			}
+		});
+	}
+
 	protected void cleanUp() {
 
 	}
@@ -296,7 +428,8 @@ public class PgnProcessingDialog extends Dialog {
 
 		shell.setLayout(gridLayout);
 		shell.setSize(483, 181);
-		shell.setText(L10n.getInstance().getString("parsing", file.getName()));
+		shell.setText(L10n.getInstance().getString(
+				isDatabaseMode ? "pgnProcD3" : "parsing", file.getName()));
 
 		final Composite composite = new Composite(shell, SWT.NONE);
 		composite.setLayoutData(new GridData(GridData.FILL, GridData.CENTER,
@@ -314,8 +447,12 @@ public class PgnProcessingDialog extends Dialog {
 		progressBarComposite.setLayout(new FillLayout());
 
 		progressBar = new ProgressBar(progressBarComposite, processBarStyle);
-		progressBar.setMaximum(PgnUtils.getApproximateGameCount(file
-				.getAbsolutePath()));
+		// Counting the games would mean reading a database file twice, so
+		// database progress is shown by bytes read.
+		// Archives set the maximum to their game count once opened.
+		progressBar.setMaximum(isDatabaseMode ? DATABASE_PROGRESS_MAXIMUM
+				: isArchive ? 1 : PgnUtils.getApproximateGameCount(file
+						.getAbsolutePath()));
 
 		processMessageLabel = new Label(shell, SWT.NONE);
 		processMessageLabel.setLayoutData(new GridData(GridData.FILL,
@@ -33,6 +33,7 @@ import org.eclipse.swt.widgets.Shell;
 import raptor.Raptor;
 import raptor.international.L10n;
 import raptor.service.ThreadService;
+import raptor.swt.chess.ChessBoardUtils;
 import raptor.util.RaptorStringUtils;
 
 /**
@@ -43,7 +44,7 @@ public class ProfileDialog extends Dialog {
 
 	private Label heapm, heap1, heap2, heap3, heap4, stackm, stack1, stack2,
 			stack3, stack4, threadsm, threads1, threads2, threads3, threads4,
-			threads5, image1;
+			threads5, image1, image2;
 	protected static L10n local = L10n.getInstance();
 
 	public ProfileDialog() {
@@ -149,6 +150,8 @@ public class ProfileDialog extends Dialog {
 				+ "/"
 				+ Raptor.getInstance().getColorRegistry().getKeySet().size()
 				+ "/" + Raptor.getInstance().getCursorRegistry().getSize());
+		image2 = new Label(composite, SWT.NONE);
+		image2.setText(getBoardImageCacheText());
 
 		Button button = new Button(composite, SWT.PUSH);
 		button.setText(local.getString("profileDialog16"));
@@ -232,6 +235,7 @@ public class ProfileDialog extends Dialog {
 								+ "/"
 								+ Raptor.getInstance().getCursorRegistry()
 										.getSize());
+						image2.setText(getBoardImageCacheText());
 
 						Display.getCurrent().timerExec(2000, this);
 					}
@@ -242,4 +246,10 @@ public class ProfileDialog extends Dialog {
 
 		});
 	}
-}
\ No newline at end of file
+
+	protected String getBoardImageCacheText() {
+		return local.getString("profileDialog17")
+				+ ChessBoardUtils.getPieceImageCache() + ", "
+				+ ChessBoardUtils.getSquareBackgroundImageCache();
+	}
+}
@@ -15,8 +15,13 @@ package raptor.swt;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
 import raptor.util.RaptorLogger;
@@ -43,7 +48,7 @@ import org.eclipse.swt.widgets.TableItem;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.graphics.Color;
 
-import raptor.util.RaptorStringUtils;
+import raptor.util.SortKeyComparator;
 
 /**
  * A class that wraps a table. It handles the things that are a pain with the
@@ -55,6 +60,10 @@ import raptor.util.RaptorStringUtils;
  * You can also add a TableListener which informs you when double clicks and
  * right clicks occur. It also informs on table updates and when the table is
  * sorted.
+ * 
+ * The rows are kept in a sorted model. Unless the table uses a table cursor
+ * the SWT table is virtual, so items are only filled in when they are shown
+ * and a refresh only touches the items whose row changed.
  */
 public class RaptorTable extends Composite {
 
@@ -136,23 +145,63 @@ public class RaptorTable extends Composite {
 		Comparator<String> comparator;
 	}
 
-	protected static class TableItemComparator implements Comparator<TableItem> {
+	/**
+	 * A row in the table model. Rows are identified by their key when the
+	 * table is refreshed, so unchanged rows keep their sort key and their
+	 * selection.
+	 */
+	protected static class Row {
+		protected String key;
+		protected String[] data;
+		protected long sortKey;
+		protected int sortKeyColumn = -1;
+
+		public Row(String key, String[] data) {
+			this.key = key;
+			this.data = data;
+		}
+	}
+
+	protected static class RowComparator implements Comparator<Row> {
 		protected Comparator<String> comparator;
 		protected int columnIndex;
 		protected boolean isAscending;
 
-		public TableItemComparator(Comparator<String> comparator,
-				int columnIndex, boolean isAscending) {
+		public RowComparator(Comparator<String> comparator, int columnIndex,
+				boolean isAscending) {
 			this.comparator = comparator;
 			this.columnIndex = columnIndex;
 			this.isAscending = isAscending;
 		}
 
-		public int compare(TableItem o1, TableItem o2) {
-			String string1 = o1.getText(columnIndex);
-			String string2 = o2.getText(columnIndex);
-			return isAscending ? comparator.compare(string1, string2) : -1
-					* comparator.compare(string1, string2);
+		public int compare(Row o1, Row o2) {
+			int result;
+			if (comparator instanceof SortKeyComparator) {
+				result = o1.sortKey < o2.sortKey ? -1
+						: o1.sortKey == o2.sortKey ? 0 : 1;
+			} else {
+				result = comparator.compare(o1.data[columnIndex],
+						o2.data[columnIndex]);
+			}
+			return isAscending ? result : -1 * result;
+		}
+
+		/**
+		 * Computes the sort keys of rows which do not have one for this
+		 * column yet. Invoked before sorting, so a comparison never has to
+		 * parse the text again.
+		 */
+		public void updateSortKeys(List<Row> rows) {
+			if (comparator instanceof SortKeyComparator) {
+				SortKeyComparator sortKeyComparator = (SortKeyComparator) comparator;
+				for (Row row : rows) {
+					if (row.sortKeyColumn != columnIndex) {
+						row.sortKey = sortKeyComparator
+								.getSortKey(row.data[columnIndex]);
+						row.sortKeyColumn = columnIndex;
+					}
+				}
+			}
 		}
 	}
 
@@ -169,7 +218,10 @@ public class RaptorTable extends Composite {
 	protected List<ColumnInfo> columnInfos = new ArrayList<ColumnInfo>(10);
 	protected TableColumn lastStortedColumn;
 	protected boolean wasLastSortAscending;
-	protected TableItemComparator lastComparator;
+	protected RowComparator lastComparator;
+	protected List<Row> rows = new ArrayList<Row>(0);
+	protected int keyColumn = -1;
+	protected boolean isVirtual;
 	protected List<RaptorTableListener> tableListeners = new ArrayList<RaptorTableListener>(
 			2);
 	protected int fixedWidth;
@@ -215,9 +267,23 @@ public class RaptorTable extends Composite {
 			}
 		});
 
-		table = new Table(this, tableStyle);
+		// Tables with a cursor are not virtual, since the cursor and the Linux
+		// workaround color items directly and clearing an item resets them.
+		isVirtual = !usesTableCursor;
+		table = new Table(this, isVirtual ? tableStyle | SWT.VIRTUAL
+				: tableStyle);
 		table.setLocation(0, 0);
 		table.setHeaderVisible(showHeaders);
+		if (isVirtual) {
+			table.addListener(SWT.SetData, new Listener() {
+				public void handleEvent(Event event) {
+					if (event.index < rows.size()) {
+						((TableItem) event.item)
+								.setText(rows.get(event.index).data);
+					}
+				}
+			});
+		}
 		addControlListener(new ControlAdapter() {
 			@Override
 			public void controlResized(ControlEvent e) {
@@ -374,8 +440,10 @@ public class RaptorTable extends Composite {
 		if (cursor != null) {
 			cursor.setVisible(true);
 		}
-		TableItem item = new TableItem(table, SWT.NONE);
-		item.setText(data);
+		data = toRowData(data);
+		rows.add(new Row(getKey(data), data));
+		table.setItemCount(rows.size());
+		updateItem(rows.size() - 1);
 
 		for (RaptorTableListener listener : tableListeners) {
 			listener.tableUpdated();
@@ -390,10 +458,8 @@ public class RaptorTable extends Composite {
 			if (cursor != null) {
 				cursor.setVisible(false);
 			}
-			TableItem[] items = table.getItems();
-			for (TableItem item : items) {
-				item.dispose();
-			}
+			rows.clear();
+			table.removeAll();
 
 			for (RaptorTableListener listener : tableListeners) {
 				listener.tableUpdated();
@@ -429,14 +495,63 @@ public class RaptorTable extends Composite {
 	 * Returns the number of rows in this table.
 	 */
 	public int getRowCount() {
-		return table.getItemCount();
+		return rows.size();
 	}
 
 	/**
 	 * Returns the text in the specified row.
 	 */
 	public String[] getRowText(int row) {
-		return getData(table.getItem(row));
+		return rows.get(row).data.clone();
+	}
+
+	/**
+	 * Returns the index of the first row with the specified text in the
+	 * specified column, or -1 if there is'nt one.
+	 */
+	public int indexOf(int column, String text) {
+		for (int i = 0; i < rows.size(); i++) {
+			if (rows.get(i).data[column].equals(text)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Inserts a row where the last sort would have placed it. The row is
+	 * appended if the table has not been sorted. Use this instead of
+	 * refreshTable when only a few rows change, the other rows are not
+	 * touched.
+	 */
+	public void insertRow(String[] data) {
+		synchronized (table) {
+			data = toRowData(data);
+			Row row = new Row(getKey(data), data);
+			int index = rows.size();
+			if (lastComparator != null) {
+				lastComparator.updateSortKeys(Collections.singletonList(row));
+				lastComparator.updateSortKeys(rows);
+				for (int i = 0; i < rows.size(); i++) {
+					if (lastComparator.compare(row, rows.get(i)) < 0) {
+						index = i;
+						break;
+					}
+				}
+			}
+			if (cursor != null) {
+				cursor.setVisible(true);
+			}
+			rows.add(index, row);
+			table.setItemCount(rows.size());
+			for (int i = index; i < rows.size(); i++) {
+				updateItem(i);
+			}
+
+			for (RaptorTableListener listener : tableListeners) {
+				listener.tableUpdated();
+			}
+		}
 	}
 
 	/**
@@ -470,66 +585,43 @@ public class RaptorTable extends Composite {
 	 * Returns the text in the specified cell.
 	 */
 	public String getText(int row, int column) {
-		return table.getItem(row).getText(column);
+		return rows.get(row).data[column];
 	}
 
 	/**
 	 * Refreshes the table with the specified data. Selections are preserved.
 	 * The table is also sorted by the last sort criteria.
+	 * 
+	 * Rows are matched to the current rows by key, see setKeyColumn. Only
+	 * items whose row changed are updated, and in a virtual table an item is
+	 * only filled in when it is shown.
 	 */
 	public void refreshTable(String[][] data) {
 		long startTime = System.currentTimeMillis();
 		synchronized (table) {
-			table.setRedraw(false);
-
-			// There is a minor bug in here where at times you will have
-			// duplicates of the last item
-			// I can't figure out why.
-			// It might have something to do with sorting but I have a feeling
-			// its in here some where.
-			// Its minor so I am not worrying about it right now.
-
-			// First overwrite all rows in items
-			int[] selectedIndexes = table.getSelectionIndices();
-			List<String[]> selectionsBeforeRefresh = new ArrayList<String[]>(
-					selectedIndexes.length);
-			for (int i = 0; i < selectedIndexes.length; i++) {
-				selectionsBeforeRefresh.add(getData(table
-						.getItem(selectedIndexes[i])));
+			Map<String, Row> keyToRow = new HashMap<String, Row>(rows.size());
+			for (Row row : rows) {
+				keyToRow.put(row.key, row);
 			}
-			table.deselectAll();
 
-			TableItem[] items = table.getItems();
-			for (int i = 0; i < data.length; i++) {
-				TableItem item = new TableItem(table, SWT.NONE, i);
-				item.setText(data[i]);
-				if (i < items.length) {
-					items[i].dispose();
-				}
-			}
-			if (data.length < items.length) {
-				for (int i = data.length; i < items.length; i++) {
-					items[i].dispose();
+			List<Row> newRows = new ArrayList<Row>(data.length);
+			for (String[] rowData : data) {
+				rowData = toRowData(rowData);
+				String key = getKey(rowData);
+				Row row = keyToRow.remove(key);
+				if (row == null || !Arrays.equals(row.data, rowData)) {
+					row = new Row(key, rowData);
 				}
+				newRows.add(row);
 			}
 
-			// sort
 			if (lastComparator != null) {
-				sort(lastComparator);
+				sortRows(newRows, lastComparator);
 			}
 
-			outer: for (String[] selectedData : selectionsBeforeRefresh) {
-				for (int i = 0; i < table.getItemCount(); i++) {
-					if (RaptorStringUtils.equals(getData(table.getItem(i)),
-							selectedData)) {
-						table.select(i);
-						continue outer;
-					}
-				}
-			}
+			table.setRedraw(false);
+			setRows(newRows);
 			table.setRedraw(true);
-			table.layout(true);
-			table.redraw();
 
 			if (cursor != null) {
 				cursor.setVisible(true);
@@ -558,13 +650,29 @@ public class RaptorTable extends Composite {
 	 * Removes the specified row.
 	 */
 	public void removeRow(int index) {
-		table.getItem(index).dispose();
+		rows.remove(index);
+		table.remove(index);
 
 		for (RaptorTableListener listener : tableListeners) {
 			listener.tableUpdated();
 		}
 	}
 
+	/**
+	 * Removes the first row with the specified text in the specified column.
+	 * Returns true if a row was removed.
+	 */
+	public boolean removeRow(int column, String text) {
+		synchronized (table) {
+			int index = indexOf(column, text);
+			if (index == -1) {
+				return false;
+			}
+			removeRow(index);
+			return true;
+		}
+	}
+
 	/**
 	 * If usesTableCursor this will select the specified row and column.
 	 */
@@ -621,8 +729,7 @@ public class RaptorTable extends Composite {
 	protected int getNonBlankColumnCount() {
 		int column = 0;
 		for (int i = table.getColumnCount() - 1; i >= 0; i--) {
-			if (StringUtils.isNotBlank(table.getItem(
-					table.getItemCount() - 1).getText(i))) {
+			if (StringUtils.isNotBlank(getText(rows.size() - 1, i))) {
 				column = i;
 				break;
 			}
@@ -630,6 +737,21 @@ public class RaptorTable extends Composite {
 		return column;
 	}
 
+	/**
+	 * Sets the column which identifies a row, i.e. a game or ad number. When
+	 * the table is refreshed rows are matched by this column, and the
+	 * selection follows the row. By default rows are identified by their
+	 * entire text.
+	 */
+	public void setKeyColumn(int keyColumn) {
+		synchronized (table) {
+			this.keyColumn = keyColumn;
+			for (Row row : rows) {
+				row.key = getKey(row.data);
+			}
+		}
+	}
+
 	/**
 	 * Sets a fixed height for this table. It will always return the passed in
 	 * width in computeSize.
@@ -650,6 +772,10 @@ public class RaptorTable extends Composite {
 	 * Sets the text in the specified cell.
 	 */
 	public void setText(int row, int column, String text) {
+		Row current = rows.get(row);
+		String[] data = current.data.clone();
+		data[column] = text;
+		rows.set(row, new Row(getKey(data), data));
 		table.getItem(row).setText(column, text);
 	}
 
@@ -664,13 +790,13 @@ public class RaptorTable extends Composite {
 			ColumnInfo info = columnInfos.get(index);
 			wasLastSortAscending = lastStortedColumn == null || (lastStortedColumn != info.column || !wasLastSortAscending);
 			lastStortedColumn = info.column;
-			lastComparator = new TableItemComparator(info.comparator,
-					info.index, wasLastSortAscending);
-			sort(lastComparator);
+			lastComparator = new RowComparator(info.comparator, info.index,
+					wasLastSortAscending);
+			List<Row> sortedRows = new ArrayList<Row>(rows);
+			sortRows(sortedRows, lastComparator);
+			setRows(sortedRows);
 
 			table.setRedraw(true);
-			table.layout(true);
-			table.redraw();
 
 			for (RaptorTableListener listener : tableListeners) {
 				listener.tableSorted();
@@ -683,13 +809,21 @@ public class RaptorTable extends Composite {
 	 * Returns a String[] of the data in the specified item.
 	 */
 	protected String[] getData(TableItem item) {
-		Table table = item.getParent();
-		int colCount = table.getColumnCount();
-		String[] result = new String[colCount];
-		for (int i = 0; i < colCount; i++) {
-			result[i] = item.getText(i);
+		return getRowText(table.indexOf(item));
+	}
+
+	/**
+	 * Returns the key of a row with the specified data.
+	 */
+	protected String getKey(String[] data) {
+		if (keyColumn != -1) {
+			return data[keyColumn];
 		}
-		return result;
+		StringBuilder result = new StringBuilder(100);
+		for (String text : data) {
+			result.append(text).append('\u0000');
+		}
+		return result.toString();
 	}
 
 	/**
@@ -703,30 +837,84 @@ public class RaptorTable extends Composite {
 	}
 
 	/**
-	 * Sorts the table using the specified comparator.
+	 * Replaces the rows in the model, updating only the items whose row
+	 * changed. The selection is restored by key.
 	 */
-	protected void sort(Comparator<TableItem> comparator) {
-		long startTime = System.currentTimeMillis();
-
-		TableItem[] beforeSort = table.getItems();
-		TableItem[] sorted = new TableItem[beforeSort.length];
+	protected void setRows(List<Row> newRows) {
+		int[] selectedIndexes = table.getSelectionIndices();
+		Set<String> selectedKeys = new HashSet<String>(selectedIndexes.length);
+		for (int index : selectedIndexes) {
+			if (index < rows.size()) {
+				selectedKeys.add(rows.get(index).key);
+			}
+		}
 
-		System.arraycopy(beforeSort, 0, sorted, 0, beforeSort.length);
+		List<Row> oldRows = rows;
+		rows = newRows;
 
-		Arrays.sort(sorted, comparator);
-		String[][] data = new String[sorted.length][];
-		for (int i = 0; i < sorted.length; i++) {
-			data[i] = getData(sorted[i]);
+		table.setItemCount(rows.size());
+		for (int i = 0; i < rows.size(); i++) {
+			if (i >= oldRows.size() || oldRows.get(i) != rows.get(i)) {
+				updateItem(i);
+			}
 		}
 
-		for (int i = 0; i < sorted.length; i++) {
-			TableItem item = new TableItem(table, SWT.NONE, i);
-			item.setText(data[i]);
-			beforeSort[i].dispose();
+		if (selectedIndexes.length > 0) {
+			List<Integer> newSelection = new ArrayList<Integer>(selectedKeys
+					.size());
+			for (int i = 0; i < rows.size() && !selectedKeys.isEmpty(); i++) {
+				if (selectedKeys.remove(rows.get(i).key)) {
+					newSelection.add(i);
+				}
+			}
+			int[] indexes = new int[newSelection.size()];
+			for (int i = 0; i < indexes.length; i++) {
+				indexes[i] = newSelection.get(i);
+			}
+			table.deselectAll();
+			table.select(indexes);
 		}
+	}
+
+	/**
+	 * Sorts the rows using the specified comparator. The sort is stable, so
+	 * equal rows keep their order.
+	 */
+	protected void sortRows(List<Row> rowsToSort, RowComparator comparator) {
+		long startTime = System.currentTimeMillis();
+
+		comparator.updateSortKeys(rowsToSort);
+		Collections.sort(rowsToSort, comparator);
 
 		if (LOG.isDebugEnabled()) {
 			LOG.debug("Sorted in " + (System.currentTimeMillis() - startTime));
 		}
 	}
+
+	/**
+	 * Returns data padded with empty strings if it has fewer elements than
+	 * there are columns, otherwise returns data.
+	 */
+	protected String[] toRowData(String[] data) {
+		int columnCount = table.getColumnCount();
+		if (data.length >= columnCount) {
+			return data;
+		}
+		String[] result = new String[columnCount];
+		System.arraycopy(data, 0, result, 0, data.length);
+		Arrays.fill(result, data.length, columnCount, "");
+		return result;
+	}
+
+	/**
+	 * Updates the item at the specified index to its row. Virtual items are
+	 * cleared and filled in again when they are shown.
+	 */
+	protected void updateItem(int index) {
+		if (isVirtual) {
+			table.clear(index);
+		} else {
+			table.getItem(index).setText(rows.get(index).data);
+		}
+	}
 }
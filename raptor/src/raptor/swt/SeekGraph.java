@@ -13,7 +13,9 @@
  */
 package raptor.swt;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -204,6 +206,25 @@ public class SeekGraph extends Canvas {
 		});
 	}
 
+	/**
+	 * Adds the specified seeks, only redrawing the points they are at. A seek
+	 * with the same ad as a seek already in the graph replaces it.
+	 */
+	public void addSeeks(final Seek[] incoming) {
+		Raptor.getInstance().getDisplay().asyncExec(new Runnable() {
+			public void run() {
+				if (isDisposed()) {
+					return;
+				}
+
+				for (Seek seek : incoming) {
+					removeSeek(seek.getAd());
+					addSeek(seek, false);
+				}
+			}
+		});
+	}
+
 	public void redoLegend() {
 		legendImage = null;
 	}
@@ -243,6 +264,24 @@ public class SeekGraph extends Canvas {
 		});
 	}
 
+	/**
+	 * Removes the seeks with the specified ads, only redrawing the points they
+	 * were at.
+	 */
+	public void removeSeeks(final String[] ads) {
+		Raptor.getInstance().getDisplay().asyncExec(new Runnable() {
+			public void run() {
+				if (isDisposed()) {
+					return;
+				}
+
+				for (String ad : ads) {
+					removeSeek(ad);
+				}
+			}
+		});
+	}
+
 	public void setDrawingLegend(boolean value) {
 		isDrawingLegend = value;
 	}
@@ -429,14 +468,42 @@ public class SeekGraph extends Canvas {
 			existing.add(seek);
 
 			if (!fullRepaint && isVisible()) {
+				redrawSeeksAt(loc);
+			}
+		}
+	}
 
-				int width = getClientArea().width;
-				int height = getClientArea().height;
-				Point where = scale(loc, width - 2 * inset, height - 2 * inset);
-				where.y = height - inset - where.y;
-                where.x += inset;
-				redraw(where.x - SEEK_SIZE / 2, where.y - SEEK_SIZE / 2,
-						SEEK_SIZE, SEEK_SIZE, false);
+	/**
+	 * Redraws the area of the graph the seeks at loc are drawn in.
+	 */
+	private void redrawSeeksAt(Point loc) {
+		int width = getClientArea().width;
+		int height = getClientArea().height;
+		Point where = scale(loc, width - 2 * inset, height - 2 * inset);
+		where.y = height - inset - where.y;
+		where.x += inset;
+		redraw(where.x - SEEK_SIZE / 2, where.y - SEEK_SIZE / 2, SEEK_SIZE,
+				SEEK_SIZE, false);
+	}
+
+	private void removeSeek(String ad) {
+		for (Map.Entry<Point, List<Seek>> pointListEntry : seeks.entrySet()) {
+			Iterator<Seek> iterator = pointListEntry.getValue().iterator();
+			while (iterator.hasNext()) {
+				if (iterator.next().getAd().equals(ad)) {
+					iterator.remove();
+					Point loc = pointListEntry.getKey();
+					if (pointListEntry.getValue().isEmpty()) {
+						seeks.remove(loc);
+						screen.values().removeAll(Collections.singleton(loc));
+						lastPopupRect = null;
+						tooltip.setVisible(false);
+					}
+					if (isVisible()) {
+						redrawSeeksAt(loc);
+					}
+					return;
+				}
 			}
 		}
 	}
@@ -101,9 +101,17 @@ public class SeekTableWindowItem implements RaptorConnectorWindowItem {
 	};
 
 	protected SeekServiceListener listener = new SeekServiceListener() {
+		public void seeksAdded(Seek[] addedSeeks) {
+			addSeeksToView(addedSeeks);
+		}
+
 		public void seeksChanged(Seek[] seeks) {
 			refreshSeekView();
 		}
+
+		public void seeksRemoved(String[] removedAds) {
+			removeSeeksFromView(removedAds);
+		}
 	};
 
 	public SeekTableWindowItem(SeekService service) {
@@ -197,6 +205,9 @@ public class SeekTableWindowItem implements RaptorConnectorWindowItem {
 		seeksTable.addColumn(local.getString("seekTabWI9"), SWT.LEFT, 19, true, null);
 		seeksTable.addColumn(local.getString("seekTabWI10"), SWT.LEFT, 10, true, null);
 
+		// Rows are identified by the ad number.
+		seeksTable.setKeyColumn(0);
+
 		// Sort once so when data is refreshed it will be on elo descending.
 		seeksTable.sort(1);
 
@@ -540,6 +551,42 @@ public class SeekTableWindowItem implements RaptorConnectorWindowItem {
 		});
 	}
 
+	/**
+	 * Adds seeks from the seekinfo stream to the table and graph without
+	 * rebuilding them. Seeks replacing a seek with the same ad replace its
+	 * row.
+	 */
+	protected void addSeeksToView(final Seek[] addedSeeks) {
+		Raptor.getInstance().getDisplay().asyncExec(new RaptorRunnable() {
+			@Override
+			public void execute() {
+				if (seeksTable.isDisposed()) {
+					return;
+				}
+				synchronized (seeksTable.getTable()) {
+					List<Seek> shownSeeks = new ArrayList<Seek>(
+							addedSeeks.length);
+					List<String> hiddenAds = new ArrayList<String>(0);
+					for (Seek seek : addedSeeks) {
+						seeksTable.removeRow(0, seek.getAd());
+						if (passesFilterCriteria(seek)) {
+							seeksTable.insertRow(getRowData(seek));
+							shownSeeks.add(seek);
+						} else {
+							hiddenAds.add(seek.getAd());
+						}
+					}
+					seekGraph.addSeeks(shownSeeks.toArray(new Seek[shownSeeks
+							.size()]));
+					if (!hiddenAds.isEmpty()) {
+						seekGraph.removeSeeks(hiddenAds
+								.toArray(new String[hiddenAds.size()]));
+					}
+				}
+			}
+		});
+	}
+
 	protected Seek[] getFilteredSeeks() {
 		Seek[] currentSeeks = service.getSeeks();
 		if (currentSeeks == null) {
@@ -554,6 +601,15 @@ public class SeekTableWindowItem implements RaptorConnectorWindowItem {
 		return result.toArray(new Seek[0]);
 	}
 
+	/**
+	 * Returns the table row for the specified seek.
+	 */
+	protected String[] getRowData(Seek seek) {
+		return new String[] { seek.getAd(), seek.getRating(),
+				seek.getTimeControl(), seek.getTypeDescription(),
+				seek.getName(), seek.getRatingRange(), seek.getFlags() };
+	}
+
 	protected boolean passesFilterCriteria(Seek seek) {
 		boolean result = true;
 		int minFilterRating = Integer.parseInt(minRatingsFilter.getText());
@@ -626,20 +682,34 @@ public class SeekTableWindowItem implements RaptorConnectorWindowItem {
 					Seek[] seeks = getFilteredSeeks();
 					seekGraph.replaceBy(seeks);
 
-					String[][] data = new String[seeks.length][7];
+					String[][] data = new String[seeks.length][];
 					for (int i = 0; i < data.length; i++) {
-						Seek seek = seeks[i];
-						data[i][0] = seek.getAd();
-						data[i][1] = seek.getRating();
-						data[i][2] = seek.getTimeControl();
-						data[i][3] = seek.getTypeDescription();
-						data[i][4] = seek.getName();
-						data[i][5] = seek.getRatingRange();
-						data[i][6] = seek.getFlags();
+						data[i] = getRowData(seeks[i]);
 					}
 					seeksTable.refreshTable(data);
 				}
 			}
 		});
 	}
+
+	/**
+	 * Removes seeks removed by the seekinfo stream from the table and graph
+	 * without rebuilding them.
+	 */
+	protected void removeSeeksFromView(final String[] removedAds) {
+		Raptor.getInstance().getDisplay().asyncExec(new RaptorRunnable() {
+			@Override
+			public void execute() {
+				if (seeksTable.isDisposed()) {
+					return;
+				}
+				synchronized (seeksTable.getTable()) {
+					for (String ad : removedAds) {
+						seeksTable.removeRow(0, ad);
+					}
+					seekGraph.removeSeeks(removedAds);
+				}
+			}
+		});
+	}
 }
\ No newline at end of file
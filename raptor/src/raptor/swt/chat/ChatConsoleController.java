@@ -22,8 +22,6 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.math.NumberUtils;
@@ -59,6 +57,7 @@ import raptor.Raptor;
 import raptor.RaptorWindowItem;
 import raptor.alias.RaptorAliasResult;
 import raptor.chat.ChatEvent;
+import raptor.chat.ChatLogQuery;
 import raptor.chat.ChatLogger.ChatEventParseListener;
 import raptor.chat.ChatType;
 import raptor.chess.Game;
@@ -66,6 +65,7 @@ import raptor.connector.Connector;
 import raptor.connector.ConnectorListener;
 import raptor.international.L10n;
 import raptor.pref.PreferenceKeys;
+import raptor.pref.PreferenceSnapshot;
 import raptor.pref.RaptorPreferenceStore;
 import raptor.script.ParameterScript;
 import raptor.service.AliasService;
@@ -103,22 +103,20 @@ public abstract class ChatConsoleController implements PreferenceKeys {
 
 	protected List<ChatEvent> awayList = new ArrayList<ChatEvent>(100);
 	protected ChatConsole chatConsole;
-	protected Queue<ChatEvent> chatEventQueue = new ConcurrentLinkedQueue<ChatEvent>();
 	protected ChatListener chatServiceListener = new ChatListener() {
-		public void chatEventOccured(final ChatEvent event) {			
+		public void chatEventsOccured(final List<ChatEvent> events) {
 			if (!isDisposed && chatConsole != null && !chatConsole.isDisposed()) {
-				if (event.getType() == ChatType.CHANNEL_TELL)
-					chatEventQueue.add(event);
-				
 				chatConsole.getDisplay().asyncExec(
 						new RaptorRunnable(getConnector()) {
 							@Override
 							public void execute() {
-								onChatEvent(event);
+								for (ChatEvent event : events) {
+									onChatEvent(event);
+								}
 							}
 						});
 			} else {
-				eventsWhileBeingReparented.add(event);
+				eventsWhileBeingReparented.addAll(events);
 			}
 
 		}
@@ -433,6 +431,16 @@ public abstract class ChatConsoleController implements PreferenceKeys {
 		return chatConsole;
 	}
 
+	/**
+	 * Returns the query used to load previous chat events into this
+	 * controller. Events it returns are still filtered through
+	 * isAcceptingChatEvent. Subclasses accepting only a few ChatTypes should
+	 * narrow the query so the chat log can skip the rest.
+	 */
+	public ChatLogQuery getChatLogQuery() {
+		return new ChatLogQuery();
+	}
+
 	public Connector getConnector() {
 		return connector;
 	}
@@ -587,17 +595,12 @@ public abstract class ChatConsoleController implements PreferenceKeys {
 			if (chatConsole.isDisposed()) {
 				return;
 			}
-			
-			if (event.getType() == ChatType.CHANNEL_TELL)
-				event = (chatEventQueue.size()==0) ? event 
-						: chatEventQueue.poll();
 
 			String messageText = filterText(event.getMessage());
 			String date = "";
-			if (Raptor.getInstance().getPreferences()
-					.getBoolean(CHAT_TIMESTAMP_CONSOLE)) {
-				SimpleDateFormat format = new SimpleDateFormat(Raptor
-						.getInstance().getPreferences()
+			PreferenceSnapshot preferences = getPreferences().getSnapshot();
+			if (preferences.getBoolean(CHAT_TIMESTAMP_CONSOLE)) {
+				SimpleDateFormat format = new SimpleDateFormat(preferences
 						.getString(CHAT_TIMESTAMP_CONSOLE_FORMAT));
 				date = format.format(new Date(event.getTime()));
 			} else {
@@ -1299,9 +1302,9 @@ public abstract class ChatConsoleController implements PreferenceKeys {
 	}
 
 	protected void decorateBugWhoLinks(ChatEvent event, String message,
-			int textStartPosition) {
+			int textStartPosition, List<StyleRange> ranges) {
 		if ((event.getType() == ChatType.BUGWHO_ALL || event.getType() == ChatType.BUGWHO_GAMES)
-				&& getPreferences().getBoolean(
+				&& getPreferences().getSnapshot().getBoolean(
 						PreferenceKeys.CHAT_UNDERLINE_COMMANDS)) {
 			// Currently this will only work with FICS games messages that are
 			// in bugwho games format.
@@ -1329,20 +1332,20 @@ public abstract class ChatConsoleController implements PreferenceKeys {
 			// skip the last line
 
 			// add all the ranges that were found.
+			Color color = getPreferences().getSnapshot().getColor(event);
 			for (int[] linkRange : linkRanges) {
 				StyleRange range = new StyleRange(textStartPosition
-						+ linkRange[0], linkRange[1] - linkRange[0],
-						getPreferences().getColor(event),
+						+ linkRange[0], linkRange[1] - linkRange[0], color,
 						chatConsole.inputText.getBackground());
 				range.underline = true;
-				chatConsole.inputText.setStyleRange(range);
+				ranges.add(range);
 			}
 		}
 	}
 
 	protected void decorateForegroundColor(ChatEvent event, String message,
-			int textStartPosition) {
-		Color color = getPreferences().getColor(event);
+			int textStartPosition, List<StyleRange> ranges) {
+		Color color = getPreferences().getSnapshot().getColor(event);
 		if (color == null) {
 			color = chatConsole.inputText.getForeground();
 		}
@@ -1352,17 +1355,16 @@ public abstract class ChatConsoleController implements PreferenceKeys {
 			message = message.substring(0, message.length() - prompt.length());
 		}
 
-		chatConsole.inputText
-				.setStyleRange(new StyleRange(textStartPosition, message
-						.length(), color, chatConsole.inputText.getBackground()));
+		ranges.add(new StyleRange(textStartPosition, message.length(), color,
+				chatConsole.inputText.getBackground()));
 	}
 
 	protected void decorateGameNotifyLinks(ChatEvent event, String message,
-			int textStartPosition) {
+			int textStartPosition, List<StyleRange> ranges) {
 		if (event.getType() == ChatType.UNKNOWN
 				&& (message.startsWith("\nGame notification: ") || message
 						.startsWith("Game notification: "))
-				&& getPreferences().getBoolean(
+				&& getPreferences().getSnapshot().getBoolean(
 						PreferenceKeys.CHAT_UNDERLINE_COMMANDS)) {
 			// Currently this will only work with FICS games messages that
 			// are
@@ -1381,18 +1383,18 @@ public abstract class ChatConsoleController implements PreferenceKeys {
 			if (endIndex != -1) {
 				StyleRange range = new StyleRange(textStartPosition
 						+ startIndex, (endIndex - startIndex) + 1,
-						getPreferences().getColor(event),
+						getPreferences().getSnapshot().getColor(event),
 						chatConsole.inputText.getBackground());
 				range.underline = true;
-				chatConsole.inputText.setStyleRange(range);
+				ranges.add(range);
 			}
 		}
 	}
 
 	protected void decorateGamesLinks(ChatEvent event, String message,
-			int textStartPosition) {
+			int textStartPosition, List<StyleRange> ranges) {
 		if (event.getType() == ChatType.GAMES
-				&& getPreferences().getBoolean(
+				&& getPreferences().getSnapshot().getBoolean(
 						PreferenceKeys.CHAT_UNDERLINE_COMMANDS)) {
 			// Currently this will only work with FICS games messages that are
 			// formatted like this:
@@ -1453,21 +1455,21 @@ public abstract class ChatConsoleController implements PreferenceKeys {
 			// skip the last line
 
 			// add all the ranges that were found.
+			Color color = getPreferences().getSnapshot().getColor(event);
 			for (int[] linkRange : linkRanges) {
 				StyleRange range = new StyleRange(textStartPosition
-						+ linkRange[0], linkRange[1] - linkRange[0],
-						getPreferences().getColor(event),
+						+ linkRange[0], linkRange[1] - linkRange[0], color,
 						chatConsole.inputText.getBackground());
 				range.underline = true;
-				chatConsole.inputText.setStyleRange(range);
+				ranges.add(range);
 			}
 		}
 	}
 
 	protected void decorateHistoryLinks(ChatEvent event, String message,
-			int textStartPosition) {
+			int textStartPosition, List<StyleRange> ranges) {
 		if (event.getType() == ChatType.HISTORY
-				&& getPreferences().getBoolean(
+				&& getPreferences().getSnapshot().getBoolean(
 						PreferenceKeys.CHAT_UNDERLINE_COMMANDS)) {
 
 			// Currently this will only work with FICS historys that are
@@ -1541,21 +1543,21 @@ public abstract class ChatConsoleController implements PreferenceKeys {
 			}
 
 			// add all the ranges that were found.
+			Color color = getPreferences().getSnapshot().getColor(event);
 			for (int[] linkRange : linkRanges) {
 				StyleRange range = new StyleRange(textStartPosition
-						+ linkRange[0], linkRange[1] - linkRange[0],
-						getPreferences().getColor(event),
+						+ linkRange[0], linkRange[1] - linkRange[0], color,
 						chatConsole.inputText.getBackground());
 				range.underline = true;
-				chatConsole.inputText.setStyleRange(range);
+				ranges.add(range);
 			}
 		}
 	}
 
 	protected void decorateJournalLinks(ChatEvent event, String message,
-			int textStartPosition) {
+			int textStartPosition, List<StyleRange> ranges) {
 		if (event.getType() == ChatType.JOURNAL
-				&& getPreferences().getBoolean(
+				&& getPreferences().getSnapshot().getBoolean(
 						PreferenceKeys.CHAT_UNDERLINE_COMMANDS)) {
 
 			// Currently this will only work with FICS journals that are
@@ -1637,21 +1639,22 @@ public abstract class ChatConsoleController implements PreferenceKeys {
 			}
 
 			// add all the ranges that were found.
+			Color color = getPreferences().getSnapshot().getColor(event);
 			for (int[] linkRange : linkRanges) {
 				StyleRange range = new StyleRange(textStartPosition
-						+ linkRange[0], linkRange[1] - linkRange[0],
-						getPreferences().getColor(event),
+						+ linkRange[0], linkRange[1] - linkRange[0], color,
 						chatConsole.inputText.getBackground());
 				range.underline = true;
-				chatConsole.inputText.setStyleRange(range);
+				ranges.add(range);
 			}
 		}
 	}
 
 	protected void decorateLinks(ChatEvent event, String message,
-			int textStartPosition) {
+			int textStartPosition, List<StyleRange> ranges) {
 		if (event.getType() != ChatType.OUTBOUND
-				&& getPreferences().getBoolean(CHAT_UNDERLINE_URLS)
+				&& getPreferences().getSnapshot().getBoolean(
+						CHAT_UNDERLINE_URLS)
 				&& event.getType() != ChatType.GAMES
 				&& event.getType() != ChatType.BUGWHO_ALL
 				&& event.getType() != ChatType.BUGWHO_GAMES
@@ -1748,23 +1751,23 @@ public abstract class ChatConsoleController implements PreferenceKeys {
 			}
 
 			// add all the ranges that were found.
+			Color underlineColor = chatConsole.getPreferences().getSnapshot()
+					.getColor(CHAT_LINK_UNDERLINE_COLOR);
 			for (int[] linkRange : linkRanges) {
-				Color underlineColor = chatConsole.getPreferences().getColor(
-						CHAT_LINK_UNDERLINE_COLOR);
 				StyleRange range = new StyleRange(textStartPosition
 						+ linkRange[0], linkRange[1] - linkRange[0],
 						underlineColor, chatConsole.inputText.getBackground());
 				range.underline = true;
-				chatConsole.inputText.setStyleRange(range);
+				ranges.add(range);
 			}
 		}
 	}
 
 	protected void decorateNewsLinks(ChatEvent event, String message,
-			int textStartPosition) {
+			int textStartPosition, List<StyleRange> ranges) {
 		if (event.getType() == ChatType.UNKNOWN
 				&& isPossibleNewsMessage(message)
-				&& getPreferences().getBoolean(
+				&& getPreferences().getSnapshot().getBoolean(
 						PreferenceKeys.CHAT_UNDERLINE_COMMANDS)) {
 			// Currently this will only work with FICS messages that contain:
 			// Index of the last few news items:
@@ -1821,24 +1824,25 @@ public abstract class ChatConsoleController implements PreferenceKeys {
 			}
 
 			// add all the ranges that were found.
+			Color color = getPreferences().getSnapshot().getColor(event);
 			for (int[] linkRange : linkRanges) {
 				StyleRange range = new StyleRange(textStartPosition
-						+ linkRange[0], linkRange[1] - linkRange[0],
-						getPreferences().getColor(event),
+						+ linkRange[0], linkRange[1] - linkRange[0], color,
 						chatConsole.inputText.getBackground());
 				range.underline = true;
-				chatConsole.inputText.setStyleRange(range);
+				ranges.add(range);
 			}
 		}
 	}
 
 	protected void decorateQuotes(ChatEvent event, String message,
-			int textStartPosition) {
+			int textStartPosition, List<StyleRange> ranges) {
 		if (event.getType() != ChatType.OUTBOUND) {
-			boolean isUnderliningSingleQuotes = getPreferences().getBoolean(
-					CHAT_UNDERLINE_SINGLE_QUOTES);
-			boolean isUnderliningDoubleQuotes = getPreferences().getBoolean(
-					CHAT_UNDERLINE_QUOTED_TEXT);
+			PreferenceSnapshot preferences = getPreferences().getSnapshot();
+			boolean isUnderliningSingleQuotes = preferences
+					.getBoolean(CHAT_UNDERLINE_SINGLE_QUOTES);
+			boolean isUnderliningDoubleQuotes = preferences
+					.getBoolean(CHAT_UNDERLINE_QUOTED_TEXT);
 
 			if (!isUnderliningSingleQuotes && !isUnderliningDoubleQuotes) {
 				return;
@@ -1895,22 +1899,22 @@ public abstract class ChatConsoleController implements PreferenceKeys {
 				}
 			}
 
+			Color underlineColor = chatConsole.getPreferences().getSnapshot()
+					.getColor(CHAT_QUOTE_UNDERLINE_COLOR);
 			for (int[] quotedRange : quotedRanges) {
-				Color underlineColor = chatConsole.getPreferences().getColor(
-						CHAT_QUOTE_UNDERLINE_COLOR);
 				StyleRange range = new StyleRange(textStartPosition
 						+ quotedRange[0], quotedRange[1] - quotedRange[0],
 						underlineColor, chatConsole.inputText.getBackground());
 				range.underline = true;
-				chatConsole.inputText.setStyleRange(range);
+				ranges.add(range);
 			}
 		}
 	}
 
 	protected void decoreateNext(ChatEvent event, String message,
-			int textStartPosition) {
+			int textStartPosition, List<StyleRange> ranges) {
 		if (event.getType() != ChatType.OUTBOUND
-				&& getPreferences().getBoolean(
+				&& getPreferences().getSnapshot().getBoolean(
 						PreferenceKeys.CHAT_UNDERLINE_COMMANDS)) {
 			List<int[]> nextRanges = new ArrayList<int[]>(5);
 
@@ -1920,15 +1924,64 @@ public abstract class ChatConsoleController implements PreferenceKeys {
 				nextIndex = message.indexOf("[next]", nextIndex + 1);
 			}
 
+			Color underlineColor = chatConsole.getPreferences().getSnapshot()
+					.getColor(CHAT_QUOTE_UNDERLINE_COLOR);
 			for (int[] nextRange : nextRanges) {
-				Color underlineColor = chatConsole.getPreferences().getColor(
-						CHAT_QUOTE_UNDERLINE_COLOR);
 				StyleRange range = new StyleRange(textStartPosition
 						+ nextRange[0], nextRange[1] - nextRange[0],
 						underlineColor, chatConsole.inputText.getBackground());
-				chatConsole.inputText.setStyleRange(range);
+				ranges.add(range);
+			}
+		}
+	}
+
+	/**
+	 * Returns ranges clipped to start and end, sorted and without overlaps,
+	 * styled as if each range had been passed to setStyleRange in list order:
+	 * where ranges overlap the later one wins. The ranges in the list may be
+	 * modified.
+	 */
+	protected static StyleRange[] flattenStyleRanges(List<StyleRange> ranges,
+			int start, int end) {
+		List<StyleRange> result = new ArrayList<StyleRange>(
+				ranges.size() * 2);
+		for (StyleRange range : ranges) {
+			int rangeStart = Math.max(range.start, start);
+			int rangeEnd = Math.min(range.start + range.length, end);
+			if (rangeEnd <= rangeStart) {
+				continue;
+			}
+			range.start = rangeStart;
+			range.length = rangeEnd - rangeStart;
+
+			// Cut out the parts of earlier ranges this one covers.
+			int insertIndex = 0;
+			for (int i = 0; i < result.size(); i++) {
+				StyleRange existing = result.get(i);
+				int existingEnd = existing.start + existing.length;
+				if (existingEnd <= rangeStart) {
+					insertIndex = i + 1;
+					continue;
+				}
+				if (existing.start >= rangeEnd) {
+					break;
+				}
+				if (existingEnd > rangeEnd) {
+					StyleRange right = (StyleRange) existing.clone();
+					right.start = rangeEnd;
+					right.length = existingEnd - rangeEnd;
+					result.add(i + 1, right);
+				}
+				if (existing.start < rangeStart) {
+					existing.length = rangeStart - existing.start;
+					insertIndex = i + 1;
+				} else {
+					result.remove(i--);
+				}
 			}
+			result.add(insertIndex, range);
 		}
+		return result.toArray(new StyleRange[result.size()]);
 	}
 
 	/**
@@ -1967,21 +2020,51 @@ public abstract class ChatConsoleController implements PreferenceKeys {
 				|| message.contains("\nIndex of new news items:");
 	}
 
+	/**
+	 * Decorates the message just appended at textStartPosition. The decorate
+	 * methods only collect StyleRanges. They are flattened and applied with a
+	 * single replaceStyleRanges call, instead of a setStyleRange call per
+	 * range, each of which updates and redraws the StyledText.
+	 */
 	protected void onDecorateInputText(final ChatEvent event,
 			final String message, final int textStartPosition) {
-		decorateForegroundColor(event, message, textStartPosition);
-		decoreateNext(event, message, textStartPosition);
-		decorateHistoryLinks(event, message, textStartPosition);
-		decorateGamesLinks(event, message, textStartPosition);
-		decorateJournalLinks(event, message, textStartPosition);
-		decorateBugWhoLinks(event, message, textStartPosition);
-		decorateNewsLinks(event, message, textStartPosition);
-		decorateGameNotifyLinks(event, message, textStartPosition);
+		List<StyleRange> ranges = new ArrayList<StyleRange>(10);
+		try {
+			decorateForegroundColor(event, message, textStartPosition, ranges);
+			decoreateNext(event, message, textStartPosition, ranges);
 
-		// Decorate these last. They might override others.
-		decorateQuotes(event, message, textStartPosition);
-		decorateLinks(event, message, textStartPosition);
+			// The command link decorations each handle one type of message.
+			switch (event.getType()) {
+			case HISTORY:
+				decorateHistoryLinks(event, message, textStartPosition, ranges);
+				break;
+			case GAMES:
+				decorateGamesLinks(event, message, textStartPosition, ranges);
+				break;
+			case JOURNAL:
+				decorateJournalLinks(event, message, textStartPosition, ranges);
+				break;
+			case BUGWHO_ALL:
+			case BUGWHO_GAMES:
+				decorateBugWhoLinks(event, message, textStartPosition, ranges);
+				break;
+			case UNKNOWN:
+				decorateNewsLinks(event, message, textStartPosition, ranges);
+				decorateGameNotifyLinks(event, message, textStartPosition,
+						ranges);
+				break;
+			default:
+				break;
+			}
 
+			// Decorate these last. They might override others.
+			decorateQuotes(event, message, textStartPosition, ranges);
+			decorateLinks(event, message, textStartPosition, ranges);
+		} finally {
+			chatConsole.inputText.replaceStyleRanges(textStartPosition, message
+					.length(), flattenStyleRanges(ranges, textStartPosition,
+					textStartPosition + message.length()));
+		}
 	}
 
 	protected void onInputTextDoubleClick(MouseEvent e) {
@@ -2294,6 +2377,28 @@ public abstract class ChatConsoleController implements PreferenceKeys {
 		if (getPreferences().getBoolean(CHAT_COMMAND_LINE_SPELL_CHECK)
 				&& word != null && !isSpelledCorrectly(null, word)) {
 
+			MenuItem showSuggestionsAction = new MenuItem(menu, SWT.PUSH);
+			showSuggestionsAction.setText(local.getString("chatConsCont29a")
+					+ word + "'");
+			showSuggestionsAction.addListener(SWT.Selection, new Listener() {
+				public void handleEvent(Event e) {
+					String[] words = DictionaryService.getInstance().suggest(
+							finalWord);
+					StringBuilder output = new StringBuilder(500);
+					if (words.length == 0) {
+						output.append(local.getString("chatConsCont29b"));
+					} else {
+						output.append(local.getString("chatConsCont29c"))
+								.append(finalWord).append(": ");
+						for (int i = 0; i < words.length; i++) {
+							output.append(i == 0 ? "" : ", ").append(words[i]);
+						}
+					}
+					onAppendChatEventToInputText(new ChatEvent(null,
+							ChatType.INTERNAL, output.toString()));
+				}
+			});
+
 			MenuItem addWord = new MenuItem(menu, SWT.PUSH);
 			addWord.setText(local.getString("chatConsCont29") + word + local.getString("chatConsCont30"));
 			addWord.addListener(SWT.Selection, new Listener() {
@@ -2356,22 +2461,38 @@ public abstract class ChatConsoleController implements PreferenceKeys {
 		}
 	}
 
+	/**
+	 * Trims the console once it holds more than CHAT_MAX_CONSOLE_CHARS
+	 * characters. Whole lines are removed from the top until at most
+	 * (1 - CLEAN_PERCENTAGE) of the maximum is left, so the next trim is a
+	 * large number of appends away however far past the maximum the console
+	 * got.
+	 */
 	protected void reduceInputTextIfNeeded() {
-
+		int maxChars = getPreferences().getSnapshot().getInt(
+				CHAT_MAX_CONSOLE_CHARS);
 		int charCount = chatConsole.inputText.getCharCount();
-		if (charCount > Raptor.getInstance().getPreferences()
-				.getInt(CHAT_MAX_CONSOLE_CHARS)) {
+		if (charCount > maxChars) {
 			LOG.info("Cleaning chat console");
 			long startTime = System.currentTimeMillis();
-			int cleanTo = (int) (charCount * CLEAN_PERCENTAGE);
+			int keepChars = (int) (maxChars * (1.0 - CLEAN_PERCENTAGE));
+			int cleanTo = charCount - keepChars;
 			int lineNumber = chatConsole.inputText.getContent()
 					.getLineAtOffset(cleanTo);
+			if (lineNumber + 1 < chatConsole.inputText.getLineCount()) {
+				lineNumber++;
+			}
 			cleanTo = chatConsole.inputText.getContent().getOffsetAtLine(
-					lineNumber++);
-			chatConsole.inputText.replaceTextRange(0, cleanTo, "");
+					lineNumber);
+			chatConsole.inputText.setRedraw(false);
+			try {
+				chatConsole.inputText.replaceTextRange(0, cleanTo, "");
+			} finally {
+				chatConsole.inputText.setRedraw(true);
+			}
 			setCaretToOutputTextEnd();
 			onForceAutoScroll();
-			LOG.info("Cleaned console in "
+			LOG.info("Cleaned " + cleanTo + " chars from console in "
 					+ (System.currentTimeMillis() - startTime));
 		}
 	}
@@ -104,6 +104,7 @@ public class ChatUtils {
 				console.getController().setSoundDisabled(true);
 				console.getController().getConnector().getChatService()
 						.getChatLogger().parseFile(
+								console.getController().getChatLogQuery(),
 								new ChatEventParseListener() {
 
 									public boolean onNewEventParsed(
@@ -22,6 +22,7 @@ import raptor.Quadrant;
 import raptor.Raptor;
 import raptor.action.RaptorAction.RaptorActionContainer;
 import raptor.chat.ChatEvent;
+import raptor.chat.ChatLogQuery;
 import raptor.chat.ChatType;
 import raptor.connector.Connector;
 import raptor.international.L10n;
@@ -35,6 +36,12 @@ public class BughousePartnerController extends ChatConsoleController {
 		super(connector);
 	}
 
+	@Override
+	public ChatLogQuery getChatLogQuery() {
+		return new ChatLogQuery().setTypes(ChatType.PARTNER_TELL,
+				ChatType.OUTBOUND);
+	}
+
 	@Override
 	public String getName() {
 		return L10n.getInstance().getString("bugPartCont0");
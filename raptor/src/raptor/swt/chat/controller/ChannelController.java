@@ -21,6 +21,7 @@ import raptor.Quadrant;
 import raptor.Raptor;
 import raptor.action.RaptorAction.RaptorActionContainer;
 import raptor.chat.ChatEvent;
+import raptor.chat.ChatLogQuery;
 import raptor.chat.ChatType;
 import raptor.connector.Connector;
 import raptor.swt.SWTUtils;
@@ -42,6 +43,12 @@ public class ChannelController extends ChatConsoleController {
 		super.dispose();
 	}
 
+	@Override
+	public ChatLogQuery getChatLogQuery() {
+		return new ChatLogQuery().setTypes(ChatType.CHANNEL_TELL,
+				ChatType.OUTBOUND);
+	}
+
 	public String getChannel() {
 		return channel;
 	}
@@ -60,6 +60,7 @@ public class ChessBoard implements BoardConstants {
 	protected RaptorLabel blackClockLabel;
 	protected RaptorLabel blackLagLabel;
 	protected RaptorLabel blackNameRatingLabel;
+	protected ChessBoardCanvas boardCanvas;
 	protected Composite boardComposite;
 	protected ChessBoardLayout chessBoardLayout;
 	protected ChessBoardController controller;
@@ -255,6 +256,14 @@ public class ChessBoard implements BoardConstants {
 		return blackNameRatingLabel;
 	}
 
+	/**
+	 * Returns the canvas the squares are rendered on, or null if each square
+	 * paints itself.
+	 */
+	public synchronized ChessBoardCanvas getBoardCanvas() {
+		return boardCanvas;
+	}
+
 	/**
 	 * Returns the panel containing the chess board. Should really be not be
 	 * used by anything outside of the swt.chess package.
@@ -755,6 +764,16 @@ public class ChessBoard implements BoardConstants {
 				isWhiteSquare = !isWhiteSquare;
 			}
 		}
+
+		if (Raptor.getInstance().getPreferences()
+				.getBoolean(PreferenceKeys.BOARD_IS_USING_SINGLE_CANVAS)) {
+			boardCanvas = new ChessBoardCanvas(boardComposite, this);
+			for (int i = 0; i < 8; i++) {
+				for (int j = 0; j < squares[i].length; j++) {
+					squares[i][j].setBoardCanvas(boardCanvas);
+				}
+			}
+		}
 	}
 
 	protected void onNameLabelRightClick(MouseEvent e, RaptorLabel label) {
@@ -797,6 +816,12 @@ public class ChessBoard implements BoardConstants {
 			}
 		}
 
+		int imageSize = squares[0][0].getImageSize();
+		if (imageSize > 0) {
+			ChessBoardUtils.prewarmChessPieceImages(
+					ChessBoardUtils.getChessSetName(), imageSize);
+		}
+
 		for (PieceJailChessSquare pieceJailSquare : pieceJailSquares) {
 			if (pieceJailSquare != null) {
 				pieceJailSquare.setBackground(preferences
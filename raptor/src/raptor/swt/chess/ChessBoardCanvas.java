@@ -0,0 +1,259 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2011 RaptorProject (http://code.google.com/p/raptor-chess-interface/)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.swt.chess;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.GC;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.Point;
+import org.eclipse.swt.graphics.Rectangle;
+import org.eclipse.swt.widgets.Canvas;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Event;
+import org.eclipse.swt.widgets.Listener;
+
+import raptor.util.RaptorLogger;
+
+/**
+ * Draws the 64 squares of a ChessBoard on a single canvas.
+ * 
+ * The ChessSquares remain the model and input objects of the board, but they
+ * are hidden and never painted natively. Instead each square that is redrawn
+ * is marked dirty here, and on the next paint its paint listeners (the square
+ * itself followed by the highlight, arrow and result overlay layers) are run
+ * against a square sized scratch image which is then copied into an off-screen
+ * image of the whole board. Only the dirty rectangles are then copied to the
+ * screen, so a burst of square redraws costs one native paint instead of one
+ * per square.
+ * 
+ * Mouse events are forwarded to the square under the cursor in square
+ * coordinates so the existing controllers keep working unchanged.
+ */
+public class ChessBoardCanvas extends Canvas {
+	static final RaptorLogger LOG = RaptorLogger.getLog(ChessBoardCanvas.class);
+
+	protected ChessBoard board;
+	protected Image boardImage;
+	protected boolean[] dirtySquares = new boolean[64];
+	protected ChessSquare pressedSquare;
+	protected Image squareImage;
+
+	protected Listener canvasListener = new Listener() {
+		public void handleEvent(Event e) {
+			switch (e.type) {
+			case SWT.Paint:
+				paint(e);
+				break;
+			case SWT.Resize:
+				disposeImages();
+				break;
+			case SWT.Dispose:
+				disposeImages();
+				break;
+			}
+		}
+	};
+
+	protected Listener mouseListener = new Listener() {
+		public void handleEvent(Event e) {
+			ChessSquare square = null;
+			switch (e.type) {
+			case SWT.MouseDown:
+				square = pressedSquare = getSquareAt(e.x, e.y);
+				break;
+			case SWT.MouseUp:
+				// Mouse ups go to the square the button was pressed on, just
+				// as they would have if each square were its own control.
+				square = pressedSquare != null ? pressedSquare : getSquareAt(
+						e.x, e.y);
+				pressedSquare = null;
+				break;
+			default:
+				square = getSquareAt(e.x, e.y);
+				break;
+			}
+
+			if (square != null && !square.isDisposed()) {
+				Rectangle bounds = getSquareBounds(square);
+				Event squareEvent = new Event();
+				squareEvent.button = e.button;
+				squareEvent.count = e.count;
+				squareEvent.detail = e.detail;
+				squareEvent.stateMask = e.stateMask;
+				squareEvent.time = e.time;
+				squareEvent.x = e.x - bounds.x;
+				squareEvent.y = e.y - bounds.y;
+				square.notifyListeners(e.type, squareEvent);
+				e.doit = squareEvent.doit;
+			}
+		}
+	};
+
+	public ChessBoardCanvas(Composite parent, ChessBoard board) {
+		super(parent, SWT.NO_BACKGROUND);
+		this.board = board;
+		addListener(SWT.Paint, canvasListener);
+		addListener(SWT.Resize, canvasListener);
+		addListener(SWT.Dispose, canvasListener);
+		addListener(SWT.MouseDown, mouseListener);
+		addListener(SWT.MouseUp, mouseListener);
+		addListener(SWT.MouseDoubleClick, mouseListener);
+		addListener(SWT.MouseWheel, mouseListener);
+	}
+
+	public ChessBoard getChessBoard() {
+		return board;
+	}
+
+	/**
+	 * Returns the square at the specified point in canvas coordinates, or null
+	 * if there is no square there.
+	 */
+	public ChessSquare getSquareAt(int x, int y) {
+		Point location = getLocation();
+		x += location.x;
+		y += location.y;
+		for (int i = 0; i < 8; i++) {
+			for (int j = 0; j < 8; j++) {
+				ChessSquare square = board.getSquare(i, j);
+				if (square.getBounds().contains(x, y)) {
+					return square;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the bounds of the square in canvas coordinates.
+	 */
+	public Rectangle getSquareBounds(ChessSquare square) {
+		Rectangle bounds = square.getBounds();
+		Point location = getLocation();
+		bounds.x -= location.x;
+		bounds.y -= location.y;
+		return bounds;
+	}
+
+	/**
+	 * Marks every square dirty and schedules a paint of the whole board.
+	 */
+	public void redrawAll() {
+		for (int i = 0; i < dirtySquares.length; i++) {
+			dirtySquares[i] = true;
+		}
+		redraw();
+	}
+
+	/**
+	 * Marks the square dirty and schedules a paint of its rectangle. Any number
+	 * of squares can be marked before the next paint, they are all rendered in
+	 * it.
+	 */
+	public void redrawSquare(ChessSquare square) {
+		dirtySquares[square.getId()] = true;
+		Rectangle bounds = getSquareBounds(square);
+		redraw(bounds.x, bounds.y, bounds.width, bounds.height, false);
+	}
+
+	protected void disposeImages() {
+		if (boardImage != null) {
+			boardImage.dispose();
+			boardImage = null;
+		}
+		if (squareImage != null) {
+			squareImage.dispose();
+			squareImage = null;
+		}
+	}
+
+	protected void paint(Event e) {
+		long startTime = System.currentTimeMillis();
+
+		Point size = getSize();
+		if (size.x <= 0 || size.y <= 0) {
+			return;
+		}
+
+		if (boardImage == null) {
+			boardImage = new Image(getDisplay(), size.x, size.y);
+			for (int i = 0; i < dirtySquares.length; i++) {
+				dirtySquares[i] = true;
+			}
+		}
+
+		int squaresPainted = 0;
+		GC boardGC = new GC(boardImage);
+		try {
+			for (int i = 0; i < 8; i++) {
+				for (int j = 0; j < 8; j++) {
+					ChessSquare square = board.getSquare(i, j);
+					if (dirtySquares[square.getId()]) {
+						dirtySquares[square.getId()] = false;
+						paintSquare(boardGC, square);
+						squaresPainted++;
+					}
+				}
+			}
+		} finally {
+			boardGC.dispose();
+		}
+
+		Rectangle clip = new Rectangle(e.x, e.y, e.width, e.height)
+				.intersection(boardImage.getBounds());
+		if (!clip.isEmpty()) {
+			e.gc.drawImage(boardImage, clip.x, clip.y, clip.width,
+					clip.height, clip.x, clip.y, clip.width, clip.height);
+		}
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Drew " + squaresPainted + " squares in "
+					+ (System.currentTimeMillis() - startTime));
+		}
+	}
+
+	/**
+	 * Renders the square and all of its overlay layers into the board image.
+	 */
+	protected void paintSquare(GC boardGC, ChessSquare square) {
+		Rectangle bounds = getSquareBounds(square);
+		if (bounds.width <= 0 || bounds.height <= 0) {
+			return;
+		}
+
+		if (squareImage != null) {
+			Rectangle imageBounds = squareImage.getBounds();
+			if (imageBounds.width != bounds.width
+					|| imageBounds.height != bounds.height) {
+				squareImage.dispose();
+				squareImage = null;
+			}
+		}
+		if (squareImage == null) {
+			squareImage = new Image(getDisplay(), bounds.width, bounds.height);
+		}
+
+		GC squareGC = new GC(squareImage);
+		try {
+			Event paintEvent = new Event();
+			paintEvent.gc = squareGC;
+			paintEvent.width = bounds.width;
+			paintEvent.height = bounds.height;
+			square.notifyListeners(SWT.Paint, paintEvent);
+		} finally {
+			squareGC.dispose();
+		}
+		boardGC.drawImage(squareImage, bounds.x, bounds.y);
+	}
+}
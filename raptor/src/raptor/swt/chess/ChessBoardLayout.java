@@ -74,5 +74,12 @@ public abstract class ChessBoardLayout extends Layout implements BoardConstants
 				y += squareSideSize;
 			}
 		}
+
+		ChessBoardCanvas boardCanvas = board.getBoardCanvas();
+		if (boardCanvas != null) {
+			boardCanvas.setBounds(topLeft.x, topLeft.y, squareSideSize * 8,
+					squareSideSize * 8);
+			boardCanvas.redrawAll();
+		}
 	}
 }
@@ -74,6 +74,7 @@ import raptor.pref.PreferenceKeys;
 import raptor.service.ActionScriptService;
 import raptor.service.UCIEngineService;
 import raptor.service.XboardEngineService;
+import raptor.swt.BoundedImageCache;
 import raptor.swt.chess.controller.BughouseSuggestController;
 import raptor.swt.chess.controller.ExamineController;
 import raptor.swt.chess.controller.InactiveController;
@@ -99,6 +100,19 @@ public class ChessBoardUtils implements BoardConstants {
 	private static HashMap<String, List<Integer>> chessSetSizes = new HashMap<String, List<Integer>>();
 	private static HashMap<String, List<Integer>> squareBackgroundSizes = new HashMap<String, List<Integer>>();
 
+	/**
+	 * Enough for every piece of a set at twenty different sizes.
+	 */
+	private static final BoundedImageCache PIECE_IMAGE_CACHE = new BoundedImageCache(
+			"PieceImageCache", 240);
+
+	/**
+	 * Enough for four randomly cropped boards, more when backgrounds are not
+	 * randomly cropped.
+	 */
+	private static final BoundedImageCache SQUARE_BACKGROUND_IMAGE_CACHE = new BoundedImageCache(
+			"SquareBackgroundImageCache", 256);
+
 	public static void addActionsToToolbar(
 			final ChessBoardController controller,
 			RaptorActionContainer container, ToolBar toolbar,
@@ -255,8 +269,10 @@ public class ChessBoardUtils implements BoardConstants {
 
 	/**
 	 * Returns the image with the specified of the specified name,type,width and
-	 * height. If the image is in the localImageRegistry it is returned.
-	 * Otherwise the closest size is loaded from the chess set and cached.
+	 * height. The size is first bucketed to the closest size the set supports,
+	 * so all requested sizes sharing a bucket share one image. If the image is
+	 * in the piece image cache it is returned. Otherwise it is loaded from the
+	 * chess set and cached, possibly evicting the least recently used image.
 	 */
 	public static Image getChessPieceImage(String name, int type, int size) {
 		if (type == EMPTY) {
@@ -266,43 +282,59 @@ public class ChessBoardUtils implements BoardConstants {
 				size = 8;
 			}
 
+			size = getBucketSize(getSetPieceSizes(name), size);
 			String key = name + "_" + type + "_" + size + "x" + size;
-			Image image = Raptor.getInstance().getImageRegistry().get(key);
+			Image result = PIECE_IMAGE_CACHE.get(key);
 
-			if (image == null) {
-				//This list is sorted ascending.
-				List<Integer> supportedSizes = getSetPieceSizes(name);
-				
-				if (!supportedSizes.contains(size)) {
-					//TO DO: make this more of a binary search for speed.
-					int lastSize = supportedSizes.get(0);
-					boolean foundMatch = false;
-					
-					for (int currentSize : supportedSizes) {
-						if (currentSize > size) {
-							size = lastSize;
-							foundMatch = true;
-							break;
-						}
-						lastSize = currentSize;
-					}
-					
-					if (!foundMatch) {
-						//This will be the largest size found.
-						size = lastSize;
-					}
-				}
-
-				Image result = new Image(Display.getCurrent(), CHESS_SET_DIR
-						+ name + "/" + size + "/" + getPieceName(type));
-				Raptor.getInstance().getImageRegistry().put(key, result);
-				return result;
-			} else {
-				return image;
+			if (result == null) {
+				result = new Image(Display.getCurrent(), CHESS_SET_DIR + name
+						+ "/" + size + "/" + getPieceName(type));
+				PIECE_IMAGE_CACHE.put(key, result);
 			}
+			return result;
 		}
 	}
-	
+
+	/**
+	 * Returns the Portable set piece image used on toolbars, at the toolbar
+	 * piece size. Tool items keep their image for as long as they live, so
+	 * these images come from the Raptor image registry, which never disposes
+	 * them, instead of the evicting piece image cache.
+	 */
+	public static Image getToolbarPieceImage(int type) {
+		int size = Math.max(8, Raptor.getInstance().getPreferences().getInt(
+				PreferenceKeys.APP_TOOLBAR_PIECE_SIZE));
+		size = getBucketSize(getSetPieceSizes("Portable"), size);
+		return Raptor.getInstance().getImage(
+				CHESS_SET_DIR + "Portable/" + size + "/" + getPieceName(type));
+	}
+
+	/**
+	 * Returns the cache holding the chess piece images.
+	 */
+	public static BoundedImageCache getPieceImageCache() {
+		return PIECE_IMAGE_CACHE;
+	}
+
+	/**
+	 * Returns the cache holding the square background images.
+	 */
+	public static BoundedImageCache getSquareBackgroundImageCache() {
+		return SQUARE_BACKGROUND_IMAGE_CACHE;
+	}
+
+	/**
+	 * Loads all of the pieces in the specified set at the bucket for the
+	 * specified size into the piece image cache, so the first paint after a
+	 * set or board size change does not have to go to disk.
+	 */
+	public static void prewarmChessPieceImages(String name, int size) {
+		int[] pieces = { WP, WN, WB, WR, WQ, WK, BP, BN, BB, BR, BQ, BK };
+		for (int piece : pieces) {
+			getChessPieceImage(name, piece, size);
+		}
+	}
+
 	/**
 	 * Returns the Image for users current background name
 	 */
@@ -328,15 +360,26 @@ public class ChessBoardUtils implements BoardConstants {
 		//    No scaling or cropping is involved, and using the chess set creator you can create all
 		//     of the sizes from svg.
 
-		String key = name + "_" + effect + "_" + isLight + "_" + squareId + "_"
-				+ width + "x" + height;
+		//This list is sorted ascending.
+		List<Integer> supportedSizes = getSquareBackgroundSizes(name);
+
+		String key = null;
+		if (!supportedSizes.isEmpty()) {
+			// Type 2 images only depend on the bucketed size.
+			width = getBucketSize(supportedSizes, width);
+			key = name + "_" + isLight + "_" + width;
+		} else if (effect == SquareBackgroundImageEffect.RandomCrop) {
+			// Only random crops differ from square to square.
+			key = name + "_" + effect + "_" + isLight + "_" + squareId + "_"
+					+ width + "x" + height;
+		} else {
+			key = name + "_" + effect + "_" + isLight + "_" + width + "x"
+					+ height;
+		}
 
-		Image result = Raptor.getInstance().getImageRegistry().get(key);
+		Image result = SQUARE_BACKGROUND_IMAGE_CACHE.get(key);
 
 		if (result == null) {
-			//This list is sorted ascending.
-			List<Integer> supportedSizes = getSquareBackgroundSizes(name);
-			
 			if (supportedSizes.isEmpty()) { //Type 1
 				Image moldImage = getSquareBackgroundMold(name, isLight);
 	
@@ -374,35 +417,29 @@ public class ChessBoardUtils implements BoardConstants {
 				}
 			}
 			else { //Type 2
-				if (!supportedSizes.contains(width)) {
-					//TO DO: make this more of a binary search for speed.
-					int lastSize = supportedSizes.get(0);
-					boolean foundMatch = false;
-					
-					for (int currentSize : supportedSizes) {
-						if (currentSize > width) {
-							width = lastSize;
-							foundMatch = true;
-							break;
-						}
-						lastSize = currentSize;
-					}
-					
-					if (!foundMatch) {
-						//This will be the largest size found.
-						width = lastSize;
-					}
-				}
 				result = new Image(Display.getCurrent(), SQUARE_BACKGROUND_DIR
 						+ name + "/" + width + "/" + (isLight ? "light.png" : "dark.png"));
 				
 			}
-			Raptor.getInstance().getImageRegistry().put(key, result);
-			return result;
-		} else {
-			//The image is already cached so just return it.
-			return result;
+			SQUARE_BACKGROUND_IMAGE_CACHE.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the largest supported size less than or equal to the specified
+	 * size. If there is none the smallest supported size is returned.
+	 * 
+	 * @param supportedSizes
+	 *            A non empty list of sizes sorted ascending.
+	 */
+	protected static int getBucketSize(List<Integer> supportedSizes, int size) {
+		int index = Collections.binarySearch(supportedSizes, size);
+		if (index >= 0) {
+			return size;
 		}
+		int insertionPoint = -(index + 1);
+		return supportedSizes.get(insertionPoint == 0 ? 0 : insertionPoint - 1);
 	}
 
 	/**
@@ -913,39 +950,24 @@ public class ChessBoardUtils implements BoardConstants {
 		}else if (action instanceof AutoQueenAction) {
 			result = new ToolItem(toolbar, SWT.RADIO);
 			controller.addToolItem(ToolBarItemKey.AUTO_QUEEN, result);
-			int pieceSize = Raptor.getInstance().getPreferences()
-					.getInt(PreferenceKeys.APP_TOOLBAR_PIECE_SIZE);
-			result.setImage(getChessPieceImage("Portable", isUserWhite ? WQ
-					: BQ, pieceSize));
+			result.setImage(getToolbarPieceImage(isUserWhite ? WQ : BQ));
 		} else if (action instanceof AutoKnightAction) {
 			result = new ToolItem(toolbar, SWT.RADIO);
 			controller.addToolItem(ToolBarItemKey.AUTO_KNIGHT, result);
-			int pieceSize = Raptor.getInstance().getPreferences()
-					.getInt(PreferenceKeys.APP_TOOLBAR_PIECE_SIZE);
-			result.setImage(getChessPieceImage("Portable", isUserWhite ? WN
-					: BN, pieceSize));
+			result.setImage(getToolbarPieceImage(isUserWhite ? WN : BN));
 		} else if (action instanceof AutoBishopAction) {
 			result = new ToolItem(toolbar, SWT.RADIO);
 			controller.addToolItem(ToolBarItemKey.AUTO_BISHOP, result);
-			int pieceSize = Raptor.getInstance().getPreferences()
-					.getInt(PreferenceKeys.APP_TOOLBAR_PIECE_SIZE);
-			result.setImage(getChessPieceImage("Portable", isUserWhite ? WB
-					: BB, pieceSize));
+			result.setImage(getToolbarPieceImage(isUserWhite ? WB : BB));
 		} else if (action instanceof AutoRookAction) {
 			result = new ToolItem(toolbar, SWT.RADIO);
 			controller.addToolItem(ToolBarItemKey.AUTO_ROOK, result);
-			int pieceSize = Raptor.getInstance().getPreferences()
-					.getInt(PreferenceKeys.APP_TOOLBAR_PIECE_SIZE);
-			result.setImage(getChessPieceImage("Portable", isUserWhite ? WR
-					: BR, pieceSize));
+			result.setImage(getToolbarPieceImage(isUserWhite ? WR : BR));
 		} else if (action instanceof AutoKingAction
 				&& controller.getGame().getVariant() == Variant.suicide) {
 			result = new ToolItem(toolbar, SWT.RADIO);
 			controller.addToolItem(ToolBarItemKey.AUTO_KING, result);
-			int pieceSize = Raptor.getInstance().getPreferences()
-					.getInt(PreferenceKeys.APP_TOOLBAR_PIECE_SIZE);
-			result.setImage(getChessPieceImage("Portable", isUserWhite ? WK
-					: BK, pieceSize));
+			result.setImage(getToolbarPieceImage(isUserWhite ? WK : BK));
 		} else if (action instanceof AutoKingAction) {
 			return null;
 		} else if (action instanceof CastleLongAction
@@ -25,6 +25,7 @@ import org.eclipse.swt.events.PaintListener;
 import org.eclipse.swt.graphics.Color;
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.graphics.Point;
+import org.eclipse.swt.graphics.Rectangle;
 import org.eclipse.swt.widgets.Canvas;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
@@ -50,6 +51,11 @@ public class ChessSquare extends Canvas implements BoardConstants {
 	static final RaptorLogger LOG = RaptorLogger.getLog(ChessSquare.class);
 
 	protected ChessBoard board;
+	/**
+	 * The canvas this square is rendered on, or null if the square paints
+	 * itself.
+	 */
+	protected ChessBoardCanvas boardCanvas;
 	/**
 	 * Forces a layout when the size of the square changes.
 	 */
@@ -243,7 +249,9 @@ public class ChessSquare extends Canvas implements BoardConstants {
 
 				int imageSide = getImageSize();
 
-				if (pieceImage == null && piece != EMPTY) {
+				// Images can be evicted from the piece image cache.
+				if ((pieceImage == null || pieceImage.isDisposed())
+						&& piece != EMPTY) {
 					pieceImage = getChessPieceImage(piece, imageSide);
 				}
 				
@@ -261,8 +269,8 @@ public class ChessSquare extends Canvas implements BoardConstants {
 				
 				String fileLabel = getFileLabel();
 				if (fileLabel != null) {
-					e.gc.setForeground(getPreferences().getColor(
-							BOARD_COORDINATES_COLOR));
+					e.gc.setForeground(getPreferences().getSnapshot()
+							.getColor(BOARD_COORDINATES_COLOR));
 					e.gc.setFont(SWTUtils.getProportionalFont(getPreferences()
 							.getFont(BOARD_COORDINATES_FONT),
 							getCoordinatesSizePercentage(), size.y));
@@ -277,8 +285,8 @@ public class ChessSquare extends Canvas implements BoardConstants {
 
 				String rankLabel = getRankLabel();
 				if (rankLabel != null) {
-					e.gc.setForeground(getPreferences().getColor(
-							BOARD_COORDINATES_COLOR));
+					e.gc.setForeground(getPreferences().getSnapshot()
+							.getColor(BOARD_COORDINATES_COLOR));
 					e.gc.setFont(SWTUtils.getProportionalFont(getPreferences()
 							.getFont(BOARD_COORDINATES_FONT),
 							getCoordinatesSizePercentage(), size.y));
@@ -421,7 +429,7 @@ public class ChessSquare extends Canvas implements BoardConstants {
 	 * background image should be used.
 	 */
 	protected boolean isUsingSolidBackgroundColors() {
-		return getPreferences().getBoolean(
+		return getPreferences().getSnapshot().getBoolean(
 				BOARD_IS_USING_SOLID_BACKGROUND_COLORS);
 	}
 
@@ -429,7 +437,7 @@ public class ChessSquare extends Canvas implements BoardConstants {
 	 * Returns the solid background color to use for this square.
 	 */
 	protected Color getSolidBackgroundColor() {
-		return getPreferences().getColor(
+		return getPreferences().getSnapshot().getColor(
 				isLight ? BOARD_LIGHT_SQUARE_SOLID_BACKGROUND_COLOR
 						: BOARD_DARK_SQUARE_SOLID_BACKGROUND_COLOR);
 	}
@@ -456,8 +464,8 @@ public class ChessSquare extends Canvas implements BoardConstants {
 	 * RaptorPreferenceStore setting.
 	 */
 	protected int getCoordinatesSizePercentage() {
-		return Raptor.getInstance().getPreferences()
-				.getInt(BOARD_COORDINATES_SIZE_PERCENTAGE);
+		return getPreferences().getSnapshot().getInt(
+				BOARD_COORDINATES_SIZE_PERCENTAGE);
 	}
 
 	/**
@@ -480,7 +488,7 @@ public class ChessSquare extends Canvas implements BoardConstants {
 	}
 
 	protected int getHidingAlpha() {
-		return getPreferences().getInt(BOARD_PIECE_SHADOW_ALPHA);
+		return getPreferences().getSnapshot().getInt(BOARD_PIECE_SHADOW_ALPHA);
 	}
 
 	/**
@@ -488,8 +496,8 @@ public class ChessSquare extends Canvas implements BoardConstants {
 	 * RaptorPreferenceStore setting.
 	 */
 	protected int getImageSize() {
-		double imageSquareSideAdjustment = getPreferences().getDouble(
-				BOARD_PIECE_SIZE_ADJUSTMENT);
+		double imageSquareSideAdjustment = getPreferences().getSnapshot()
+				.getDouble(BOARD_PIECE_SIZE_ADJUSTMENT);
 
 		int imageSide = (int) (getSize().x * (1.0 - imageSquareSideAdjustment));
 		if (imageSide % 2 != 0) {
@@ -508,8 +516,7 @@ public class ChessSquare extends Canvas implements BoardConstants {
 	}
 
 	protected String getRankLabel() {
-		if (Raptor.getInstance().getPreferences()
-				.getBoolean(BOARD_IS_SHOW_COORDINATES)
+		if (isShowingCoordinates()
 				&& !ChessBoardUtils.isPieceJailSquare(id)) {
 			if (board.isWhiteOnTop) {
 				if ((GameUtils.getBitboard(id) & GameConstants.HFILE) != 0) {
@@ -531,13 +538,21 @@ public class ChessSquare extends Canvas implements BoardConstants {
 	protected ChessSquare getSquareCursorIsAt() {
 		Control control = getDisplay().getCursorControl();
 
-		while (control != null && !(control instanceof ChessSquare)) {
+		while (control != null && !(control instanceof ChessSquare)
+				&& !(control instanceof ChessBoardCanvas)) {
 			control = control.getParent();
 		}
 
 		ChessSquare result = null;
 
-		if (control instanceof ChessSquare) {
+		if (control instanceof ChessBoardCanvas) {
+			ChessBoardCanvas canvas = (ChessBoardCanvas) control;
+			if (canvas.getChessBoard() == board) {
+				Point point = canvas.toControl(getDisplay()
+						.getCursorLocation());
+				result = canvas.getSquareAt(point.x, point.y);
+			}
+		} else if (control instanceof ChessSquare) {
 			result = (ChessSquare) control;
 			if (result.board != board) {
 				result = null;
@@ -551,8 +566,8 @@ public class ChessSquare extends Canvas implements BoardConstants {
 	 * RaptorPreferenceStore setting.
 	 */
 	protected boolean isShowingCoordinates() {
-		return Raptor.getInstance().getPreferences()
-				.getBoolean(BOARD_IS_SHOW_COORDINATES);
+		return getPreferences().getSnapshot().getBoolean(
+				BOARD_IS_SHOW_COORDINATES);
 	}
 
 	/**
@@ -591,8 +606,32 @@ public class ChessSquare extends Canvas implements BoardConstants {
 		this.isDirty = isDirty;
 	}
 
+	/**
+	 * Renders this square on the specified ChessBoardCanvas instead of on
+	 * itself. The square is hidden and only used for its state and its
+	 * listeners. Passing null restores native painting.
+	 */
+	public void setBoardCanvas(ChessBoardCanvas boardCanvas) {
+		this.boardCanvas = boardCanvas;
+		setVisible(boardCanvas == null);
+	}
+
+	@Override
 	public void redraw() {
 		isDirty = false;
-		super.redraw();
+		if (boardCanvas != null) {
+			boardCanvas.redrawSquare(this);
+		} else {
+			super.redraw();
+		}
+	}
+
+	@Override
+	public Point toDisplay(int x, int y) {
+		if (boardCanvas != null) {
+			Rectangle bounds = boardCanvas.getSquareBounds(this);
+			return boardCanvas.toDisplay(bounds.x + x, bounds.y + y);
+		}
+		return super.toDisplay(x, y);
 	}
 }
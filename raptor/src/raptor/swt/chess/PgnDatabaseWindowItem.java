@@ -0,0 +1,312 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2011 RaptorProject (http://code.google.com/p/raptor-chess-interface/)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.swt.chess;
+
+import org.apache.commons.lang.StringUtils;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Event;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Listener;
+import org.eclipse.swt.widgets.Table;
+import org.eclipse.swt.widgets.TableColumn;
+import org.eclipse.swt.widgets.TableItem;
+import org.eclipse.swt.widgets.Text;
+
+import raptor.Quadrant;
+import raptor.Raptor;
+import raptor.RaptorWindowItem;
+import raptor.chess.Game;
+import raptor.chess.pgn.PgnFileIndex;
+import raptor.chess.pgn.PgnHeader;
+import raptor.international.L10n;
+import raptor.pref.PreferenceKeys;
+import raptor.service.ThreadService;
+import raptor.swt.ItemChangedListener;
+import raptor.swt.chess.controller.InactiveController;
+import raptor.util.RaptorLogger;
+import raptor.util.RaptorRunnable;
+
+/**
+ * A window item which browses a PGN file through a PgnFileIndex. Headers are
+ * shown in a virtual table and only read from the index for the rows on
+ * screen. A Game is parsed only when it is opened, so files of any size can be
+ * browsed.
+ */
+public class PgnDatabaseWindowItem implements RaptorWindowItem {
+	private static final RaptorLogger LOG = RaptorLogger
+			.getLog(PgnDatabaseWindowItem.class);
+
+	protected static L10n local = L10n.getInstance();
+
+	protected Composite composite;
+	protected Label countLabel;
+	protected Text filterText;
+	protected Button filterButton;
+
+	/**
+	 * The game numbers of the rows in the table, or null if every game in the
+	 * index is shown.
+	 */
+	protected int[] filteredGames;
+	protected Table gamesTable;
+	protected PgnFileIndex index;
+	protected volatile boolean isDisposed;
+	protected boolean isPassive;
+
+	/**
+	 * @param index
+	 *            An open index. It is closed when this item is disposed.
+	 */
+	public PgnDatabaseWindowItem(PgnFileIndex index) {
+		this.index = index;
+	}
+
+	public void addItemChangedListener(ItemChangedListener listener) {
+	}
+
+	public void afterQuadrantMove(Quadrant newQuadrant) {
+	}
+
+	public boolean confirmClose() {
+		return true;
+	}
+
+	public void dispose() {
+		isDisposed = true;
+		if (index != null) {
+			index.close();
+			index = null;
+		}
+		if (composite != null && !composite.isDisposed()) {
+			composite.dispose();
+		}
+		if (LOG.isInfoEnabled()) {
+			LOG.info("Disposed PgnDatabaseWindowItem");
+		}
+	}
+
+	public Composite getControl() {
+		return composite;
+	}
+
+	public Image getImage() {
+		return null;
+	}
+
+	public Quadrant[] getMoveToQuadrants() {
+		return PgnParseResultsWindowItem.MOVE_TO_QUADRANTS;
+	}
+
+	public Quadrant getPreferredQuadrant() {
+		return Raptor.getInstance().getPreferences().getQuadrant(
+				PreferenceKeys.APP_PGN_RESULTS_QUADRANT);
+	}
+
+	public String getTitle() {
+		return index.getPgnFile().getName();
+	}
+
+	public Control getToolbar(Composite parent) {
+		return null;
+	}
+
+	public void init(Composite parent) {
+		composite = new Composite(parent, SWT.NONE);
+		composite.setLayout(new GridLayout(4, false));
+
+		countLabel = new Label(composite, SWT.LEFT);
+		countLabel.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true,
+				false));
+
+		Label filterLabel = new Label(composite, SWT.LEFT);
+		filterLabel.setText(local.getString("pgnDbWI1"));
+
+		filterText = new Text(composite, SWT.BORDER | SWT.SINGLE);
+		filterText.setLayoutData(new GridData(200, SWT.DEFAULT));
+		filterText.addListener(SWT.DefaultSelection, new Listener() {
+			public void handleEvent(Event event) {
+				filter(filterText.getText());
+			}
+		});
+
+		filterButton = new Button(composite, SWT.PUSH);
+		filterButton.setText(local.getString("pgnDbWI2"));
+		filterButton.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				filter(filterText.getText());
+			}
+		});
+
+		gamesTable = new Table(composite, SWT.BORDER | SWT.H_SCROLL
+				| SWT.V_SCROLL | SWT.SINGLE | SWT.FULL_SELECTION | SWT.VIRTUAL);
+		gamesTable.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true,
+				4, 1));
+		gamesTable.setHeaderVisible(true);
+		gamesTable.setLinesVisible(true);
+
+		String[] columnNames = { local.getString("pgnParseWI7"),
+				local.getString("pgnParseWI8"), local.getString("pgnParseWI9"),
+				local.getString("pgnParseWI10"),
+				local.getString("pgnParseWI11"),
+				local.getString("pgnParseWI12"),
+				local.getString("pgnParseWI13"),
+				local.getString("pgnParseWI14"),
+				local.getString("pgnParseWI15"),
+				local.getString("pgnParseWI16"),
+				local.getString("pgnParseWI17") };
+		int[] columnWidths = { 60, 80, 90, 160, 140, 50, 140, 50, 50, 50, 200 };
+		for (int i = 0; i < columnNames.length; i++) {
+			TableColumn column = new TableColumn(gamesTable, SWT.LEFT);
+			column.setText(columnNames[i]);
+			column.setWidth(columnWidths[i]);
+		}
+
+		gamesTable.addListener(SWT.SetData, new Listener() {
+			public void handleEvent(Event event) {
+				TableItem item = (TableItem) event.item;
+				int gameNumber = getGameNumber(gamesTable.indexOf(item));
+				item.setText(getRowData(gameNumber));
+			}
+		});
+		gamesTable.addListener(SWT.DefaultSelection, new Listener() {
+			public void handleEvent(Event event) {
+				int row = gamesTable.getSelectionIndex();
+				if (row != -1) {
+					openGame(getGameNumber(row));
+				}
+			}
+		});
+
+		setFilteredGames(null);
+	}
+
+	public void onActivate() {
+		if (isPassive) {
+			if (composite != null && !composite.isDisposed()) {
+				composite.layout(true);
+			}
+			isPassive = false;
+		}
+	}
+
+	public void onPassivate() {
+		isPassive = true;
+	}
+
+	public void removeItemChangedListener(ItemChangedListener listener) {
+	}
+
+	/**
+	 * Shows only the games with a header containing text. The index is
+	 * scanned on a background thread.
+	 */
+	protected void filter(final String text) {
+		if (StringUtils.isBlank(text)) {
+			setFilteredGames(null);
+			return;
+		}
+		filterButton.setEnabled(false);
+		// dispose closes the index and clears the field while this may still
+		// be running, so the index is captured here.
+		final PgnFileIndex filterIndex = index;
+		ThreadService.getInstance().run(new Runnable() {
+			public void run() {
+				int[] result = null;
+				try {
+					result = filterIndex.filter(text.trim());
+				} catch (Throwable t) {
+					if (isDisposed) {
+						return;
+					}
+					Raptor.getInstance().onError(
+							local.getString("pgnDbWI3")
+									+ filterIndex.getIndexFile(), t);
+				}
+				final int[] filterResult = result;
+				Raptor.getInstance().getDisplay().asyncExec(
+						new RaptorRunnable() {
+							@Override
+							public void execute() {
+								if (composite.isDisposed()) {
+									return;
+								}
+								filterButton.setEnabled(true);
+								if (filterResult != null) {
+									setFilteredGames(filterResult);
+								}
+							}
+						});
+			}
+		});
+	}
+
+	protected int getGameNumber(int row) {
+		return filteredGames == null ? row : filteredGames[row];
+	}
+
+	protected String[] getRowData(int gameNumber) {
+		String[] result = new String[PgnFileIndex.INDEXED_HEADERS.length + 1];
+		result[0] = String.valueOf(gameNumber + 1);
+		try {
+			String[] headers = index.getHeaders(gameNumber);
+			for (int i = 0; i < headers.length; i++) {
+				result[i + 1] = headers[i];
+			}
+		} catch (Throwable t) {
+			LOG.error("Error reading headers of game " + gameNumber, t);
+			for (int i = 1; i < result.length; i++) {
+				result[i] = "";
+			}
+		}
+		return result;
+	}
+
+	protected void openGame(int gameNumber) {
+		try {
+			Game game = index.getGame(gameNumber);
+			if (game == null) {
+				Raptor.getInstance().alert(
+						local.getString("pgnDbWI4") + (gameNumber + 1));
+			} else {
+				Raptor.getInstance().getWindow().addRaptorWindowItem(
+						new ChessBoardWindowItem(new InactiveController(game,
+								game.getHeader(PgnHeader.White) + " vs "
+										+ game.getHeader(PgnHeader.Black),
+								false)));
+			}
+		} catch (Throwable t) {
+			Raptor.getInstance().onError(
+					local.getString("pgnDbWI4") + (gameNumber + 1), t);
+		}
+	}
+
+	protected void setFilteredGames(int[] filteredGames) {
+		this.filteredGames = filteredGames;
+		int rows = filteredGames == null ? index.getGameCount()
+				: filteredGames.length;
+		gamesTable.clearAll();
+		gamesTable.setItemCount(rows);
+		countLabel.setText(local.getString("pgnParseWI3") + rows + " / "
+				+ index.getGameCount());
+	}
+}
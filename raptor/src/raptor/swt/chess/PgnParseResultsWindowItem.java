@@ -15,6 +15,7 @@ package raptor.swt.chess;
 
 import java.io.File;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
@@ -49,6 +50,7 @@ import raptor.Raptor;
 import raptor.RaptorWindowItem;
 import raptor.chess.Game;
 import raptor.chess.Result;
+import raptor.chess.pgn.GameArchive;
 import raptor.chess.pgn.PgnHeader;
 import raptor.chess.pgn.PgnParserError;
 import raptor.chess.pgn.chesspresso.ChesspressoPgnParser;
@@ -354,12 +356,21 @@ public class PgnParseResultsWindowItem implements RaptorWindowItem {
 					pathToFile = selected;
 					FileWriter fileWriter = null;
 					try {
-						fileWriter = new FileWriter(new File(pathToFile), false);
+						List<Game> tableGames = new ArrayList<Game>(gamesTable
+								.getRowCount());
 						for (int i = 0; i < gamesTable.getRowCount(); i++) {
-							int id = Integer.parseInt(gamesTable.getText(0, 0));
-							Game game = games.get(id);
-							fileWriter.write(game.toPgn() + "\n\n"); 
-							fileWriter.flush();
+							int id = Integer.parseInt(gamesTable.getText(i, 0));
+							tableGames.add(games.get(id - 1));
+						}
+						if (GameArchive.isArchive(pathToFile)) {
+							saveArchive(tableGames, new File(pathToFile));
+						} else {
+							fileWriter = new FileWriter(new File(pathToFile),
+									false);
+							for (Game game : tableGames) {
+								fileWriter.write(game.toPgn() + "\n\n");
+								fileWriter.flush();
+							}
 						}
 						Raptor.getInstance().alert(
 								local.getString("pgnParseWI23") + gamesTable.getRowCount()
@@ -450,6 +461,21 @@ public class PgnParseResultsWindowItem implements RaptorWindowItem {
 		}
 	}
 
+	/**
+	 * Replaces the file with a game archive of the specified games.
+	 */
+	protected void saveArchive(List<Game> gamesToSave, File file)
+			throws IOException {
+		file.delete();
+		GameArchive archive = new GameArchive(file);
+		try {
+			archive.open();
+			archive.append(gamesToSave);
+		} finally {
+			archive.close();
+		}
+	}
+
 	protected void openGame(int index) {
 		if (games != null) { // used standard SimplePgnParser
 			Game selectedGame = games.get(index);
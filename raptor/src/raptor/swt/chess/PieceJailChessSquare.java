@@ -38,7 +38,7 @@ public class PieceJailChessSquare extends ChessSquare {
 			e.gc.fillRectangle(0, 0, size.x, size.y);
 
 			int imageSide = getImageSize();
-			if (pieceImage == null) {
+			if (pieceImage == null || pieceImage.isDisposed()) {
 				pieceImage = getChessPieceImage(pieceJailPiece, imageSide);
 			}
 
@@ -16,6 +16,7 @@ package raptor.swt.chess.controller;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.security.SecureRandom;
+import java.util.List;
 import java.util.Random;
 
 import org.apache.commons.lang.StringUtils;
@@ -41,10 +42,13 @@ import raptor.chess.Variant;
 import raptor.chess.pgn.PgnHeader;
 import raptor.chess.pgn.TimeTakenForMove;
 import raptor.chess.util.GameUtils;
+import raptor.chess.util.OpeningExplorerTable.Continuation;
 import raptor.connector.Connector;
 import raptor.international.L10n;
 import raptor.pref.PreferenceKeys;
+import raptor.service.OpeningExplorerService;
 import raptor.service.SoundService;
+import raptor.swt.RaptorLabel;
 import raptor.swt.SWTUtils;
 import raptor.swt.chess.BoardConstants;
 import raptor.swt.chess.ChessBoardController;
@@ -168,6 +172,53 @@ public class InactiveController extends ChessBoardController implements
 		}
 	}
 
+	/**
+	 * Appends the most played moves from the opening explorer to the opening
+	 * description and shows all of them in its tool tip.
+	 */
+	@Override
+	protected void adjustOpeningDescriptionLabel() {
+		super.adjustOpeningDescriptionLabel();
+		if (isDisposed()) {
+			return;
+		}
+
+		RaptorLabel label = board.getOpeningDescriptionLabel();
+		OpeningExplorerService explorer = OpeningExplorerService.getInstance();
+		List<Continuation> continuations = explorer.getContinuations(getGame());
+		if (continuations.isEmpty()) {
+			label.getLabel().setToolTipText(null);
+			return;
+		}
+
+		StringBuilder topMoves = new StringBuilder(50);
+		StringBuilder table = new StringBuilder(continuations.size() * 40);
+		table.append(L10n.getInstance().getString("openExp0"));
+		for (int i = 0; i < continuations.size(); i++) {
+			Continuation continuation = continuations.get(i);
+			String san = explorer.getSan(getGame(), continuation);
+			if (i < 3) {
+				topMoves.append(topMoves.length() == 0 ? "" : " ").append(san)
+						.append('(').append(continuation.getGames()).append(')');
+			}
+			table.append('\n').append(san).append('\t').append(
+					continuation.getGames()).append('\t').append(
+					percent(continuation.getWhiteWins(), continuation)).append(
+					'/').append(percent(continuation.getDraws(), continuation))
+					.append('/').append(
+							percent(continuation.getBlackWins(), continuation))
+					.append('\t').append(
+							continuation.getAverageElo() == 0 ? "-"
+									: continuation.getAverageElo());
+		}
+
+		String description = label.getText();
+		label.setText((StringUtils.isBlank(description) ? "" : description
+				+ " ")
+				+ L10n.getInstance().getString("openExp1") + " " + topMoves);
+		label.getLabel().setToolTipText(table.toString());
+	}
+
 	/**
 	 * Inactive games can be taken over by other games that need to be displayed
 	 * for efficiency. This is an optimization feature. See the constructors for
@@ -746,4 +797,8 @@ public class InactiveController extends ChessBoardController implements
 				((GameCursor)((TextAreaMoveList)board.getMoveList()).getCurrVariation().getVarGame())
 				: cursor;
 	}
+
+	private int percent(int count, Continuation continuation) {
+		return Math.round(100f * count / continuation.getGames());
+	}
 }
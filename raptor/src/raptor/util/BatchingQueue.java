@@ -0,0 +1,126 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2011 RaptorProject (http://code.google.com/p/raptor-chess-interface/)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import raptor.service.ThreadService;
+
+/**
+ * Hands items to processBatch in the order they were added, a batch at a
+ * time, on the ThreadService.
+ *
+ * At most one drain runnable is scheduled or running at once, so batches are
+ * never processed concurrently or out of order. The drain takes up to
+ * maxBatchSize items at a time until the queue is empty and then returns its
+ * thread to the pool. Items added while a batch is being processed go into
+ * the next batch.
+ */
+public abstract class BatchingQueue<T> {
+	private static final RaptorLogger LOG = RaptorLogger
+			.getLog(BatchingQueue.class);
+
+	private volatile boolean isDisposed;
+	private final AtomicBoolean isDraining = new AtomicBoolean(false);
+	private final int maxBatchSize;
+	private final String name;
+	private final ConcurrentLinkedQueue<T> queue = new ConcurrentLinkedQueue<T>();
+
+	private final Runnable drainRunnable = new Runnable() {
+		public void run() {
+			drain();
+		}
+
+		@Override
+		public String toString() {
+			return "BatchingQueue " + name;
+		}
+	};
+
+	/**
+	 * @param name
+	 *            The name used in logging.
+	 * @param maxBatchSize
+	 *            The most items passed to one processBatch call.
+	 */
+	public BatchingQueue(String name, int maxBatchSize) {
+		this.name = name;
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * Adds an item and schedules a drain if one is not already scheduled.
+	 */
+	public void add(T item) {
+		if (isDisposed) {
+			return;
+		}
+		queue.add(item);
+		if (isDraining.compareAndSet(false, true)) {
+			ThreadService.getInstance().run(drainRunnable);
+		}
+	}
+
+	/**
+	 * Drops all pending items. Items added afterwards are ignored.
+	 */
+	public void dispose() {
+		isDisposed = true;
+		queue.clear();
+	}
+
+	/**
+	 * Invoked when processBatch throws. The remaining items are still
+	 * processed.
+	 */
+	protected void onError(Throwable t) {
+		LOG.error("Error processing batch in " + name, t);
+	}
+
+	/**
+	 * Processes the items. Invoked by one thread at a time. The list is reused
+	 * after this method returns, so do not keep a reference to it.
+	 */
+	protected abstract void processBatch(List<T> batch);
+
+	private void drain() {
+		List<T> batch = new ArrayList<T>(Math.min(maxBatchSize, 100));
+		while (!isDisposed) {
+			T item = null;
+			while (batch.size() < maxBatchSize && (item = queue.poll()) != null) {
+				batch.add(item);
+			}
+
+			if (batch.isEmpty()) {
+				isDraining.set(false);
+				// An item added after the last poll but before the flag was
+				// cleared did not schedule a drain, so check again.
+				if (queue.isEmpty() || !isDraining.compareAndSet(false, true)) {
+					return;
+				}
+				continue;
+			}
+
+			try {
+				processBatch(batch);
+			} catch (Throwable t) {
+				onError(t);
+			}
+			batch.clear();
+		}
+	}
+}
@@ -13,9 +13,7 @@
  */
 package raptor.util;
 
-import java.util.Comparator;
-
-public class IntegerComparator implements Comparator<String> {
+public class IntegerComparator implements SortKeyComparator {
 
 	public static int getInteger(String string) {
 		int result = 0;
@@ -32,4 +30,12 @@ public class IntegerComparator implements Comparator<String> {
 		int value2 = getInteger(string2);
 		return value1 < value2 ? 1 : value1 == value2 ? 0 : -1;
 	}
+
+	/**
+	 * Integers are sorted in descending order, so the key is the negated
+	 * integer.
+	 */
+	public long getSortKey(String string) {
+		return -(long) getInteger(string);
+	}
 }
@@ -0,0 +1,246 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2011 RaptorProject (http://code.google.com/p/raptor-chess-interface/)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A set of users, stored by their {@link UserKeyRegistry} keys, which is
+ * persisted to a journal file.
+ *
+ * Each change appends one line to the file instead of rewriting it:
+ * <ul>
+ * <li>"+user" adds a user.</li>
+ * <li>"-user" removes a user.</li>
+ * <li>"*" removes every user.</li>
+ * </ul>
+ * A line without a prefix adds a user, so files written as a plain list of
+ * users load unchanged. When {@link #load()} finds the journal has grown well
+ * past the size of the set, the file is compacted to one line per user. The
+ * compacted journal is written to a temporary file which then replaces the
+ * journal, so an interrupted compaction never loses the set.
+ *
+ * Lookups are hashed and do not lock. Changes are synchronized.
+ */
+public class JournaledUserSet {
+	private static final RaptorLogger LOG = RaptorLogger
+			.getLog(JournaledUserSet.class);
+
+	protected String fileName;
+	protected int journalLines;
+	protected Set<String> users = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	public JournaledUserSet(String fileName) {
+		this.fileName = fileName;
+	}
+
+	/**
+	 * Adds user. Returns true if user was not already in the set.
+	 */
+	public synchronized boolean add(String user) throws IOException {
+		String key = UserKeyRegistry.getKey(user.trim());
+		if (users.add(key)) {
+			append("+" + key);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Removes every user and returns the number removed.
+	 */
+	public synchronized int clear() throws IOException {
+		int result = users.size();
+		users.clear();
+		append("*");
+		return result;
+	}
+
+	public boolean contains(String user) {
+		return user != null && users.contains(UserKeyRegistry.getKey(user));
+	}
+
+	/**
+	 * Returns true if the set contains key, which must already be a
+	 * UserKeyRegistry key.
+	 */
+	public boolean containsKey(String key) {
+		return key != null && users.contains(key);
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Replaces the contents of the set with the users in the journal file.
+	 * Does nothing but empty the set if the file does not exist. If a
+	 * compaction was interrupted after the journal was removed, the
+	 * compacted copy is moved into place first.
+	 */
+	public synchronized void load() throws IOException {
+		users.clear();
+		journalLines = 0;
+		File file = new File(fileName);
+		File tempFile = getTempFile();
+		if (tempFile.exists()) {
+			if (file.exists()) {
+				tempFile.delete();
+			} else if (!tempFile.renameTo(file)) {
+				throw new IOException("Could not rename " + tempFile + " to "
+						+ file);
+			}
+		}
+		if (!file.exists()) {
+			return;
+		}
+
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new FileReader(file));
+			String currentLine = null;
+			while ((currentLine = reader.readLine()) != null) {
+				String line = currentLine.trim();
+				if (line.length() == 0) {
+					continue;
+				}
+				journalLines++;
+				char operation = line.charAt(0);
+				if (operation == '*') {
+					users.clear();
+				} else if (operation == '-') {
+					users.remove(UserKeyRegistry.getKey(line.substring(1)
+							.trim()));
+				} else {
+					String user = operation == '+' ? line.substring(1).trim()
+							: line;
+					if (user.length() > 0) {
+						users.add(UserKeyRegistry.getKey(user));
+					}
+				}
+			}
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (Throwable t) {
+				}
+			}
+		}
+
+		if (journalLines > 2 * users.size() + 64) {
+			if (LOG.isInfoEnabled()) {
+				LOG.info("Compacting " + fileName + " from " + journalLines
+						+ " lines to " + users.size());
+			}
+			compact();
+		}
+	}
+
+	/**
+	 * Removes user. Returns true if user was in the set.
+	 */
+	public synchronized boolean remove(String user) throws IOException {
+		String key = UserKeyRegistry.getKey(user.trim());
+		if (users.remove(key)) {
+			append("-" + key);
+			return true;
+		}
+		return false;
+	}
+
+	public int size() {
+		return users.size();
+	}
+
+	/**
+	 * Returns the users in the set, sorted.
+	 */
+	public String[] toArray() {
+		String[] result = users.toArray(new String[0]);
+		Arrays.sort(result);
+		return result;
+	}
+
+	/**
+	 * Rewrites the journal as one line per user. The users are written to a
+	 * temporary file which is renamed over the journal once it is complete.
+	 */
+	protected void compact() throws IOException {
+		File file = new File(fileName);
+		File tempFile = getTempFile();
+		FileWriter writer = new FileWriter(tempFile, false);
+		try {
+			for (String user : toArray()) {
+				writer.write(user + "\n");
+			}
+		} catch (IOException ioe) {
+			try {
+				writer.close();
+			} catch (Throwable t) {
+			}
+			tempFile.delete();
+			throw ioe;
+		}
+		writer.close();
+
+		if (file.exists() && !file.delete()) {
+			tempFile.delete();
+			throw new IOException("Could not replace " + file);
+		}
+		if (!tempFile.renameTo(file)) {
+			throw new IOException("Could not rename " + tempFile + " to "
+					+ file);
+		}
+		journalLines = users.size();
+	}
+
+	/**
+	 * Returns the file a compaction is written to before it replaces the
+	 * journal.
+	 */
+	protected File getTempFile() {
+		return new File(fileName + ".tmp");
+	}
+
+	protected void append(String line) throws IOException {
+		File file = new File(fileName);
+		if (file.getParentFile() != null && !file.getParentFile().exists()) {
+			file.getParentFile().mkdirs();
+		}
+		FileWriter writer = null;
+		try {
+			writer = new FileWriter(file, true);
+			writer.write(line + "\n");
+			writer.flush();
+		} finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (Throwable t) {
+				}
+			}
+		}
+		journalLines++;
+	}
+}
@@ -0,0 +1,141 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2011 RaptorProject (http://code.google.com/p/raptor-chess-interface/)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.util;
+
+/**
+ * An open addressing hash map from primitive longs to objects. It avoids the
+ * Long boxing and entry objects of a HashMap, which matters for tables keyed by
+ * Zobrist hashes that are read on every move. Linear probing is used, so keys
+ * should already be well distributed (Zobrist hashes are).
+ * 
+ * This class is not thread safe. Tables that are built once and then only read
+ * can be shared between threads once they are safely published.
+ */
+public class LongHashMap<V> {
+	private static final float LOAD_FACTOR = 0.6f;
+
+	private boolean hasZeroKey;
+	private long[] keys;
+	private int mask;
+	private int size;
+	private int threshold;
+	private Object[] values;
+	private V zeroKeyValue;
+
+	public LongHashMap() {
+		this(16);
+	}
+
+	public LongHashMap(int expectedSize) {
+		int capacity = 16;
+		while (capacity * LOAD_FACTOR < expectedSize) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	public void clear() {
+		allocate(16);
+		hasZeroKey = false;
+		zeroKeyValue = null;
+		size = 0;
+	}
+
+	public boolean containsKey(long key) {
+		if (key == 0L) {
+			return hasZeroKey;
+		}
+		return keys[indexOf(key)] == key;
+	}
+
+	/**
+	 * Returns the value mapped to key, null if there is none.
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		if (key == 0L) {
+			return zeroKeyValue;
+		}
+		int index = indexOf(key);
+		return keys[index] == key ? (V) values[index] : null;
+	}
+
+	/**
+	 * Maps key to value and returns the previous value, null if there was none.
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value) {
+		if (key == 0L) {
+			V result = zeroKeyValue;
+			if (!hasZeroKey) {
+				size++;
+				hasZeroKey = true;
+			}
+			zeroKeyValue = value;
+			return result;
+		}
+
+		int index = indexOf(key);
+		if (keys[index] == key) {
+			V result = (V) values[index];
+			values[index] = value;
+			return result;
+		}
+
+		keys[index] = key;
+		values[index] = value;
+		if (++size > threshold) {
+			rehash();
+		}
+		return null;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+		threshold = (int) (capacity * LOAD_FACTOR);
+	}
+
+	/**
+	 * Returns the slot holding key, or the empty slot where it would be
+	 * inserted. Zero marks an empty slot, which is why the zero key is kept
+	 * outside of the table.
+	 */
+	private int indexOf(long key) {
+		int index = (int) (key ^ key >>> 32) & mask;
+		while (keys[index] != 0L && keys[index] != key) {
+			index = index + 1 & mask;
+		}
+		return index;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void rehash() {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate(keys.length << 1);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != 0L) {
+				int index = indexOf(oldKeys[i]);
+				keys[index] = oldKeys[i];
+				values[index] = oldValues[i];
+			}
+		}
+	}
+}
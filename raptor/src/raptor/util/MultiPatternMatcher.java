@@ -0,0 +1,398 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2011 RaptorProject (http://code.google.com/p/raptor-chess-interface/)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Tests a string against many regular expressions at once, for patterns
+ * created by {@link RegExUtils#getPattern(String)} and matched against the
+ * whole string.
+ *
+ * When it is built, the longest literal every match of each pattern must
+ * contain is extracted. The literals are compiled into one Aho-Corasick
+ * automaton. To test a string, the automaton scans it once, case
+ * insensitively. Only the patterns whose literal was found, plus the
+ * patterns no literal could be extracted from, are run. Most strings match
+ * no literal, so most patterns are never run.
+ *
+ * A matcher is immutable once built and can be shared between threads.
+ * Build a new one when the patterns change. The number of strings tested,
+ * patterns run and matches found are counted.
+ */
+public class MultiPatternMatcher {
+	protected static class Node {
+		char[] characters = new char[0];
+		Node[] children = new Node[0];
+		Node fail;
+		/**
+		 * The patterns whose literal ends at this node, or at a node reached
+		 * through fail links.
+		 */
+		int[] outputs = new int[0];
+
+		Node getChild(char character) {
+			for (int i = 0; i < characters.length; i++) {
+				if (characters[i] == character) {
+					return children[i];
+				}
+			}
+			return null;
+		}
+
+		Node getOrAddChild(char character) {
+			Node result = getChild(character);
+			if (result == null) {
+				result = new Node();
+				char[] newCharacters = new char[characters.length + 1];
+				Node[] newChildren = new Node[children.length + 1];
+				System.arraycopy(characters, 0, newCharacters, 0,
+						characters.length);
+				System.arraycopy(children, 0, newChildren, 0, children.length);
+				newCharacters[characters.length] = character;
+				newChildren[children.length] = result;
+				characters = newCharacters;
+				children = newChildren;
+			}
+			return result;
+		}
+
+		void addOutputs(int[] newOutputs) {
+			int[] merged = new int[outputs.length + newOutputs.length];
+			System.arraycopy(outputs, 0, merged, 0, outputs.length);
+			System.arraycopy(newOutputs, 0, merged, outputs.length,
+					newOutputs.length);
+			outputs = merged;
+		}
+	}
+
+	private static final String META_CHARACTERS = "\\^$.|?*+()[]{}";
+
+	/**
+	 * Returns the longest literal, in lower case, which every string the
+	 * regular expression matches must contain. Returns null if none can be
+	 * found, e.g. the expression uses alternation, inline flags or quoting.
+	 * Only US-ASCII letters are lower cased, like CASE_INSENSITIVE does.
+	 */
+	public static String getRequiredLiteral(String regularExpression) {
+		if (regularExpression.indexOf('|') != -1
+				|| regularExpression.indexOf("(?") != -1
+				|| regularExpression.indexOf("\\Q") != -1) {
+			return null;
+		}
+
+		String longest = "";
+		StringBuilder current = new StringBuilder();
+		int depth = 0;
+		for (int i = 0; i < regularExpression.length(); i++) {
+			char character = regularExpression.charAt(i);
+			if (depth > 0) {
+				// Group contents may be optional or repeated, skip them.
+				if (character == '\\') {
+					i++;
+				} else if (character == '[') {
+					// A ) in a character class does not close the group.
+					i = skipCharacterClass(regularExpression, i);
+					if (i == -1) {
+						return null;
+					}
+				} else if (character == '(') {
+					depth++;
+				} else if (character == ')') {
+					depth--;
+				}
+				continue;
+			}
+
+			char literal = 0;
+			if (character == '\\') {
+				if (i + 1 >= regularExpression.length()) {
+					return null;
+				}
+				char escaped = regularExpression.charAt(++i);
+				if ("0cuxk".indexOf(escaped) != -1) {
+					// Octal, control, hex and named escapes are followed by
+					// characters which are not literals.
+					return null;
+				} else if (META_CHARACTERS.indexOf(escaped) != -1
+						|| "/-_:;,'\"!@#%&=<>~` ".indexOf(escaped) != -1) {
+					literal = escaped;
+				}
+			} else if (character == '(') {
+				depth++;
+			} else if (character == '[') {
+				i = skipCharacterClass(regularExpression, i);
+				if (i == -1) {
+					return null;
+				}
+			} else if (character == '?' || character == '*') {
+				// The previous character is optional.
+				if (current.length() > 0) {
+					current.setLength(current.length() - 1);
+				}
+			} else if (character == '{') {
+				if (current.length() > 0) {
+					current.setLength(current.length() - 1);
+				}
+				int end = regularExpression.indexOf('}', i);
+				if (end == -1) {
+					return null;
+				}
+				i = end;
+			} else if (character == '+') {
+				// The previous character is required but may repeat.
+				longest = longer(longest, current);
+				current.setLength(0);
+				continue;
+			} else if (META_CHARACTERS.indexOf(character) == -1) {
+				literal = character;
+			}
+
+			if (literal != 0) {
+				current.append(toLowerCase(literal));
+			} else {
+				// The run before an optional character, a group or a meta
+				// character is required, but what follows need not be next to
+				// it.
+				longest = longer(longest, current);
+				current.setLength(0);
+			}
+		}
+		longest = longer(longest, current);
+		return longest.length() == 0 ? null : longest;
+	}
+
+	private static String longer(String longest, StringBuilder current) {
+		return current.length() > longest.length() ? current.toString()
+				: longest;
+	}
+
+	private static int skipCharacterClass(String regularExpression, int start) {
+		int i = start + 1;
+		if (i < regularExpression.length()
+				&& regularExpression.charAt(i) == '^') {
+			i++;
+		}
+		if (i < regularExpression.length()
+				&& regularExpression.charAt(i) == ']') {
+			i++;
+		}
+		int depth = 1;
+		for (; i < regularExpression.length(); i++) {
+			char character = regularExpression.charAt(i);
+			if (character == '\\') {
+				i++;
+			} else if (character == '[') {
+				depth++;
+			} else if (character == ']') {
+				depth--;
+				if (depth == 0) {
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	private static char toLowerCase(char character) {
+		return character >= 'A' && character <= 'Z' ? (char) (character + 32)
+				: character;
+	}
+
+	protected int[] alwaysRun;
+	protected AtomicLong matchCount = new AtomicLong();
+	protected Pattern[] patterns;
+	protected Node root = new Node();
+	protected AtomicLong runCount = new AtomicLong();
+	protected AtomicLong testCount = new AtomicLong();
+
+	/**
+	 * Builds a matcher for patterns. Null patterns never match.
+	 */
+	public MultiPatternMatcher(List<Pattern> patternList) {
+		patterns = patternList.toArray(new Pattern[patternList.size()]);
+		List<Integer> alwaysRunList = new ArrayList<Integer>();
+
+		for (int i = 0; i < patterns.length; i++) {
+			if (patterns[i] == null) {
+				continue;
+			}
+			String literal = getRequiredLiteral(patterns[i].pattern());
+			if (literal == null) {
+				alwaysRunList.add(i);
+			} else {
+				Node node = root;
+				for (int j = 0; j < literal.length(); j++) {
+					node = node.getOrAddChild(literal.charAt(j));
+				}
+				node.addOutputs(new int[] { i });
+			}
+		}
+
+		alwaysRun = new int[alwaysRunList.size()];
+		for (int i = 0; i < alwaysRun.length; i++) {
+			alwaysRun[i] = alwaysRunList.get(i);
+		}
+		buildFailLinks();
+	}
+
+	/**
+	 * Returns the number of patterns actually run.
+	 */
+	public long getRunCount() {
+		return runCount.get();
+	}
+
+	/**
+	 * Returns the number of matches found.
+	 */
+	public long getMatchCount() {
+		return matchCount.get();
+	}
+
+	/**
+	 * Returns the fraction of the strings tested which matched a pattern.
+	 * Only meaningful for {@link #matchesAny(String)}, which stops at the first
+	 * match.
+	 */
+	public double getMatchRate() {
+		long tests = testCount.get();
+		return tests == 0 ? 0.0 : (double) matchCount.get() / tests;
+	}
+
+	/**
+	 * Returns the fraction of the patterns that would have been run without
+	 * the literal scan which actually were run.
+	 */
+	public double getRunRate() {
+		long tests = testCount.get();
+		return tests == 0 || patterns.length == 0 ? 0.0 : (double) runCount
+				.get()
+				/ (tests * patterns.length);
+	}
+
+	/**
+	 * Returns the number of strings tested.
+	 */
+	public long getTestCount() {
+		return testCount.get();
+	}
+
+	/**
+	 * Returns the indexes, in ascending order, of the patterns matching text.
+	 */
+	public BitSet getMatches(String text) {
+		testCount.incrementAndGet();
+		BitSet result = getCandidates(text);
+		for (int i = result.nextSetBit(0); i >= 0; i = result.nextSetBit(i + 1)) {
+			runCount.incrementAndGet();
+			if (RegExUtils.matches(patterns[i], text)) {
+				matchCount.incrementAndGet();
+			} else {
+				result.clear(i);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns true if any pattern matches text. Stops at the first match.
+	 */
+	public boolean matchesAny(String text) {
+		testCount.incrementAndGet();
+		BitSet candidates = getCandidates(text);
+		for (int i = candidates.nextSetBit(0); i >= 0; i = candidates
+				.nextSetBit(i + 1)) {
+			runCount.incrementAndGet();
+			if (RegExUtils.matches(patterns[i], text)) {
+				matchCount.incrementAndGet();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public int size() {
+		return patterns.length;
+	}
+
+	@Override
+	public String toString() {
+		return "MultiPatternMatcher patterns=" + patterns.length
+				+ " alwaysRun=" + alwaysRun.length + " tests="
+				+ testCount.get() + " runs=" + runCount.get() + " matches="
+				+ matchCount.get() + " matchRate=" + getMatchRate()
+				+ " runRate=" + getRunRate();
+	}
+
+	/**
+	 * Returns the patterns which might match text: those whose literal
+	 * occurs in text and those without a literal.
+	 */
+	protected BitSet getCandidates(String text) {
+		BitSet result = new BitSet(patterns.length);
+		for (int index : alwaysRun) {
+			result.set(index);
+		}
+		if (root.children.length == 0) {
+			return result;
+		}
+
+		Node node = root;
+		for (int i = 0; i < text.length(); i++) {
+			char character = toLowerCase(text.charAt(i));
+			Node next = node.getChild(character);
+			while (next == null && node != root) {
+				node = node.fail;
+				next = node.getChild(character);
+			}
+			node = next == null ? root : next;
+			for (int output : node.outputs) {
+				result.set(output);
+			}
+		}
+		return result;
+	}
+
+	private void buildFailLinks() {
+		root.fail = root;
+		LinkedList<Node> queue = new LinkedList<Node>();
+		for (Node child : root.children) {
+			child.fail = root;
+			queue.add(child);
+		}
+		while (!queue.isEmpty()) {
+			Node node = queue.removeFirst();
+			for (int i = 0; i < node.children.length; i++) {
+				Node child = node.children[i];
+				char character = node.characters[i];
+				Node fail = node.fail;
+				Node failChild = fail.getChild(character);
+				while (failChild == null && fail != root) {
+					fail = fail.fail;
+					failChild = fail.getChild(character);
+				}
+				child.fail = failChild == null || failChild == child ? root
+						: failChild;
+				child.addOutputs(child.fail.outputs);
+				queue.add(child);
+			}
+		}
+	}
+}
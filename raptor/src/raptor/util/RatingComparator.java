@@ -13,11 +13,9 @@
  */
 package raptor.util;
 
-import java.util.Comparator;
-
 import org.apache.commons.lang.StringUtils;
 
-public class RatingComparator implements Comparator<String> {
+public class RatingComparator implements SortKeyComparator {
 
 	public static int getRatingAsInt(String string) {
 		if (string.equals("----")) {
@@ -40,4 +38,12 @@ public class RatingComparator implements Comparator<String> {
 		int rating2 = getRatingAsInt(string2);
 		return rating1 < rating2 ? 1 : rating1 == rating2 ? 0 : -1;
 	}
+
+	/**
+	 * Ratings are sorted in descending order, so the key is the negated
+	 * rating.
+	 */
+	public long getSortKey(String string) {
+		return -(long) getRatingAsInt(string);
+	}
 }
@@ -0,0 +1,73 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2011 RaptorProject (http://code.google.com/p/raptor-chess-interface/)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import raptor.connector.ics.IcsUtils;
+
+/**
+ * Maps user handles to the keys used to look users up in the censor, speak,
+ * tag and auto complete sets. A key is the handle with its titles stripped,
+ * in lower case, e.g. "Foo(CA)" becomes "foo".
+ *
+ * Keys are interned, so every set holds the same String instance for a user
+ * and equal keys usually compare by identity. The handle to key mapping is
+ * cached, so normalizing the source of each event costs one hash lookup. Both
+ * caches are emptied when they reach MAX_SIZE entries.
+ */
+public class UserKeyRegistry {
+	public static final int MAX_SIZE = 50000;
+
+	private static final ConcurrentHashMap<String, String> handleToKey = new ConcurrentHashMap<String, String>();
+	private static final ConcurrentHashMap<String, String> keys = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * Returns the interned key for handle, or null if handle is null.
+	 */
+	public static String getKey(String handle) {
+		if (handle == null) {
+			return null;
+		}
+		String result = handleToKey.get(handle);
+		if (result == null) {
+			result = intern(IcsUtils.stripTitles(handle).toLowerCase());
+			if (handleToKey.size() >= MAX_SIZE) {
+				handleToKey.clear();
+			}
+			handleToKey.put(handle, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the interned instance of an already normalized key.
+	 */
+	public static String intern(String key) {
+		String result = keys.get(key);
+		if (result == null) {
+			if (keys.size() >= MAX_SIZE) {
+				keys.clear();
+			}
+			result = keys.putIfAbsent(key, key);
+			if (result == null) {
+				result = key;
+			}
+		}
+		return result;
+	}
+
+	private UserKeyRegistry() {
+	}
+}
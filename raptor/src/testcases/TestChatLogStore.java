@@ -0,0 +1,156 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2011 RaptorProject (http://code.google.com/p/raptor-chess-interface/)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package testcases;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import raptor.chat.ChatEvent;
+import raptor.chat.ChatLogQuery;
+import raptor.chat.ChatLogStore;
+import raptor.chat.ChatType;
+import raptor.chat.ChatLogger.ChatEventParseListener;
+
+public class TestChatLogStore {
+
+	/**
+	 * A store whose clock is set by the test.
+	 */
+	private class TestStore extends ChatLogStore {
+		public TestStore(File directory, int maxSegmentBytes,
+				long maxTotalBytes, long maxAgeMillis) {
+			super(directory, false, maxSegmentBytes, maxTotalBytes,
+					maxAgeMillis);
+		}
+
+		@Override
+		protected long currentTimeMillis() {
+			return now;
+		}
+	}
+
+	private File directory;
+
+	private long now = 1000000000000L;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("testChatLogStore", "");
+		directory.delete();
+		directory.mkdir();
+	}
+
+	@After
+	public void tearDown() {
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testRolloverAndQuery() {
+		ChatLogStore store = new TestStore(directory, 1024, Long.MAX_VALUE, 0);
+		for (int i = 0; i < 200; i++) {
+			store.append(event(i % 2 == 0 ? "alice" : "bob",
+					i % 4 == 3 ? ChatType.CHANNEL_TELL : ChatType.TELL, i));
+		}
+		Assert.assertTrue(store.getSegmentCount() > 1);
+
+		List<ChatEvent> events = parse(store, new ChatLogQuery());
+		Assert.assertEquals(200, events.size());
+		for (int i = 0; i < events.size(); i++) {
+			Assert.assertEquals("message " + i, events.get(i).getMessage());
+		}
+
+		events = parse(store, new ChatLogQuery().setSource("bob").setTypes(
+				ChatType.TELL).setMaxResults(10));
+		Assert.assertEquals(10, events.size());
+		for (int i = 0; i < events.size(); i++) {
+			Assert.assertEquals("message " + (161 + i * 4), events.get(i)
+					.getMessage());
+		}
+
+		// Reopening the directory indexes the same events.
+		store = new TestStore(directory, 1024, Long.MAX_VALUE, 0);
+		Assert.assertEquals(200, parse(store, new ChatLogQuery()).size());
+	}
+
+	@Test
+	public void testRetentionBySize() {
+		ChatLogStore store = new TestStore(directory, 1024, 4096, 0);
+		for (int i = 0; i < 500; i++) {
+			store.append(event("alice", ChatType.TELL, i));
+		}
+		Assert.assertTrue(store.getTotalBytes() <= 4096 + 1024);
+
+		List<ChatEvent> events = parse(store, new ChatLogQuery());
+		Assert.assertTrue(events.size() < 500);
+		Assert.assertEquals("message 499", events.get(events.size() - 1)
+				.getMessage());
+		Assert.assertEquals(store.getSegmentCount(),
+				directory.listFiles().length);
+	}
+
+	@Test
+	public void testRetentionWithoutRollover() {
+		long maxAgeMillis = 60L * 60 * 1000;
+		ChatLogStore store = new TestStore(directory, 4096, Long.MAX_VALUE,
+				maxAgeMillis);
+		int count = 0;
+		while (store.getSegmentCount() < 2) {
+			store.append(event("alice", ChatType.TELL, count++));
+		}
+
+		// The next event fits in the active segment, so only the periodic
+		// retention check can remove the sealed one.
+		now += maxAgeMillis + ChatLogStore.RETENTION_INTERVAL_MILLIS;
+		store.append(event("alice", ChatType.TELL, count++));
+		Assert.assertEquals(1, store.getSegmentCount());
+
+		List<ChatEvent> events = parse(store, new ChatLogQuery());
+		Assert.assertEquals(2, events.size());
+		Assert.assertEquals("message " + (count - 1), events.get(1)
+				.getMessage());
+	}
+
+	private ChatEvent event(String source, ChatType type, int i) {
+		ChatEvent event = new ChatEvent(source, type, "message " + i);
+		event.setTime(now);
+		if (type == ChatType.CHANNEL_TELL) {
+			event.setChannel("1");
+		}
+		return event;
+	}
+
+	private List<ChatEvent> parse(ChatLogStore store, ChatLogQuery query) {
+		final List<ChatEvent> result = new ArrayList<ChatEvent>();
+		store.parse(query, new ChatEventParseListener() {
+			public boolean onNewEventParsed(ChatEvent event) {
+				result.add(event);
+				return true;
+			}
+
+			public void onParseCompleted() {
+			}
+		});
+		return result;
+	}
+}
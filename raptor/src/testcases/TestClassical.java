@@ -931,6 +931,29 @@ public class TestClassical implements GameConstants {
 
 	}
 
+	/**
+	 * The ECO lookup relies on the incrementally updated hash matching the hash
+	 * computed from a FEN of the same position.
+	 */
+	@Test
+	public void testZobristMatchesFen() {
+		Random random = new Random(7);
+		for (int i = 0; i < 50; i++) {
+			Game game = createStartingPosition(Variant.classic);
+			for (int j = 0; j < 30; j++) {
+				Move[] moves = game.getLegalMoves().asArray();
+				if (moves.length == 0) {
+					break;
+				}
+				game.move(moves[random.nextInt(moves.length)]);
+
+				Game fromFen = createFromFen(game.toFen(), Variant.classic);
+				assertTrue("Zobrist mismatch\n" + game, game
+						.getZobristGameHash() == fromFen.getZobristGameHash());
+			}
+		}
+	}
+
 	private void dumpGame(String message, Game position) {
 		if (DEBUG) {
 			System.out.println(message);
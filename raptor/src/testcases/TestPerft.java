@@ -0,0 +1,167 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2011 RaptorProject (http://code.google.com/p/raptor-chess-interface/)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package testcases;
+
+import static raptor.chess.GameFactory.createFromFen;
+import static raptor.chess.GameFactory.createStartingPosition;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import raptor.chess.ClassicMoveGenerator;
+import raptor.chess.Game;
+import raptor.chess.GameConstants;
+import raptor.chess.Move;
+import raptor.chess.Variant;
+import raptor.chess.util.PerftService;
+
+public class TestPerft {
+
+	/**
+	 * Reference positions and node counts from the chess programming wiki perft
+	 * results page.
+	 */
+	private static final String[] FENS = {
+			"rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+			"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+			"8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+			"r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+			"rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8" };
+
+	private static final long[][] COUNTS = { { 20, 400, 8902, 197281 },
+			{ 48, 2039, 97862 }, { 14, 191, 2812, 43238, 674624 },
+			{ 6, 264, 9467, 422333 }, { 44, 1486, 62379 } };
+
+	/**
+	 * Variant reference positions. Crazyhouse and atomic counts are from the
+	 * python-chess perft suites, Fischer random counts from the chess
+	 * programming wiki Chess960 perft results. The atomic counts stop at depth
+	 * 2, deeper counts differ because FICS atomic rules differ from the ones
+	 * those suites use.
+	 */
+	private static final Object[][] VARIANT_POSITIONS = {
+			{ Variant.crazyhouse, "2k5/8/8/8/8/8/8/4K3 w - - 0 1",
+					"QRBNPqrbnp", new long[] { 301, 75353 } },
+			{
+					Variant.crazyhouse,
+					"r1bqk2r/pppp1ppp/2n1p3/4P3/1b1Pn3/2NB1N2/PPP2PPP/R1BQK2R b KQkq - 0 1",
+					"", new long[] { 42, 1347, 58057 } },
+			{
+					Variant.atomic,
+					"rn2kb1r/1pp1p2p/p2q1pp1/3P4/2P3b1/4PN2/PP3PPP/R2QKB1R b KQkq - 0 1",
+					"", new long[] { 40, 1238 } },
+			{ Variant.atomic,
+					"rn1qkb1r/p5pp/2p5/3p4/N3P3/5P2/PPP4P/R1BQK3 w Qkq - 0 1",
+					"", new long[] { 28, 833 } },
+			{
+					Variant.fischerRandom,
+					"bqnb1rkr/pp3ppp/3ppn2/2p5/5P2/P2P4/NPP1P1PP/BQ1BNRKR w KQkq - 2 9",
+					"", new long[] { 21, 528, 12189, 326672 } },
+			{
+					Variant.fischerRandom,
+					"2nnrbkr/p1qppppp/8/1ppb4/6PP/3PP3/PPP2P2/BQNNRBKR w KQkq - 1 9",
+					"", new long[] { 21, 807, 18002, 667366 } },
+			{
+					Variant.fischerRandom,
+					"b1q1rrkb/pppppppp/3nn3/8/P7/1PPP4/4PPPP/BQNNRKRB w KQ - 1 9",
+					"", new long[] { 20, 479, 10471, 273318 } } };
+
+	@Test
+	public void testPerftCounts() {
+		for (int i = 0; i < FENS.length; i++) {
+			ClassicMoveGenerator generator = new ClassicMoveGenerator(
+					createFromFen(FENS[i], Variant.classic));
+			for (int depth = 1; depth <= COUNTS[i].length; depth++) {
+				Assert.assertEquals(FENS[i] + " depth " + depth,
+						COUNTS[i][depth - 1], generator.perft(depth));
+			}
+		}
+	}
+
+	@Test
+	public void testMatchesGetLegalMoves() {
+		for (String fen : FENS) {
+			Game game = createFromFen(fen, Variant.classic);
+			ClassicMoveGenerator generator = new ClassicMoveGenerator(game);
+			int[] moves = new int[ClassicMoveGenerator.MAX_MOVES_PER_PLY];
+			int count = generator.generateLegalMoves(moves);
+
+			Assert.assertEquals(fen, game.getLegalMoves().getSize(), count);
+
+			for (int i = 0; i < count; i++) {
+				Move move = generator.toMove(moves[i]);
+				Assert.assertTrue(fen + " " + move.getLan(), game.move(move));
+				game.rollback();
+			}
+		}
+	}
+
+	@Test
+	public void testMakeUnmakeRestoresPosition() {
+		Game game = createFromFen(FENS[1], Variant.classic);
+		ClassicMoveGenerator generator = new ClassicMoveGenerator(game);
+		long before = generator.perft(2);
+		generator.perft(3);
+		Assert.assertEquals(before, generator.perft(2));
+	}
+
+	@Test
+	public void testPerftServiceMatchesGenerator() {
+		PerftService service = new PerftService(2, true,
+				PerftService.DEFAULT_CACHE_SIZE_POWER_OF_TWO);
+		try {
+			for (int i = 0; i < FENS.length; i++) {
+				Game game = createFromFen(FENS[i], Variant.classic);
+				Assert.assertEquals(FENS[i], COUNTS[i][2], service.perft(game,
+						3).getNodes());
+			}
+
+			Assert.assertEquals(8902L, service.perft(
+					createStartingPosition(Variant.crazyhouse), 3).getNodes());
+			Assert.assertEquals(8902L, service.perft(
+					createStartingPosition(Variant.atomic), 3).getNodes());
+		} finally {
+			service.dispose();
+		}
+	}
+
+	@Test
+	public void testPerftServiceVariants() {
+		PerftService service = new PerftService(2, true,
+				PerftService.DEFAULT_CACHE_SIZE_POWER_OF_TWO);
+		try {
+			for (Object[] position : VARIANT_POSITIONS) {
+				Game game = createFromFen((String) position[1],
+						(Variant) position[0]);
+				for (char piece : ((String) position[2]).toCharArray()) {
+					int color = Character.isUpperCase(piece) ? GameConstants.WHITE
+							: GameConstants.BLACK;
+					int pieceInt = GameConstants.PIECE_TO_SAN.indexOf(Character
+							.toUpperCase(piece));
+					game.setDropCount(color, pieceInt, game.getDropCount(color,
+							pieceInt) + 1);
+				}
+
+				long[] counts = (long[]) position[3];
+				for (int depth = 1; depth <= counts.length; depth++) {
+					Assert.assertEquals(position[1] + " depth " + depth,
+							counts[depth - 1], service.perft(game, depth)
+									.getNodes());
+				}
+			}
+		} finally {
+			service.dispose();
+		}
+	}
+}
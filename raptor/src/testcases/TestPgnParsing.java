@@ -14,7 +14,11 @@
 package testcases;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -23,10 +27,17 @@ import junit.framework.Assert;
 import org.junit.Test;
 
 import raptor.chess.Game;
+import raptor.chess.GameFactory;
 import raptor.chess.MoveList;
 import raptor.chess.Result;
+import raptor.chess.Variant;
+import raptor.chess.pgn.GameArchive;
+import raptor.chess.pgn.LenientPgnParserListener;
 import raptor.chess.pgn.ListMaintainingPgnParserListener;
 import raptor.chess.pgn.Nag;
+import raptor.chess.pgn.ParallelPgnParser;
+import raptor.chess.pgn.PgnFileIndex;
+import raptor.chess.pgn.PgnHeader;
 import raptor.chess.pgn.PgnParser;
 import raptor.chess.pgn.PgnParserError;
 import raptor.chess.pgn.PgnParserListener;
@@ -34,6 +45,11 @@ import raptor.chess.pgn.SimplePgnParser;
 import raptor.chess.pgn.StreamingPgnParser;
 import raptor.chess.pgn.chesspresso.ChesspressoPgnListener;
 import raptor.chess.pgn.chesspresso.ChesspressoPgnParser;
+import raptor.chess.util.OpeningExplorerTable;
+import raptor.chess.util.OpeningExplorerTable.Continuation;
+import raptor.service.OpeningExplorerService;
+import raptor.util.FileUtils;
+import chesspresso.pgn.PGNSyntaxError;
 
 public class TestPgnParsing {
 
@@ -303,6 +319,341 @@ public class TestPgnParsing {
 		System.err.println(listener.getErrors());
 	}
 
+	@Test
+	public void testGameArchive() throws Exception {
+		for (String fileName : new String[] { "crazyhouseGames.pgn",
+				"wildFrGames.pgn" }) {
+			StreamingPgnParser parser = new StreamingPgnParser(new FileReader(
+					"projectFiles/test/" + fileName), Integer.MAX_VALUE);
+			ListMaintainingPgnParserListener listener = new ListMaintainingPgnParserListener();
+			parser.addPgnParserListener(listener);
+			parser.parse();
+			List<Game> games = listener.getGames();
+
+			File file = File.createTempFile("testGameArchive",
+					GameArchive.FILE_EXTENSION);
+			file.delete();
+			GameArchive archive = new GameArchive(file);
+			try {
+				archive.open();
+				archive.append(games.subList(0, 10));
+				archive.append(games.subList(10, games.size()));
+				archive.close();
+
+				archive = new GameArchive(file);
+				archive.open();
+				Assert.assertEquals(games.size(), archive.getGameCount());
+				for (int i = games.size() - 1; i >= 0; i--) {
+					Game game = archive.getGame(i);
+					Assert.assertEquals(games.get(i).toFen(), game.toFen());
+					Assert.assertEquals(games.get(i).getHeader(PgnHeader.White),
+							game.getHeader(PgnHeader.White));
+				}
+
+				// An append cut short must not lose the games already saved.
+				long length = file.length();
+				archive.append(games.subList(0, 3));
+				archive.close();
+				RandomAccessFile raf = new RandomAccessFile(file, "rw");
+				raf.setLength(length + (raf.length() - length) / 2);
+				raf.close();
+				archive = new GameArchive(file);
+				archive.open();
+				Assert.assertEquals(games.size(), archive.getGameCount());
+				Assert.assertEquals(length, file.length());
+
+				for (int i = 0; i < 20; i++) {
+					archive.append(games.subList(i, i + 1));
+				}
+				long appendedLength = file.length();
+				archive.compact();
+				Assert.assertTrue(file.length() < appendedLength);
+				Assert.assertEquals(games.size() + 20, archive.getGameCount());
+				Assert.assertEquals(games.get(19).toFen(), archive.getGame(
+						games.size() + 19).toFen());
+
+				// A compaction interrupted after the archive was removed.
+				archive.close();
+				Assert.assertTrue(file.renameTo(new File(file.getPath()
+						+ ".tmp")));
+				archive = new GameArchive(file);
+				archive.open();
+				Assert.assertEquals(games.size() + 20, archive.getGameCount());
+				Assert.assertEquals(games.get(0).toFen(), archive.getGame(0)
+						.toFen());
+			} finally {
+				archive.close();
+				file.delete();
+			}
+		}
+	}
+
+	@Test
+	public void testGameArchivePgnConversion() throws Exception {
+		File pgnFile = new File("projectFiles/test/crazyhouseGames.pgn");
+		StreamingPgnParser parser = new StreamingPgnParser(new FileReader(
+				pgnFile), Integer.MAX_VALUE);
+		ListMaintainingPgnParserListener listener = new ListMaintainingPgnParserListener();
+		parser.addPgnParserListener(listener);
+		parser.parse();
+		List<Game> games = listener.getGames();
+
+		File archiveFile = File.createTempFile("testGameArchivePgn",
+				GameArchive.FILE_EXTENSION);
+		File convertedFile = File.createTempFile("testGameArchivePgn", ".pgn");
+		try {
+			Assert.assertEquals(games.size(), GameArchive.convertFromPgn(
+					pgnFile, archiveFile));
+			GameArchive.convertToPgn(archiveFile, convertedFile);
+
+			parser = new StreamingPgnParser(new FileReader(convertedFile),
+					Integer.MAX_VALUE);
+			listener = new ListMaintainingPgnParserListener();
+			parser.addPgnParserListener(listener);
+			parser.parse();
+			List<Game> convertedGames = listener.getGames();
+
+			Assert.assertEquals(games.size(), convertedGames.size());
+			for (int i = 0; i < games.size(); i++) {
+				Game game = games.get(i);
+				Game converted = convertedGames.get(i);
+				Assert.assertEquals(game.getVariant(), converted.getVariant());
+				Assert.assertEquals(game.toFen(), converted.toFen());
+				Assert.assertEquals(game.getMoveList().getSize(), converted
+						.getMoveList().getSize());
+				for (PgnHeader header : new PgnHeader[] { PgnHeader.White,
+						PgnHeader.Black, PgnHeader.Event, PgnHeader.Result }) {
+					Assert.assertEquals(game.getHeader(header), converted
+							.getHeader(header));
+				}
+			}
+		} finally {
+			archiveFile.delete();
+			convertedFile.delete();
+		}
+	}
+
+	@Test
+	public void testOpeningExplorer() throws Exception {
+		File directory = File.createTempFile("testOpeningExplorer", "");
+		directory.delete();
+		directory.mkdir();
+		try {
+			OpeningExplorerService explorer = new OpeningExplorerService(
+					directory);
+			Assert.assertFalse(OpeningExplorerTable.exists(directory));
+			int games = explorer.addPgnFile(new File(
+					"projectFiles/test/Alekhine4Pawns.pgn"));
+			explorer.dispose();
+
+			// Lookups open the table on a background thread, so it is opened
+			// here first.
+			explorer = new OpeningExplorerService(directory);
+			explorer.open();
+			Assert.assertTrue(OpeningExplorerTable.exists(directory));
+			Assert.assertEquals(games, explorer.getGameCount());
+
+			Game game = GameFactory.createStartingPosition(Variant.classic);
+			List<Continuation> startContinuations = explorer
+					.getContinuations(game);
+			Assert.assertEquals("e4", explorer.getSan(game,
+					startContinuations.get(0)));
+			int total = 0;
+			for (Continuation continuation : startContinuations) {
+				total += continuation.getGames();
+			}
+			Assert.assertEquals(games, total);
+
+			game.makeSanMove("e4");
+			List<Continuation> continuations = explorer.getContinuations(game);
+			Assert.assertEquals("Nf6", explorer.getSan(game, continuations
+					.get(0)));
+			explorer.dispose();
+
+			// Fill the table past its load factor so it is resized, then check
+			// the explorer still answers the same from the resized table.
+			OpeningExplorerTable table = new OpeningExplorerTable(directory);
+			table.open();
+			int capacity = table.getCapacity();
+			int size = table.getSize();
+			for (long key = 1; key <= capacity; key++) {
+				table.add(key * 0x9E3779B97F4A7C15L, 0, Result.DRAW, 0);
+			}
+			Assert.assertTrue(table.getCapacity() > capacity);
+			Assert.assertEquals(size + capacity, table.getSize());
+			table.close();
+
+			// A table which was not closed has a stale size in its header.
+			File tableFile = new File(directory, "positions-"
+					+ table.getCapacity() + ".tbl");
+			RandomAccessFile raf = new RandomAccessFile(tableFile, "rw");
+			raf.seek(12);
+			raf.writeInt(0);
+			raf.close();
+			table.open();
+			Assert.assertEquals(size + capacity, table.getSize());
+			table.close();
+
+			explorer = new OpeningExplorerService(directory);
+			explorer.open();
+			continuations = explorer.getContinuations(GameFactory
+					.createStartingPosition(Variant.classic));
+			Assert.assertEquals(startContinuations.size(), continuations
+					.size());
+			Assert.assertEquals(startContinuations.get(0).getGames(),
+					continuations.get(0).getGames());
+			explorer.dispose();
+		} finally {
+			for (File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+
+	@Test
+	public void testPgnFileIndex() throws Exception {
+		File pgnFile = File.createTempFile("testPgnFileIndex", ".pgn");
+		File indexFile = new File(pgnFile.getPath() + ".idx");
+		try {
+			String pgn = FileUtils
+					.fileAsString("projectFiles/test/Alekhine4Pawns.pgn");
+			writeFile(pgnFile, pgn);
+			StreamingPgnParser parser = new StreamingPgnParser(new FileReader(
+					pgnFile), Integer.MAX_VALUE);
+			ListMaintainingPgnParserListener listener = new ListMaintainingPgnParserListener();
+			parser.addPgnParserListener(listener);
+			parser.parse();
+			List<Game> games = listener.getGames();
+
+			PgnFileIndex index = new PgnFileIndex(pgnFile, indexFile);
+			Assert.assertTrue(index.open(null));
+			assertIndexMatches(games, index);
+			index.close();
+
+			// Reopening an up to date index reads it instead of rebuilding
+			// it, which would change its modification time.
+			indexFile.setLastModified(0);
+			index = new PgnFileIndex(pgnFile, indexFile);
+			Assert.assertTrue(index.open(null));
+			Assert.assertEquals(0, indexFile.lastModified());
+			assertIndexMatches(games, index);
+			index.close();
+
+			// Appending a game changes the length of the pgn file.
+			writeFile(pgnFile, pgn + "\n\n" + games.get(0).toPgn());
+			games.add(games.get(0));
+			index = new PgnFileIndex(pgnFile, indexFile);
+			Assert.assertTrue(index.open(null));
+			Assert.assertTrue(indexFile.lastModified() != 0);
+			assertIndexMatches(games, index);
+			index.close();
+
+			// So does touching it.
+			indexFile.setLastModified(0);
+			pgnFile.setLastModified(pgnFile.lastModified() - 10000);
+			index = new PgnFileIndex(pgnFile, indexFile);
+			Assert.assertTrue(index.open(null));
+			Assert.assertTrue(indexFile.lastModified() != 0);
+			assertIndexMatches(games, index);
+			index.close();
+		} finally {
+			pgnFile.delete();
+			indexFile.delete();
+		}
+	}
+
+	@Test
+	public void testParallelParsing() throws Exception {
+		StreamingPgnParser parser = new StreamingPgnParser(new FileReader(
+				"projectFiles/test/Alekhine4Pawns.pgn"), Integer.MAX_VALUE);
+		ListMaintainingPgnParserListener listener = new ListMaintainingPgnParserListener();
+		parser.addPgnParserListener(listener);
+		parser.parse();
+
+		ListMaintainingPgnParserListener parallelListener = new ListMaintainingPgnParserListener();
+		new ParallelPgnParser(new File("projectFiles/test/Alekhine4Pawns.pgn"),
+				4).parse(parallelListener);
+
+		Assert.assertEquals(listener.getGames().size(), parallelListener
+				.getGames().size());
+		for (int i = 0; i < listener.getGames().size(); i++) {
+			Assert.assertEquals(listener.getGames().get(i).toFen(),
+					parallelListener.getGames().get(i).toFen());
+		}
+
+		// Errors in later chunks must keep their line numbers in the file.
+		String alekhine = FileUtils
+				.fileAsString("projectFiles/test/Alekhine4Pawns.pgn");
+		String contents = alekhine + "\n\n"
+				+ FileUtils.fileAsString("projectFiles/test/malformed.pgn")
+				+ "\n\n" + alekhine + "\n\n"
+				+ FileUtils.fileAsString("projectFiles/test/error.pgn")
+				+ "\n\n";
+		contents += "[Event \"Bad\"]\n[Result \"*\"]\n\n1. e4 e5 2. Zz9 *\n";
+		File file = File.createTempFile("raptorParallel", ".pgn");
+		try {
+			writeFile(file, contents);
+
+			List<String> lines = new ArrayList<String>();
+			parser = new StreamingPgnParser(new FileReader(file),
+					Integer.MAX_VALUE);
+			parser.addPgnParserListener(createLineListener(lines));
+			parser.parse();
+
+			List<String> parallelLines = new ArrayList<String>();
+			new ParallelPgnParser(file, 4)
+					.parse(createLineListener(parallelLines));
+			Assert.assertTrue(lines.size() > 2 * listener.getGames().size());
+			Assert.assertEquals(lines, parallelLines);
+
+			List<String> chesspressoLines = new ArrayList<String>();
+			ChesspressoPgnParser chesspressoParser = new ChesspressoPgnParser(
+					new FileReader(file));
+			chesspressoParser
+					.addPgnParserListener(createChesspressoLineListener(chesspressoLines));
+			chesspressoParser.parse();
+
+			List<String> parallelChesspressoLines = new ArrayList<String>();
+			new ParallelPgnParser(file, 4)
+					.parse(createChesspressoLineListener(parallelChesspressoLines));
+			Assert.assertTrue(chesspressoLines.toString().contains("error"));
+			Assert.assertEquals(chesspressoLines, parallelChesspressoLines);
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testParallelParsingEventInComment() throws Exception {
+		// Every game has a comment with a line starting with [Event, which
+		// must not be taken as the start of a chunk.
+		StringBuilder contents = new StringBuilder();
+		for (int i = 0; i < 20000; i++) {
+			contents.append("[Event \"Game ").append(i).append(
+					"\"]\n[Result \"*\"]\n\n1. e4 {A comment\n"
+							+ "[Event \"Not a game\"]\nstill a comment} e5 *\n\n");
+		}
+		File file = File.createTempFile("raptorParallel", ".pgn");
+		try {
+			writeFile(file, contents.toString());
+
+			List<String> lines = new ArrayList<String>();
+			StreamingPgnParser parser = new StreamingPgnParser(new FileReader(
+					file), Integer.MAX_VALUE);
+			parser.addPgnParserListener(createLineListener(lines));
+			parser.parse();
+
+			List<String> parallelLines = new ArrayList<String>();
+			new ParallelPgnParser(file, 4)
+					.parse(createLineListener(parallelLines));
+			Assert.assertEquals(20000, lines.size());
+			Assert.assertEquals(lines, parallelLines);
+		} finally {
+			file.delete();
+		}
+	}
+
 	@Test
 	public void testSuicideFile() throws Exception {
 		StreamingPgnParser parser = new StreamingPgnParser(new FileReader(
@@ -425,4 +776,70 @@ public class TestPgnParsing {
 		return builder.toString();
 	}
 
+
+	private void assertIndexMatches(List<Game> games, PgnFileIndex index)
+			throws Exception {
+		Assert.assertEquals(games.size(), index.getGameCount());
+		for (int i = 0; i < games.size(); i += 97) {
+			// The parser updates the ECO and Opening headers from the moves,
+			// the index keeps the tags as written, so only these are compared.
+			String[] headers = index.getHeaders(i);
+			for (int j = 0; j < PgnFileIndex.INDEXED_HEADERS.length; j++) {
+				PgnHeader header = PgnFileIndex.INDEXED_HEADERS[j];
+				if (header == PgnHeader.White || header == PgnHeader.Black
+						|| header == PgnHeader.Event
+						|| header == PgnHeader.Result) {
+					Assert.assertEquals(games.get(i).getHeader(header),
+							headers[j]);
+				}
+			}
+			Assert.assertTrue(index.getGamePgn(i).contains(
+					"[White \"" + games.get(i).getHeader(PgnHeader.White)));
+			Assert.assertEquals(games.get(i).toFen(), index.getGame(i)
+					.toFen());
+		}
+	}
+
+	private ChesspressoPgnListener createChesspressoLineListener(
+			final List<String> lines) {
+		return new ChesspressoPgnListener() {
+			@Override
+			public void error(PGNSyntaxError error) {
+				lines.add("error " + error.getLineNumber() + " "
+						+ error.getMessage());
+			}
+
+			@Override
+			public void gameParsed(chesspresso.game.Game game, int lineNumber) {
+				if (game != null) {
+					lines.add("game " + lineNumber);
+				}
+			}
+		};
+	}
+
+	private LenientPgnParserListener createLineListener(
+			final List<String> lines) {
+		return new LenientPgnParserListener() {
+			@Override
+			public void errorEncountered(PgnParserError error) {
+				lines.add("error " + error.getLineNumber() + " "
+						+ error.getType() + " " + error.getAction());
+			}
+
+			@Override
+			public void gameParsed(Game game, int lineNumber) {
+				lines.add("game " + lineNumber);
+			}
+		};
+	}
+
+	private void writeFile(File file, String contents) throws IOException {
+		FileWriter writer = new FileWriter(file);
+		try {
+			writer.write(contents);
+		} finally {
+			writer.close();
+		}
+	}
 }
@@ -13,15 +13,59 @@
  */
 package testcases;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
 import org.junit.Test;
 
+import raptor.chess.util.GameUtils;
+import raptor.chess.util.MagicBitboards;
+import raptor.util.MultiPatternMatcher;
 import raptor.util.RaptorStringTokenizer;
 import raptor.util.RaptorStringUtils;
 
 public class TestUtils {
 
+	@Test
+	public void testMagicBitboards() {
+		Random random = new Random(0);
+		for (int i = 0; i < 10000; i++) {
+			long occupied = random.nextLong() & random.nextLong();
+			int square = random.nextInt(64);
+			assertEquals("Bishop " + square + " " + occupied, GameUtils
+					.diagonalMoveFill(square, ~occupied), MagicBitboards
+					.bishopAttacks(square, occupied));
+			assertEquals("Rook " + square + " " + occupied, GameUtils
+					.orthogonalMoveFill(square, ~occupied), MagicBitboards
+					.rookAttacks(square, occupied));
+		}
+	}
+
+	@Test
+	public void testMultiPatternMatcher() {
+		assertEquals("hello", MultiPatternMatcher
+				.getRequiredLiteral("^.*Hello\\s+(there)?"));
+		assertEquals(null, MultiPatternMatcher.getRequiredLiteral("a|b"));
+		assertEquals("x", MultiPatternMatcher.getRequiredLiteral("[)(]x"));
+
+		// The ) in the class must not end the optional group early.
+		String regex = "(a[)]b){0,1}x*";
+		assertEquals(null, MultiPatternMatcher.getRequiredLiteral(regex));
+		List<Pattern> patterns = new ArrayList<Pattern>();
+		patterns.add(Pattern.compile(regex, Pattern.CASE_INSENSITIVE));
+		patterns.add(Pattern
+				.compile(".*needle.*", Pattern.CASE_INSENSITIVE));
+		MultiPatternMatcher matcher = new MultiPatternMatcher(patterns);
+		assertTrue(matcher.getMatches("").get(0));
+		assertTrue(matcher.getMatches("a needle").get(1));
+		assertTrue(!matcher.getMatches("a haystack").get(1));
+	}
+
 	@Test
 	public void testStringReplace() {
 		String string = "This\nis a test of the emergency broadcast\nsystem";